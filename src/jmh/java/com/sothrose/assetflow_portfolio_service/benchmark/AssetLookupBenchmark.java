@@ -0,0 +1,59 @@
+package com.sothrose.assetflow_portfolio_service.benchmark;
+
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Case-insensitive lookup of a portfolio asset, used for every deposit, withdrawal and both legs
+ * of a trade: the linear scan over the asset set against the name index of {@link Portfolio}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class AssetLookupBenchmark {
+
+  @Param({"10", "1000", "50000"})
+  private int assetCount;
+
+  private Set<Asset> assets;
+  private Portfolio portfolio;
+  private String presentAssetName;
+  private String missingAssetName;
+
+  @Setup
+  public void setUp() {
+    portfolio = BenchmarkPortfolios.portfolio(assetCount);
+    assets = portfolio.getAssets();
+    portfolio.findAsset(BenchmarkPortfolios.assetName(0));
+    presentAssetName = BenchmarkPortfolios.assetName(assetCount / 2).toLowerCase();
+    missingAssetName = "missing";
+  }
+
+  @Benchmark
+  public Optional<Asset> findPresentAsset() {
+    return findAsset(presentAssetName);
+  }
+
+  @Benchmark
+  public Optional<Asset> findMissingAsset() {
+    return findAsset(missingAssetName);
+  }
+
+  @Benchmark
+  public Optional<Asset> findPresentAssetIndexed() {
+    return portfolio.findAsset(presentAssetName);
+  }
+
+  @Benchmark
+  public Optional<Asset> findMissingAssetIndexed() {
+    return portfolio.findAsset(missingAssetName);
+  }
+
+  private Optional<Asset> findAsset(String assetName) {
+    return assets.stream().filter(asset -> asset.getName().equalsIgnoreCase(assetName)).findFirst();
+  }
+}
@@ -0,0 +1,65 @@
+package com.sothrose.assetflow_portfolio_service.benchmark;
+
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.CRYPTO;
+
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Arithmetic of {@link Asset} quantities at the scale of crypto amounts: the fixed-point units the
+ * asset keeps, converted from a {@link BigDecimal} once or not at all, against plain {@link
+ * BigDecimal} arithmetic. Run with the {@code gc} profiler to compare allocations per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class AssetQuantityBenchmark {
+  private static final BigDecimal DELTA = new BigDecimal("0.00012345");
+
+  private Asset asset;
+  private long deltaUnits;
+  private BigDecimal decimalQuantity;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    asset = new Asset("BTC", BenchmarkPortfolios.INITIAL_QUANTITY, CRYPTO);
+    deltaUnits = asset.unitsOf(DELTA);
+    decimalQuantity = BenchmarkPortfolios.INITIAL_QUANTITY;
+  }
+
+  @Benchmark
+  public BigDecimal addDecimal() {
+    decimalQuantity = decimalQuantity.add(DELTA);
+    return decimalQuantity;
+  }
+
+  @Benchmark
+  public BigDecimal removeDecimalIfEnough() {
+    if (decimalQuantity.compareTo(DELTA) >= 0) {
+      decimalQuantity = decimalQuantity.subtract(DELTA);
+    }
+    return decimalQuantity;
+  }
+
+  @Benchmark
+  public long addQuantity() {
+    asset.addQuantity(DELTA);
+    return asset.quantityUnits();
+  }
+
+  @Benchmark
+  public long addUnits() {
+    asset.addUnits(deltaUnits);
+    return asset.quantityUnits();
+  }
+
+  @Benchmark
+  public long removeUnitsIfEnough() {
+    if (asset.hasAtLeast(deltaUnits)) {
+      asset.removeUnits(deltaUnits);
+    }
+    return asset.quantityUnits();
+  }
+}
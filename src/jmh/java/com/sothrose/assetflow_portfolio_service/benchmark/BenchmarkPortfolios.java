@@ -0,0 +1,93 @@
+package com.sothrose.assetflow_portfolio_service.benchmark;
+
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.CRYPTO;
+
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import com.sothrose.assetflow_portfolio_service.model.TradeDto;
+import com.sothrose.assetflow_portfolio_service.repository.PortfolioRepository;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+/** Portfolio fixtures and an in-memory repository stub shared by the benchmarks. */
+final class BenchmarkPortfolios {
+  static final Long USER_ID = 1L;
+  static final String PORTFOLIO_ID = "portfolio-1";
+  static final String EXCHANGE = "Binance";
+  static final BigDecimal INITIAL_QUANTITY = new BigDecimal("10000000000.00000000");
+
+  private BenchmarkPortfolios() {}
+
+  static String assetName(int index) {
+    return "ASSET-" + index;
+  }
+
+  static Set<Asset> assets(int assetCount) {
+    Set<Asset> assets = new HashSet<>();
+    for (int i = 0; i < assetCount; i++) {
+      assets.add(new Asset(assetName(i), INITIAL_QUANTITY, CRYPTO));
+    }
+    return assets;
+  }
+
+  static Portfolio portfolio(int assetCount) {
+    return Portfolio.builder()
+        .id(PORTFOLIO_ID)
+        .userId(USER_ID)
+        .portfolioType(CRYPTO)
+        .exchange(EXCHANGE)
+        .assets(assets(assetCount))
+        .version(0L)
+        .build();
+  }
+
+  /** Trade paying with the asset in the middle of the portfolio and buying the last one. */
+  static TradeDto trade(int assetCount) {
+    return TradeDto.builder()
+        .userId(USER_ID)
+        .assetToPay(assetName(assetCount / 2).toLowerCase())
+        .amountToPay(new BigDecimal("1.00000000"))
+        .assetToBuy(assetName(assetCount - 1))
+        .amountBought(new BigDecimal("0.00010000"))
+        .assetType(CRYPTO)
+        .exchangeName(EXCHANGE)
+        .build();
+  }
+
+  /**
+   * Repository holding a single portfolio in memory. Only the lookups and the save used by the
+   * version-checked write path are supported. Saving drops the outbox right away, as if the relay
+   * had published it, so the portfolio does not grow across invocations.
+   */
+  static PortfolioRepository inMemoryRepository(Portfolio portfolio) {
+    return inMemoryRepository(portfolio, 0);
+  }
+
+  /** Repository as above, taking the given time to answer every lookup, like a remote database. */
+  static PortfolioRepository inMemoryRepository(Portfolio portfolio, long readDelayInMs) {
+    return (PortfolioRepository)
+        Proxy.newProxyInstance(
+            PortfolioRepository.class.getClassLoader(),
+            new Class<?>[] {PortfolioRepository.class},
+            (proxy, method, args) ->
+                switch (method.getName()) {
+                  case "findByUserIdAndPortfolioTypeAndExchange", "findByIdAndUserId" -> {
+                    if (readDelayInMs > 0) {
+                      Thread.sleep(readDelayInMs);
+                    }
+                    yield Optional.of(portfolio);
+                  }
+                  case "save" -> {
+                    ((Portfolio) args[0]).setPendingEvents(null);
+                    yield args[0];
+                  }
+                  case "hashCode" -> System.identityHashCode(proxy);
+                  case "equals" -> proxy == args[0];
+                  case "toString" -> "InMemoryPortfolioRepository";
+                  default -> throw new UnsupportedOperationException(method.getName());
+                });
+  }
+}
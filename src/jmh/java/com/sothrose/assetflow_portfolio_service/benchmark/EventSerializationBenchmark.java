@@ -0,0 +1,104 @@
+package com.sothrose.assetflow_portfolio_service.benchmark;
+
+import static com.sothrose.assetflow_portfolio_service.model.ActionType.TRADE;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sothrose.assetflow_portfolio_service.codec.PortfolioUpdatedEventCodec;
+import com.sothrose.assetflow_portfolio_service.codec.UserStatusCodec;
+import com.sothrose.assetflow_portfolio_service.configuration.JacksonConfig;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioUpdatedEvent;
+import com.sothrose.assetflow_portfolio_service.model.UserDto;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Jackson round trips of the published portfolio event and of the user cached in redis, with the
+ * object mapper configured by {@link JacksonConfig}, against their compact binary encodings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class EventSerializationBenchmark {
+
+  private ObjectMapper objectMapper;
+  private PortfolioUpdatedEvent portfolioUpdatedEvent;
+  private String portfolioUpdatedEventJson;
+  private PortfolioUpdatedEventCodec portfolioUpdatedEventCodec;
+  private byte[] portfolioUpdatedEventBinary;
+  private UserDto userDto;
+  private String userDtoJson;
+  private String userStatusBinary;
+
+  @Setup
+  public void setUp() throws JsonProcessingException {
+    objectMapper = new JacksonConfig().objectMapper();
+    portfolioUpdatedEvent =
+        new PortfolioUpdatedEvent(
+            BenchmarkPortfolios.PORTFOLIO_ID,
+            BenchmarkPortfolios.USER_ID,
+            "BTC",
+            new BigDecimal("0.00012345"),
+            "USDT",
+            new BigDecimal("12.50000000"),
+            LocalDateTime.of(2025, 1, 1, 12, 0),
+            TRADE);
+    portfolioUpdatedEventJson = objectMapper.writeValueAsString(portfolioUpdatedEvent);
+    portfolioUpdatedEventCodec = new PortfolioUpdatedEventCodec();
+    portfolioUpdatedEventBinary = portfolioUpdatedEventCodec.encode(portfolioUpdatedEvent);
+    userDto =
+        new UserDto(
+            BenchmarkPortfolios.USER_ID,
+            "johnDo",
+            "john",
+            "do",
+            "john@do.pl",
+            LocalDate.of(2000, 1, 1),
+            true);
+    userDtoJson = objectMapper.writeValueAsString(userDto);
+    userStatusBinary = UserStatusCodec.encode(userDto);
+  }
+
+  @Benchmark
+  public String serializePortfolioUpdatedEvent() throws JsonProcessingException {
+    return objectMapper.writeValueAsString(portfolioUpdatedEvent);
+  }
+
+  @Benchmark
+  public PortfolioUpdatedEvent deserializePortfolioUpdatedEvent() throws JsonProcessingException {
+    return objectMapper.readValue(portfolioUpdatedEventJson, PortfolioUpdatedEvent.class);
+  }
+
+  @Benchmark
+  public String serializeUserDto() throws JsonProcessingException {
+    return objectMapper.writeValueAsString(userDto);
+  }
+
+  @Benchmark
+  public UserDto deserializeUserDto() throws JsonProcessingException {
+    return objectMapper.readValue(userDtoJson, UserDto.class);
+  }
+
+  @Benchmark
+  public byte[] encodePortfolioUpdatedEvent() {
+    return portfolioUpdatedEventCodec.encode(portfolioUpdatedEvent);
+  }
+
+  @Benchmark
+  public PortfolioUpdatedEvent decodePortfolioUpdatedEvent() {
+    return portfolioUpdatedEventCodec.decode(portfolioUpdatedEventBinary);
+  }
+
+  @Benchmark
+  public String encodeUserStatus() {
+    return UserStatusCodec.encode(userDto);
+  }
+
+  @Benchmark
+  public UserDto decodeUserStatus() {
+    return UserStatusCodec.decode(userStatusBinary);
+  }
+}
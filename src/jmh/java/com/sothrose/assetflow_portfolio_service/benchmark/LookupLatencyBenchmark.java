@@ -0,0 +1,176 @@
+package com.sothrose.assetflow_portfolio_service.benchmark;
+
+import static com.sothrose.assetflow_portfolio_service.benchmark.BenchmarkPortfolios.USER_ID;
+import static com.sothrose.assetflow_portfolio_service.model.PayloadFormat.BINARY;
+import static com.sothrose.assetflow_portfolio_service.model.WriteMode.OPTIMISTIC;
+
+import com.sothrose.assetflow_portfolio_service.client.UserServiceClient;
+import com.sothrose.assetflow_portfolio_service.model.ProcessingStatus;
+import com.sothrose.assetflow_portfolio_service.model.TradeDto;
+import com.sothrose.assetflow_portfolio_service.model.UserDto;
+import com.sothrose.assetflow_portfolio_service.service.ConcurrentLookupExecutor;
+import com.sothrose.assetflow_portfolio_service.service.DependencyCallTimer;
+import com.sothrose.assetflow_portfolio_service.service.OptimisticLockRetryExecutor;
+import com.sothrose.assetflow_portfolio_service.service.PortfolioMetrics;
+import com.sothrose.assetflow_portfolio_service.service.PortfolioReadCache;
+import com.sothrose.assetflow_portfolio_service.service.PortfolioRules;
+import com.sothrose.assetflow_portfolio_service.service.PortfolioService;
+import com.sothrose.assetflow_portfolio_service.service.ProcessedTradeFilter;
+import com.sothrose.assetflow_portfolio_service.service.RedisService;
+import com.sothrose.assetflow_portfolio_service.service.UserStatusLookup;
+import com.sothrose.assetflow_portfolio_service.service.UserStatusNearCache;
+import com.sothrose.assetflow_portfolio_service.validator.TradeDtoValidator;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Applies a trade through {@link PortfolioService#processTrade} in the optimistic write mode for a
+ * user missing from every user cache, so each trade waits for both the user service and the
+ * portfolio read. Both are replaced by stubs sleeping for the given delays. The sequential variant
+ * runs the lookups one after the other, as before, the concurrent one through the {@link
+ * ConcurrentLookupExecutor}. Sampled times are reported as percentiles, of which p50 and p99 are
+ * the ones to compare; expect the sequential p50 near the sum of the delays and the concurrent one
+ * near the larger delay.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class LookupLatencyBenchmark {
+
+  @Param({"5", "20"})
+  private long userServiceDelayInMs;
+
+  @Param({"5", "20"})
+  private long mongoDelayInMs;
+
+  @Param({"sequential", "concurrent"})
+  private String lookups;
+
+  private ConcurrentLookupExecutor concurrentLookupExecutor;
+  private PortfolioService portfolioService;
+  private TradeDto tradeDto;
+
+  @Setup
+  public void setUp() {
+    var meterRegistry = new SimpleMeterRegistry();
+    concurrentLookupExecutor =
+        "concurrent".equals(lookups)
+            ? new ConcurrentLookupExecutor(4)
+            : new SequentialLookupExecutor();
+
+    var portfolioRepository =
+        BenchmarkPortfolios.inMemoryRepository(BenchmarkPortfolios.portfolio(10), mongoDelayInMs);
+
+    var tradeDtoValidator = new TradeDtoValidator();
+    var userStatusNearCache = new UserStatusNearCache(1, 0, meterRegistry);
+    var processedTradeFilter = new ProcessedTradeFilter(1, 1, meterRegistry);
+    var portfolioRules =
+        new PortfolioRules(
+            tradeDtoValidator, null, null, userStatusNearCache, processedTradeFilter);
+    setField(portfolioRules, "userStatusCacheFormat", BINARY);
+
+    var portfolioMetrics = new PortfolioMetrics(meterRegistry);
+    portfolioService =
+        new PortfolioService(
+            portfolioRepository,
+            new OptimisticLockRetryExecutor(1, 0, 0, meterRegistry),
+            userStatusNearCache,
+            processedTradeFilter,
+            portfolioMetrics,
+            new PortfolioReadCache(false, 1, 1, null, meterRegistry),
+            concurrentLookupExecutor,
+            new DependencyCallTimer(),
+            null,
+            portfolioRules,
+            new UserStatusLookup(
+                new DelayedUserServiceClient(userServiceDelayInMs),
+                new UncachedRedisService(),
+                userStatusNearCache,
+                portfolioMetrics,
+                portfolioRules),
+            null);
+    setField(portfolioService, "writeMode", OPTIMISTIC);
+    tradeDto = BenchmarkPortfolios.trade(10);
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    concurrentLookupExecutor.destroy();
+  }
+
+  @Benchmark
+  public ProcessingStatus processTrade() {
+    return portfolioService.processTrade(tradeDto);
+  }
+
+  private static void setField(Object target, String name, Object value) {
+    var field = ReflectionUtils.findField(target.getClass(), name);
+    ReflectionUtils.makeAccessible(field);
+    ReflectionUtils.setField(field, target, value);
+  }
+
+  private static void sleep(long delayInMs) {
+    try {
+      Thread.sleep(delayInMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Runs the check and then the read on the calling thread, as the lookups ran before. */
+  private static class SequentialLookupExecutor extends ConcurrentLookupExecutor {
+    SequentialLookupExecutor() {
+      super(1);
+    }
+
+    @Override
+    public <T> T readWhileChecking(Runnable check, Supplier<T> read) {
+      check.run();
+      return read.get();
+    }
+  }
+
+  /** User service answering with an active user after the given delay. */
+  private static class DelayedUserServiceClient extends UserServiceClient {
+    private final long delayInMs;
+
+    DelayedUserServiceClient(long delayInMs) {
+      super(null);
+      this.delayInMs = delayInMs;
+    }
+
+    @Override
+    public UserDto fetchUserData(Long userId) {
+      sleep(delayInMs);
+      return new UserDto(
+          USER_ID, "johnDo", "john", "do", "john@do.pl", LocalDate.of(2000, 1, 1), true);
+    }
+  }
+
+  /** Redis missing every user and dropping every write, so every trade calls the user service. */
+  private static class UncachedRedisService extends RedisService {
+    UncachedRedisService() {
+      super(
+          null,
+          CircuitBreakerRegistry.ofDefaults(),
+          RetryRegistry.ofDefaults(),
+          BulkheadRegistry.ofDefaults(),
+          new DependencyCallTimer());
+    }
+
+    @Override
+    public String getValue(String key) {
+      return null;
+    }
+
+    @Override
+    public void setValue(String key, String value) {}
+  }
+}
@@ -0,0 +1,81 @@
+package com.sothrose.assetflow_portfolio_service.benchmark;
+
+import static com.sothrose.assetflow_portfolio_service.benchmark.BenchmarkPortfolios.USER_ID;
+import static com.sothrose.assetflow_portfolio_service.model.WriteMode.OPTIMISTIC;
+
+import com.sothrose.assetflow_portfolio_service.model.ProcessingStatus;
+import com.sothrose.assetflow_portfolio_service.model.TradeDto;
+import com.sothrose.assetflow_portfolio_service.service.ConcurrentLookupExecutor;
+import com.sothrose.assetflow_portfolio_service.service.DependencyCallTimer;
+import com.sothrose.assetflow_portfolio_service.service.OptimisticLockRetryExecutor;
+import com.sothrose.assetflow_portfolio_service.service.PortfolioMetrics;
+import com.sothrose.assetflow_portfolio_service.service.PortfolioReadCache;
+import com.sothrose.assetflow_portfolio_service.service.PortfolioRules;
+import com.sothrose.assetflow_portfolio_service.service.PortfolioService;
+import com.sothrose.assetflow_portfolio_service.service.ProcessedTradeFilter;
+import com.sothrose.assetflow_portfolio_service.service.UserStatusLookup;
+import com.sothrose.assetflow_portfolio_service.service.UserStatusNearCache;
+import com.sothrose.assetflow_portfolio_service.validator.TradeDtoValidator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Applies a trade through {@link PortfolioService#processTrade} in the optimistic write mode,
+ * where the portfolio is read, changed in memory and saved together with its outbox event. Mongo
+ * and redis are replaced by in-memory stubs, so the score is the cost of validation, asset lookup,
+ * quantity update and event creation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ProcessTradeBenchmark {
+
+  @Param({"10", "1000", "50000"})
+  private int assetCount;
+
+  private PortfolioService portfolioService;
+  private TradeDto tradeDto;
+
+  @Setup
+  public void setUp() {
+    var meterRegistry = new SimpleMeterRegistry();
+    var userStatusNearCache = new UserStatusNearCache(1, Long.MAX_VALUE, meterRegistry);
+    userStatusNearCache.putActiveStatus(USER_ID, true);
+
+    var tradeDtoValidator = new TradeDtoValidator();
+    var processedTradeFilter = new ProcessedTradeFilter(1, 1, meterRegistry);
+    var portfolioMetrics = new PortfolioMetrics(meterRegistry);
+    var portfolioRules =
+        new PortfolioRules(
+            tradeDtoValidator, null, null, userStatusNearCache, processedTradeFilter);
+    portfolioService =
+        new PortfolioService(
+            BenchmarkPortfolios.inMemoryRepository(BenchmarkPortfolios.portfolio(assetCount)),
+            new OptimisticLockRetryExecutor(1, 0, 0, meterRegistry),
+            userStatusNearCache,
+            processedTradeFilter,
+            portfolioMetrics,
+            new PortfolioReadCache(false, 1, 1, null, meterRegistry),
+            new ConcurrentLookupExecutor(1),
+            new DependencyCallTimer(),
+            null,
+            portfolioRules,
+            new UserStatusLookup(null, null, userStatusNearCache, portfolioMetrics, portfolioRules),
+            null);
+    setField(portfolioService, "writeMode", OPTIMISTIC);
+    tradeDto = BenchmarkPortfolios.trade(assetCount);
+  }
+
+  @Benchmark
+  public ProcessingStatus processTrade() {
+    return portfolioService.processTrade(tradeDto);
+  }
+
+  private static void setField(Object target, String name, Object value) {
+    var field = ReflectionUtils.findField(target.getClass(), name);
+    ReflectionUtils.makeAccessible(field);
+    ReflectionUtils.setField(field, target, value);
+  }
+}
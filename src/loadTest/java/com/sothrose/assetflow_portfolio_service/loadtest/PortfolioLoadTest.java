@@ -0,0 +1,86 @@
+package com.sothrose.assetflow_portfolio_service.loadtest;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load generator for a running service: every client is a virtual thread sending the
+ * next request as soon as the previous one completed. Run it once against the service started
+ * with {@code VIRTUAL_THREADS_ENABLED=false} and once with {@code true} to compare throughput.
+ *
+ * <p>Arguments: base url, concurrent clients, duration in seconds, number of distinct user ids.
+ */
+public class PortfolioLoadTest {
+  private static final String PORTFOLIOS_OF_USER_PATH = "/v1/assetflow/portfolios/all/";
+
+  public static void main(String[] args) throws InterruptedException {
+    var baseUrl = args.length > 0 ? args[0] : "http://localhost:8082";
+    var clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    var duration = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 30);
+    var userIds = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+    var httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    var succeeded = new AtomicLong();
+    var failed = new AtomicLong();
+    var latenciesInNanos = new ConcurrentLinkedQueue<long[]>();
+    var deadline = System.nanoTime() + duration.toNanos();
+
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int client = 0; client < clients; client++) {
+        var userId = client % userIds + 1;
+        executor.submit(
+            () -> {
+              var request =
+                  HttpRequest.newBuilder(URI.create(baseUrl + PORTFOLIOS_OF_USER_PATH + userId))
+                      .timeout(Duration.ofSeconds(30))
+                      .GET()
+                      .build();
+              List<Long> clientLatencies = new ArrayList<>();
+              while (System.nanoTime() < deadline) {
+                var start = System.nanoTime();
+                try {
+                  var response = httpClient.send(request, BodyHandlers.discarding());
+                  (response.statusCode() < 400 ? succeeded : failed).incrementAndGet();
+                } catch (Exception e) {
+                  failed.incrementAndGet();
+                }
+                clientLatencies.add(System.nanoTime() - start);
+              }
+              latenciesInNanos.add(clientLatencies.stream().mapToLong(Long::longValue).toArray());
+            });
+      }
+    }
+
+    var latencies = latenciesInNanos.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+    var seconds = duration.toNanos() / 1e9;
+    System.out.printf(
+        "clients=%d duration=%.0fs succeeded=%d failed=%d throughput=%.1f req/s p50=%dms"
+            + " p99=%dms%n",
+        clients,
+        seconds,
+        succeeded.get(),
+        failed.get(),
+        succeeded.get() / seconds,
+        percentileInMs(latencies, 0.50),
+        percentileInMs(latencies, 0.99));
+  }
+
+  private static long percentileInMs(long[] sortedLatencies, double percentile) {
+    if (sortedLatencies.length == 0) {
+      return 0;
+    }
+    var index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+    return NANOSECONDS.toMillis(sortedLatencies[Math.max(index, 0)]);
+  }
+}
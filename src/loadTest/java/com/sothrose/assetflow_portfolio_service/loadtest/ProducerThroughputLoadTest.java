@@ -0,0 +1,96 @@
+package com.sothrose.assetflow_portfolio_service.loadtest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.kafka.clients.producer.ProducerConfig.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+/**
+ * Publishes portfolio events to a running broker with the default producer settings and with the
+ * settings of the {@code throughput} profile, and reports events per second and the bytes sent to
+ * the broker for both. Both runs use the idempotent, all-replicas-acked setup of the service.
+ *
+ * <p>Arguments: bootstrap servers, topic, events per run, number of distinct portfolios.
+ */
+public class ProducerThroughputLoadTest {
+  private static final String EVENT_JSON_FORMAT =
+      "{\"portfolioId\":\"%s\",\"userId\":%d,\"haveName\":\"BTC\",\"haveValue\":0.00012345,"
+          + "\"owesName\":\"USDT\",\"owesValue\":12.50000000,"
+          + "\"timestamp\":\"2025-01-01T12:00:00\",\"actionType\":\"TRADE\"}";
+
+  public static void main(String[] args) {
+    var bootstrapServers = args.length > 0 ? args[0] : "localhost:9092";
+    var topic = args.length > 1 ? args[1] : "portfolio-updates-load-test";
+    var events = args.length > 2 ? Integer.parseInt(args[2]) : 500_000;
+    var portfolios = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+    run("default", bootstrapServers, topic, events, portfolios, 0, 16384, "none");
+    run("throughput", bootstrapServers, topic, events, portfolios, 20, 131072, "lz4");
+  }
+
+  private static void run(
+      String profile,
+      String bootstrapServers,
+      String topic,
+      int events,
+      int portfolios,
+      int lingerMs,
+      int batchSize,
+      String compressionType) {
+    Map<String, Object> config = new HashMap<>();
+    config.put(BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+    config.put(KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+    config.put(VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+    config.put(ENABLE_IDEMPOTENCE_CONFIG, true);
+    config.put(ACKS_CONFIG, "all");
+    config.put(MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+    config.put(LINGER_MS_CONFIG, lingerMs);
+    config.put(BATCH_SIZE_CONFIG, batchSize);
+    config.put(COMPRESSION_TYPE_CONFIG, compressionType);
+
+    var failed = new AtomicLong();
+    try (var producer = new KafkaProducer<String, byte[]>(config)) {
+      var start = System.nanoTime();
+      for (int i = 0; i < events; i++) {
+        var portfolioId = "portfolio-" + i % portfolios;
+        var event = String.format(EVENT_JSON_FORMAT, portfolioId, i % portfolios).getBytes(UTF_8);
+        producer.send(
+            new ProducerRecord<>(topic, portfolioId, event),
+            (metadata, exception) -> {
+              if (exception != null) {
+                failed.incrementAndGet();
+              }
+            });
+      }
+      producer.flush();
+      var seconds = (System.nanoTime() - start) / 1e9;
+
+      System.out.printf(
+          "profile=%s events=%d failed=%d duration=%.1fs throughput=%.0f events/s"
+              + " bytesToBroker=%.0f compressionRate=%.2f requests=%.0f%n",
+          profile,
+          events,
+          failed.get(),
+          seconds,
+          events / seconds,
+          producerMetric(producer, "outgoing-byte-total"),
+          producerMetric(producer, "compression-rate-avg"),
+          producerMetric(producer, "request-total"));
+    }
+  }
+
+  private static double producerMetric(KafkaProducer<?, ?> producer, String name) {
+    return producer.metrics().entrySet().stream()
+        .filter(metric -> metric.getKey().group().equals("producer-metrics"))
+        .filter(metric -> metric.getKey().name().equals(name))
+        .mapToDouble(metric -> ((Number) metric.getValue().metricValue()).doubleValue())
+        .findFirst()
+        .orElse(Double.NaN);
+  }
+}
@@ -1,28 +1,114 @@
 package com.sothrose.assetflow_portfolio_service.client;
 
+import static java.util.Objects.nonNull;
+import static java.util.function.Function.identity;
+
 import com.sothrose.assetflow_portfolio_service.model.UserDto;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+/**
+ * Looks up users in the user service. Concurrent lookups of the same user share a single call
+ * that is in flight, so a burst of requests for one user costs one call against the rate limit of
+ * the user service instead of one per request.
+ */
 @Slf4j
 @RequiredArgsConstructor
 @Component
 public class UserServiceClient {
+  /**
+   * Attribute of the batch lookup request. The batch lookup is speculative, so it is not counted
+   * against the rate limit of single lookups, and is not answered with a default user when it
+   * fails, so the lookup falls back to single lookups.
+   */
+  public static final String BATCH_LOOKUP_ATTRIBUTE = "userServiceBatchLookup";
 
   @Value("${user-service.user-by-id.path:/v1/assetflow/users/{userId}}")
   private String userByIdPath;
 
+  @Value("${user-service.users-by-ids.path:/v1/assetflow/users/batch}")
+  private String usersByIdsPath;
+
   private final WebClient userServiceWebClient;
+  private final Map<Long, Mono<UserDto>> inFlightFetches = new ConcurrentHashMap<>();
 
   public UserDto fetchUserData(Long userId) {
+    return fetchUserDataAsync(userId).block();
+  }
+
+  public Mono<UserDto> fetchUserDataAsync(Long userId) {
+    return Mono.defer(() -> inFlightFetches.computeIfAbsent(userId, this::sharedFetch));
+  }
+
+  /** Looks up the users in a single call, see {@link #fetchUsersDataAsync}. */
+  public Map<Long, UserDto> fetchUsersData(Collection<Long> userIds) {
+    return fetchUsersDataAsync(userIds).block();
+  }
+
+  /**
+   * Looks up the users in a single call. When the batch call fails, the users are looked up one
+   * by one instead, each sharing the calls already in flight. A user whose lookup fails is left out
+   * of the result rather than failing the lookup of the others.
+   *
+   * @return users found, keyed by their id
+   */
+  public Mono<Map<Long, UserDto>> fetchUsersDataAsync(Collection<Long> userIds) {
+    if (userIds.isEmpty()) {
+      return Mono.just(Map.of());
+    }
+
     return userServiceWebClient
-        .get()
-        .uri(uriBuilder -> uriBuilder.path(userByIdPath).build(userId))
+        .post()
+        .uri(usersByIdsPath)
+        .attribute(BATCH_LOOKUP_ATTRIBUTE, true)
+        .bodyValue(userIds)
         .retrieve()
-        .bodyToMono(UserDto.class)
-        .block();
+        .bodyToFlux(UserDto.class)
+        .filter(userDto -> nonNull(userDto.getUserId()))
+        .collectMap(UserDto::getUserId, identity())
+        .onErrorResume(
+            e -> {
+              log.warn(
+                  "Fetching: [{}] users in a single call failed, fetching them one by one: [{}]",
+                  userIds.size(),
+                  e.getMessage());
+              return Flux.fromIterable(userIds)
+                  .flatMap(
+                      userId ->
+                          fetchUserDataAsync(userId)
+                              .map(userDto -> Map.entry(userId, userDto))
+                              .onErrorResume(
+                                  userFailure -> {
+                                    log.warn(
+                                        "Fetching user with id: [{}] failed, leaving it out: [{}]",
+                                        userId,
+                                        userFailure.getMessage());
+                                    return Mono.empty();
+                                  }))
+                  .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+            });
+  }
+
+  /** Fetches the user once for all callers and forgets the fetch as soon as it completed. */
+  private Mono<UserDto> sharedFetch(Long userId) {
+    var sharedFetch = new AtomicReference<Mono<UserDto>>();
+    sharedFetch.set(
+        userServiceWebClient
+            .get()
+            .uri(uriBuilder -> uriBuilder.path(userByIdPath).build(userId))
+            .retrieve()
+            .bodyToMono(UserDto.class)
+            .doFinally(signal -> inFlightFetches.remove(userId, sharedFetch.get()))
+            .cache());
+    return sharedFetch.get();
   }
 }
@@ -0,0 +1,42 @@
+package com.sothrose.assetflow_portfolio_service.codec;
+
+/**
+ * Compact binary encoding of a payload. Every payload starts with {@link #MAGIC}, a byte no JSON
+ * document starts with, followed by the schema version it was written with, so readers can tell
+ * binary payloads from JSON ones during a rollout and decode payloads of older schema versions.
+ */
+public interface BinaryCodec<T> {
+  int MAGIC = 0xB1;
+  int INITIAL_CAPACITY = 64;
+
+  /** Version written with every payload, bumped whenever fields are added or reordered. */
+  int schemaVersion();
+
+  void write(BinaryWriter writer, T value);
+
+  T read(BinaryReader reader, int schemaVersion);
+
+  default byte[] encode(T value) {
+    var writer = new BinaryWriter(INITIAL_CAPACITY).writeByte(MAGIC).writeByte(schemaVersion());
+    write(writer, value);
+    return writer.toByteArray();
+  }
+
+  default T decode(byte[] payload) {
+    if (!isBinary(payload)) {
+      throw new IllegalArgumentException("Payload is not binary encoded");
+    }
+
+    var reader = new BinaryReader(payload, 1);
+    var schemaVersion = reader.readByte();
+    if (schemaVersion > schemaVersion()) {
+      throw new IllegalArgumentException(
+          "Unsupported schema version: " + schemaVersion + ", latest: " + schemaVersion());
+    }
+    return read(reader, schemaVersion);
+  }
+
+  static boolean isBinary(byte[] payload) {
+    return payload != null && payload.length > 1 && (payload[0] & 0xFF) == MAGIC;
+  }
+}
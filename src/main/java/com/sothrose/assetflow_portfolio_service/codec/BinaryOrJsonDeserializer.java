@@ -0,0 +1,51 @@
+package com.sothrose.assetflow_portfolio_service.codec;
+
+import static java.util.Objects.isNull;
+
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+/**
+ * Decodes binary encoded payloads with the codec and hands every other payload to the JSON
+ * deserializer, so producers can switch formats while consumers read both.
+ */
+@RequiredArgsConstructor
+public class BinaryOrJsonDeserializer<T> implements Deserializer<T> {
+  private final BinaryCodec<T> codec;
+  private final Deserializer<T> jsonDeserializer;
+
+  @Override
+  public void configure(Map<String, ?> configs, boolean isKey) {
+    jsonDeserializer.configure(configs, isKey);
+  }
+
+  @Override
+  public T deserialize(String topic, byte[] data) {
+    return deserialize(topic, null, data);
+  }
+
+  @Override
+  public T deserialize(String topic, Headers headers, byte[] data) {
+    if (isNull(data)) {
+      return null;
+    }
+    if (!BinaryCodec.isBinary(data)) {
+      return jsonDeserializer.deserialize(topic, headers, data);
+    }
+
+    try {
+      return codec.decode(data);
+    } catch (RuntimeException e) {
+      throw new SerializationException(
+          "Error occurred when decoding binary payload from topic: " + topic, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    jsonDeserializer.close();
+  }
+}
@@ -0,0 +1,96 @@
+package com.sothrose.assetflow_portfolio_service.codec;
+
+import static com.sothrose.assetflow_portfolio_service.codec.BinaryWriter.BIG_DECIMAL;
+import static com.sothrose.assetflow_portfolio_service.codec.BinaryWriter.COMPACT_DECIMAL;
+import static com.sothrose.assetflow_portfolio_service.codec.BinaryWriter.NULL;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.ZoneOffset.UTC;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDateTime;
+
+/** Reads values written by {@link BinaryWriter} straight from the array, without copying it. */
+public final class BinaryReader {
+  private final byte[] buffer;
+  private int position;
+
+  public BinaryReader(byte[] buffer, int offset) {
+    this.buffer = buffer;
+    this.position = offset;
+  }
+
+  public int readByte() {
+    ensureAvailable(1);
+    return buffer[position++] & 0xFF;
+  }
+
+  public long readVarLong() {
+    long zigZag = 0;
+    for (int shift = 0; shift < Long.SIZE; shift += 7) {
+      var current = readByte();
+      zigZag |= (long) (current & 0x7F) << shift;
+      if ((current & 0x80) == 0) {
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint at position: " + position);
+  }
+
+  public String readString() {
+    var length = readVarLong();
+    if (length == NULL) {
+      return null;
+    }
+
+    var byteCount = Math.toIntExact(length - 1);
+    ensureAvailable(byteCount);
+    var value = new String(buffer, position, byteCount, UTF_8);
+    position += byteCount;
+    return value;
+  }
+
+  public Long readNullableLong() {
+    return readByte() == NULL ? null : readVarLong();
+  }
+
+  public BigDecimal readDecimal() {
+    var kind = readByte();
+    if (kind == NULL) {
+      return null;
+    }
+    if (kind == COMPACT_DECIMAL) {
+      var unscaledValue = readVarLong();
+      return BigDecimal.valueOf(unscaledValue, Math.toIntExact(readVarLong()));
+    }
+    if (kind != BIG_DECIMAL) {
+      throw new IllegalArgumentException("Unknown decimal encoding: " + kind);
+    }
+
+    var byteCount = Math.toIntExact(readVarLong());
+    ensureAvailable(byteCount);
+    var unscaledValue = new BigInteger(buffer, position, byteCount);
+    position += byteCount;
+    return new BigDecimal(unscaledValue, Math.toIntExact(readVarLong()));
+  }
+
+  public LocalDateTime readDateTime() {
+    if (readByte() == NULL) {
+      return null;
+    }
+    var epochSecond = readVarLong();
+    return LocalDateTime.ofEpochSecond(epochSecond, Math.toIntExact(readVarLong()), UTC);
+  }
+
+  public <E extends Enum<E>> E readEnum(E[] constants) {
+    var ordinal = readVarLong();
+    return ordinal == NULL ? null : constants[Math.toIntExact(ordinal - 1)];
+  }
+
+  private void ensureAvailable(int byteCount) {
+    if (byteCount < 0 || position + byteCount > buffer.length) {
+      throw new IllegalArgumentException(
+          "Truncated payload, expected: " + byteCount + " more bytes at position: " + position);
+    }
+  }
+}
@@ -0,0 +1,16 @@
+package com.sothrose.assetflow_portfolio_service.codec;
+
+import static java.util.Objects.isNull;
+
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.common.serialization.Serializer;
+
+@RequiredArgsConstructor
+public class BinarySerializer<T> implements Serializer<T> {
+  private final BinaryCodec<T> codec;
+
+  @Override
+  public byte[] serialize(String topic, T data) {
+    return isNull(data) ? null : codec.encode(data);
+  }
+}
@@ -0,0 +1,108 @@
+package com.sothrose.assetflow_portfolio_service.codec;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.ZoneOffset.UTC;
+import static java.util.Objects.isNull;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * Appends values to a growing byte array in the compact encoding read back by {@link
+ * BinaryReader}. Integers are written as zig-zag varints, strings as their UTF-8 bytes prefixed by
+ * their length, and every nullable value is prefixed by its presence.
+ */
+public final class BinaryWriter {
+  static final int NULL = 0;
+  static final int COMPACT_DECIMAL = 1;
+  static final int BIG_DECIMAL = 2;
+
+  private byte[] buffer;
+  private int position;
+
+  public BinaryWriter(int initialCapacity) {
+    this.buffer = new byte[initialCapacity];
+  }
+
+  public BinaryWriter writeByte(int value) {
+    ensureCapacity(1);
+    buffer[position++] = (byte) value;
+    return this;
+  }
+
+  public BinaryWriter writeVarLong(long value) {
+    var zigZag = (value << 1) ^ (value >> 63);
+    ensureCapacity(10);
+    while ((zigZag & ~0x7FL) != 0) {
+      buffer[position++] = (byte) ((zigZag & 0x7F) | 0x80);
+      zigZag >>>= 7;
+    }
+    buffer[position++] = (byte) zigZag;
+    return this;
+  }
+
+  /** Writes the length plus one, so that 0 stands for null. */
+  public BinaryWriter writeString(String value) {
+    if (isNull(value)) {
+      return writeVarLong(NULL);
+    }
+
+    var bytes = value.getBytes(UTF_8);
+    writeVarLong(bytes.length + 1L);
+    return writeBytes(bytes);
+  }
+
+  public BinaryWriter writeNullableLong(Long value) {
+    if (isNull(value)) {
+      return writeByte(NULL);
+    }
+    return writeByte(1).writeVarLong(value);
+  }
+
+  /** Writes the unscaled value as a varint when it fits in a long, as its bytes otherwise. */
+  public BinaryWriter writeDecimal(BigDecimal value) {
+    if (isNull(value)) {
+      return writeByte(NULL);
+    }
+
+    var unscaledValue = value.unscaledValue();
+    if (unscaledValue.bitLength() < Long.SIZE) {
+      writeByte(COMPACT_DECIMAL).writeVarLong(unscaledValue.longValue());
+    } else {
+      var bytes = unscaledValue.toByteArray();
+      writeByte(BIG_DECIMAL).writeVarLong(bytes.length).writeBytes(bytes);
+    }
+    return writeVarLong(value.scale());
+  }
+
+  /** Writes the date time as UTC epoch seconds and nanos. */
+  public BinaryWriter writeDateTime(LocalDateTime value) {
+    if (isNull(value)) {
+      return writeByte(NULL);
+    }
+    return writeByte(1).writeVarLong(value.toEpochSecond(UTC)).writeVarLong(value.getNano());
+  }
+
+  /** Writes the ordinal plus one, so reordering constants requires a new schema version. */
+  public BinaryWriter writeEnum(Enum<?> value) {
+    return writeVarLong(isNull(value) ? NULL : value.ordinal() + 1L);
+  }
+
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, position);
+  }
+
+  private BinaryWriter writeBytes(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, position, bytes.length);
+    position += bytes.length;
+    return this;
+  }
+
+  private void ensureCapacity(int additionalBytes) {
+    if (position + additionalBytes > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + additionalBytes));
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.sothrose.assetflow_portfolio_service.codec;
+
+import static com.sothrose.assetflow_portfolio_service.codec.BinaryWriter.NULL;
+import static java.util.Objects.isNull;
+
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.AssetType;
+import com.sothrose.assetflow_portfolio_service.model.CachedPortfolios;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioDto;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Encodes portfolios held in the redis level of the portfolio read cache. Collections are written
+ * as their size plus one, zero standing for null, like strings.
+ */
+public class CachedPortfoliosCodec implements BinaryCodec<CachedPortfolios> {
+  public static final int SCHEMA_VERSION = 1;
+  private static final AssetType[] ASSET_TYPES = AssetType.values();
+
+  @Override
+  public int schemaVersion() {
+    return SCHEMA_VERSION;
+  }
+
+  @Override
+  public void write(BinaryWriter writer, CachedPortfolios cachedPortfolios) {
+    var portfolios = cachedPortfolios.getPortfolios();
+    writer.writeVarLong(cachedPortfolios.getLoadedAtInMs());
+    writer.writeVarLong(isNull(portfolios) ? NULL : portfolios.size() + 1L);
+    if (isNull(portfolios)) {
+      return;
+    }
+
+    for (var portfolio : portfolios) {
+      writer
+          .writeString(portfolio.getId())
+          .writeNullableLong(portfolio.getUserId())
+          .writeEnum(portfolio.getPortfolioType())
+          .writeString(portfolio.getExchangeName());
+      writeAssets(writer, portfolio.getAssets());
+    }
+  }
+
+  @Override
+  public CachedPortfolios read(BinaryReader reader, int schemaVersion) {
+    var loadedAtInMs = reader.readVarLong();
+    var portfolioCount = reader.readVarLong();
+    if (portfolioCount == NULL) {
+      return new CachedPortfolios(null, loadedAtInMs);
+    }
+
+    var portfolios = new ArrayList<PortfolioDto>(Math.toIntExact(portfolioCount - 1));
+    for (long i = 1; i < portfolioCount; i++) {
+      portfolios.add(
+          new PortfolioDto(
+              reader.readString(),
+              reader.readNullableLong(),
+              reader.readEnum(ASSET_TYPES),
+              reader.readString(),
+              readAssets(reader)));
+    }
+    return new CachedPortfolios(portfolios, loadedAtInMs);
+  }
+
+  private static void writeAssets(BinaryWriter writer, Set<Asset> assets) {
+    writer.writeVarLong(isNull(assets) ? NULL : assets.size() + 1L);
+    if (isNull(assets)) {
+      return;
+    }
+
+    for (var asset : assets) {
+      writer
+          .writeString(asset.getName())
+          .writeDecimal(asset.getQuantity())
+          .writeEnum(asset.getAssetType());
+    }
+  }
+
+  private static Set<Asset> readAssets(BinaryReader reader) {
+    var assetCount = reader.readVarLong();
+    if (assetCount == NULL) {
+      return null;
+    }
+
+    var assets = new HashSet<Asset>();
+    for (long i = 1; i < assetCount; i++) {
+      var name = reader.readString();
+      var quantity = reader.readDecimal();
+      assets.add(new Asset(name, quantity, reader.readEnum(ASSET_TYPES)));
+    }
+    return assets;
+  }
+}
@@ -0,0 +1,40 @@
+package com.sothrose.assetflow_portfolio_service.codec;
+
+import com.sothrose.assetflow_portfolio_service.model.ActionType;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioUpdatedEvent;
+
+public class PortfolioUpdatedEventCodec implements BinaryCodec<PortfolioUpdatedEvent> {
+  public static final int SCHEMA_VERSION = 1;
+  private static final ActionType[] ACTION_TYPES = ActionType.values();
+
+  @Override
+  public int schemaVersion() {
+    return SCHEMA_VERSION;
+  }
+
+  @Override
+  public void write(BinaryWriter writer, PortfolioUpdatedEvent event) {
+    writer
+        .writeString(event.getPortfolioId())
+        .writeNullableLong(event.getUserId())
+        .writeString(event.getHaveName())
+        .writeDecimal(event.getHaveValue())
+        .writeString(event.getOwesName())
+        .writeDecimal(event.getOwesValue())
+        .writeDateTime(event.getTimestamp())
+        .writeEnum(event.getActionType());
+  }
+
+  @Override
+  public PortfolioUpdatedEvent read(BinaryReader reader, int schemaVersion) {
+    return new PortfolioUpdatedEvent(
+        reader.readString(),
+        reader.readNullableLong(),
+        reader.readString(),
+        reader.readDecimal(),
+        reader.readString(),
+        reader.readDecimal(),
+        reader.readDateTime(),
+        reader.readEnum(ACTION_TYPES));
+  }
+}
@@ -0,0 +1,41 @@
+package com.sothrose.assetflow_portfolio_service.codec;
+
+import com.sothrose.assetflow_portfolio_service.model.AssetType;
+import com.sothrose.assetflow_portfolio_service.model.TradeCreatedEvent;
+
+public class TradeCreatedEventCodec implements BinaryCodec<TradeCreatedEvent> {
+  public static final int SCHEMA_VERSION = 1;
+  private static final AssetType[] ASSET_TYPES = AssetType.values();
+
+  @Override
+  public int schemaVersion() {
+    return SCHEMA_VERSION;
+  }
+
+  @Override
+  public void write(BinaryWriter writer, TradeCreatedEvent event) {
+    writer
+        .writeString(event.getEventId())
+        .writeNullableLong(event.getUserId())
+        .writeString(event.getAssetToPay())
+        .writeDecimal(event.getAmountToPay())
+        .writeString(event.getAssetToBuy())
+        .writeDecimal(event.getAmountBought())
+        .writeEnum(event.getAssetType())
+        .writeString(event.getExchangeName());
+  }
+
+  @Override
+  public TradeCreatedEvent read(BinaryReader reader, int schemaVersion) {
+    return TradeCreatedEvent.builder()
+        .eventId(reader.readString())
+        .userId(reader.readNullableLong())
+        .assetToPay(reader.readString())
+        .amountToPay(reader.readDecimal())
+        .assetToBuy(reader.readString())
+        .amountBought(reader.readDecimal())
+        .assetType(reader.readEnum(ASSET_TYPES))
+        .exchangeName(reader.readString())
+        .build();
+  }
+}
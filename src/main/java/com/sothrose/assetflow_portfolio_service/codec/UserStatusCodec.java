@@ -0,0 +1,51 @@
+package com.sothrose.assetflow_portfolio_service.codec;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import com.sothrose.assetflow_portfolio_service.model.UserDto;
+
+/**
+ * Encodes the only part of the cached user the service reads, its active status, as two
+ * characters: the schema version followed by the status. The encoded value is plain ASCII, so it
+ * is stored through the same string redis template as the JSON user it replaces, and it never
+ * starts with '{', so both formats can be told apart while the cache still holds JSON entries.
+ */
+public final class UserStatusCodec {
+  public static final char SCHEMA_VERSION = 1;
+  private static final char INACTIVE = '0';
+  private static final char ACTIVE = '1';
+  private static final char UNKNOWN = '?';
+  private static final String ACTIVE_USER = new String(new char[] {SCHEMA_VERSION, ACTIVE});
+  private static final String INACTIVE_USER = new String(new char[] {SCHEMA_VERSION, INACTIVE});
+  private static final String UNKNOWN_USER = new String(new char[] {SCHEMA_VERSION, UNKNOWN});
+
+  private UserStatusCodec() {}
+
+  public static String encode(UserDto userDto) {
+    if (isNull(userDto) || isNull(userDto.getIsActive())) {
+      return UNKNOWN_USER;
+    }
+    return userDto.getIsActive() ? ACTIVE_USER : INACTIVE_USER;
+  }
+
+  public static boolean isEncoded(String value) {
+    return nonNull(value) && value.length() == 2 && value.charAt(0) == SCHEMA_VERSION;
+  }
+
+  /** Decodes to a user carrying only its active status, null when the status was unknown. */
+  public static UserDto decode(String value) {
+    if (!isEncoded(value)) {
+      throw new IllegalArgumentException("Value is not an encoded user status");
+    }
+
+    var userDto = new UserDto();
+    switch (value.charAt(1)) {
+      case ACTIVE -> userDto.setIsActive(true);
+      case INACTIVE -> userDto.setIsActive(false);
+      case UNKNOWN -> userDto.setIsActive(null);
+      default -> throw new IllegalArgumentException("Unknown user status: " + value.charAt(1));
+    }
+    return userDto;
+  }
+}
@@ -1,22 +1,55 @@
 package com.sothrose.assetflow_portfolio_service.configuration;
 
+import static com.sothrose.assetflow_portfolio_service.configuration.KafkaProducerConfig.TRADE_RETRY_KAFKA_TEMPLATE;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.*;
 import static org.springframework.kafka.support.serializer.JsonDeserializer.TRUSTED_PACKAGES;
 
+import com.sothrose.assetflow_portfolio_service.codec.BinaryOrJsonDeserializer;
+import com.sothrose.assetflow_portfolio_service.codec.PortfolioUpdatedEventCodec;
+import com.sothrose.assetflow_portfolio_service.codec.TradeCreatedEventCodec;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioUpdatedEvent;
 import com.sothrose.assetflow_portfolio_service.model.TradeCreatedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.util.Map;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.kafka.annotation.EnableKafkaRetryTopic;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.MicrometerConsumerListener;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
 import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.util.backoff.FixedBackOff;
 
+/**
+ * Consumers of trade events, published either as JSON or in the compact binary format. Events
+ * that cannot be deserialized do not stop their partition, they reach the listeners as failures
+ * and end up in the dead letter topic. The record listener retries failed events on retry topics,
+ * see {@code PortfolioService#handleTradeCreated}; the batch listener hands the events it cannot
+ * apply to the {@link #TRADE_DEAD_LETTER_RECOVERER} and fails the batch at its first failed write.
+ * The error handler of its container then commits the events before it and retries from it a
+ * bounded number of times, handing it to the same recoverer once attempts run out, see {@code
+ * PortfolioService#handleTradeCreatedBatch}.
+ */
+@EnableKafkaRetryTopic
 @Configuration
 public class KafkaConsumerConfig {
+  public static final String LISTENER_THREAD_PREFIX = "kafka-listener-";
+  public static final String PORTFOLIO_UPDATES_CONTAINER_FACTORY =
+      "portfolioUpdatesKafkaListenerContainerFactory";
+  public static final String TRADE_DEAD_LETTER_RECOVERER = "tradeDeadLetterRecoverer";
 
   @Value("${kafka.bootstrap-servers}")
   private String bootstrapServers;
@@ -33,32 +66,149 @@ public class KafkaConsumerConfig {
   @Value("${kafka.consumer.concurrency:3}")
   private int concurrency;
 
-  @Value("${kafka.consumer.batch-listener:false}")
-  private boolean batchListener;
+  @Value("${kafka.consumer.max-poll-records:500}")
+  private int maxPollRecords;
 
+  @Value("${kafka.consumer.dlq-group-id}")
+  private String deadLetterGroupId;
+
+  @Value("${kafka.listener.retry.max-attempts:3}")
+  private int retryMaxAttempts;
+
+  @Value("${kafka.listener.retry.backoff.delay:2000}")
+  private long retryBackoffDelay;
+
+  @Value("${kafka.listener.dead-letter-topic-suffix:-dlq}")
+  private String deadLetterTopicSuffix;
+
+  @Value("${kafka.dead-letter-replay.batch-size:100}")
+  private int deadLetterReplayBatchSize;
+
+  @Value("${spring.threads.virtual.enabled:false}")
+  private boolean virtualThreads;
+
+  /** Publishes the metrics of the consumer clients, the records lag of each partition included. */
+  @Bean
+  public ConsumerFactory<String, TradeCreatedEvent> consumerFactory(MeterRegistry meterRegistry) {
+    var consumerFactory =
+        new DefaultKafkaConsumerFactory<>(
+            Map.of(
+                BOOTSTRAP_SERVERS_CONFIG, bootstrapServers,
+                GROUP_ID_CONFIG, groupId,
+                KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class,
+                VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class,
+                MAX_POLL_INTERVAL_MS_CONFIG, maxPollInterval,
+                MAX_POLL_RECORDS_CONFIG, maxPollRecords,
+                TRUSTED_PACKAGES, trustedPackages),
+            new StringDeserializer(),
+            new ErrorHandlingDeserializer<>(
+                new BinaryOrJsonDeserializer<>(
+                    new TradeCreatedEventCodec(),
+                    new JsonDeserializer<>(TradeCreatedEvent.class, false))));
+    consumerFactory.addListener(new MicrometerConsumerListener<>(meterRegistry));
+    return consumerFactory;
+  }
+
+  /** Reads dead letters as raw bytes, committed only by the replay once they were republished. */
   @Bean
-  public ConsumerFactory<String, TradeCreatedEvent> consumerFactory() {
+  public ConsumerFactory<String, byte[]> deadLetterConsumerFactory() {
+    return new DefaultKafkaConsumerFactory<>(
+        Map.of(
+            BOOTSTRAP_SERVERS_CONFIG, bootstrapServers,
+            GROUP_ID_CONFIG, deadLetterGroupId,
+            KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class,
+            VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class,
+            ENABLE_AUTO_COMMIT_CONFIG, false,
+            AUTO_OFFSET_RESET_CONFIG, "earliest",
+            MAX_POLL_RECORDS_CONFIG, deadLetterReplayBatchSize));
+  }
+
+  /**
+   * Reads portfolio update events as they are published, without committed offsets to resume from:
+   * the events are only used to drop the portfolios they name from the read cache, so events
+   * published while the instance was down are of no use to it. Its listeners never acknowledge, so
+   * the containers, acknowledging manually, never commit either.
+   */
+  @Bean
+  public ConsumerFactory<String, PortfolioUpdatedEvent> portfolioUpdatesConsumerFactory() {
     return new DefaultKafkaConsumerFactory<>(
         Map.of(
             BOOTSTRAP_SERVERS_CONFIG, bootstrapServers,
-            GROUP_ID_CONFIG, groupId,
             KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class,
             VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class,
-            MAX_POLL_INTERVAL_MS_CONFIG, maxPollInterval,
-            TRUSTED_PACKAGES, trustedPackages),
+            ENABLE_AUTO_COMMIT_CONFIG, false,
+            AUTO_OFFSET_RESET_CONFIG, "latest",
+            MAX_POLL_RECORDS_CONFIG, maxPollRecords),
         new StringDeserializer(),
-        new JsonDeserializer<>(TradeCreatedEvent.class, false));
+        new ErrorHandlingDeserializer<>(
+            new BinaryOrJsonDeserializer<>(
+                new PortfolioUpdatedEventCodec(),
+                new JsonDeserializer<>(PortfolioUpdatedEvent.class, false))));
+  }
+
+  @Bean(name = PORTFOLIO_UPDATES_CONTAINER_FACTORY)
+  public ConcurrentKafkaListenerContainerFactory<String, PortfolioUpdatedEvent>
+      portfolioUpdatesKafkaListenerContainerFactory(
+          ConsumerFactory<String, PortfolioUpdatedEvent> portfolioUpdatesConsumerFactory) {
+    ConcurrentKafkaListenerContainerFactory<String, PortfolioUpdatedEvent> factory =
+        new ConcurrentKafkaListenerContainerFactory<>();
+    factory.setConsumerFactory(portfolioUpdatesConsumerFactory);
+    factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+    factory.setBatchListener(true);
+    return factory;
   }
 
   @Bean
   public ConcurrentKafkaListenerContainerFactory<String, TradeCreatedEvent>
-      kafkaListenerContainerFactory() {
+      kafkaListenerContainerFactory(ConsumerFactory<String, TradeCreatedEvent> consumerFactory) {
     ConcurrentKafkaListenerContainerFactory<String, TradeCreatedEvent> factory =
         new ConcurrentKafkaListenerContainerFactory<>();
-    factory.setConsumerFactory(consumerFactory());
+    factory.setConsumerFactory(consumerFactory);
     factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
     factory.setConcurrency(concurrency);
-    factory.setBatchListener(batchListener);
+    configureListenerThreads(factory);
     return factory;
   }
+
+  /** Publishes trade events to the dead letter topic, unreadable ones as the bytes received. */
+  @Bean(name = TRADE_DEAD_LETTER_RECOVERER)
+  public ConsumerRecordRecoverer tradeDeadLetterRecoverer(
+      @Qualifier(TRADE_RETRY_KAFKA_TEMPLATE) KafkaTemplate<String, Object> retryKafkaTemplate) {
+    return new DeadLetterPublishingRecoverer(
+        retryKafkaTemplate,
+        (record, exception) -> new TopicPartition(record.topic() + deadLetterTopicSuffix, -1));
+  }
+
+  @Bean
+  public ConcurrentKafkaListenerContainerFactory<String, TradeCreatedEvent>
+      batchKafkaListenerContainerFactory(
+          ConsumerFactory<String, TradeCreatedEvent> consumerFactory,
+          @Qualifier(TRADE_DEAD_LETTER_RECOVERER) ConsumerRecordRecoverer deadLetterRecoverer) {
+    ConcurrentKafkaListenerContainerFactory<String, TradeCreatedEvent> factory =
+        new ConcurrentKafkaListenerContainerFactory<>();
+    factory.setConsumerFactory(consumerFactory);
+    factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+    factory.setConcurrency(concurrency);
+    factory.setBatchListener(true);
+    factory.setCommonErrorHandler(
+        new DefaultErrorHandler(
+            deadLetterRecoverer, new FixedBackOff(retryBackoffDelay, retryMaxAttempts - 1L)));
+    configureListenerThreads(factory);
+    return factory;
+  }
+
+  /**
+   * Runs the consumer threads of the containers on virtual threads when enabled, so listeners
+   * blocked on mongo, redis or the user service do not hold a platform thread.
+   */
+  private void configureListenerThreads(
+      ConcurrentKafkaListenerContainerFactory<String, TradeCreatedEvent> factory) {
+    if (!virtualThreads) {
+      return;
+    }
+
+    var listenerTaskExecutor = new SimpleAsyncTaskExecutor(LISTENER_THREAD_PREFIX);
+    listenerTaskExecutor.setVirtualThreads(true);
+    factory.getContainerProperties().setListenerTaskExecutor(listenerTaskExecutor);
+  }
 }
@@ -1,21 +1,35 @@
 package com.sothrose.assetflow_portfolio_service.configuration;
 
+import static com.sothrose.assetflow_portfolio_service.model.PayloadFormat.BINARY;
 import static org.apache.kafka.clients.producer.ProducerConfig.*;
 
+import com.sothrose.assetflow_portfolio_service.codec.BinaryCodec;
+import com.sothrose.assetflow_portfolio_service.codec.BinarySerializer;
+import com.sothrose.assetflow_portfolio_service.codec.PortfolioUpdatedEventCodec;
+import com.sothrose.assetflow_portfolio_service.codec.TradeCreatedEventCodec;
+import com.sothrose.assetflow_portfolio_service.model.PayloadFormat;
 import com.sothrose.assetflow_portfolio_service.model.PortfolioUpdatedEvent;
+import com.sothrose.assetflow_portfolio_service.model.TradeCreatedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.util.HashMap;
 import java.util.Map;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Serializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.MicrometerProducerListener;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.support.serializer.DelegatingByTypeSerializer;
 import org.springframework.kafka.support.serializer.JsonSerializer;
 
 @Configuration
 public class KafkaProducerConfig {
+  public static final String TRADE_RETRY_KAFKA_TEMPLATE = "tradeRetryKafkaTemplate";
+
   @Value("${kafka.bootstrap-servers}")
   private String bootstrapServers;
 
@@ -25,19 +39,90 @@ public class KafkaProducerConfig {
   @Value("${kafka.retries-backoff-in-ms:1000}")
   private int backoff;
 
+  @Value("${kafka.producer.linger-ms:0}")
+  private int lingerMs;
+
+  @Value("${kafka.producer.batch-size:16384}")
+  private int batchSize;
+
+  @Value("${kafka.producer.compression-type:none}")
+  private String compressionType;
+
+  @Value("${kafka.producer.buffer-memory:33554432}")
+  private long bufferMemory;
+
+  /**
+   * Format events are published in. Consumers read both, so JSON stays the default until every
+   * consumer of a topic reads the binary format.
+   */
+  @Value("${kafka.producer.payload-format:JSON}")
+  private PayloadFormat payloadFormat;
+
   @Bean
-  public ProducerFactory<String, PortfolioUpdatedEvent> producerFactory() {
+  public ProducerFactory<String, PortfolioUpdatedEvent> producerFactory(
+      MeterRegistry meterRegistry) {
+    var producerFactory =
+        new DefaultKafkaProducerFactory<>(
+            producerConfig(),
+            new StringSerializer(),
+            payloadSerializer(new PortfolioUpdatedEventCodec()));
+    producerFactory.addListener(new MicrometerProducerListener<>(meterRegistry));
+    return producerFactory;
+  }
+
+  @Bean
+  public KafkaTemplate<String, PortfolioUpdatedEvent> kafkaTemplate(
+      ProducerFactory<String, PortfolioUpdatedEvent> producerFactory) {
+    return new KafkaTemplate<>(producerFactory);
+  }
+
+  /**
+   * Forwards failed trade events to the retry topics and the dead letter topic. Events that could
+   * not be deserialized are forwarded as the raw bytes they were received as.
+   */
+  @Bean(TRADE_RETRY_KAFKA_TEMPLATE)
+  public KafkaTemplate<String, Object> tradeRetryKafkaTemplate() {
+    Map<Class<?>, Serializer<?>> serializersByType =
+        Map.of(
+            byte[].class, new ByteArraySerializer(),
+            TradeCreatedEvent.class, payloadSerializer(new TradeCreatedEventCodec()));
+    return new KafkaTemplate<>(
+        new DefaultKafkaProducerFactory<>(
+            producerConfig(),
+            new StringSerializer(),
+            new DelegatingByTypeSerializer(serializersByType)));
+  }
+
+  /** Republishes dead letters to the trade topic byte for byte. */
+  @Bean
+  public KafkaTemplate<String, byte[]> deadLetterReplayKafkaTemplate() {
+    var config = producerConfig();
+    config.put(VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+    return new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(config));
+  }
+
+  private <T> Serializer<T> payloadSerializer(BinaryCodec<T> codec) {
+    return payloadFormat == BINARY ? new BinarySerializer<>(codec) : new JsonSerializer<>();
+  }
+
+  /**
+   * Idempotent producers with all replicas acknowledging every write. Records are batched per
+   * partition for up to {@code linger-ms} or {@code batch-size} bytes and batches are compressed
+   * as a whole, so the outbox relay, which sends whole outboxes at once, fills them.
+   */
+  private Map<String, Object> producerConfig() {
     Map<String, Object> config = new HashMap<>();
     config.put(BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
     config.put(KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-    config.put(VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
     config.put(RETRIES_CONFIG, retries);
     config.put(RETRY_BACKOFF_MS_CONFIG, backoff);
-    return new DefaultKafkaProducerFactory<>(config);
-  }
-
-  @Bean
-  public KafkaTemplate<String, PortfolioUpdatedEvent> kafkaTemplate() {
-    return new KafkaTemplate<>(producerFactory());
+    config.put(ENABLE_IDEMPOTENCE_CONFIG, true);
+    config.put(ACKS_CONFIG, "all");
+    config.put(MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+    config.put(LINGER_MS_CONFIG, lingerMs);
+    config.put(BATCH_SIZE_CONFIG, batchSize);
+    config.put(COMPRESSION_TYPE_CONFIG, compressionType);
+    config.put(BUFFER_MEMORY_CONFIG, bufferMemory);
+    return config;
   }
 }
@@ -1,14 +1,20 @@
 package com.sothrose.assetflow_portfolio_service.configuration;
 
-import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import com.sothrose.assetflow_portfolio_service.service.UserStatusInvalidationListener;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.retry.RetryRegistry;
+import java.util.List;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.RedisSerializer;
 
 @Configuration
@@ -20,6 +26,9 @@ public class RedisConfig {
   @Value("${spring.redis.port:6379}")
   private int redisPort;
 
+  @Value("${user-status.invalidation-channel:user-status-invalidation}")
+  private String userStatusInvalidationChannel;
+
   @Bean
   public LettuceConnectionFactory redisConnectionFactory() {
     var config = new RedisStandaloneConfiguration();
@@ -40,6 +49,27 @@ public class RedisConfig {
     return template;
   }
 
+  @Bean(name = "portfolioReactiveRedisTemplate")
+  @ConditionalOnProperty(name = "portfolio.reactive.enabled", havingValue = "true")
+  public ReactiveStringRedisTemplate portfolioReactiveRedisTemplate(
+      LettuceConnectionFactory factory) {
+    return new ReactiveStringRedisTemplate(factory);
+  }
+
+  @Bean
+  public RedisMessageListenerContainer userStatusInvalidationListenerContainer(
+      LettuceConnectionFactory factory, UserStatusInvalidationListener listener) {
+    var container = new RedisMessageListenerContainer();
+    container.setConnectionFactory(factory);
+    container.addMessageListener(
+        listener,
+        List.of(
+            new ChannelTopic(userStatusInvalidationChannel),
+            new PatternTopic("__keyevent@*__:del"),
+            new PatternTopic("__keyevent@*__:expired")));
+    return container;
+  }
+
   @Bean
   public CircuitBreakerRegistry circuitBreakerRegistry() {
     return CircuitBreakerRegistry.ofDefaults();
@@ -49,9 +79,4 @@ public class RedisConfig {
   public RetryRegistry retryRegistry() {
     return RetryRegistry.ofDefaults();
   }
-
-  @Bean
-  public BulkheadRegistry bulkheadRegistry() {
-    return BulkheadRegistry.ofDefaults();
-  }
 }
@@ -1,8 +1,10 @@
 package com.sothrose.assetflow_portfolio_service.configuration;
 
 import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
+import static com.sothrose.assetflow_portfolio_service.client.UserServiceClient.BATCH_LOOKUP_ATTRIBUTE;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 
+import com.sothrose.assetflow_portfolio_service.service.DependencyCallTimer;
 import io.github.resilience4j.bulkhead.BulkheadRegistry;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
@@ -26,6 +28,7 @@ import reactor.core.publisher.Mono;
 @Slf4j
 @Configuration
 public class UserServiceWebClientConfig {
+  public static final String BULKHEAD_USER_SERVICE_USER_DATA = "bulkheadUserServiceUserData";
 
   @Value("${user-service.base-url:http://assetflow-user-service:8081}")
   private String userServiceBaseUrl;
@@ -37,26 +40,36 @@ public class UserServiceWebClientConfig {
       RetryRegistry retryRegistry,
       RateLimiterRegistry rateLimiterRegistry,
       BulkheadRegistry bulkheadRegistry,
-      TimeLimiterRegistry timeLimiterRegistry) {
+      TimeLimiterRegistry timeLimiterRegistry,
+      DependencyCallTimer dependencyCallTimer) {
 
     var circuitBreaker = circuitBreakerRegistry.circuitBreaker("userServiceUserData");
     var retry = retryRegistry.retry("retryUserServiceUserData");
     var rateLimiter = rateLimiterRegistry.rateLimiter("userServiceUserData");
-    var bulkhead = bulkheadRegistry.bulkhead("bulkheadUserServiceUserData");
+    var bulkhead = bulkheadRegistry.bulkhead(BULKHEAD_USER_SERVICE_USER_DATA);
     var timeLimiter = timeLimiterRegistry.timeLimiter("userServiceUserData");
 
     return webClientBuilder
         .baseUrl(userServiceBaseUrl)
         .defaultHeader(CONTENT_TYPE, APPLICATION_JSON_VALUE)
         .filter(
-            (request, next) ->
-                Mono.defer(() -> next.exchange(request))
-                    .transformDeferred(RetryOperator.of(retry))
-                    .transformDeferred(TimeLimiterOperator.of(timeLimiter))
-                    .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
-                    .transformDeferred(RateLimiterOperator.of(rateLimiter))
-                    .transformDeferred(BulkheadOperator.of(bulkhead))
-                    .onErrorResume(ex -> Mono.just(fallbackClientResponse(ex))))
+            (request, next) -> {
+              var exchange = Mono.defer(() -> next.exchange(request));
+              var response =
+                  dependencyCallTimer
+                      .decorateMono(BULKHEAD_USER_SERVICE_USER_DATA, exchange)
+                      .transformDeferred(RetryOperator.of(retry))
+                      .transformDeferred(TimeLimiterOperator.of(timeLimiter))
+                      .transformDeferred(CircuitBreakerOperator.of(circuitBreaker));
+              if (request.attribute(BATCH_LOOKUP_ATTRIBUTE).isPresent()) {
+                return response.transformDeferred(BulkheadOperator.of(bulkhead));
+              }
+
+              return response
+                  .transformDeferred(RateLimiterOperator.of(rateLimiter))
+                  .transformDeferred(BulkheadOperator.of(bulkhead))
+                  .onErrorResume(ex -> Mono.just(fallbackClientResponse(ex)));
+            })
         .build();
   }
 
@@ -1,12 +1,30 @@
 package com.sothrose.assetflow_portfolio_service.controller;
 
+import static java.time.LocalDateTime.now;
+import static java.util.Objects.isNull;
+import static org.springframework.format.annotation.DateTimeFormat.ISO.DATE_TIME;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sothrose.assetflow_portfolio_service.model.*;
+import com.sothrose.assetflow_portfolio_service.service.PortfolioBatchWriter;
+import com.sothrose.assetflow_portfolio_service.service.PortfolioLedgerService;
+import com.sothrose.assetflow_portfolio_service.service.PortfolioReadCache;
 import com.sothrose.assetflow_portfolio_service.service.PortfolioService;
+import com.sothrose.assetflow_portfolio_service.service.TradeDeadLetterReplayer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.function.Consumer;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RequiredArgsConstructor
 @RestController
@@ -14,6 +32,11 @@ import org.springframework.web.bind.annotation.*;
 public class PortfolioController {
 
   private final PortfolioService portfolioService;
+  private final PortfolioBatchWriter portfolioBatchWriter;
+  private final PortfolioLedgerService portfolioLedgerService;
+  private final PortfolioReadCache portfolioReadCache;
+  private final TradeDeadLetterReplayer tradeDeadLetterReplayer;
+  private final ObjectMapper objectMapper;
 
   @PostMapping(consumes = APPLICATION_JSON_VALUE)
   public void createPortfolio(@RequestBody PortfolioDto portfolioDto) {
@@ -22,12 +45,39 @@ public class PortfolioController {
 
   @GetMapping(path = "/{portfolioId}", produces = APPLICATION_JSON_VALUE)
   public PortfolioDto getPortfolioById(@PathVariable String portfolioId) {
-    return portfolioService.fetchPortfolioById(portfolioId);
+    return portfolioReadCache.getPortfolio(
+        portfolioId, () -> portfolioService.fetchPortfolioById(portfolioId));
+  }
+
+  @GetMapping(path = "/{portfolioId}/balance", produces = APPLICATION_JSON_VALUE)
+  public PortfolioBalanceDto getPortfolioBalance(
+      @PathVariable String portfolioId,
+      @RequestParam(required = false) @DateTimeFormat(iso = DATE_TIME) LocalDateTime asOf) {
+    return portfolioLedgerService.fetchBalanceAsOf(portfolioId, isNull(asOf) ? now() : asOf);
   }
 
   @GetMapping(path = "/all/{userId}", produces = APPLICATION_JSON_VALUE)
   public List<PortfolioDto> getAllPortfoliosForUser(@PathVariable Long userId) {
-    return portfolioService.fetchAllPortfoliosForUser(userId);
+    return portfolioReadCache.getUserPortfolios(
+        userId, () -> portfolioService.fetchAllPortfoliosForUser(userId));
+  }
+
+  @GetMapping(path = "/all/{userId}/stream", produces = APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamAllPortfoliosForUser(
+      @PathVariable Long userId) {
+    StreamingResponseBody responseBody =
+        outputStream ->
+            portfolioService.streamAllPortfoliosForUser(
+                userId, portfolioDto -> writeLine(outputStream, portfolioDto));
+    return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(responseBody);
+  }
+
+  @GetMapping(path = "/all/{userId}/page", produces = APPLICATION_JSON_VALUE)
+  public PortfolioPage getPortfolioPageForUser(
+      @PathVariable Long userId,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "50") int limit) {
+    return portfolioService.fetchPortfolioPageForUser(userId, cursor, limit);
   }
 
   @DeleteMapping(path = "/{portfolioId}")
@@ -49,4 +99,69 @@ public class PortfolioController {
   public ProcessingStatus processTrade(@RequestBody TradeDto tradeDto) {
     return portfolioService.processTrade(tradeDto);
   }
+
+  @PostMapping(
+      path = "/deposit/bulk",
+      consumes = APPLICATION_JSON_VALUE,
+      produces = APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> processDeposits(
+      @RequestBody List<DepositDto> depositDtos) {
+    return bulkResults(
+        chunkResultsConsumer -> portfolioBatchWriter.depositAll(depositDtos, chunkResultsConsumer));
+  }
+
+  @PostMapping(
+      path = "/withdraw/bulk",
+      consumes = APPLICATION_JSON_VALUE,
+      produces = APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> processWithdrawals(
+      @RequestBody List<WithdrawDto> withdrawDtos) {
+    return bulkResults(
+        chunkResultsConsumer ->
+            portfolioBatchWriter.withdrawAll(withdrawDtos, chunkResultsConsumer));
+  }
+
+  @PostMapping(
+      path = "/trade/bulk",
+      consumes = APPLICATION_JSON_VALUE,
+      produces = APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> processTrades(
+      @RequestBody List<TradeDto> tradeDtos) {
+    return bulkResults(
+        chunkResultsConsumer ->
+            portfolioBatchWriter.processTrades(tradeDtos, chunkResultsConsumer));
+  }
+
+  /** Republishes dead-lettered trade events, returning how many were replayed. */
+  @PostMapping(path = "/trade/dead-letters/replay")
+  public int replayTradeDeadLetters(@RequestParam(defaultValue = "1000") int maxRecords) {
+    return tradeDeadLetterReplayer.replay(maxRecords);
+  }
+
+  /** Streams one result per line, flushing every chunk as soon as it has been written. */
+  private ResponseEntity<StreamingResponseBody> bulkResults(
+      Consumer<Consumer<List<BulkItemResult>>> bulkOperation) {
+    StreamingResponseBody responseBody =
+        outputStream ->
+            bulkOperation.accept(chunkResults -> writeChunk(outputStream, chunkResults));
+    return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(responseBody);
+  }
+
+  private void writeChunk(OutputStream outputStream, List<BulkItemResult> chunkResults) {
+    chunkResults.forEach(result -> writeLine(outputStream, result));
+    try {
+      outputStream.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void writeLine(OutputStream outputStream, Object value) {
+    try {
+      outputStream.write(objectMapper.writeValueAsBytes(value));
+      outputStream.write('\n');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
 }
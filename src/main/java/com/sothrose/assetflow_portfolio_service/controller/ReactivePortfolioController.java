@@ -0,0 +1,58 @@
+package com.sothrose.assetflow_portfolio_service.controller;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE;
+
+import com.sothrose.assetflow_portfolio_service.model.*;
+import com.sothrose.assetflow_portfolio_service.service.ReactivePortfolioService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@RequiredArgsConstructor
+@RestController
+@RequestMapping(path = "/v1/assetflow/reactive/portfolios")
+@ConditionalOnProperty(name = "portfolio.reactive.enabled", havingValue = "true")
+public class ReactivePortfolioController {
+
+  private final ReactivePortfolioService reactivePortfolioService;
+
+  @PostMapping(consumes = APPLICATION_JSON_VALUE)
+  public Mono<Void> createPortfolio(@RequestBody PortfolioDto portfolioDto) {
+    return reactivePortfolioService.createPortfolio(portfolioDto);
+  }
+
+  @GetMapping(path = "/{portfolioId}", produces = APPLICATION_JSON_VALUE)
+  public Mono<PortfolioDto> getPortfolioById(@PathVariable String portfolioId) {
+    return reactivePortfolioService.fetchPortfolioById(portfolioId);
+  }
+
+  @GetMapping(
+      path = "/all/{userId}",
+      produces = {APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+  public Flux<PortfolioDto> getAllPortfoliosForUser(@PathVariable Long userId) {
+    return reactivePortfolioService.fetchAllPortfoliosForUser(userId);
+  }
+
+  @DeleteMapping(path = "/{portfolioId}")
+  public Mono<Void> deletePortfolioById(@PathVariable String portfolioId) {
+    return reactivePortfolioService.deletePortfolioById(portfolioId);
+  }
+
+  @PostMapping(path = "/deposit", consumes = APPLICATION_JSON_VALUE)
+  public Mono<ProcessingStatus> processDeposit(@RequestBody DepositDto depositDto) {
+    return reactivePortfolioService.deposit(depositDto);
+  }
+
+  @PostMapping(path = "/withdraw", consumes = APPLICATION_JSON_VALUE)
+  public Mono<ProcessingStatus> processWithdraw(@RequestBody WithdrawDto withdrawDto) {
+    return reactivePortfolioService.withdraw(withdrawDto);
+  }
+
+  @PostMapping(path = "/trade", consumes = APPLICATION_JSON_VALUE)
+  public Mono<ProcessingStatus> processTrade(@RequestBody TradeDto tradeDto) {
+    return reactivePortfolioService.processTrade(tradeDto);
+  }
+}
@@ -0,0 +1,7 @@
+package com.sothrose.assetflow_portfolio_service.exception;
+
+public class AssetQuantityOutOfRangeException extends RuntimeException {
+  public AssetQuantityOutOfRangeException(String message) {
+    super(message);
+  }
+}
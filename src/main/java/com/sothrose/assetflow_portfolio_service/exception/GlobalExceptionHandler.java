@@ -1,8 +1,10 @@
 package com.sothrose.assetflow_portfolio_service.exception;
 
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.CONFLICT;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
 
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
@@ -15,6 +17,7 @@ public class GlobalExceptionHandler {
     PortfolioDtoValidationException.class,
     PortfolioAlreadyPresentException.class,
     NotEnoughAssetQuantityException.class,
+    AssetQuantityOutOfRangeException.class,
     PortfolioNotPresentException.class,
     TradeDtoValidationException.class,
     UserNotActiveException.class,
@@ -24,6 +27,11 @@ public class GlobalExceptionHandler {
     return ResponseEntity.status(BAD_REQUEST).body(ex.getMessage());
   }
 
+  @ExceptionHandler(OptimisticLockingFailureException.class)
+  public ResponseEntity<String> handleConcurrentModificationException(Exception ex) {
+    return ResponseEntity.status(CONFLICT).body(ex.getMessage());
+  }
+
   @ExceptionHandler(Exception.class)
   public ResponseEntity<String> handleGeneralException(Exception ex) {
     return ResponseEntity.status(INTERNAL_SERVER_ERROR)
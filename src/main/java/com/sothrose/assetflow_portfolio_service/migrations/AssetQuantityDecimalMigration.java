@@ -0,0 +1,59 @@
+package com.sothrose.assetflow_portfolio_service.migrations;
+
+import static com.sothrose.assetflow_portfolio_service.migrations.MongoDBMigration.PORTFOLIOS_COLLECTION;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.ASSETS_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.QUANTITY_FIELD;
+
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Converts asset quantities stored as strings into Decimal128, so they can be changed with
+ * in-database arithmetic and compared numerically in update conditions.
+ */
+@RequiredArgsConstructor
+@ChangeUnit(id = "asset-quantity-decimal128", order = "002", author = "sothrose")
+public class AssetQuantityDecimalMigration {
+
+  public static final String ASSET_QUANTITY_FIELD = ASSETS_FIELD + "." + QUANTITY_FIELD;
+
+  private final MongoTemplate mongoTemplate;
+
+  @Execution
+  public void changeSet() {
+    convertQuantities("string", "$toDecimal");
+  }
+
+  @RollbackExecution
+  public void rollback() {
+    convertQuantities("decimal", "$toString");
+  }
+
+  private void convertQuantities(String fromType, String conversionOperator) {
+    var convertedAssets =
+        new Document(
+            "$map",
+            new Document("input", "$" + ASSETS_FIELD)
+                .append("as", "asset")
+                .append(
+                    "in",
+                    new Document(
+                        "$mergeObjects",
+                        List.of(
+                            "$$asset",
+                            new Document(
+                                "quantity",
+                                new Document(conversionOperator, "$$asset.quantity"))))));
+
+    mongoTemplate
+        .getCollection(PORTFOLIOS_COLLECTION)
+        .updateMany(
+            new Document(ASSET_QUANTITY_FIELD, new Document("$type", fromType)),
+            List.of(new Document("$set", new Document(ASSETS_FIELD, convertedAssets))));
+  }
+}
@@ -0,0 +1,122 @@
+package com.sothrose.assetflow_portfolio_service.migrations;
+
+import static com.sothrose.assetflow_portfolio_service.migrations.MongoDBMigration.PORTFOLIOS_COLLECTION;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.ASSETS_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.ASSET_TYPE_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.ID_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.NAME_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.QUANTITY_FIELD;
+import static java.math.RoundingMode.DOWN;
+import static java.util.Objects.isNull;
+
+import com.sothrose.assetflow_portfolio_service.model.AssetType;
+import com.sothrose.assetflow_portfolio_service.model.Quantity;
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Normalizes asset quantities saved before quantities were kept at the scale of their asset type,
+ * see {@link Quantity}, which cannot be read anymore. Quantities with more decimal places than the
+ * scale are truncated to it, never crediting a fraction that was not held, and every truncated
+ * remainder is logged. Quantities out of the range of the scale cannot be normalized without
+ * losing the balance, so they are only logged to be corrected by hand. A portfolio changed while
+ * it is normalized is left as is and logged too.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@ChangeUnit(id = "asset-quantity-scale", order = "008", author = "sothrose")
+public class AssetQuantityScaleMigration {
+
+  private final MongoTemplate mongoTemplate;
+
+  @Execution
+  public void changeSet() {
+    var portfolios = mongoTemplate.getCollection(PORTFOLIOS_COLLECTION);
+    for (var portfolio :
+        portfolios
+            .find(new Document(ASSETS_FIELD, new Document("$type", "array")))
+            .projection(new Document(ASSETS_FIELD, 1))) {
+      var assets = portfolio.getList(ASSETS_FIELD, Document.class);
+      var normalizedAssets = normalizedAssets(portfolio.get(ID_FIELD), assets);
+      if (normalizedAssets.equals(assets)) {
+        continue;
+      }
+
+      var updateResult =
+          portfolios.updateOne(
+              new Document(ID_FIELD, portfolio.get(ID_FIELD)).append(ASSETS_FIELD, assets),
+              new Document("$set", new Document(ASSETS_FIELD, normalizedAssets)));
+      if (updateResult.getMatchedCount() == 0) {
+        log.error(
+            "Portfolio with id: [{}] changed while normalizing its asset quantities, left as is",
+            portfolio.get(ID_FIELD));
+      }
+    }
+  }
+
+  @RollbackExecution
+  public void rollback() {
+    // Truncated remainders are only logged, there is nothing to restore them from.
+  }
+
+  private static List<Document> normalizedAssets(Object portfolioId, List<Document> assets) {
+    List<Document> normalizedAssets = new ArrayList<>(assets.size());
+    for (var asset : assets) {
+      var quantity = asset.get(QUANTITY_FIELD);
+      var assetType = assetTypeOf(asset);
+      if (!(quantity instanceof Decimal128 decimal) || decimal.isNaN() || decimal.isInfinite()) {
+        normalizedAssets.add(asset);
+        continue;
+      }
+
+      var scale = Quantity.scaleOf(assetType);
+      var value = decimal.bigDecimalValue();
+      var truncated = value.stripTrailingZeros().scale() > scale;
+      var normalizedValue = truncated ? value.setScale(scale, DOWN) : value;
+      if (!Quantity.isRepresentable(normalizedValue, assetType)) {
+        log.error(
+            "Quantity: [{}] of asset: [{}] in portfolio with id: [{}] is out of range of: [{}] decimal places, left as is",
+            value,
+            asset.get(NAME_FIELD),
+            portfolioId,
+            scale);
+        normalizedAssets.add(asset);
+        continue;
+      }
+
+      if (truncated) {
+        log.warn(
+            "Truncating quantity: [{}] of asset: [{}] in portfolio with id: [{}] to: [{}], dropping: [{}]",
+            value,
+            asset.get(NAME_FIELD),
+            portfolioId,
+            normalizedValue,
+            value.subtract(normalizedValue));
+        asset = new Document(asset).append(QUANTITY_FIELD, new Decimal128(normalizedValue));
+      }
+      normalizedAssets.add(asset);
+    }
+    return normalizedAssets;
+  }
+
+  private static AssetType assetTypeOf(Document asset) {
+    var assetType = asset.getString(ASSET_TYPE_FIELD);
+    if (isNull(assetType)) {
+      return null;
+    }
+
+    try {
+      return AssetType.valueOf(assetType);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
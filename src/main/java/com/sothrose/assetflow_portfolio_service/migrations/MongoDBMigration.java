@@ -1,5 +1,7 @@
 package com.sothrose.assetflow_portfolio_service.migrations;
 
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.USER_ID_FIELD;
+
 import io.mongock.api.annotations.ChangeUnit;
 import io.mongock.api.annotations.Execution;
 import io.mongock.api.annotations.RollbackExecution;
@@ -13,7 +15,6 @@ import org.springframework.data.mongodb.core.index.Index;
 public class MongoDBMigration {
 
   public static final String PORTFOLIOS_COLLECTION = "portfolios";
-  public static final String USER_ID_FIELD = "userId";
 
   private final MongoTemplate mongoTemplate;
 
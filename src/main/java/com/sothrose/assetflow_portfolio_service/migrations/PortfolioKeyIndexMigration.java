@@ -0,0 +1,53 @@
+package com.sothrose.assetflow_portfolio_service.migrations;
+
+import static com.sothrose.assetflow_portfolio_service.migrations.MongoDBMigration.PORTFOLIOS_COLLECTION;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.EXCHANGE_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.PORTFOLIO_TYPE_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.USER_ID_FIELD;
+
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+/**
+ * Replaces the unique index on the user id with a unique index on user, portfolio type and
+ * exchange, so a user can hold one portfolio per type and exchange. The new index also serves the
+ * lookups by user id through its prefix. It is built before the old one is dropped and the build
+ * does not block reads and writes, so portfolios stay available and unique throughout.
+ */
+@RequiredArgsConstructor
+@ChangeUnit(id = "portfolio-key-index", order = "005", author = "sothrose")
+public class PortfolioKeyIndexMigration {
+
+  public static final String PORTFOLIO_KEY_INDEX = "userId_portfolioType_exchange";
+  public static final String USER_ID_INDEX = "userId_1";
+
+  private final MongoTemplate mongoTemplate;
+
+  @Execution
+  public void changeSet() {
+    var indexOps = mongoTemplate.indexOps(PORTFOLIOS_COLLECTION);
+    indexOps.ensureIndex(
+        new Index()
+            .on(USER_ID_FIELD, Sort.Direction.ASC)
+            .on(PORTFOLIO_TYPE_FIELD, Sort.Direction.ASC)
+            .on(EXCHANGE_FIELD, Sort.Direction.ASC)
+            .named(PORTFOLIO_KEY_INDEX)
+            .unique());
+
+    if (indexOps.getIndexInfo().stream().anyMatch(index -> USER_ID_INDEX.equals(index.getName()))) {
+      indexOps.dropIndex(USER_ID_INDEX);
+    }
+  }
+
+  @RollbackExecution
+  public void rollback() {
+    var indexOps = mongoTemplate.indexOps(PORTFOLIOS_COLLECTION);
+    indexOps.ensureIndex(new Index().on(USER_ID_FIELD, Sort.Direction.ASC).unique());
+    indexOps.dropIndex(PORTFOLIO_KEY_INDEX);
+  }
+}
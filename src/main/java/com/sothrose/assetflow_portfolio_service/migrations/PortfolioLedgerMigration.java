@@ -0,0 +1,110 @@
+package com.sothrose.assetflow_portfolio_service.migrations;
+
+import static com.sothrose.assetflow_portfolio_service.migrations.MongoDBMigration.PORTFOLIOS_COLLECTION;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.ASSETS_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.ID_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.NAME_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.QUANTITY_FIELD;
+
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ * Creates the portfolio ledger and its snapshots. Every present portfolio gets an opening snapshot
+ * of its current assets, so balances are known from the moment the ledger starts. Events still
+ * waiting in the outbox are already part of the opening snapshot and fall before its time.
+ */
+@RequiredArgsConstructor
+@ChangeUnit(id = "portfolio-ledger", order = "007", author = "sothrose")
+public class PortfolioLedgerMigration {
+
+  public static final String LEDGER_COLLECTION = "portfolioLedger";
+  public static final String SNAPSHOTS_COLLECTION = "portfolioSnapshots";
+  public static final String PORTFOLIO_ID_FIELD = "portfolioId";
+  public static final String TIMESTAMP_FIELD = "timestamp";
+  public static final String AS_OF_FIELD = "asOf";
+  public static final String BALANCES_FIELD = "balances";
+  public static final String OPENING_FIELD = "opening";
+  public static final String LEDGER_PORTFOLIO_INDEX = "portfolioId_timestamp";
+  public static final String LEDGER_TIMESTAMP_INDEX = "timestamp";
+  public static final String SNAPSHOT_PORTFOLIO_INDEX = "portfolioId_asOf";
+
+  private static final int INSERT_BATCH_SIZE = 1000;
+
+  private final MongoTemplate mongoTemplate;
+
+  @Execution
+  public void changeSet() {
+    mongoTemplate
+        .indexOps(LEDGER_COLLECTION)
+        .ensureIndex(
+            new Index()
+                .on(PORTFOLIO_ID_FIELD, Sort.Direction.ASC)
+                .on(TIMESTAMP_FIELD, Sort.Direction.ASC)
+                .named(LEDGER_PORTFOLIO_INDEX));
+    mongoTemplate
+        .indexOps(LEDGER_COLLECTION)
+        .ensureIndex(
+            new Index().on(TIMESTAMP_FIELD, Sort.Direction.ASC).named(LEDGER_TIMESTAMP_INDEX));
+    mongoTemplate
+        .indexOps(SNAPSHOTS_COLLECTION)
+        .ensureIndex(
+            new Index()
+                .on(PORTFOLIO_ID_FIELD, Sort.Direction.ASC)
+                .on(AS_OF_FIELD, Sort.Direction.DESC)
+                .named(SNAPSHOT_PORTFOLIO_INDEX));
+
+    insertOpeningSnapshots(new Date());
+  }
+
+  private void insertOpeningSnapshots(Date asOf) {
+    var portfoliosQuery = new Query();
+    portfoliosQuery.fields().include(ID_FIELD).include(ASSETS_FIELD);
+
+    List<Document> snapshots = new ArrayList<>(INSERT_BATCH_SIZE);
+    try (var portfolios =
+        mongoTemplate.stream(portfoliosQuery, Document.class, PORTFOLIOS_COLLECTION)) {
+      portfolios.forEach(
+          portfolio -> {
+            snapshots.add(openingSnapshot(portfolio, asOf));
+            if (snapshots.size() == INSERT_BATCH_SIZE) {
+              mongoTemplate.insert(snapshots, SNAPSHOTS_COLLECTION);
+              snapshots.clear();
+            }
+          });
+    }
+    if (!snapshots.isEmpty()) {
+      mongoTemplate.insert(snapshots, SNAPSHOTS_COLLECTION);
+    }
+  }
+
+  private static Document openingSnapshot(Document portfolio, Date asOf) {
+    var balances =
+        portfolio.getList(ASSETS_FIELD, Document.class, List.of()).stream()
+            .map(
+                asset ->
+                    new Document(NAME_FIELD, asset.get(NAME_FIELD))
+                        .append(QUANTITY_FIELD, asset.get(QUANTITY_FIELD)))
+            .toList();
+    return new Document(PORTFOLIO_ID_FIELD, String.valueOf(portfolio.get(ID_FIELD)))
+        .append(AS_OF_FIELD, asOf)
+        .append(BALANCES_FIELD, balances)
+        .append(OPENING_FIELD, true);
+  }
+
+  @RollbackExecution
+  public void rollback() {
+    mongoTemplate.dropCollection(SNAPSHOTS_COLLECTION);
+    mongoTemplate.dropCollection(LEDGER_COLLECTION);
+  }
+}
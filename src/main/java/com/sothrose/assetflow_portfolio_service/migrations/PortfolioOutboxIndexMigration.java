@@ -0,0 +1,41 @@
+package com.sothrose.assetflow_portfolio_service.migrations;
+
+import static com.sothrose.assetflow_portfolio_service.migrations.MongoDBMigration.PORTFOLIOS_COLLECTION;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.PENDING_EVENT_ID_FIELD;
+
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+/**
+ * Indexes the ids of pending outbox events. The index is sparse, so it only holds portfolios
+ * with events waiting and the relay finds them without scanning the collection.
+ */
+@RequiredArgsConstructor
+@ChangeUnit(id = "portfolio-outbox-index", order = "004", author = "sothrose")
+public class PortfolioOutboxIndexMigration {
+
+  public static final String PENDING_EVENT_ID_INDEX = "pendingEvents_eventId";
+
+  private final MongoTemplate mongoTemplate;
+
+  @Execution
+  public void changeSet() {
+    mongoTemplate
+        .indexOps(PORTFOLIOS_COLLECTION)
+        .ensureIndex(
+            new Index()
+                .on(PENDING_EVENT_ID_FIELD, Sort.Direction.ASC)
+                .named(PENDING_EVENT_ID_INDEX)
+                .sparse());
+  }
+
+  @RollbackExecution
+  public void rollback() {
+    mongoTemplate.indexOps(PORTFOLIOS_COLLECTION).dropIndex(PENDING_EVENT_ID_INDEX);
+  }
+}
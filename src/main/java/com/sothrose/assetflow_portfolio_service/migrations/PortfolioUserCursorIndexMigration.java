@@ -0,0 +1,42 @@
+package com.sothrose.assetflow_portfolio_service.migrations;
+
+import static com.sothrose.assetflow_portfolio_service.migrations.MongoDBMigration.PORTFOLIOS_COLLECTION;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.ID_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.USER_ID_FIELD;
+
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+/**
+ * Indexes portfolios by user and id, so pages of the portfolios of a user are read in id order
+ * straight off the index, continuing after the cursor without sorting in memory.
+ */
+@RequiredArgsConstructor
+@ChangeUnit(id = "portfolio-user-cursor-index", order = "006", author = "sothrose")
+public class PortfolioUserCursorIndexMigration {
+
+  public static final String USER_CURSOR_INDEX = "userId__id";
+
+  private final MongoTemplate mongoTemplate;
+
+  @Execution
+  public void changeSet() {
+    mongoTemplate
+        .indexOps(PORTFOLIOS_COLLECTION)
+        .ensureIndex(
+            new Index()
+                .on(USER_ID_FIELD, Sort.Direction.ASC)
+                .on(ID_FIELD, Sort.Direction.ASC)
+                .named(USER_CURSOR_INDEX));
+  }
+
+  @RollbackExecution
+  public void rollback() {
+    mongoTemplate.indexOps(PORTFOLIOS_COLLECTION).dropIndex(USER_CURSOR_INDEX);
+  }
+}
@@ -0,0 +1,38 @@
+package com.sothrose.assetflow_portfolio_service.migrations;
+
+import static com.sothrose.assetflow_portfolio_service.migrations.MongoDBMigration.PORTFOLIOS_COLLECTION;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.VERSION_FIELD;
+
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Initializes the optimistic locking version of portfolios saved before it was introduced, so
+ * they are updated instead of inserted again and in-database updates can increment it.
+ */
+@RequiredArgsConstructor
+@ChangeUnit(id = "portfolio-version-initialization", order = "003", author = "sothrose")
+public class PortfolioVersionMigration {
+
+  private final MongoTemplate mongoTemplate;
+
+  @Execution
+  public void changeSet() {
+    mongoTemplate
+        .getCollection(PORTFOLIOS_COLLECTION)
+        .updateMany(
+            new Document(VERSION_FIELD, new Document("$exists", false)),
+            new Document("$set", new Document(VERSION_FIELD, 0L)));
+  }
+
+  @RollbackExecution
+  public void rollback() {
+    mongoTemplate
+        .getCollection(PORTFOLIOS_COLLECTION)
+        .updateMany(new Document(), new Document("$unset", new Document(VERSION_FIELD, "")));
+  }
+}
@@ -1,22 +1,76 @@
 package com.sothrose.assetflow_portfolio_service.model;
 
-import java.math.BigDecimal;
+import static org.springframework.data.mongodb.core.mapping.FieldType.DECIMAL128;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import java.math.BigDecimal;
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.mapping.Field;
 
-@AllArgsConstructor
-@Data
+/**
+ * Asset held by a portfolio. The quantity is kept as fixed-point units at the scale of the asset
+ * type, see {@link Quantity}, and exposed, stored and read as a {@code Decimal128} through the
+ * {@code quantity} property, which converts without loss in both directions.
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
 public class Asset {
-  private String name;
-  private BigDecimal quantity;
-  private AssetType assetType;
+  private final String name;
+
+  @Transient
+  @Getter(AccessLevel.NONE)
+  @EqualsAndHashCode.Exclude
+  @ToString.Exclude
+  private long quantityUnits;
+
+  private final AssetType assetType;
+
+  public Asset(String name, BigDecimal quantity, AssetType assetType) {
+    this.name = name;
+    this.assetType = assetType;
+    this.quantityUnits = Quantity.toUnits(quantity, assetType);
+  }
+
+  @Field(targetType = DECIMAL128)
+  @ToString.Include
+  public BigDecimal getQuantity() {
+    return Quantity.toDecimal(quantityUnits, assetType);
+  }
+
+  public void setQuantity(BigDecimal quantity) {
+    quantityUnits = Quantity.toUnits(quantity, assetType);
+  }
+
+  public long quantityUnits() {
+    return quantityUnits;
+  }
+
+  /** Converts the value to units at the scale of this asset. */
+  public long unitsOf(BigDecimal value) {
+    return Quantity.toUnits(value, assetType);
+  }
 
   public void addQuantity(BigDecimal value) {
-    quantity = quantity.add(value);
+    addUnits(unitsOf(value));
   }
 
   public void removeQuantity(BigDecimal value) {
-    quantity = quantity.subtract(value);
+    removeUnits(unitsOf(value));
+  }
+
+  public void addUnits(long units) {
+    quantityUnits = Quantity.add(quantityUnits, units);
+  }
+
+  public void removeUnits(long units) {
+    quantityUnits = Quantity.subtract(quantityUnits, units);
+  }
+
+  public boolean hasAtLeast(long units) {
+    return quantityUnits >= units;
   }
 }
@@ -0,0 +1,19 @@
+package com.sothrose.assetflow_portfolio_service.model;
+
+import static org.springframework.data.mongodb.core.mapping.FieldType.DECIMAL128;
+
+import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class AssetBalance {
+  private String name;
+
+  @Field(targetType = DECIMAL128)
+  private BigDecimal quantity;
+}
@@ -1,5 +1,14 @@
 package com.sothrose.assetflow_portfolio_service.model;
 
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
 public enum AssetType {
-    CRYPTO, STOCK
+  CRYPTO(8),
+  STOCK(6);
+
+  /** Decimal places quantities of assets of this type are kept with, see {@link Quantity}. */
+  private final int scale;
 }
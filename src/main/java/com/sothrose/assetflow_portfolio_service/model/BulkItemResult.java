@@ -0,0 +1,26 @@
+package com.sothrose.assetflow_portfolio_service.model;
+
+import static com.sothrose.assetflow_portfolio_service.model.ProcessingStatus.ERROR;
+import static com.sothrose.assetflow_portfolio_service.model.ProcessingStatus.SUCCESS;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** Outcome of a single item of a bulk request, identified by its index in the request. */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class BulkItemResult {
+  private int index;
+  private ProcessingStatus status;
+  private String error;
+
+  public static BulkItemResult success(int index) {
+    return new BulkItemResult(index, SUCCESS, null);
+  }
+
+  public static BulkItemResult error(int index, String error) {
+    return new BulkItemResult(index, ERROR, error);
+  }
+}
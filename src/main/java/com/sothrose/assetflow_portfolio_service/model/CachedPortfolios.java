@@ -0,0 +1,18 @@
+package com.sothrose.assetflow_portfolio_service.model;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Portfolios held by the portfolio read cache, either the single portfolio read by its id or all
+ * portfolios of a user, together with the time they were read from the database.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class CachedPortfolios {
+  private List<PortfolioDto> portfolios;
+  private long loadedAtInMs;
+}
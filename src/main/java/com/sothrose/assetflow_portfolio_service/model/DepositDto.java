@@ -15,4 +15,8 @@ public class DepositDto {
     private String assetName;
     private BigDecimal quantity;
     private AssetType assetType;
+
+    public Asset toAsset() {
+        return new Asset(assetName, quantity, assetType);
+    }
 }
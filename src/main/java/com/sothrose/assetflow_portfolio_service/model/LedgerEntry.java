@@ -0,0 +1,57 @@
+package com.sothrose.assetflow_portfolio_service.model;
+
+import static org.springframework.data.mongodb.core.mapping.FieldType.DECIMAL128;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Append-only record of one change of a portfolio. The id is the id of the event describing the
+ * change, so appending the same event twice keeps a single entry. Deposits only credit and
+ * withdrawals only debit an asset, trades do both.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Data
+@Document(collection = "portfolioLedger")
+public class LedgerEntry {
+  @Id private String id;
+  private String portfolioId;
+  private Long userId;
+  private ActionType actionType;
+  private LocalDateTime timestamp;
+  private String creditedAsset;
+
+  @Field(targetType = DECIMAL128)
+  private BigDecimal creditedQuantity;
+
+  private String debitedAsset;
+
+  @Field(targetType = DECIMAL128)
+  private BigDecimal debitedQuantity;
+
+  public static LedgerEntry of(String eventId, PortfolioUpdatedEvent event) {
+    var ledgerEntry =
+        LedgerEntry.builder()
+            .id(eventId)
+            .portfolioId(event.getPortfolioId())
+            .userId(event.getUserId())
+            .actionType(event.getActionType())
+            .timestamp(event.getTimestamp());
+    if (event.getActionType() != ActionType.WITHDRAW) {
+      ledgerEntry.creditedAsset(event.getHaveName()).creditedQuantity(event.getHaveValue());
+    }
+    if (event.getActionType() != ActionType.DEPOSIT) {
+      ledgerEntry.debitedAsset(event.getOwesName()).debitedQuantity(event.getOwesValue());
+    }
+    return ledgerEntry.build();
+  }
+}
@@ -0,0 +1,6 @@
+package com.sothrose.assetflow_portfolio_service.model;
+
+public enum PayloadFormat {
+  JSON,
+  BINARY
+}
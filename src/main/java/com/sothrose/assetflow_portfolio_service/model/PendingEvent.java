@@ -0,0 +1,22 @@
+package com.sothrose.assetflow_portfolio_service.model;
+
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Portfolio event waiting in the outbox of its portfolio document until the relay published it.
+ * The id lets the relay remove exactly the events it sent and lets consumers drop duplicates.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class PendingEvent {
+  private String eventId;
+  private PortfolioUpdatedEvent event;
+
+  public static PendingEvent of(PortfolioUpdatedEvent event) {
+    return new PendingEvent(UUID.randomUUID().toString(), event);
+  }
+}
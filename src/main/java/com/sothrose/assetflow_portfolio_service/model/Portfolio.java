@@ -1,22 +1,134 @@
 package com.sothrose.assetflow_portfolio_service.model;
 
+import static java.util.Locale.ROOT;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
-@Builder
 @Document(collection = "portfolios")
 public class Portfolio {
+  public static final int PROCESSED_TRADE_IDS_LIMIT = 100;
+
   @Id private String id;
   private Long userId;
   private AssetType portfolioType;
   private String exchange;
   private Set<Asset> assets;
+  @Version private Long version;
+
+  /** Outbox of events written together with the change they describe, drained by the relay. */
+  private List<PendingEvent> pendingEvents;
+
+  /**
+   * Ids of the latest trades applied to the portfolio, oldest first, capped at {@value
+   * #PROCESSED_TRADE_IDS_LIMIT}. Written together with the trade, so a redelivered trade is
+   * recognized even when the process applying it died right after the write.
+   */
+  private List<String> processedTradeIds;
+
+  /**
+   * Assets keyed by their lower-cased name. Not persisted, built from {@link #assets} on the first
+   * lookup after the portfolio was loaded or its assets were replaced.
+   */
+  @Transient
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  @EqualsAndHashCode.Exclude
+  @ToString.Exclude
+  private Map<String, Asset> assetIndex;
+
+  @Builder
+  public Portfolio(
+      String id,
+      Long userId,
+      AssetType portfolioType,
+      String exchange,
+      Set<Asset> assets,
+      Long version) {
+    this.id = id;
+    this.userId = userId;
+    this.portfolioType = portfolioType;
+    this.exchange = exchange;
+    this.assets = assets;
+    this.version = version;
+  }
+
+  public void setAssets(Set<Asset> assets) {
+    this.assets = assets;
+    this.assetIndex = null;
+  }
+
+  /** Finds the asset by name ignoring case, in constant time regardless of the asset count. */
+  public Optional<Asset> findAsset(String assetName) {
+    return Optional.ofNullable(assetIndex().get(indexKey(assetName)));
+  }
+
+  /** Adds an asset not held by the portfolio yet, keeping the index in sync. */
+  public void addAsset(Asset asset) {
+    if (isNull(assets)) {
+      assets = new HashSet<>();
+    }
+    assets.add(asset);
+    assetIndex().put(indexKey(asset.getName()), asset);
+  }
+
+  /** Queues the event in the outbox, to be published once this portfolio is written. */
+  public void addPendingEvent(PortfolioUpdatedEvent event) {
+    if (isNull(pendingEvents)) {
+      pendingEvents = new ArrayList<>();
+    }
+    pendingEvents.add(PendingEvent.of(event));
+  }
+
+  public boolean hasProcessedTrade(String tradeId) {
+    return nonNull(tradeId) && nonNull(processedTradeIds) && processedTradeIds.contains(tradeId);
+  }
+
+  /** Remembers the trade as applied, dropping the oldest ids beyond the limit. */
+  public void markTradeProcessed(String tradeId) {
+    if (isNull(tradeId)) {
+      return;
+    }
+    if (isNull(processedTradeIds)) {
+      processedTradeIds = new ArrayList<>();
+    }
+    processedTradeIds.add(tradeId);
+    if (processedTradeIds.size() > PROCESSED_TRADE_IDS_LIMIT) {
+      processedTradeIds.subList(0, processedTradeIds.size() - PROCESSED_TRADE_IDS_LIMIT).clear();
+    }
+  }
+
+  private Map<String, Asset> assetIndex() {
+    if (isNull(assetIndex)) {
+      var presentAssets = isNull(assets) ? Set.<Asset>of() : assets;
+      assetIndex = new HashMap<>(presentAssets.size() * 4 / 3 + 1);
+      presentAssets.forEach(asset -> assetIndex.putIfAbsent(indexKey(asset.getName()), asset));
+    }
+    return assetIndex;
+  }
+
+  private static String indexKey(String assetName) {
+    return assetName.toLowerCase(ROOT);
+  }
 }
@@ -0,0 +1,16 @@
+package com.sothrose.assetflow_portfolio_service.model;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class PortfolioBalanceDto {
+  private String portfolioId;
+  private LocalDateTime asOf;
+  private List<AssetBalance> balances;
+}
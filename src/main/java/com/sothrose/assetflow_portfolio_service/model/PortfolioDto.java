@@ -1,7 +1,6 @@
 package com.sothrose.assetflow_portfolio_service.model;
 
-import static java.util.Collections.emptySet;
-
+import java.util.HashSet;
 import java.util.Set;
 import lombok.*;
 
@@ -27,6 +26,12 @@ public class PortfolioDto {
   }
 
   public Portfolio toPortfolio() {
-    return new Portfolio(id, userId, portfolioType, exchangeName, emptySet());
+    return Portfolio.builder()
+        .id(id)
+        .userId(userId)
+        .portfolioType(portfolioType)
+        .exchange(exchangeName)
+        .assets(new HashSet<>())
+        .build();
   }
 }
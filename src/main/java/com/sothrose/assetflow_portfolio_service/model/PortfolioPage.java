@@ -0,0 +1,18 @@
+package com.sothrose.assetflow_portfolio_service.model;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Page of the portfolios of a user. The next cursor is the id of the last portfolio of the page,
+ * null when there are no more portfolios.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class PortfolioPage {
+  private List<PortfolioDto> portfolios;
+  private String nextCursor;
+}
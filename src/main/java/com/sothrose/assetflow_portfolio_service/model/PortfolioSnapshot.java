@@ -0,0 +1,27 @@
+package com.sothrose.assetflow_portfolio_service.model;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Balances of all assets of a portfolio as of a point in time, including every ledger entry up to
+ * and including that time. Balance queries replay the ledger from the nearest earlier snapshot.
+ * Opening snapshots, taken when the ledger started, also include the events that were still waiting
+ * in the outbox, so they stay even when those events are appended behind them.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Document(collection = "portfolioSnapshots")
+public class PortfolioSnapshot {
+  @Id private String id;
+  private String portfolioId;
+  private LocalDateTime asOf;
+  private List<AssetBalance> balances;
+  private boolean opening;
+}
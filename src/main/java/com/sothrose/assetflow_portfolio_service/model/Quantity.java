@@ -0,0 +1,86 @@
+package com.sothrose.assetflow_portfolio_service.model;
+
+import static java.lang.String.format;
+import static java.util.Objects.isNull;
+
+import com.sothrose.assetflow_portfolio_service.exception.AssetQuantityOutOfRangeException;
+import java.math.BigDecimal;
+
+/**
+ * Fixed-point arithmetic of asset quantities kept as a long count of units, the smallest fraction
+ * representable at the scale of the asset type, e.g. satoshis for crypto assets. Adding,
+ * subtracting and comparing units allocates nothing, only converting from and to {@link
+ * BigDecimal} at the boundaries does. Conversions are exact: a quantity with more decimal places
+ * than the scale, or out of the range of a long, is rejected instead of rounded.
+ */
+public final class Quantity {
+  public static final int DEFAULT_SCALE = AssetType.CRYPTO.getScale();
+  public static final String OUT_OF_RANGE_ERROR_MSG =
+      "Quantity: [%s] cannot be represented with: [%s] decimal places";
+  public static final String OVERFLOW_ERROR_MSG =
+      "Quantity overflow when changing: [%s] units by: [%s] units";
+
+  private Quantity() {}
+
+  public static int scaleOf(AssetType assetType) {
+    return isNull(assetType) ? DEFAULT_SCALE : assetType.getScale();
+  }
+
+  public static long toUnits(BigDecimal value, AssetType assetType) {
+    var scale = scaleOf(assetType);
+    if (isNull(value)) {
+      throw new AssetQuantityOutOfRangeException(format(OUT_OF_RANGE_ERROR_MSG, null, scale));
+    }
+
+    try {
+      return value.movePointRight(scale).longValueExact();
+    } catch (ArithmeticException e) {
+      throw new AssetQuantityOutOfRangeException(format(OUT_OF_RANGE_ERROR_MSG, value, scale));
+    }
+  }
+
+  /** Returns the value unchanged, rejecting it if it cannot be converted to units exactly. */
+  public static BigDecimal requireRepresentable(BigDecimal value, AssetType assetType) {
+    toUnits(value, assetType);
+    return value;
+  }
+
+  /** Largest quantity representable at the scale of the asset type. */
+  public static BigDecimal maxQuantity(AssetType assetType) {
+    return toDecimal(Long.MAX_VALUE, assetType);
+  }
+
+  public static BigDecimal toDecimal(long units, AssetType assetType) {
+    return BigDecimal.valueOf(units, scaleOf(assetType));
+  }
+
+  public static boolean isRepresentable(BigDecimal value, AssetType assetType) {
+    try {
+      toUnits(value, assetType);
+      return true;
+    } catch (AssetQuantityOutOfRangeException e) {
+      return false;
+    }
+  }
+
+  public static long add(long units, long delta) {
+    try {
+      return Math.addExact(units, delta);
+    } catch (ArithmeticException e) {
+      throw new AssetQuantityOutOfRangeException(format(OVERFLOW_ERROR_MSG, units, delta));
+    }
+  }
+
+  /** Rejects the delta if adding it to the units would overflow, without adding it. */
+  public static void requireAddable(long units, long delta) {
+    add(units, delta);
+  }
+
+  public static long subtract(long units, long delta) {
+    try {
+      return Math.subtractExact(units, delta);
+    } catch (ArithmeticException e) {
+      throw new AssetQuantityOutOfRangeException(format(OVERFLOW_ERROR_MSG, units, -delta));
+    }
+  }
+}
@@ -9,6 +9,9 @@ import lombok.*;
 @Data
 @Builder
 public class TradeCreatedEvent {
+  /** Stable id of the trade, the same on every redelivery. */
+  private String eventId;
+
   private Long userId;
   private String assetToPay;
   private BigDecimal amountToPay;
@@ -19,6 +22,7 @@ public class TradeCreatedEvent {
 
   public TradeDto toTradeDto() {
     return TradeDto.builder()
+        .eventId(eventId)
         .userId(userId)
         .assetToPay(assetToPay)
         .amountToPay(amountToPay)
@@ -10,6 +10,7 @@ import lombok.*;
 @Setter
 @Builder
 public class TradeDto {
+  private String eventId;
   private Long userId;
   private String assetToPay;
   private BigDecimal amountToPay;
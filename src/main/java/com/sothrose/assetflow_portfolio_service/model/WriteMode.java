@@ -0,0 +1,6 @@
+package com.sothrose.assetflow_portfolio_service.model;
+
+public enum WriteMode {
+  ATOMIC,
+  OPTIMISTIC
+}
@@ -8,7 +8,8 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface PortfolioRepository extends MongoRepository<Portfolio, String> {
+public interface PortfolioRepository
+    extends MongoRepository<Portfolio, String>, PortfolioRepositoryCustom {
   List<Portfolio> findAllByUserId(Long userId);
 
   Optional<Portfolio> findByIdAndUserId(String id, Long userId);
@@ -0,0 +1,77 @@
+package com.sothrose.assetflow_portfolio_service.repository;
+
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.AssetType;
+import com.sothrose.assetflow_portfolio_service.model.PendingEvent;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import com.sothrose.assetflow_portfolio_service.model.TradeDto;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Single round-trip, in-database updates of portfolio assets. Quantities are changed with
+ * conditional updates instead of loading and saving the whole document, so concurrent operations
+ * on the same portfolio never overwrite each other. The pending event is appended to the outbox
+ * of the portfolio by the same update, only if the update matched.
+ */
+public interface PortfolioRepositoryCustom {
+
+  /**
+   * Adds the asset quantity to the matching asset, or appends the asset when the portfolio does
+   * not hold it yet.
+   *
+   * @return false when no portfolio with given id belongs to the user
+   */
+  boolean depositAsset(String portfolioId, Long userId, Asset asset, PendingEvent pendingEvent);
+
+  /**
+   * Subtracts the quantity from the matching asset only if the stored quantity is high enough.
+   *
+   * @return false when the portfolio, the asset or enough of its quantity is not present
+   */
+  boolean withdrawAsset(
+      String portfolioId,
+      Long userId,
+      String assetName,
+      BigDecimal quantity,
+      PendingEvent pendingEvent);
+
+  /**
+   * Applies both legs of the trade to the portfolio matching user, asset type and exchange, only
+   * if the stored quantity of the asset to pay is high enough.
+   *
+   * @return id of the updated portfolio, empty when the portfolio, the asset to pay or enough of
+   *     its quantity is not present
+   */
+  Optional<String> tradeAssets(TradeDto tradeDto, PendingEvent pendingEvent);
+
+  /**
+   * Checks whether the user already holds a portfolio of given type on the exchange. The check is
+   * answered from the key index alone, without reading the portfolio document.
+   */
+  boolean portfolioExists(Long userId, AssetType portfolioType, String exchange);
+
+  /**
+   * Removes the portfolio in a single round trip.
+   *
+   * @return the removed portfolio holding only its id and owner, empty when the portfolio is not
+   *     present
+   */
+  Optional<Portfolio> removeById(String portfolioId);
+
+  /**
+   * Reads at most the limit of portfolios of the user following the cursor, in id order, without
+   * their outbox.
+   *
+   * @param afterId id of the last portfolio of the previous page, null for the first page
+   */
+  List<Portfolio> findPageByUserId(Long userId, String afterId, int limit);
+
+  /**
+   * Streams all portfolios of the user off the database cursor, in id order, without their
+   * outbox. The stream holds the cursor open and has to be closed.
+   */
+  Stream<Portfolio> streamAllByUserId(Long userId);
+}
@@ -0,0 +1,103 @@
+package com.sothrose.assetflow_portfolio_service.repository;
+
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.depositQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.depositUpdate;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.portfolioKeyExistsQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.portfolioOwnerQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.tradeQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.tradeUpdate;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.userPortfoliosQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.withdrawQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.withdrawUpdate;
+
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.AssetType;
+import com.sothrose.assetflow_portfolio_service.model.PendingEvent;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import com.sothrose.assetflow_portfolio_service.model.TradeDto;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+public class PortfolioRepositoryCustomImpl implements PortfolioRepositoryCustom {
+
+  private final MongoTemplate mongoTemplate;
+  private final int cursorBatchSize;
+
+  public PortfolioRepositoryCustomImpl(
+      MongoTemplate mongoTemplate,
+      @Value("${portfolio.streaming.cursor-batch-size:100}") int cursorBatchSize) {
+    this.mongoTemplate = mongoTemplate;
+    this.cursorBatchSize = cursorBatchSize;
+  }
+
+  @Override
+  public boolean depositAsset(
+      String portfolioId, Long userId, Asset asset, PendingEvent pendingEvent) {
+    return mongoTemplate
+            .updateFirst(
+                depositQuery(portfolioId, userId, asset),
+                depositUpdate(asset, toDocument(pendingEvent)),
+                Portfolio.class)
+            .getMatchedCount()
+        > 0;
+  }
+
+  @Override
+  public boolean withdrawAsset(
+      String portfolioId,
+      Long userId,
+      String assetName,
+      BigDecimal quantity,
+      PendingEvent pendingEvent) {
+    return mongoTemplate
+            .updateFirst(
+                withdrawQuery(portfolioId, userId, assetName, quantity),
+                withdrawUpdate(quantity, toDocument(pendingEvent)),
+                Portfolio.class)
+            .getMatchedCount()
+        > 0;
+  }
+
+  @Override
+  public Optional<String> tradeAssets(TradeDto tradeDto, PendingEvent pendingEvent) {
+    return Optional.ofNullable(
+            mongoTemplate.findAndModify(
+                tradeQuery(tradeDto),
+                tradeUpdate(tradeDto, toDocument(pendingEvent)),
+                Portfolio.class))
+        .map(Portfolio::getId);
+  }
+
+  @Override
+  public boolean portfolioExists(Long userId, AssetType portfolioType, String exchange) {
+    return mongoTemplate.findOne(
+            portfolioKeyExistsQuery(userId, portfolioType, exchange), Portfolio.class)
+        != null;
+  }
+
+  @Override
+  public Optional<Portfolio> removeById(String portfolioId) {
+    return Optional.ofNullable(
+        mongoTemplate.findAndRemove(portfolioOwnerQuery(portfolioId), Portfolio.class));
+  }
+
+  @Override
+  public List<Portfolio> findPageByUserId(Long userId, String afterId, int limit) {
+    return mongoTemplate.find(userPortfoliosQuery(userId, afterId).limit(limit), Portfolio.class);
+  }
+
+  @Override
+  public Stream<Portfolio> streamAllByUserId(Long userId) {
+    return mongoTemplate.stream(
+        userPortfoliosQuery(userId, null).cursorBatchSize(cursorBatchSize), Portfolio.class);
+  }
+
+  private Document toDocument(PendingEvent pendingEvent) {
+    return (Document) mongoTemplate.getConverter().convertToMongoType(pendingEvent);
+  }
+}
@@ -0,0 +1,338 @@
+package com.sothrose.assetflow_portfolio_service.repository;
+
+import static com.sothrose.assetflow_portfolio_service.model.Portfolio.PROCESSED_TRADE_IDS_LIMIT;
+import static java.util.Locale.ROOT;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.regex.Pattern.quote;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.AssetType;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import com.sothrose.assetflow_portfolio_service.model.Quantity;
+import com.sothrose.assetflow_portfolio_service.model.TradeDto;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+/**
+ * Queries and updates changing portfolio assets in a single conditional round-trip, shared by the
+ * blocking and the reactive repositories. Every update also appends the event describing the
+ * change to the outbox of the portfolio, so both are written atomically, and increments the
+ * version of the portfolio, so a version-checked write of a copy read before the update fails
+ * instead of overwriting it. Also holds the lookups
+ * whose index usage is verified against a real database.
+ */
+public final class PortfolioUpdates {
+  public static final String ID_FIELD = "_id";
+  public static final String USER_ID_FIELD = "userId";
+  public static final String PORTFOLIO_TYPE_FIELD = "portfolioType";
+  public static final String EXCHANGE_FIELD = "exchange";
+  public static final String ASSETS_FIELD = "assets";
+  public static final String NAME_FIELD = "name";
+  public static final String QUANTITY_FIELD = "quantity";
+  public static final String ASSET_TYPE_FIELD = "assetType";
+  public static final String ASSET_VARIABLE = "asset";
+  public static final String ASSETS_VARIABLE = "assets";
+  public static final String PENDING_EVENTS_FIELD = "pendingEvents";
+  public static final String EVENT_ID_FIELD = "eventId";
+  public static final String PENDING_EVENT_ID_FIELD = PENDING_EVENTS_FIELD + "." + EVENT_ID_FIELD;
+  public static final String PROCESSED_TRADE_IDS_FIELD = "processedTradeIds";
+  public static final String VERSION_FIELD = "version";
+
+  /** Asset types an asset can be stored with, none for assets saved before types were added. */
+  private static final List<AssetType> STORED_ASSET_TYPES =
+      Stream.concat(Arrays.stream(AssetType.values()), Stream.of((AssetType) null)).toList();
+
+  private PortfolioUpdates() {}
+
+  /**
+   * Matches the portfolio unless it holds an asset of the name that cannot take the quantity, see
+   * {@link #assetUnableToAdd}, so the deposit never leaves a quantity unreadable at its scale.
+   */
+  public static Query depositQuery(String portfolioId, Long userId, Asset asset) {
+    return portfolioOfUser(portfolioId, userId)
+        .addCriteria(
+            where(ASSETS_FIELD)
+                .not()
+                .elemMatch(assetUnableToAdd(asset.getName(), asset.getQuantity())));
+  }
+
+  /** Adds the quantity to the matching asset, or appends the asset when not present yet. */
+  public static UpdateDefinition depositUpdate(Asset asset, Document pendingEvent) {
+    return pipelineUpdate(upsertAsset(presentAssets(), asset), pendingEvent);
+  }
+
+  public static Query withdrawQuery(
+      String portfolioId, Long userId, String assetName, BigDecimal quantity) {
+    return portfolioOfUser(portfolioId, userId)
+        .addCriteria(where(ASSETS_FIELD).elemMatch(assetWithAtLeast(assetName, quantity)));
+  }
+
+  /** Subtracts the quantity from the asset matched by {@link #withdrawQuery}. */
+  public static UpdateDefinition withdrawUpdate(BigDecimal quantity, Document pendingEvent) {
+    return new Update()
+        .inc(ASSETS_FIELD + ".$." + QUANTITY_FIELD, decimal(quantity.negate()))
+        .inc(VERSION_FIELD, 1)
+        .push(PENDING_EVENTS_FIELD, pendingEvent);
+  }
+
+  /**
+   * Matches the portfolio of the trade only if it holds enough of the asset to pay, can take the
+   * amount bought and has not applied the trade already, projecting nothing but its id.
+   */
+  public static Query tradeQuery(TradeDto tradeDto) {
+    var query =
+        portfolioKeyQuery(
+                tradeDto.getUserId(), tradeDto.getAssetType(), tradeDto.getExchangeName())
+            .addCriteria(
+                new Criteria()
+                    .andOperator(
+                        where(ASSETS_FIELD)
+                            .elemMatch(
+                                assetWithAtLeast(
+                                    tradeDto.getAssetToPay(), tradeDto.getAmountToPay())),
+                        where(ASSETS_FIELD)
+                            .not()
+                            .elemMatch(
+                                assetUnableToAdd(
+                                    tradeDto.getAssetToBuy(), tradeDto.getAmountBought()))));
+    if (nonNull(tradeDto.getEventId())) {
+      query.addCriteria(where(PROCESSED_TRADE_IDS_FIELD).ne(tradeDto.getEventId()));
+    }
+    query.fields().include(ID_FIELD);
+    return query;
+  }
+
+  /** Matches the portfolio by its unique key of user, portfolio type and exchange. */
+  public static Query portfolioKeyQuery(Long userId, AssetType portfolioType, String exchange) {
+    return query(
+        where(USER_ID_FIELD)
+            .is(userId)
+            .and(PORTFOLIO_TYPE_FIELD)
+            .is(portfolioType)
+            .and(EXCHANGE_FIELD)
+            .is(exchange));
+  }
+
+  /**
+   * Matches the portfolio by its unique key, projecting nothing but the key fields. With the id
+   * excluded the query is covered by the key index and never fetches the document.
+   */
+  public static Query portfolioKeyExistsQuery(
+      Long userId, AssetType portfolioType, String exchange) {
+    var query = portfolioKeyQuery(userId, portfolioType, exchange).limit(1);
+    query
+        .fields()
+        .include(USER_ID_FIELD, PORTFOLIO_TYPE_FIELD, EXCHANGE_FIELD)
+        .exclude(ID_FIELD);
+    return query;
+  }
+
+  /**
+   * Matches the portfolio by its id, projecting nothing but its owner, so removing it hands back
+   * whose portfolios changed without transferring the document.
+   */
+  public static Query portfolioOwnerQuery(String portfolioId) {
+    var query = query(where(ID_FIELD).is(portfolioId));
+    query.fields().include(USER_ID_FIELD);
+    return query;
+  }
+
+  /**
+   * Matches the portfolios of the user with an id greater than the cursor, in id order, leaving
+   * out the outbox. Served by the user and id index without sorting in memory.
+   *
+   * @param afterId id of the last portfolio already read, null to start from the first one
+   */
+  public static Query userPortfoliosQuery(Long userId, String afterId) {
+    var criteria = where(USER_ID_FIELD).is(userId);
+    if (nonNull(afterId)) {
+      criteria.and(ID_FIELD).gt(afterId);
+    }
+    var query = query(criteria).with(Sort.by(ID_FIELD));
+    query.fields().exclude(PENDING_EVENTS_FIELD).exclude(PROCESSED_TRADE_IDS_FIELD);
+    return query;
+  }
+
+  /**
+   * Pays from the asset to pay and credits or appends the bought asset, remembering the trade id
+   * among the latest {@value Portfolio#PROCESSED_TRADE_IDS_LIMIT} applied trades.
+   */
+  public static UpdateDefinition tradeUpdate(TradeDto tradeDto, Document pendingEvent) {
+    var assetsAfterPayment =
+        changeQuantity(
+            presentAssets(), tradeDto.getAssetToPay(), tradeDto.getAmountToPay().negate());
+    var assetBought =
+        new Asset(tradeDto.getAssetToBuy(), tradeDto.getAmountBought(), tradeDto.getAssetType());
+    var fields = assetsAndOutbox(upsertAsset(assetsAfterPayment, assetBought), pendingEvent);
+    if (nonNull(tradeDto.getEventId())) {
+      fields.append(
+          PROCESSED_TRADE_IDS_FIELD,
+          new Document(
+              "$slice",
+              List.of(
+                  appended(PROCESSED_TRADE_IDS_FIELD, literal(tradeDto.getEventId())),
+                  -PROCESSED_TRADE_IDS_LIMIT)));
+    }
+    return pipelineUpdate(fields);
+  }
+
+  private static AggregationUpdate pipelineUpdate(Document assets, Document pendingEvent) {
+    return pipelineUpdate(assetsAndOutbox(assets, pendingEvent));
+  }
+
+  private static AggregationUpdate pipelineUpdate(Document fields) {
+    AggregationOperation setFields = context -> new Document("$set", fields);
+    return AggregationUpdate.from(List.of(setFields));
+  }
+
+  private static Document assetsAndOutbox(Document assets, Document pendingEvent) {
+    return new Document(ASSETS_FIELD, assets)
+        .append(PENDING_EVENTS_FIELD, appended(PENDING_EVENTS_FIELD, literal(pendingEvent)))
+        .append(VERSION_FIELD, incremented(VERSION_FIELD));
+  }
+
+  /** Adds one to the numeric field, treating a missing field as zero. */
+  private static Document incremented(String field) {
+    return new Document("$add", List.of(new Document("$ifNull", List.of("$" + field, 0L)), 1L));
+  }
+
+  /** Appends the value to the array field, treating a missing field as empty. */
+  private static Document appended(String arrayField, Object value) {
+    return new Document(
+        "$concatArrays",
+        List.of(
+            new Document("$ifNull", List.of("$" + arrayField, List.of())), List.of(value)));
+  }
+
+  private static Query portfolioOfUser(String portfolioId, Long userId) {
+    return query(where(ID_FIELD).is(portfolioId).and(USER_ID_FIELD).is(userId));
+  }
+
+  /**
+   * Matches an asset of the name holding at least the quantity, of a type whose scale the quantity
+   * does not have more decimal places than.
+   */
+  private static Criteria assetWithAtLeast(String assetName, BigDecimal quantity) {
+    var assetTypes =
+        STORED_ASSET_TYPES.stream()
+            .filter(assetType -> Quantity.isRepresentable(quantity, assetType))
+            .map(PortfolioUpdates::storedName)
+            .toList();
+    return assetNamed(assetName)
+        .and(QUANTITY_FIELD)
+        .gte(decimal(quantity))
+        .and(ASSET_TYPE_FIELD)
+        .in(assetTypes);
+  }
+
+  /**
+   * Matches an asset of the name that cannot take the quantity added, as it has more decimal places
+   * than the scale of the asset type or would take the sum out of the range of the scale.
+   */
+  private static Criteria assetUnableToAdd(String assetName, BigDecimal quantity) {
+    var ableToAdd =
+        STORED_ASSET_TYPES.stream()
+            .filter(assetType -> Quantity.isRepresentable(quantity, assetType))
+            .map(
+                assetType ->
+                    where(ASSET_TYPE_FIELD)
+                        .is(storedName(assetType))
+                        .and(QUANTITY_FIELD)
+                        .lte(decimal(Quantity.maxQuantity(assetType).subtract(quantity))))
+            .toList();
+    return ableToAdd.isEmpty()
+        ? assetNamed(assetName)
+        : assetNamed(assetName).norOperator(ableToAdd);
+  }
+
+  private static Criteria assetNamed(String assetName) {
+    return where(NAME_FIELD).regex("^" + quote(assetName) + "$", "i");
+  }
+
+  private static String storedName(AssetType assetType) {
+    return isNull(assetType) ? null : assetType.name();
+  }
+
+  private static Document presentAssets() {
+    return new Document("$ifNull", List.of("$" + ASSETS_FIELD, List.of()));
+  }
+
+  /** Adds the quantity to the asset when present in {@code assets}, appends it otherwise. */
+  private static Document upsertAsset(Object assets, Asset asset) {
+    var assetsVariable = "$$" + ASSETS_VARIABLE;
+    var presentNames =
+        new Document(
+            "$map",
+            new Document("input", assetsVariable)
+                .append("as", ASSET_VARIABLE)
+                .append("in", new Document("$toLower", "$$" + ASSET_VARIABLE + "." + NAME_FIELD)));
+    var isPresent =
+        new Document("$in", List.of(literal(asset.getName().toLowerCase(ROOT)), presentNames));
+    var newAsset =
+        new Document(NAME_FIELD, asset.getName())
+            .append(QUANTITY_FIELD, decimal(asset.getQuantity()))
+            .append(ASSET_TYPE_FIELD, asset.getAssetType().name());
+
+    return new Document(
+        "$let",
+        new Document("vars", new Document(ASSETS_VARIABLE, assets))
+            .append(
+                "in",
+                new Document(
+                    "$cond",
+                    List.of(
+                        isPresent,
+                        changeQuantity(assetsVariable, asset.getName(), asset.getQuantity()),
+                        new Document(
+                            "$concatArrays",
+                            List.of(assetsVariable, List.of(literal(newAsset))))))));
+  }
+
+  /** Adds {@code delta} to the quantity of the asset matching {@code assetName} ignoring case. */
+  private static Document changeQuantity(Object assets, String assetName, BigDecimal delta) {
+    var asset = "$$" + ASSET_VARIABLE;
+    var isMatchingAsset =
+        new Document(
+            "$eq",
+            List.of(
+                new Document("$toLower", asset + "." + NAME_FIELD),
+                literal(assetName.toLowerCase(ROOT))));
+    var changedAsset =
+        new Document(
+            "$mergeObjects",
+            List.of(
+                asset,
+                new Document(
+                    QUANTITY_FIELD,
+                    new Document(
+                        "$add", List.of(asset + "." + QUANTITY_FIELD, decimal(delta))))));
+
+    return new Document(
+        "$map",
+        new Document("input", assets)
+            .append("as", ASSET_VARIABLE)
+            .append("in", new Document("$cond", List.of(isMatchingAsset, changedAsset, asset))));
+  }
+
+  private static Document literal(Object value) {
+    return new Document("$literal", value);
+  }
+
+  private static Decimal128 decimal(BigDecimal value) {
+    return new Decimal128(value);
+  }
+}
@@ -0,0 +1,19 @@
+package com.sothrose.assetflow_portfolio_service.repository;
+
+import com.sothrose.assetflow_portfolio_service.model.AssetType;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Repository
+public interface ReactivePortfolioRepository
+    extends ReactiveMongoRepository<Portfolio, String>, ReactivePortfolioRepositoryCustom {
+  Flux<Portfolio> findAllByUserId(Long userId);
+
+  Mono<Portfolio> findByIdAndUserId(String id, Long userId);
+
+  Mono<Portfolio> findByUserIdAndPortfolioTypeAndExchange(
+      Long userId, AssetType portfolioType, String exchange);
+}
@@ -0,0 +1,48 @@
+package com.sothrose.assetflow_portfolio_service.repository;
+
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.AssetType;
+import com.sothrose.assetflow_portfolio_service.model.PendingEvent;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import com.sothrose.assetflow_portfolio_service.model.TradeDto;
+import java.math.BigDecimal;
+import reactor.core.publisher.Mono;
+
+/** Non-blocking counterpart of {@link PortfolioRepositoryCustom}, issuing the same updates. */
+public interface ReactivePortfolioRepositoryCustom {
+
+  /**
+   * @see PortfolioRepositoryCustom#depositAsset
+   */
+  Mono<Boolean> depositAsset(
+      String portfolioId, Long userId, Asset asset, PendingEvent pendingEvent);
+
+  /**
+   * @see PortfolioRepositoryCustom#withdrawAsset
+   */
+  Mono<Boolean> withdrawAsset(
+      String portfolioId,
+      Long userId,
+      String assetName,
+      BigDecimal quantity,
+      PendingEvent pendingEvent);
+
+  /**
+   * @return id of the updated portfolio, completes empty when the portfolio, the asset to pay or
+   *     enough of its quantity is not present
+   * @see PortfolioRepositoryCustom#tradeAssets
+   */
+  Mono<String> tradeAssets(TradeDto tradeDto, PendingEvent pendingEvent);
+
+  /**
+   * @see PortfolioRepositoryCustom#portfolioExists
+   */
+  Mono<Boolean> portfolioExists(Long userId, AssetType portfolioType, String exchange);
+
+  /**
+   * @return the removed portfolio holding only its id and owner, completes empty when the
+   *     portfolio is not present
+   * @see PortfolioRepositoryCustom#removeById
+   */
+  Mono<Portfolio> removeById(String portfolioId);
+}
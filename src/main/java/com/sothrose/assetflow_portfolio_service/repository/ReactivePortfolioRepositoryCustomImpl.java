@@ -0,0 +1,82 @@
+package com.sothrose.assetflow_portfolio_service.repository;
+
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.depositQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.depositUpdate;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.portfolioKeyExistsQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.portfolioOwnerQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.tradeQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.tradeUpdate;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.withdrawQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.withdrawUpdate;
+
+import com.mongodb.client.result.UpdateResult;
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.AssetType;
+import com.sothrose.assetflow_portfolio_service.model.PendingEvent;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import com.sothrose.assetflow_portfolio_service.model.TradeDto;
+import java.math.BigDecimal;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Mono;
+
+@RequiredArgsConstructor
+public class ReactivePortfolioRepositoryCustomImpl implements ReactivePortfolioRepositoryCustom {
+
+  private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+  @Override
+  public Mono<Boolean> depositAsset(
+      String portfolioId, Long userId, Asset asset, PendingEvent pendingEvent) {
+    return reactiveMongoTemplate
+        .updateFirst(
+            depositQuery(portfolioId, userId, asset),
+            depositUpdate(asset, toDocument(pendingEvent)),
+            Portfolio.class)
+        .map(ReactivePortfolioRepositoryCustomImpl::matched);
+  }
+
+  @Override
+  public Mono<Boolean> withdrawAsset(
+      String portfolioId,
+      Long userId,
+      String assetName,
+      BigDecimal quantity,
+      PendingEvent pendingEvent) {
+    return reactiveMongoTemplate
+        .updateFirst(
+            withdrawQuery(portfolioId, userId, assetName, quantity),
+            withdrawUpdate(quantity, toDocument(pendingEvent)),
+            Portfolio.class)
+        .map(ReactivePortfolioRepositoryCustomImpl::matched);
+  }
+
+  @Override
+  public Mono<String> tradeAssets(TradeDto tradeDto, PendingEvent pendingEvent) {
+    return reactiveMongoTemplate
+        .findAndModify(
+            tradeQuery(tradeDto), tradeUpdate(tradeDto, toDocument(pendingEvent)), Portfolio.class)
+        .map(Portfolio::getId);
+  }
+
+  @Override
+  public Mono<Boolean> portfolioExists(Long userId, AssetType portfolioType, String exchange) {
+    return reactiveMongoTemplate
+        .findOne(portfolioKeyExistsQuery(userId, portfolioType, exchange), Portfolio.class)
+        .hasElement();
+  }
+
+  @Override
+  public Mono<Portfolio> removeById(String portfolioId) {
+    return reactiveMongoTemplate.findAndRemove(portfolioOwnerQuery(portfolioId), Portfolio.class);
+  }
+
+  private static boolean matched(UpdateResult updateResult) {
+    return updateResult.getMatchedCount() > 0;
+  }
+
+  private Document toDocument(PendingEvent pendingEvent) {
+    return (Document) reactiveMongoTemplate.getConverter().convertToMongoType(pendingEvent);
+  }
+}
@@ -0,0 +1,80 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.sqrt;
+
+/**
+ * Concurrency limit of one dependency, sized by gradient control from the latency of its calls.
+ * The latency of every window is compared with the long-term latency of the dependency: while it
+ * stays within the tolerance the limit grows by its square root, beyond that it shrinks in
+ * proportion, down to half per window. The limit only grows while at least half of it is used,
+ * so a dependency that is idle or lightly used does not end up with a limit it was never tested
+ * with. Changes are smoothed, so a single slow window does not halve the limit.
+ */
+public class AdaptiveConcurrencyLimit {
+  /** Weight of a window in the long-term latency, about the last twenty windows. */
+  private static final double LONG_LATENCY_WEIGHT = 0.05;
+
+  /** Long-term latency is lowered this much faster once windows are twice as fast as it. */
+  private static final double LONG_LATENCY_DECAY = 0.9;
+
+  private static final double MIN_GRADIENT = 0.5;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double tolerance;
+  private final double smoothing;
+  private double limit;
+  private double longLatencyInNanos = Double.NaN;
+
+  /**
+   * @param tolerance how many times the long-term latency a window may take before the limit
+   *     shrinks
+   * @param smoothing share of the newly computed limit taken over per window, between 0 and 1
+   */
+  public AdaptiveConcurrencyLimit(
+      int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing) {
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.tolerance = tolerance;
+    this.smoothing = smoothing;
+    this.limit = max(minLimit, min(maxLimit, initialLimit));
+  }
+
+  /**
+   * Sizes the limit for the next window.
+   *
+   * @param latencyInNanos average latency of the calls finished in the window
+   * @param peakInFlight most calls in flight at once in the window
+   * @return limit for the next window
+   */
+  public synchronized int update(double latencyInNanos, int peakInFlight) {
+    if (latencyInNanos <= 0) {
+      return limit();
+    }
+
+    if (Double.isNaN(longLatencyInNanos)) {
+      longLatencyInNanos = latencyInNanos;
+    } else {
+      longLatencyInNanos =
+          longLatencyInNanos * (1 - LONG_LATENCY_WEIGHT) + latencyInNanos * LONG_LATENCY_WEIGHT;
+    }
+    if (longLatencyInNanos > 2 * latencyInNanos) {
+      longLatencyInNanos *= LONG_LATENCY_DECAY;
+    }
+
+    var gradient = max(MIN_GRADIENT, min(1.0, tolerance * longLatencyInNanos / latencyInNanos));
+    var newLimit = limit * gradient + sqrt(limit);
+    if (peakInFlight < limit / 2) {
+      newLimit = min(newLimit, limit);
+    }
+
+    limit = max(minLimit, min(maxLimit, limit * (1 - smoothing) + newLimit * smoothing));
+    return limit();
+  }
+
+  public synchronized int limit() {
+    return (int) Math.round(limit);
+  }
+}
@@ -0,0 +1,142 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.configuration.UserServiceWebClientConfig.BULKHEAD_USER_SERVICE_USER_DATA;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.MONGO_PORTFOLIO;
+import static com.sothrose.assetflow_portfolio_service.service.RedisService.BULKHEAD_REDIS_SERVICE;
+import static java.lang.Math.max;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sizes the semaphore bulkheads guarding mongo, redis and the user service from the latency of
+ * the calls they admit, see {@link AdaptiveConcurrencyLimit}, instead of keeping the sizes they
+ * were configured with. The configured sizes are only the starting limits. The bulkheads stay
+ * where they are in the decorator chains of their callers; the latency of every admitted call is
+ * taken from the {@link DependencyCallTimer}, which times every attempt on its own, so neither the
+ * backoff of a retry nor the wait for a permit is mistaken for a slower dependency.
+ *
+ * <p>Limits are changed on the bulkheads in place. A limit is never lowered below the calls in
+ * flight, since lowering a bulkhead waits for the permits it takes back; the rest of the decrease
+ * is applied in later windows. The current limit of every dependency is exported as a gauge.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(
+    name = "portfolio.adaptive-concurrency.enabled",
+    havingValue = "true",
+    matchIfMissing = true)
+public class AdaptiveConcurrencyLimiter {
+  public static final String CONCURRENCY_LIMIT_METRIC = "portfolio.concurrency.limit";
+  public static final String DEPENDENCY_TAG = "dependency";
+
+  /** Names of the limited bulkheads, under which their calls are timed too. */
+  public static final List<String> LIMITED_BULKHEADS =
+      List.of(MONGO_PORTFOLIO, BULKHEAD_REDIS_SERVICE, BULKHEAD_USER_SERVICE_USER_DATA);
+
+  private final List<LimitedDependency> dependencies;
+
+  public AdaptiveConcurrencyLimiter(
+      BulkheadRegistry bulkheadRegistry,
+      DependencyCallTimer dependencyCallTimer,
+      MeterRegistry meterRegistry,
+      @Value("${portfolio.adaptive-concurrency.min-limit:4}") int minLimit,
+      @Value("${portfolio.adaptive-concurrency.max-limit:200}") int maxLimit,
+      @Value("${portfolio.adaptive-concurrency.tolerance:2.0}") double tolerance,
+      @Value("${portfolio.adaptive-concurrency.smoothing:0.2}") double smoothing) {
+
+    this.dependencies =
+        LIMITED_BULKHEADS.stream()
+            .map(
+                bulkheadName -> {
+                  var bulkhead = bulkheadRegistry.bulkhead(bulkheadName);
+                  var limit =
+                      new AdaptiveConcurrencyLimit(
+                          bulkhead.getBulkheadConfig().getMaxConcurrentCalls(),
+                          minLimit,
+                          maxLimit,
+                          tolerance,
+                          smoothing);
+                  return new LimitedDependency(bulkhead, dependencyCallTimer, limit, meterRegistry);
+                })
+            .toList();
+  }
+
+  @Scheduled(fixedDelayString = "${portfolio.adaptive-concurrency.interval-in-ms:1000}")
+  public void adjustLimits() {
+    dependencies.forEach(LimitedDependency::adjust);
+  }
+
+  /** Latency and peak concurrency of the calls of one dependency, collected per window. */
+  private static class LimitedDependency {
+    private final Bulkhead bulkhead;
+    private final AdaptiveConcurrencyLimit limit;
+    private final LongAdder latencyInNanos = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    LimitedDependency(
+        Bulkhead bulkhead,
+        DependencyCallTimer dependencyCallTimer,
+        AdaptiveConcurrencyLimit limit,
+        MeterRegistry meterRegistry) {
+
+      this.bulkhead = bulkhead;
+      this.limit = limit;
+      dependencyCallTimer.onCall(bulkhead.getName(), this::recordCall);
+      bulkhead
+          .getEventPublisher()
+          .onCallPermitted(event -> peakInFlight.accumulateAndGet(inFlight(), Math::max));
+      Gauge.builder(CONCURRENCY_LIMIT_METRIC, bulkhead, LimitedDependency::currentLimit)
+          .description("Concurrent calls currently allowed to a dependency")
+          .tag(DEPENDENCY_TAG, bulkhead.getName())
+          .register(meterRegistry);
+    }
+
+    void adjust() {
+      var windowCalls = calls.sumThenReset();
+      var windowLatencyInNanos = latencyInNanos.sumThenReset();
+      var windowPeakInFlight = peakInFlight.getAndSet(0);
+      if (windowCalls == 0) {
+        return;
+      }
+
+      var target = limit.update((double) windowLatencyInNanos / windowCalls, windowPeakInFlight);
+      var current = currentLimit(bulkhead);
+      var next = max(target, inFlight());
+      if (next != current) {
+        log.debug(
+            "Changing concurrency limit of: [{}] from: [{}] to: [{}]",
+            bulkhead.getName(),
+            current,
+            next);
+        bulkhead.changeConfig(
+            BulkheadConfig.from(bulkhead.getBulkheadConfig()).maxConcurrentCalls(next).build());
+      }
+    }
+
+    private void recordCall(long callLatencyInNanos) {
+      latencyInNanos.add(callLatencyInNanos);
+      calls.increment();
+    }
+
+    private int inFlight() {
+      return currentLimit(bulkhead) - bulkhead.getMetrics().getAvailableConcurrentCalls();
+    }
+
+    private static int currentLimit(Bulkhead bulkhead) {
+      return bulkhead.getBulkheadConfig().getMaxConcurrentCalls();
+    }
+  }
+}
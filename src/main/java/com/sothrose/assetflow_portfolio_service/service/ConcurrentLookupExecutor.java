@@ -0,0 +1,116 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the user check and the portfolio read of an operation at the same time, so their latencies
+ * do not add up. The check runs on the calling thread and only the read is handed over to a lookup
+ * thread. A failed check cancels the read when it has not started yet, without interrupting it
+ * when it has, and is rethrown to the caller as it was thrown; a failed read is rethrown once the
+ * check passed. Reads wait for a lookup thread in a bounded queue; when the queue is full, the
+ * read runs on the calling thread after the check instead.
+ */
+@Slf4j
+@Component
+public class ConcurrentLookupExecutor implements DisposableBean {
+  public static final String LOOKUP_THREAD_PREFIX = "portfolio-lookup-";
+  public static final int DEFAULT_QUEUE_CAPACITY = 256;
+  public static final String LOOKUPS_SATURATED_LOG_MSG =
+      "Portfolio lookup queue is full, reading on the calling thread";
+
+  private final ExecutorService executor;
+
+  public ConcurrentLookupExecutor(int threads) {
+    this(threads, DEFAULT_QUEUE_CAPACITY, false);
+  }
+
+  /**
+   * @param threads platform threads running lookups, ignored on virtual threads, where every
+   *     lookup gets a thread of its own
+   * @param queueCapacity reads waiting for a platform thread, ignored on virtual threads, where no
+   *     read waits
+   */
+  @Autowired
+  public ConcurrentLookupExecutor(
+      @Value("${portfolio.lookups.threads:32}") int threads,
+      @Value("${portfolio.lookups.queue-capacity:256}") int queueCapacity,
+      @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+    this.executor =
+        virtualThreads
+            ? Executors.newThreadPerTaskExecutor(
+                new VirtualThreadTaskExecutor(LOOKUP_THREAD_PREFIX).getVirtualThreadFactory())
+            : new ThreadPoolExecutor(
+                threads,
+                threads,
+                0,
+                MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory(LOOKUP_THREAD_PREFIX));
+    log.info("Started portfolio lookups on virtual threads: [{}]", virtualThreads);
+  }
+
+  /**
+   * Runs the check and the read concurrently.
+   *
+   * @return result of the read, once the check passed
+   */
+  public <T> T readWhileChecking(Runnable check, Supplier<T> read) {
+    Future<T> readFuture;
+    try {
+      readFuture = executor.submit(read::get);
+    } catch (RejectedExecutionException e) {
+      log.debug(LOOKUPS_SATURATED_LOG_MSG);
+      check.run();
+      return read.get();
+    }
+
+    try {
+      check.run();
+      return readFuture.get();
+    } catch (ExecutionException e) {
+      throw rethrown(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CompletionException(e);
+    } finally {
+      readFuture.cancel(false);
+    }
+  }
+
+  private static RuntimeException rethrown(Throwable failure) {
+    if (failure instanceof RuntimeException runtimeException) {
+      return runtimeException;
+    }
+    if (failure instanceof Error error) {
+      throw error;
+    }
+    return new CompletionException(failure);
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    executor.shutdown();
+    if (!executor.awaitTermination(10, SECONDS)) {
+      log.warn("Portfolio lookups did not finish in time");
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static java.util.Objects.nonNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Times single calls to the dependencies guarded by bulkheads and hands the latency of every call
+ * to the listeners of the dependency, see {@link AdaptiveConcurrencyLimiter}. Dependencies are
+ * named after their bulkheads. Callers time the innermost call, inside the bulkhead and the retry,
+ * so every attempt is timed on its own and the backoff between attempts is never counted.
+ */
+@Component
+public class DependencyCallTimer {
+  private final Map<String, List<LongConsumer>> listenersByDependency = new ConcurrentHashMap<>();
+
+  /** Registers a listener of the latency, in nanoseconds, of every call to the dependency. */
+  public void onCall(String dependency, LongConsumer latencyInNanosListener) {
+    listenersByDependency
+        .computeIfAbsent(dependency, name -> new CopyOnWriteArrayList<>())
+        .add(latencyInNanosListener);
+  }
+
+  public void record(String dependency, long latencyInNanos) {
+    var listeners = listenersByDependency.get(dependency);
+    if (nonNull(listeners)) {
+      listeners.forEach(listener -> listener.accept(latencyInNanos));
+    }
+  }
+
+  public <T> Callable<T> decorateCallable(String dependency, Callable<T> call) {
+    return () -> {
+      var start = System.nanoTime();
+      try {
+        return call.call();
+      } finally {
+        record(dependency, System.nanoTime() - start);
+      }
+    };
+  }
+
+  public <T> T executeSupplier(String dependency, Supplier<T> call) {
+    var start = System.nanoTime();
+    try {
+      return call.get();
+    } finally {
+      record(dependency, System.nanoTime() - start);
+    }
+  }
+
+  public void executeRunnable(String dependency, Runnable call) {
+    executeSupplier(
+        dependency,
+        () -> {
+          call.run();
+          return null;
+        });
+  }
+
+  /** Times every subscription to the call on its own, so every resubscription of a retry too. */
+  public <T> Mono<T> decorateMono(String dependency, Mono<T> call) {
+    return Mono.defer(
+        () -> {
+          var start = System.nanoTime();
+          return call.doFinally(signal -> record(dependency, System.nanoTime() - start));
+        });
+  }
+
+  /** Times every subscription to the call until its last element, like a {@link Mono} call. */
+  public <T> Flux<T> decorateFlux(String dependency, Flux<T> call) {
+    return Flux.defer(
+        () -> {
+          var start = System.nanoTime();
+          return call.doFinally(signal -> record(dependency, System.nanoTime() - start));
+        });
+  }
+}
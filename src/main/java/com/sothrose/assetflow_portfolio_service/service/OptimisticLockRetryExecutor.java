@@ -0,0 +1,134 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static java.lang.Math.min;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Retries version-checked read-apply-write attempts on portfolios that lost an optimistic locking
+ * race. Attempts are bounded and separated by a full-jitter exponential backoff, so writers
+ * contending on the same portfolio spread out instead of colliding again.
+ */
+@Slf4j
+@Component
+public class OptimisticLockRetryExecutor {
+  public static final String WRITE_ATTEMPTS_METRIC = "portfolio.write.attempts";
+  public static final String WRITE_CONFLICTS_METRIC = "portfolio.write.conflicts";
+  public static final String RETRIES_EXHAUSTED_METRIC = "portfolio.write.retries.exhausted";
+  public static final String RETRY_DEPTH_METRIC = "portfolio.write.retry.depth";
+
+  private final int maxAttempts;
+  private final long initialBackoffInMs;
+  private final long maxBackoffInMs;
+  private final Counter writeAttempts;
+  private final Counter writeConflicts;
+  private final Counter retriesExhausted;
+  private final DistributionSummary retryDepth;
+
+  public OptimisticLockRetryExecutor(
+      @Value("${portfolio.optimistic-lock.max-attempts:5}") int maxAttempts,
+      @Value("${portfolio.optimistic-lock.initial-backoff-in-ms:5}") long initialBackoffInMs,
+      @Value("${portfolio.optimistic-lock.max-backoff-in-ms:100}") long maxBackoffInMs,
+      MeterRegistry meterRegistry) {
+
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffInMs = initialBackoffInMs;
+    this.maxBackoffInMs = maxBackoffInMs;
+    this.writeAttempts =
+        Counter.builder(WRITE_ATTEMPTS_METRIC)
+            .description("Version-checked portfolio write attempts")
+            .register(meterRegistry);
+    this.writeConflicts =
+        Counter.builder(WRITE_CONFLICTS_METRIC)
+            .description("Portfolio writes rejected by a newer version")
+            .register(meterRegistry);
+    this.retriesExhausted =
+        Counter.builder(RETRIES_EXHAUSTED_METRIC)
+            .description("Portfolio writes still conflicting after the last attempt")
+            .register(meterRegistry);
+    this.retryDepth =
+        DistributionSummary.builder(RETRY_DEPTH_METRIC)
+            .description("Retries needed until a portfolio write settled")
+            .publishPercentiles(0.5, 0.99)
+            .register(meterRegistry);
+  }
+
+  /**
+   * Runs the attempt until it does not fail with {@link OptimisticLockingFailureException}. The
+   * attempt has to re-read the portfolio every time it is called.
+   */
+  public <T> T execute(Supplier<T> writeAttempt) {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        writeAttempts.increment();
+        var result = writeAttempt.get();
+        retryDepth.record(attempt - 1);
+        return result;
+      } catch (OptimisticLockingFailureException e) {
+        writeConflicts.increment();
+        if (attempt >= maxAttempts || !backoff(attempt)) {
+          retriesExhausted.increment();
+          retryDepth.record(attempt - 1);
+          log.error(
+              "Portfolio write still conflicting after: [{}] attempts: [{}]",
+              attempt,
+              e.getMessage());
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs the attempt for all items, then again for the items it reported as conflicting, until
+   * none conflict or attempts run out.
+   *
+   * @return items still conflicting after the last attempt
+   */
+  public <T> List<T> executeAll(List<T> items, UnaryOperator<List<T>> writeAttempt) {
+    var pendingItems = items;
+    for (int attempt = 1; ; attempt++) {
+      writeAttempts.increment(pendingItems.size());
+      var conflictingItems = writeAttempt.apply(pendingItems);
+      writeConflicts.increment(conflictingItems.size());
+
+      if (conflictingItems.isEmpty()) {
+        retryDepth.record(attempt - 1);
+        return conflictingItems;
+      }
+
+      if (attempt >= maxAttempts || !backoff(attempt)) {
+        retriesExhausted.increment(conflictingItems.size());
+        retryDepth.record(attempt - 1);
+        log.error(
+            "Portfolio writes of: [{}] items still conflicting after: [{}] attempts",
+            conflictingItems.size(),
+            attempt);
+        return conflictingItems;
+      }
+
+      pendingItems = conflictingItems;
+    }
+  }
+
+  private boolean backoff(int attempt) {
+    var backoffCapInMs = min(maxBackoffInMs, initialBackoffInMs << min(attempt - 1, 30));
+    try {
+      Thread.sleep(ThreadLocalRandom.current().nextLong(backoffCapInMs + 1));
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
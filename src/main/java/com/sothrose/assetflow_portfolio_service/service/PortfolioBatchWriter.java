@@ -0,0 +1,655 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.EXCHANGE_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.ID_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.PENDING_EVENT_ID_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.PORTFOLIO_TYPE_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.USER_ID_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.VERSION_FIELD;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioMetrics.Stage.MONGO_READ;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioMetrics.Stage.MONGO_WRITE;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.BULK_WRITE_FAILED_ERROR_MSG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.DELIMITER;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.NOT_REPRESENTABLE_ERROR_MSG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.PORTFOLIO_NOT_PRESENT_ERROR_MSG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.PORTFOLIO_TYPE_NOT_PRESENT_ERROR_MSG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.USER_NOT_ACTIVE_EXCEPTION_MSG;
+import static java.lang.Math.min;
+import static java.lang.String.format;
+import static java.lang.String.join;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Optional.empty;
+import static org.springframework.data.mongodb.core.BulkOperations.BulkMode.UNORDERED;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.sothrose.assetflow_portfolio_service.exception.*;
+import com.sothrose.assetflow_portfolio_service.model.*;
+import com.sothrose.assetflow_portfolio_service.validator.TradeDtoValidator;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+/**
+ * Applies batches of deposits, withdrawals and trades grouped per portfolio: every touched
+ * portfolio is read once, has its operations applied in memory in the order they were received
+ * and is written back once, all portfolios of a batch in a single bulk write.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PortfolioBatchWriter {
+
+  @Value("${portfolio.bulk.chunk-size:500}")
+  private int bulkChunkSize;
+
+  private final TradeDtoValidator tradeDtoValidator;
+  private final MongoTemplate mongoTemplate;
+  private final OptimisticLockRetryExecutor optimisticLockRetryExecutor;
+  private final TradeLaneDispatcher tradeLaneDispatcher;
+  private final ProcessedTradeFilter processedTradeFilter;
+  private final PortfolioMetrics portfolioMetrics;
+  private final PortfolioReadCache portfolioReadCache;
+  private final ConcurrentLookupExecutor concurrentLookupExecutor;
+  private final UserStatusLookup userStatusLookup;
+  private final PortfolioRules portfolioRules;
+
+  /** Applies the deposits in chunks, handing over the results of every chunk once written. */
+  public void depositAll(
+      List<DepositDto> depositDtos, Consumer<List<BulkItemResult>> chunkResultsConsumer) {
+    applyInChunks(depositDtos, this::depositBatch, chunkResultsConsumer);
+  }
+
+  public void withdrawAll(
+      List<WithdrawDto> withdrawDtos, Consumer<List<BulkItemResult>> chunkResultsConsumer) {
+    applyInChunks(withdrawDtos, this::withdrawBatch, chunkResultsConsumer);
+  }
+
+  public void processTrades(
+      List<TradeDto> tradeDtos, Consumer<List<BulkItemResult>> chunkResultsConsumer) {
+    applyInChunks(tradeDtos, this::tradeBatch, chunkResultsConsumer);
+  }
+
+  /** Applies the trades as one batch, whatever their number, for the batch listener. */
+  PortfolioBatch applyTrades(List<TradeDto> tradeDtos) {
+    return applyBatch(tradeBatch(tradeDtos));
+  }
+
+  private <T> void applyInChunks(
+      List<T> items,
+      Function<List<T>, PortfolioBatch> batchFactory,
+      Consumer<List<BulkItemResult>> chunkResultsConsumer) {
+    for (int chunkStart = 0; chunkStart < items.size(); chunkStart += bulkChunkSize) {
+      var chunk = items.subList(chunkStart, min(chunkStart + bulkChunkSize, items.size()));
+      var batch = applyBatch(batchFactory.apply(chunk));
+      List<BulkItemResult> chunkResults = new ArrayList<>(chunk.size());
+      for (int i = 0; i < chunk.size(); i++) {
+        chunkResults.add(batch.resultOf(i, chunkStart + i));
+      }
+      chunkResultsConsumer.accept(chunkResults);
+    }
+  }
+
+  private PortfolioBatch tradeBatch(List<TradeDto> tradeDtos) {
+    var batch = new PortfolioBatch(tradeDtos.size());
+    for (int i = 0; i < tradeDtos.size(); i++) {
+      var tradeDto = tradeDtos.get(i);
+      var tradeDtoValidationErrors = tradeDtoValidator.validateTradeDto(tradeDto);
+      if (!tradeDtoValidationErrors.isEmpty()) {
+        var validationErrors = join(DELIMITER, tradeDtoValidationErrors);
+        log.error(
+            "TradeDto at batch index: [{}] contains validation errors, skipping: [{}]",
+            i,
+            validationErrors);
+        batch.reject(
+            i,
+            new TradeDtoValidationException(
+                format("TradeDto contains validation errors: [%s]", validationErrors)));
+        continue;
+      }
+
+      var tradeId = tradeDto.getEventId();
+      if (processedTradeFilter.isProcessed(tradeId)) {
+        portfolioRules.duplicateTradeSkipped(tradeId);
+        continue;
+      }
+
+      batch.add(
+          i,
+          new BatchOperation(
+              PortfolioKey.from(tradeDto),
+              tradeId,
+              portfolio -> portfolioRules.applyTrade(portfolio, tradeDto)));
+    }
+    return batch;
+  }
+
+  private PortfolioBatch depositBatch(List<DepositDto> depositDtos) {
+    var batch = new PortfolioBatch(depositDtos.size());
+    for (int i = 0; i < depositDtos.size(); i++) {
+      var depositDto = depositDtos.get(i);
+      var validationErrors =
+          bulkValidationErrors(
+              depositDto.getPortfolioId(),
+              depositDto.getUserId(),
+              depositDto.getAssetName(),
+              depositDto.getQuantity(),
+              depositDto.getAssetType());
+      if (!validationErrors.isEmpty()) {
+        batch.reject(
+            i,
+            new PortfolioDtoValidationException(
+                format("DepositDto contains validation errors: [%s]", validationErrors)));
+        continue;
+      }
+
+      batch.add(
+          i,
+          new BatchOperation(
+              new PortfolioIdKey(depositDto.getPortfolioId(), depositDto.getUserId()),
+              null,
+              portfolio -> applyDeposit(portfolio, depositDto)));
+    }
+    return batch;
+  }
+
+  private PortfolioBatch withdrawBatch(List<WithdrawDto> withdrawDtos) {
+    var batch = new PortfolioBatch(withdrawDtos.size());
+    for (int i = 0; i < withdrawDtos.size(); i++) {
+      var withdrawDto = withdrawDtos.get(i);
+      var validationErrors =
+          bulkValidationErrors(
+              withdrawDto.getPortfolioId(),
+              withdrawDto.getUserId(),
+              withdrawDto.getAssetName(),
+              withdrawDto.getQuantityToWithdraw(),
+              withdrawDto.getAssetType());
+      if (!validationErrors.isEmpty()) {
+        batch.reject(
+            i,
+            new PortfolioDtoValidationException(
+                format("WithdrawDto contains validation errors: [%s]", validationErrors)));
+        continue;
+      }
+
+      batch.add(
+          i,
+          new BatchOperation(
+              new PortfolioIdKey(withdrawDto.getPortfolioId(), withdrawDto.getUserId()),
+              null,
+              portfolio -> applyWithdrawal(portfolio, withdrawDto)));
+    }
+    return batch;
+  }
+
+  /**
+   * Checks all users of the batch while its portfolios are read, then writes the portfolios,
+   * re-reading and re-applying the ones changed concurrently in the meantime.
+   */
+  private PortfolioBatch applyBatch(PortfolioBatch batch) {
+    if (batch.indexesByPortfolio().isEmpty()) {
+      return batch;
+    }
+
+    var portfolioKeys = new ArrayList<>(batch.indexesByPortfolio().keySet());
+    var prefetchedPortfolios =
+        concurrentLookupExecutor.readWhileChecking(
+            () -> prefetchActiveUsers(batch), () -> fetchPortfoliosByKey(portfolioKeys));
+    var firstAttemptDone = new AtomicBoolean();
+    var conflictingPortfolios =
+        optimisticLockRetryExecutor.executeAll(
+            portfolioKeys,
+            pendingKeys ->
+                writePortfolioBatch(
+                    batch,
+                    pendingKeys,
+                    firstAttemptDone.getAndSet(true)
+                        ? fetchPortfoliosByKey(pendingKeys)
+                        : prefetchedPortfolios));
+    conflictingPortfolios.forEach(batch::markFailed);
+    batch.appliedTradeIds().forEach(processedTradeFilter::markProcessed);
+    return batch;
+  }
+
+  /**
+   * Applies the operations on the lanes of the portfolio owners and writes the portfolios back in
+   * one bulk write.
+   *
+   * @return portfolios whose write lost an optimistic locking race and has to be re-applied
+   */
+  private List<BatchKey> writePortfolioBatch(
+      PortfolioBatch batch,
+      List<BatchKey> portfolioKeys,
+      Map<BatchKey, Portfolio> portfoliosByKey) {
+    var portfolioWriteFutures =
+        portfolioKeys.stream()
+            .map(
+                key ->
+                    tradeLaneDispatcher.dispatch(
+                        key.userId(),
+                        () -> preparePortfolioWrite(batch, key, portfoliosByKey.get(key))))
+            .toList();
+    var portfolioWrites =
+        portfolioWriteFutures.stream()
+            .map(CompletableFuture::join)
+            .flatMap(Optional::stream)
+            .toList();
+
+    if (portfolioWrites.isEmpty()) {
+      return List.of();
+    }
+
+    var bulkWriteOutcome = bulkSavePortfolios(portfolioWrites);
+    List<BatchKey> conflictingPortfolios = new ArrayList<>();
+    List<String> writtenPortfolioIds = new ArrayList<>();
+    List<Long> writtenUserIds = new ArrayList<>();
+    for (int i = 0; i < portfolioWrites.size(); i++) {
+      var portfolioWrite = portfolioWrites.get(i);
+      if (bulkWriteOutcome.conflictingWrites().get(i)) {
+        conflictingPortfolios.add(portfolioWrite.key());
+      } else if (bulkWriteOutcome.failedWrites().get(i)) {
+        batch.markFailed(portfolioWrite.key());
+      } else {
+        writtenPortfolioIds.add(portfolioWrite.portfolio().getId());
+        writtenUserIds.add(portfolioWrite.key().userId());
+      }
+    }
+    portfolioReadCache.invalidateAll(writtenPortfolioIds, writtenUserIds);
+    return conflictingPortfolios;
+  }
+
+  private void prefetchActiveUsers(PortfolioBatch batch) {
+    var userIds =
+        batch.indexesByPortfolio().keySet().stream().map(BatchKey::userId).distinct().toList();
+    batch.activeUsers().putAll(userStatusLookup.activeStatuses(userIds));
+  }
+
+  /** Maps every portfolio under both its id and its user, type and exchange key. */
+  private Map<BatchKey, Portfolio> fetchPortfoliosByKey(List<BatchKey> portfolioKeys) {
+    var portfolioCriteria = portfolioKeys.stream().map(BatchKey::criteria).toArray(Criteria[]::new);
+
+    Map<BatchKey, Portfolio> portfoliosByKey = new HashMap<>();
+    var readStart = portfolioMetrics.start();
+    var portfolios =
+        mongoTemplate.find(query(new Criteria().orOperator(portfolioCriteria)), Portfolio.class);
+    portfolioMetrics.record(MONGO_READ, readStart);
+    portfolios.forEach(
+        portfolio -> {
+          portfoliosByKey.putIfAbsent(PortfolioIdKey.from(portfolio), portfolio);
+          portfoliosByKey.putIfAbsent(PortfolioKey.from(portfolio), portfolio);
+        });
+    return portfoliosByKey;
+  }
+
+  private Optional<PortfolioWrite> preparePortfolioWrite(
+      PortfolioBatch batch, BatchKey key, Portfolio portfolio) {
+    var userId = key.userId();
+    var indexes = batch.indexesByPortfolio().get(key);
+    if (!isActiveUserInBatch(batch, userId)) {
+      portfolioRules.userNotActiveLog(userId);
+      batch.rejectAll(
+          indexes, new UserNotActiveException(format(USER_NOT_ACTIVE_EXCEPTION_MSG, userId)));
+      return empty();
+    }
+
+    if (isNull(portfolio)) {
+      var notPresent = key.notPresent();
+      log.error("{}, skipping: [{}] operations", notPresent.getMessage(), indexes.size());
+      batch.rejectAll(indexes, notPresent);
+      return empty();
+    }
+
+    var portfolioWrite = new PortfolioWrite(key, portfolio);
+    for (var index : indexes) {
+      var operation = batch.operations().get(index);
+      if (portfolio.hasProcessedTrade(operation.tradeId())) {
+        portfolioRules.duplicateTradeSkipped(operation.tradeId());
+        batch.rejections().remove(index);
+        continue;
+      }
+
+      try {
+        portfolioWrite.add(index, operation.applyTo(portfolio));
+        portfolio.markTradeProcessed(operation.tradeId());
+        batch.rejections().remove(index);
+      } catch (AssetNotPresentException
+          | NotEnoughAssetQuantityException
+          | AssetQuantityOutOfRangeException e) {
+        log.error("Operation at batch index: [{}] rejected, skipping: [{}]", index, e.getMessage());
+        batch.reject(index, e);
+      }
+    }
+
+    return portfolioWrite.isEmpty() ? empty() : Optional.of(portfolioWrite);
+  }
+
+  /**
+   * Replaces every portfolio only if its version did not change since it was read. When fewer
+   * replacements matched than were sent, the ones that did not are told apart afterwards.
+   */
+  private BulkWriteOutcome bulkSavePortfolios(List<PortfolioWrite> portfolioWrites) {
+    var bulkOperations = mongoTemplate.bulkOps(UNORDERED, Portfolio.class);
+    portfolioWrites.forEach(
+        portfolioWrite -> {
+          var portfolio = portfolioWrite.portfolio();
+          var readVersion = portfolio.getVersion();
+          portfolio.setVersion(isNull(readVersion) ? 1L : readVersion + 1);
+          bulkOperations.replaceOne(
+              query(where(ID_FIELD).is(portfolio.getId()).and(VERSION_FIELD).is(readVersion)),
+              portfolio);
+        });
+
+    var bulkWriteOutcome =
+        new BulkWriteOutcome(
+            new BitSet(portfolioWrites.size()), new BitSet(portfolioWrites.size()));
+    var writeStart = portfolioMetrics.start();
+    BulkWriteResult bulkWriteResult;
+    try {
+      log.info("Saving: [{}] portfolios in a single bulk write", portfolioWrites.size());
+      bulkWriteResult = bulkOperations.execute();
+    } catch (BulkOperationException e) {
+      e.getErrors()
+          .forEach(
+              error -> {
+                log.error(
+                    "Bulk write of portfolio at index: [{}] failed: [{}]",
+                    error.getIndex(),
+                    error.getMessage());
+                bulkWriteOutcome.failedWrites().set(error.getIndex());
+              });
+      bulkWriteResult = e.getResult();
+    } catch (DataAccessException e) {
+      log.error(
+          "Bulk write of: [{}] portfolios failed: [{}]", portfolioWrites.size(), e.getMessage(), e);
+      bulkWriteOutcome.failedWrites().set(0, portfolioWrites.size());
+      portfolioMetrics.record(MONGO_WRITE, writeStart);
+      return bulkWriteOutcome;
+    }
+
+    var expectedMatches = portfolioWrites.size() - bulkWriteOutcome.failedWrites().cardinality();
+    if (bulkWriteResult.getMatchedCount() < expectedMatches) {
+      markConflictingWrites(portfolioWrites, bulkWriteOutcome);
+    }
+    portfolioMetrics.record(MONGO_WRITE, writeStart);
+    return bulkWriteOutcome;
+  }
+
+  /**
+   * A write matched if its newest event is still in the outbox of the stored portfolio, or already
+   * in the ledger, which the relay appends every event to before taking it out of the outbox.
+   */
+  private void markConflictingWrites(
+      List<PortfolioWrite> portfolioWrites, BulkWriteOutcome bulkWriteOutcome) {
+    Map<Integer, String> newestEventIdsByWrite = new HashMap<>();
+    for (int i = 0; i < portfolioWrites.size(); i++) {
+      if (!bulkWriteOutcome.failedWrites().get(i)) {
+        var pendingEvents = portfolioWrites.get(i).portfolio().getPendingEvents();
+        newestEventIdsByWrite.put(i, pendingEvents.getLast().getEventId());
+      }
+    }
+
+    var storedPortfoliosQuery =
+        query(
+            where(ID_FIELD)
+                .in(
+                    newestEventIdsByWrite.keySet().stream()
+                        .map(i -> portfolioWrites.get(i).portfolio().getId())
+                        .toList()));
+    storedPortfoliosQuery.fields().include(PENDING_EVENT_ID_FIELD);
+    Set<String> writtenEventIds = new HashSet<>();
+    mongoTemplate.find(storedPortfoliosQuery, Portfolio.class).stream()
+        .filter(portfolio -> nonNull(portfolio.getPendingEvents()))
+        .flatMap(portfolio -> portfolio.getPendingEvents().stream())
+        .forEach(pendingEvent -> writtenEventIds.add(pendingEvent.getEventId()));
+
+    var relayedEventsQuery =
+        query(
+            where(ID_FIELD)
+                .in(
+                    newestEventIdsByWrite.values().stream()
+                        .filter(eventId -> !writtenEventIds.contains(eventId))
+                        .toList()));
+    relayedEventsQuery.fields().include(ID_FIELD);
+    mongoTemplate
+        .find(relayedEventsQuery, LedgerEntry.class)
+        .forEach(ledgerEntry -> writtenEventIds.add(ledgerEntry.getId()));
+
+    newestEventIdsByWrite.forEach(
+        (index, eventId) -> {
+          if (!writtenEventIds.contains(eventId)) {
+            bulkWriteOutcome.conflictingWrites().set(index);
+          }
+        });
+    log.info(
+        "Bulk write of: [{}] portfolios lost: [{}] optimistic locking races",
+        portfolioWrites.size(),
+        bulkWriteOutcome.conflictingWrites().cardinality());
+  }
+
+  private PortfolioUpdatedEvent applyDeposit(Portfolio portfolio, DepositDto depositDto) {
+    var asset = depositDto.toAsset();
+    portfolio
+        .findAsset(asset.getName())
+        .ifPresentOrElse(
+            presentAsset -> presentAsset.addQuantity(asset.getQuantity()),
+            () -> portfolio.addAsset(asset));
+    return portfolioRules.depositedEvent(depositDto);
+  }
+
+  private PortfolioUpdatedEvent applyWithdrawal(Portfolio portfolio, WithdrawDto withdrawDto) {
+    var assetName = withdrawDto.getAssetName();
+    var quantityToWithdraw = withdrawDto.getQuantityToWithdraw();
+    var presentAssetOpt = portfolio.findAsset(assetName);
+    var unitsToWithdraw = presentAssetOpt.map(asset -> asset.unitsOf(quantityToWithdraw));
+    if (presentAssetOpt.isEmpty() || !presentAssetOpt.get().hasAtLeast(unitsToWithdraw.get())) {
+      throw portfolioRules.withdrawRejected(
+          Optional.of(portfolio),
+          portfolio.getId(),
+          withdrawDto.getUserId(),
+          assetName,
+          quantityToWithdraw);
+    }
+
+    presentAssetOpt.get().removeUnits(unitsToWithdraw.get());
+    return portfolioRules.withdrawnEvent(withdrawDto);
+  }
+
+  private static String bulkValidationErrors(
+      String portfolioId,
+      Long userId,
+      String assetName,
+      BigDecimal quantity,
+      AssetType assetType) {
+    List<String> validationErrors = new ArrayList<>();
+    if (isNull(portfolioId) || portfolioId.isEmpty()) {
+      validationErrors.add("PortfolioId cannot be null or empty");
+    }
+    if (isNull(userId)) {
+      validationErrors.add("UserId cannot be null");
+    }
+    if (isNull(assetName) || assetName.isEmpty()) {
+      validationErrors.add("AssetName cannot be null or empty");
+    }
+    if (isNull(quantity) || quantity.signum() <= 0) {
+      validationErrors.add("Quantity cannot be null or less or equal to 0");
+    } else if (!Quantity.isRepresentable(quantity, assetType)) {
+      validationErrors.add(
+          format(NOT_REPRESENTABLE_ERROR_MSG, "Quantity", Quantity.scaleOf(assetType)));
+    }
+    return join(DELIMITER, validationErrors);
+  }
+
+  /**
+   * A user the prefetch left out is looked up on its own outside the map, so no lookup blocks
+   * while holding a bin of it.
+   */
+  private boolean isActiveUserInBatch(PortfolioBatch batch, Long userId) {
+    var prefetchedActive = batch.activeUsers().get(userId);
+    if (nonNull(prefetchedActive)) {
+      return prefetchedActive;
+    }
+
+    boolean active;
+    try {
+      active = userStatusLookup.isActiveUser(userId);
+    } catch (UserDtoValidationException e) {
+      active = false;
+    }
+    var resolvedActive = batch.activeUsers().putIfAbsent(userId, active);
+    return nonNull(resolvedActive) ? resolvedActive : active;
+  }
+
+  private sealed interface BatchKey permits PortfolioIdKey, PortfolioKey {
+    Long userId();
+
+    Criteria criteria();
+
+    PortfolioNotPresentException notPresent();
+  }
+
+  private record PortfolioIdKey(String portfolioId, Long userId) implements BatchKey {
+    static PortfolioIdKey from(Portfolio portfolio) {
+      return new PortfolioIdKey(portfolio.getId(), portfolio.getUserId());
+    }
+
+    @Override
+    public Criteria criteria() {
+      return where(ID_FIELD).is(portfolioId).and(USER_ID_FIELD).is(userId);
+    }
+
+    @Override
+    public PortfolioNotPresentException notPresent() {
+      return new PortfolioNotPresentException(
+          format(PORTFOLIO_NOT_PRESENT_ERROR_MSG, portfolioId, userId));
+    }
+  }
+
+  private record PortfolioKey(Long userId, AssetType portfolioType, String exchange)
+      implements BatchKey {
+    static PortfolioKey from(TradeDto tradeDto) {
+      return new PortfolioKey(
+          tradeDto.getUserId(), tradeDto.getAssetType(), tradeDto.getExchangeName());
+    }
+
+    static PortfolioKey from(Portfolio portfolio) {
+      return new PortfolioKey(
+          portfolio.getUserId(), portfolio.getPortfolioType(), portfolio.getExchange());
+    }
+
+    @Override
+    public Criteria criteria() {
+      return where(USER_ID_FIELD)
+          .is(userId)
+          .and(PORTFOLIO_TYPE_FIELD)
+          .is(portfolioType)
+          .and(EXCHANGE_FIELD)
+          .is(exchange);
+    }
+
+    @Override
+    public PortfolioNotPresentException notPresent() {
+      return new PortfolioNotPresentException(
+          format(PORTFOLIO_TYPE_NOT_PRESENT_ERROR_MSG, portfolioType, exchange, userId));
+    }
+  }
+
+  private record BatchOperation(
+      BatchKey key, String tradeId, Function<Portfolio, PortfolioUpdatedEvent> change) {
+    PortfolioUpdatedEvent applyTo(Portfolio portfolio) {
+      return change.apply(portfolio);
+    }
+  }
+
+  private record PortfolioWrite(BatchKey key, Portfolio portfolio, List<Integer> indexes) {
+    PortfolioWrite(BatchKey key, Portfolio portfolio) {
+      this(key, portfolio, new ArrayList<>());
+    }
+
+    void add(int index, PortfolioUpdatedEvent event) {
+      indexes.add(index);
+      portfolio.addPendingEvent(event);
+    }
+
+    boolean isEmpty() {
+      return indexes.isEmpty();
+    }
+  }
+
+  /** Operations of a batch by their index, with the rejected and failed ones among them. */
+  record PortfolioBatch(
+      Map<Integer, BatchOperation> operations,
+      Map<BatchKey, List<Integer>> indexesByPortfolio,
+      Map<Long, Boolean> activeUsers,
+      Map<Integer, RuntimeException> rejections,
+      BitSet failedIndexes) {
+    PortfolioBatch(int size) {
+      this(
+          new HashMap<>(),
+          new LinkedHashMap<>(),
+          new ConcurrentHashMap<>(),
+          new ConcurrentHashMap<>(),
+          new BitSet(size));
+    }
+
+    void add(int index, BatchOperation operation) {
+      operations.put(index, operation);
+      indexesByPortfolio.computeIfAbsent(operation.key(), key -> new ArrayList<>()).add(index);
+    }
+
+    void reject(int index, RuntimeException rejection) {
+      rejections.put(index, rejection);
+    }
+
+    void rejectAll(List<Integer> indexes, RuntimeException rejection) {
+      indexes.forEach(index -> reject(index, rejection));
+    }
+
+    void markFailed(BatchKey key) {
+      indexesByPortfolio.get(key).forEach(failedIndexes::set);
+    }
+
+    Stream<String> appliedTradeIds() {
+      return operations.entrySet().stream()
+          .filter(entry -> !rejections.containsKey(entry.getKey()))
+          .filter(entry -> !failedIndexes.get(entry.getKey()))
+          .map(entry -> entry.getValue().tradeId())
+          .filter(Objects::nonNull);
+    }
+
+    BulkItemResult resultOf(int index, int resultIndex) {
+      if (rejections.containsKey(index)) {
+        return BulkItemResult.error(resultIndex, rejections.get(index).getMessage());
+      }
+      if (failedIndexes.get(index)) {
+        return BulkItemResult.error(resultIndex, BULK_WRITE_FAILED_ERROR_MSG);
+      }
+      return BulkItemResult.success(resultIndex);
+    }
+  }
+
+  private record BulkWriteOutcome(BitSet conflictingWrites, BitSet failedWrites) {}
+}
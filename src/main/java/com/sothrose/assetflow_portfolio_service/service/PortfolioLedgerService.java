@@ -0,0 +1,234 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.mongodb.ErrorCategory.DUPLICATE_KEY;
+import static com.sothrose.assetflow_portfolio_service.migrations.PortfolioLedgerMigration.AS_OF_FIELD;
+import static com.sothrose.assetflow_portfolio_service.migrations.PortfolioLedgerMigration.OPENING_FIELD;
+import static com.sothrose.assetflow_portfolio_service.migrations.PortfolioLedgerMigration.PORTFOLIO_ID_FIELD;
+import static com.sothrose.assetflow_portfolio_service.migrations.PortfolioLedgerMigration.TIMESTAMP_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.ID_FIELD;
+import static java.lang.String.CASE_INSENSITIVE_ORDER;
+import static java.math.BigDecimal.ZERO;
+import static java.time.LocalDateTime.now;
+import static java.util.Comparator.naturalOrder;
+import static java.util.Objects.nonNull;
+import static org.springframework.data.mongodb.core.BulkOperations.BulkMode.UNORDERED;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import com.mongodb.ErrorCategory;
+import com.sothrose.assetflow_portfolio_service.model.AssetBalance;
+import com.sothrose.assetflow_portfolio_service.model.LedgerEntry;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioBalanceDto;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioSnapshot;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the append-only ledger of portfolio changes and answers balance queries as of any point in
+ * time. The outbox relay appends every event before publishing it, so the write path of portfolio
+ * operations is not affected. Balances are replayed from the nearest earlier snapshot, and
+ * snapshots of recently changed portfolios are taken periodically to keep replays short.
+ *
+ * <p>The relay may append an entry behind an existing snapshot, when its event waited in the
+ * outbox longer than the snapshot lag. Appending drops the snapshots the entry falls behind, and a
+ * snapshot taken while such an entry is appended is dropped right after it is taken, so replays
+ * fall back to an earlier snapshot instead of missing the entry.
+ */
+@Slf4j
+@Service
+public class PortfolioLedgerService {
+
+  private final MongoTemplate mongoTemplate;
+  private final Duration snapshotLag;
+  private final Duration snapshotWindow;
+  private final int cursorBatchSize;
+
+  public PortfolioLedgerService(
+      MongoTemplate mongoTemplate,
+      @Value("${portfolio.ledger.snapshot-lag-in-ms:300000}") long snapshotLagInMs,
+      @Value("${portfolio.ledger.snapshot-interval-in-ms:3600000}") long snapshotIntervalInMs,
+      @Value("${portfolio.streaming.cursor-batch-size:100}") int cursorBatchSize) {
+
+    this.mongoTemplate = mongoTemplate;
+    this.snapshotLag = Duration.ofMillis(snapshotLagInMs);
+    this.snapshotWindow = Duration.ofMillis(2 * snapshotIntervalInMs);
+    this.cursorBatchSize = cursorBatchSize;
+  }
+
+  /** Appends the entries, skipping entries already present. */
+  public void append(List<LedgerEntry> ledgerEntries) {
+    if (ledgerEntries.isEmpty()) {
+      return;
+    }
+
+    try {
+      mongoTemplate.bulkOps(UNORDERED, LedgerEntry.class).insert(ledgerEntries).execute();
+      dropSnapshotsBehind(ledgerEntries);
+    } catch (BulkOperationException e) {
+      var failures =
+          e.getErrors().stream()
+              .filter(error -> ErrorCategory.fromErrorCode(error.getCode()) != DUPLICATE_KEY)
+              .toList();
+      if (!failures.isEmpty()) {
+        throw e;
+      }
+      log.debug("Skipped: [{}] ledger entries already appended", e.getErrors().size());
+      dropSnapshotsBehind(ledgerEntries);
+    }
+  }
+
+  /**
+   * Drops every snapshot taken as of the time of an entry or later, since it misses the entry.
+   * Opening snapshots already include it.
+   */
+  private void dropSnapshotsBehind(List<LedgerEntry> ledgerEntries) {
+    Map<String, LocalDateTime> earliestTimestamps = new HashMap<>();
+    ledgerEntries.forEach(
+        ledgerEntry ->
+            earliestTimestamps.merge(
+                ledgerEntry.getPortfolioId(),
+                ledgerEntry.getTimestamp(),
+                BinaryOperator.minBy(naturalOrder())));
+    var staleSnapshots =
+        earliestTimestamps.entrySet().stream()
+            .map(
+                earliest ->
+                    where(PORTFOLIO_ID_FIELD)
+                        .is(earliest.getKey())
+                        .and(AS_OF_FIELD)
+                        .gte(earliest.getValue())
+                        .and(OPENING_FIELD)
+                        .ne(true))
+            .toArray(Criteria[]::new);
+    var dropped =
+        mongoTemplate.remove(
+            query(new Criteria().orOperator(staleSnapshots)), PortfolioSnapshot.class);
+    if (dropped.getDeletedCount() > 0) {
+      log.info("Dropped: [{}] snapshots missing late ledger entries", dropped.getDeletedCount());
+    }
+  }
+
+  public PortfolioBalanceDto fetchBalanceAsOf(String portfolioId, LocalDateTime asOf) {
+    log.info("Fetching balance of portfolio with id: [{}] as of: [{}]", portfolioId, asOf);
+    return new PortfolioBalanceDto(portfolioId, asOf, balancesAsOf(portfolioId, asOf));
+  }
+
+  /**
+   * Snapshots every portfolio changed within the last two snapshot intervals before the lag. A
+   * missed run only makes later replays longer, never wrong.
+   */
+  @Scheduled(
+      initialDelayString = "${portfolio.ledger.snapshot-interval-in-ms:3600000}",
+      fixedDelayString = "${portfolio.ledger.snapshot-interval-in-ms:3600000}")
+  public void snapshotChangedPortfolios() {
+    var asOf = now().minus(snapshotLag);
+    try {
+      var changedPortfolioIds =
+          mongoTemplate.findDistinct(
+              query(where(TIMESTAMP_FIELD).gt(asOf.minus(snapshotWindow)).lte(asOf)),
+              PORTFOLIO_ID_FIELD,
+              LedgerEntry.class,
+              String.class);
+      changedPortfolioIds.forEach(portfolioId -> snapshot(portfolioId, asOf));
+      log.info("Snapshotted: [{}] portfolios as of: [{}]", changedPortfolioIds.size(), asOf);
+    } catch (DataAccessException e) {
+      log.error("Snapshotting portfolios failed, will retry: [{}]", e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Takes the snapshot and drops it again when an entry it misses was appended meanwhile, that is
+   * when the snapshot it was replayed from got dropped or the replayed range has more entries now.
+   */
+  void snapshot(String portfolioId, LocalDateTime asOf) {
+    var replay = replay(portfolioId, asOf);
+    var snapshot =
+        mongoTemplate.insert(
+            new PortfolioSnapshot(null, portfolioId, asOf, replay.balances(), false));
+
+    var fromSnapshotDropped =
+        nonNull(replay.fromSnapshot())
+            && !mongoTemplate.exists(
+                query(where(ID_FIELD).is(replay.fromSnapshot().getId())), PortfolioSnapshot.class);
+    if (fromSnapshotDropped
+        || mongoTemplate.count(query(replay.ledgerCriteria()), LedgerEntry.class)
+            != replay.replayedEntries()) {
+      mongoTemplate.remove(query(where(ID_FIELD).is(snapshot.getId())), PortfolioSnapshot.class);
+      log.info("Dropped snapshot of portfolio: [{}] missing late ledger entries", portfolioId);
+    }
+  }
+
+  private List<AssetBalance> balancesAsOf(String portfolioId, LocalDateTime asOf) {
+    return replay(portfolioId, asOf).balances();
+  }
+
+  private Replay replay(String portfolioId, LocalDateTime asOf) {
+    Map<String, AssetBalance> balancesByName = new TreeMap<>(CASE_INSENSITIVE_ORDER);
+    var ledgerCriteria = where(PORTFOLIO_ID_FIELD).is(portfolioId).and(TIMESTAMP_FIELD).lte(asOf);
+
+    var snapshot = latestSnapshot(portfolioId, asOf);
+    if (nonNull(snapshot)) {
+      snapshot
+          .getBalances()
+          .forEach(balance -> add(balancesByName, balance.getName(), balance.getQuantity()));
+      ledgerCriteria.gt(snapshot.getAsOf());
+    }
+
+    var replayedEntries = new AtomicLong();
+    var ledgerQuery = query(ledgerCriteria).cursorBatchSize(cursorBatchSize);
+    try (var ledgerEntries = mongoTemplate.stream(ledgerQuery, LedgerEntry.class)) {
+      ledgerEntries.forEach(
+          ledgerEntry -> {
+            replayedEntries.incrementAndGet();
+            if (nonNull(ledgerEntry.getCreditedAsset())) {
+              add(
+                  balancesByName,
+                  ledgerEntry.getCreditedAsset(),
+                  ledgerEntry.getCreditedQuantity());
+            }
+            if (nonNull(ledgerEntry.getDebitedAsset())) {
+              add(
+                  balancesByName,
+                  ledgerEntry.getDebitedAsset(),
+                  ledgerEntry.getDebitedQuantity().negate());
+            }
+          });
+    }
+    return new Replay(
+        snapshot, ledgerCriteria, replayedEntries.get(), List.copyOf(balancesByName.values()));
+  }
+
+  private PortfolioSnapshot latestSnapshot(String portfolioId, LocalDateTime asOf) {
+    return mongoTemplate.findOne(
+        query(where(PORTFOLIO_ID_FIELD).is(portfolioId).and(AS_OF_FIELD).lte(asOf))
+            .with(Sort.by(Sort.Direction.DESC, AS_OF_FIELD)),
+        PortfolioSnapshot.class);
+  }
+
+  private static void add(Map<String, AssetBalance> balancesByName, String name, BigDecimal value) {
+    var balance = balancesByName.computeIfAbsent(name, key -> new AssetBalance(name, ZERO));
+    balance.setQuantity(balance.getQuantity().add(value));
+  }
+
+  private record Replay(
+      PortfolioSnapshot fromSnapshot,
+      Criteria ledgerCriteria,
+      long replayedEntries,
+      List<AssetBalance> balances) {}
+}
@@ -0,0 +1,138 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static java.util.Objects.isNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.sothrose.assetflow_portfolio_service.model.ProcessingStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Locale;
+import org.springframework.stereotype.Component;
+
+/**
+ * Timers of the stages portfolio operations go through and counters of their outcomes. All meters
+ * recorded on the success path are registered up front and looked up by ordinal, so recording
+ * them allocates nothing; only failures register meters on demand, tagged by exception type.
+ */
+@Component
+public class PortfolioMetrics {
+  public static final String STAGE_DURATION_METRIC = "portfolio.stage.duration";
+  public static final String OPERATIONS_METRIC = "portfolio.operations";
+  public static final String OPERATION_FAILURES_METRIC = "portfolio.operation.failures";
+  public static final String TRADE_BATCH_SIZE_METRIC = "portfolio.trade.batch.size";
+  public static final String EVENT_SEND_LATENCY_METRIC = "portfolio.events.send.latency";
+  public static final String EVENT_SEND_FAILURES_METRIC = "portfolio.events.send.failures";
+  public static final String STAGE_TAG = "stage";
+  public static final String OPERATION_TAG = "operation";
+  public static final String STATUS_TAG = "status";
+  public static final String EXCEPTION_TAG = "exception";
+
+  public enum Stage {
+    VALIDATION,
+    USER_REDIS_HIT,
+    USER_REDIS_MISS,
+    USER_REMOTE_CALL,
+    MONGO_READ,
+    MONGO_WRITE,
+    KAFKA_SEND
+  }
+
+  public enum Operation {
+    TRADE,
+    DEPOSIT,
+    WITHDRAW
+  }
+
+  private final MeterRegistry meterRegistry;
+  private final Timer[] stageTimers;
+  private final Counter[][] operationCounters;
+  private final DistributionSummary tradeBatchSize;
+  private final Timer eventSendLatency;
+  private final Counter eventSendFailures;
+
+  public PortfolioMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    this.stageTimers = new Timer[Stage.values().length];
+    for (var stage : Stage.values()) {
+      stageTimers[stage.ordinal()] =
+          Timer.builder(STAGE_DURATION_METRIC)
+              .description("Time spent in a stage of a portfolio operation")
+              .tag(STAGE_TAG, tagValue(stage))
+              .publishPercentileHistogram()
+              .register(meterRegistry);
+    }
+
+    this.operationCounters = new Counter[Operation.values().length][];
+    for (var operation : Operation.values()) {
+      operationCounters[operation.ordinal()] = new Counter[ProcessingStatus.values().length];
+      for (var status : ProcessingStatus.values()) {
+        operationCounters[operation.ordinal()][status.ordinal()] =
+            Counter.builder(OPERATIONS_METRIC)
+                .description("Portfolio operations by outcome")
+                .tag(OPERATION_TAG, tagValue(operation))
+                .tag(STATUS_TAG, tagValue(status))
+                .register(meterRegistry);
+      }
+    }
+
+    this.tradeBatchSize =
+        DistributionSummary.builder(TRADE_BATCH_SIZE_METRIC)
+            .description("Trade events received in one poll by the batch listener")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    this.eventSendLatency =
+        Timer.builder(EVENT_SEND_LATENCY_METRIC)
+            .description("Time from handing an event to the producer until the broker acked it")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    this.eventSendFailures =
+        Counter.builder(EVENT_SEND_FAILURES_METRIC)
+            .description("Events the broker did not ack, left in the outbox to be sent again")
+            .register(meterRegistry);
+  }
+
+  /** Start of a stage, to be passed to {@link #record}. */
+  public long start() {
+    return System.nanoTime();
+  }
+
+  public void record(Stage stage, long startNanos) {
+    stageTimers[stage.ordinal()].record(System.nanoTime() - startNanos, NANOSECONDS);
+  }
+
+  public ProcessingStatus recordStatus(Operation operation, ProcessingStatus status) {
+    operationCounters[operation.ordinal()][status.ordinal()].increment();
+    return status;
+  }
+
+  public void recordFailure(Operation operation, RuntimeException e) {
+    recordStatus(operation, ProcessingStatus.ERROR);
+    meterRegistry
+        .counter(
+            OPERATION_FAILURES_METRIC,
+            OPERATION_TAG,
+            tagValue(operation),
+            EXCEPTION_TAG,
+            e.getClass().getSimpleName())
+        .increment();
+  }
+
+  public void recordTradeBatchSize(int batchSize) {
+    tradeBatchSize.record(batchSize);
+  }
+
+  /** Completion of a single event send, started at {@code startNanos}. */
+  public void recordEventSend(long startNanos, Throwable failure) {
+    if (isNull(failure)) {
+      eventSendLatency.record(System.nanoTime() - startNanos, NANOSECONDS);
+    } else {
+      eventSendFailures.increment();
+    }
+  }
+
+  private static String tagValue(Enum<?> value) {
+    return value.name().toLowerCase(Locale.ROOT).replace('_', '.');
+  }
+}
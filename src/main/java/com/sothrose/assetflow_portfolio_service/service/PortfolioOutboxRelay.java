@@ -0,0 +1,220 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.migrations.PortfolioOutboxIndexMigration.PENDING_EVENT_ID_INDEX;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.EVENT_ID_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.ID_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.PENDING_EVENTS_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.PENDING_EVENT_ID_FIELD;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.VERSION_FIELD;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioMetrics.Stage.KAFKA_SEND;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.nonNull;
+import static org.springframework.data.mongodb.core.BulkOperations.BulkMode.UNORDERED;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import com.sothrose.assetflow_portfolio_service.model.LedgerEntry;
+import com.sothrose.assetflow_portfolio_service.model.PendingEvent;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioUpdatedEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the events waiting in portfolio outboxes. Portfolios with pending events are read in
+ * batches, their events are appended to the portfolio ledger, all of them are sent at once in
+ * outbox order, keyed by portfolio id, and only the events acknowledged by the broker are pulled
+ * from the outbox afterwards. Sends are not awaited one by one, so the producer batches them; the
+ * outbox is the retry buffer: events that failed stay in it, together with all events queued
+ * after them, and are sent again by a later run.
+ *
+ * <p>Delivery is at least once: an event is sent again when pulling it failed after it was
+ * published, or when several instances relay the same portfolio. Consumers drop duplicates by the
+ * {@value #EVENT_ID_HEADER} header.
+ */
+@Slf4j
+@Component
+public class PortfolioOutboxRelay {
+  public static final String EVENT_ID_HEADER = "eventId";
+
+  private final MongoTemplate mongoTemplate;
+  private final KafkaTemplate<String, PortfolioUpdatedEvent> kafkaTemplate;
+  private final PortfolioLedgerService portfolioLedgerService;
+  private final PortfolioMetrics portfolioMetrics;
+  private final String portfolioUpdatesTopic;
+  private final int batchSize;
+  private final long sendTimeoutInMs;
+
+  public PortfolioOutboxRelay(
+      MongoTemplate mongoTemplate,
+      KafkaTemplate<String, PortfolioUpdatedEvent> kafkaTemplate,
+      PortfolioLedgerService portfolioLedgerService,
+      PortfolioMetrics portfolioMetrics,
+      @Value("${kafka.topic.portfolio-updates}") String portfolioUpdatesTopic,
+      @Value("${portfolio.outbox.batch-size:500}") int batchSize,
+      @Value("${portfolio.outbox.send-timeout-in-ms:10000}") long sendTimeoutInMs) {
+
+    this.mongoTemplate = mongoTemplate;
+    this.kafkaTemplate = kafkaTemplate;
+    this.portfolioLedgerService = portfolioLedgerService;
+    this.portfolioMetrics = portfolioMetrics;
+    this.portfolioUpdatesTopic = portfolioUpdatesTopic;
+    this.batchSize = batchSize;
+    this.sendTimeoutInMs = sendTimeoutInMs;
+  }
+
+  /**
+   * Relays batches of portfolios in id order, moving on to the next batch right away while batches
+   * are full and every event of them was sent. A batch with a failed send ends the run, so a broker
+   * outage does not keep the scheduler thread busy, and the failed events are sent again by the
+   * next run.
+   */
+  @Scheduled(fixedDelayString = "${portfolio.outbox.relay-interval-in-ms:100}")
+  public void relayPendingEvents() {
+    try {
+      String afterId = null;
+      RelayedBatch relayedBatch;
+      do {
+        relayedBatch = relayBatch(afterId);
+        afterId = relayedBatch.lastPortfolioId();
+      } while (relayedBatch.portfolios() == batchSize && relayedBatch.unsentEvents() == 0);
+    } catch (DataAccessException e) {
+      log.error("Relaying portfolio outbox failed, will retry: [{}]", e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Relays one batch of portfolios with pending events, read through the outbox index in id order.
+   *
+   * @param afterId id of the last portfolio of the previous batch, null to start from the first one
+   * @return outcome of the batch, telling whether more portfolios may be waiting and where they
+   *     start
+   */
+  public RelayedBatch relayBatch(String afterId) {
+    var pendingCriteria = where(PENDING_EVENT_ID_FIELD).exists(true);
+    if (nonNull(afterId)) {
+      pendingCriteria.and(ID_FIELD).gt(afterId);
+    }
+    var pendingQuery =
+        query(pendingCriteria)
+            .with(Sort.by(ID_FIELD))
+            .limit(batchSize)
+            .withHint(PENDING_EVENT_ID_INDEX);
+    pendingQuery.fields().include(ID_FIELD).include(PENDING_EVENTS_FIELD);
+    var portfolios = mongoTemplate.find(pendingQuery, Portfolio.class);
+    if (portfolios.isEmpty()) {
+      return new RelayedBatch(0, 0, afterId);
+    }
+
+    portfolioLedgerService.append(ledgerEntriesOf(portfolios));
+    var sendStart = portfolioMetrics.start();
+    var sendsByPortfolio = portfolios.stream().map(this::sendPendingEvents).toList();
+    var sendDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sendTimeoutInMs);
+    var bulkOperations = mongoTemplate.bulkOps(UNORDERED, Portfolio.class);
+    var sentEvents = 0;
+    var unsentEvents = 0;
+    for (int i = 0; i < portfolios.size(); i++) {
+      var sentEventIds = sentEventIdsInOrder(sendsByPortfolio.get(i), sendDeadline);
+      unsentEvents += sendsByPortfolio.get(i).size() - sentEventIds.size();
+      if (!sentEventIds.isEmpty()) {
+        sentEvents += sentEventIds.size();
+        bulkOperations.updateOne(
+            query(where(ID_FIELD).is(portfolios.get(i).getId())),
+            new Update()
+                .pull(
+                    PENDING_EVENTS_FIELD,
+                    new Document(EVENT_ID_FIELD, new Document("$in", sentEventIds)))
+                .inc(VERSION_FIELD, 1));
+      }
+    }
+    portfolioMetrics.record(KAFKA_SEND, sendStart);
+
+    if (sentEvents > 0) {
+      bulkOperations.execute();
+    }
+    log.debug(
+        "Relayed: [{}] events of: [{}] portfolios from the outbox, left: [{}] to retry",
+        sentEvents,
+        portfolios.size(),
+        unsentEvents);
+    return new RelayedBatch(portfolios.size(), unsentEvents, portfolios.getLast().getId());
+  }
+
+  private List<LedgerEntry> ledgerEntriesOf(List<Portfolio> portfolios) {
+    List<LedgerEntry> ledgerEntries = new ArrayList<>();
+    for (var portfolio : portfolios) {
+      for (var pendingEvent : portfolio.getPendingEvents()) {
+        var event = pendingEvent.getEvent();
+        event.setPortfolioId(portfolio.getId());
+        ledgerEntries.add(LedgerEntry.of(pendingEvent.getEventId(), event));
+      }
+    }
+    return ledgerEntries;
+  }
+
+  private List<EventSend> sendPendingEvents(Portfolio portfolio) {
+    return portfolio.getPendingEvents().stream()
+        .map(pendingEvent -> send(portfolio.getId(), pendingEvent))
+        .toList();
+  }
+
+  private EventSend send(String portfolioId, PendingEvent pendingEvent) {
+    var record =
+        new ProducerRecord<>(portfolioUpdatesTopic, portfolioId, pendingEvent.getEvent());
+    record.headers().add(EVENT_ID_HEADER, pendingEvent.getEventId().getBytes(UTF_8));
+    var sendStart = portfolioMetrics.start();
+    var result =
+        kafkaTemplate
+            .send(record)
+            .whenComplete(
+                (sendResult, failure) -> portfolioMetrics.recordEventSend(sendStart, failure));
+    return new EventSend(pendingEvent.getEventId(), result);
+  }
+
+  /** Ids of the events acknowledged by the broker, up to the first one that failed. */
+  private List<String> sentEventIdsInOrder(List<EventSend> eventSends, long sendDeadline) {
+    List<String> sentEventIds = new ArrayList<>(eventSends.size());
+    for (var eventSend : eventSends) {
+      try {
+        eventSend.result().get(Math.max(0, sendDeadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        sentEventIds.add(eventSend.eventId());
+      } catch (ExecutionException | TimeoutException e) {
+        log.warn(
+            "Sending outbox event: [{}] failed, will retry: [{}]",
+            eventSend.eventId(),
+            e.getMessage());
+        break;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    return sentEventIds;
+  }
+
+  private record EventSend(String eventId, CompletableFuture<?> result) {}
+
+  /**
+   * Outcome of relaying one batch.
+   *
+   * @param portfolios number of portfolios read
+   * @param unsentEvents number of events left in the outbox after a failed or timed out send
+   * @param lastPortfolioId id of the last portfolio read, the cursor of the next batch
+   */
+  public record RelayedBatch(int portfolios, int unsentEvents, String lastPortfolioId) {}
+}
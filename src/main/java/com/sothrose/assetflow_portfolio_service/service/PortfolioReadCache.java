@@ -0,0 +1,266 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.service.RedisService.MISSING_GUARD_VALUE;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sothrose.assetflow_portfolio_service.codec.CachedPortfoliosCodec;
+import com.sothrose.assetflow_portfolio_service.model.CachedPortfolios;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Two-level cache of portfolio reads, by portfolio id and by user id: an in-heap level evicting
+ * the least used entries once full, in front of a redis level shared by all instances. Writers
+ * invalidate both levels of the portfolios they changed; every instance also drops the portfolios
+ * named by the portfolio update events from its heap level, which covers writes made by other
+ * instances and heap entries read from redis before the writer dropped them there. Lookups run
+ * in front of the guarded mongo reads, so hits neither take a bulkhead permit nor fail while the
+ * mongo circuit is open.
+ *
+ * <p>Every invalidation also bumps a version kept in redis next to the entry. A load stores its
+ * result only while the version is still the one read before the load, checked and stored
+ * atomically, so a load that raced a write never caches the state from before the write. Entries
+ * expire from redis after the same TTL as from the heap. While redis is unavailable versions
+ * cannot be checked, so nothing is cached.
+ *
+ * <p>Hits and misses are counted per level, and the age of every portfolio served from the cache
+ * is recorded, so the hit ratio and how stale served portfolios are can be read from the metrics.
+ */
+@Slf4j
+@Component
+public class PortfolioReadCache {
+  public static final String PORTFOLIOS_BY_ID_CACHE = "portfoliosById";
+  public static final String PORTFOLIOS_BY_USER_CACHE = "portfoliosByUser";
+  public static final String READ_CACHE_REQUESTS_METRIC = "portfolio.read.cache.requests";
+  public static final String READ_CACHE_STALENESS_METRIC = "portfolio.read.cache.staleness";
+  public static final String LEVEL_TAG = "level";
+  public static final String RESULT_TAG = "result";
+  public static final String PORTFOLIO_KEY_PREFIX = "portfolio:";
+  public static final String USER_PORTFOLIOS_KEY_PREFIX = "portfolios:user:";
+  public static final String VERSION_KEY_SUFFIX = ":version";
+  public static final Duration VERSION_TTL = Duration.ofHours(1);
+
+  private final boolean enabled;
+  private final Duration ttl;
+  private final RedisService redisService;
+  private final CachedPortfoliosCodec cachedPortfoliosCodec = new CachedPortfoliosCodec();
+  private final Cache<String, CachedPortfolios> portfoliosById;
+  private final Cache<Long, CachedPortfolios> portfoliosByUser;
+  private final Counter localHits;
+  private final Counter localMisses;
+  private final Counter redisHits;
+  private final Counter redisMisses;
+  private final Timer staleness;
+
+  public PortfolioReadCache(
+      @Value("${portfolio.read-cache.enabled:true}") boolean enabled,
+      @Value("${portfolio.read-cache.maximum-size:10000}") long maximumSize,
+      @Value("${portfolio.read-cache.ttl-in-ms:5000}") long ttlInMs,
+      RedisService redisService,
+      MeterRegistry meterRegistry) {
+
+    this.enabled = enabled;
+    this.ttl = Duration.ofMillis(ttlInMs);
+    this.redisService = redisService;
+    this.portfoliosById =
+        Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttl).recordStats().build();
+    this.portfoliosByUser =
+        Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttl).recordStats().build();
+    CaffeineCacheMetrics.monitor(meterRegistry, portfoliosById, PORTFOLIOS_BY_ID_CACHE);
+    CaffeineCacheMetrics.monitor(meterRegistry, portfoliosByUser, PORTFOLIOS_BY_USER_CACHE);
+
+    this.localHits = requestCounter(meterRegistry, "local", "hit");
+    this.localMisses = requestCounter(meterRegistry, "local", "miss");
+    this.redisHits = requestCounter(meterRegistry, "redis", "hit");
+    this.redisMisses = requestCounter(meterRegistry, "redis", "miss");
+    this.staleness =
+        Timer.builder(READ_CACHE_STALENESS_METRIC)
+            .description("Time since a portfolio served from the read cache was read from mongo")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+  }
+
+  /** Portfolio with the id, read by the loader and cached when not cached yet. */
+  public PortfolioDto getPortfolio(String portfolioId, Supplier<PortfolioDto> loader) {
+    if (!enabled) {
+      return loader.get();
+    }
+
+    var redisKey = PORTFOLIO_KEY_PREFIX + portfolioId;
+    var lookup = lookup(portfoliosById, portfolioId, redisKey);
+    if (nonNull(lookup.cachedPortfolios())) {
+      return lookup.cachedPortfolios().getPortfolios().stream().findFirst().orElse(null);
+    }
+
+    var portfolioDto = loader.get();
+    if (nonNull(portfolioDto)) {
+      cache(portfoliosById, portfolioId, redisKey, lookup.version(), List.of(portfolioDto));
+    }
+    return portfolioDto;
+  }
+
+  /** Portfolios of the user, read by the loader and cached when not cached yet. */
+  public List<PortfolioDto> getUserPortfolios(Long userId, Supplier<List<PortfolioDto>> loader) {
+    if (!enabled) {
+      return loader.get();
+    }
+
+    var redisKey = USER_PORTFOLIOS_KEY_PREFIX + userId;
+    var lookup = lookup(portfoliosByUser, userId, redisKey);
+    if (nonNull(lookup.cachedPortfolios())) {
+      return lookup.cachedPortfolios().getPortfolios();
+    }
+
+    var portfolioDtos = loader.get();
+    cache(portfoliosByUser, userId, redisKey, lookup.version(), portfolioDtos);
+    return portfolioDtos;
+  }
+
+  /** Drops the portfolio, when known, and the portfolios of its user from both levels. */
+  public void invalidate(String portfolioId, Long userId) {
+    invalidateAll(
+        isNull(portfolioId) ? List.of() : List.of(portfolioId),
+        isNull(userId) ? List.of() : List.of(userId));
+  }
+
+  /**
+   * Drops the portfolios and the portfolios of the users from both levels and bumps their
+   * versions, in one round trip.
+   */
+  public void invalidateAll(Collection<String> portfolioIds, Collection<Long> userIds) {
+    if (!enabled || (portfolioIds.isEmpty() && userIds.isEmpty())) {
+      return;
+    }
+
+    List<String> redisKeys = new ArrayList<>(portfolioIds.size() + userIds.size());
+    for (var portfolioId : portfolioIds) {
+      portfoliosById.invalidate(portfolioId);
+      redisKeys.add(PORTFOLIO_KEY_PREFIX + portfolioId);
+    }
+    for (var userId : userIds) {
+      portfoliosByUser.invalidate(userId);
+      redisKeys.add(USER_PORTFOLIOS_KEY_PREFIX + userId);
+    }
+    var versionKeys = redisKeys.stream().map(PortfolioReadCache::versionKeyOf).toList();
+    redisService.deleteValuesAndIncrement(redisKeys, versionKeys, VERSION_TTL);
+  }
+
+  /**
+   * Drops the portfolios and the portfolios of the users from the heap level only, for writes of
+   * other instances, which already dropped them from redis and bumped their versions.
+   */
+  public void invalidateLocal(Collection<String> portfolioIds, Collection<Long> userIds) {
+    if (!enabled) {
+      return;
+    }
+
+    portfoliosById.invalidateAll(portfolioIds);
+    portfoliosByUser.invalidateAll(userIds);
+  }
+
+  /**
+   * Cached portfolios, from the heap or else from redis, with the version of the entry read along
+   * with it from redis on a heap miss.
+   */
+  private <K> CacheLookup lookup(Cache<K, CachedPortfolios> localCache, K key, String redisKey) {
+    var localCached = localCache.getIfPresent(key);
+    if (nonNull(localCached)) {
+      localHits.increment();
+      recordStaleness(localCached);
+      return new CacheLookup(localCached, null);
+    }
+    localMisses.increment();
+
+    var versionKey = versionKeyOf(redisKey);
+    var redisValues = redisService.getValues(List.of(redisKey, versionKey));
+    var version = redisValues.getOrDefault(versionKey, MISSING_GUARD_VALUE);
+    var redisCachedOpt = Optional.ofNullable(redisValues.get(redisKey)).flatMap(this::decode);
+    if (redisCachedOpt.isEmpty()) {
+      redisMisses.increment();
+      return new CacheLookup(null, version);
+    }
+
+    redisHits.increment();
+    recordStaleness(redisCachedOpt.get());
+    localCache.put(key, redisCachedOpt.get());
+    return new CacheLookup(redisCachedOpt.get(), version);
+  }
+
+  /**
+   * Caches the portfolios loaded at the version read before the load. The heap entry is put
+   * before the version is checked and dropped again when the check fails, so an invalidation
+   * either fails the check or comes after the put and drops the entry itself.
+   */
+  private <K> void cache(
+      Cache<K, CachedPortfolios> localCache,
+      K key,
+      String redisKey,
+      String version,
+      List<PortfolioDto> portfolioDtos) {
+    if (isNull(portfolioDtos)) {
+      return;
+    }
+
+    var cachedPortfolios = new CachedPortfolios(portfolioDtos, System.currentTimeMillis());
+    localCache.put(key, cachedPortfolios);
+    var stored =
+        redisService.setValueIfGuardUnchanged(
+            redisKey, encode(cachedPortfolios), ttl, versionKeyOf(redisKey), version);
+    if (!stored) {
+      log.debug("Not caching: [{}], invalidated while loading or redis unavailable", redisKey);
+      localCache.asMap().remove(key, cachedPortfolios);
+    }
+  }
+
+  private static String versionKeyOf(String redisKey) {
+    return redisKey + VERSION_KEY_SUFFIX;
+  }
+
+  private String encode(CachedPortfolios cachedPortfolios) {
+    return Base64.getEncoder().encodeToString(cachedPortfoliosCodec.encode(cachedPortfolios));
+  }
+
+  private Optional<CachedPortfolios> decode(String value) {
+    try {
+      var cachedPortfolios = cachedPortfoliosCodec.decode(Base64.getDecoder().decode(value));
+      return isNull(cachedPortfolios.getPortfolios())
+          ? Optional.empty()
+          : Optional.of(cachedPortfolios);
+    } catch (RuntimeException e) {
+      log.warn("Ignoring unreadable portfolio read cache entry: [{}]", e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  private void recordStaleness(CachedPortfolios cachedPortfolios) {
+    staleness.record(
+        Math.max(0, System.currentTimeMillis() - cachedPortfolios.getLoadedAtInMs()), MILLISECONDS);
+  }
+
+  private static Counter requestCounter(MeterRegistry meterRegistry, String level, String result) {
+    return Counter.builder(READ_CACHE_REQUESTS_METRIC)
+        .description("Portfolio read cache lookups by cache level and result")
+        .tag(LEVEL_TAG, level)
+        .tag(RESULT_TAG, result)
+        .register(meterRegistry);
+  }
+
+  private record CacheLookup(CachedPortfolios cachedPortfolios, String version) {}
+}
@@ -0,0 +1,55 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.configuration.KafkaConsumerConfig.PORTFOLIO_UPDATES_CONTAINER_FACTORY;
+import static java.util.Objects.nonNull;
+
+import com.sothrose.assetflow_portfolio_service.model.PortfolioUpdatedEvent;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drops the portfolios named by portfolio update events from the in-heap level of the read cache;
+ * the writer already dropped them from the redis level. Every instance reads all events in a
+ * consumer group of its own, named after the instance so restarts reuse it, and never commits its
+ * offsets, since events published while it was down are of no use to a heap it starts empty.
+ * Events are keyed by portfolio id, so the portfolio is dropped even when the event does not carry
+ * its id; events that could not be deserialized still name it by their key.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class PortfolioReadCacheInvalidator {
+
+  private final PortfolioReadCache portfolioReadCache;
+
+  @KafkaListener(
+      topics = "${kafka.topic.portfolio-updates}",
+      groupId =
+          "${kafka.consumer.read-cache-group-id-prefix:portfolio-read-cache-}${kafka.consumer.read-cache-instance-id:${HOSTNAME:localhost}}",
+      containerFactory = PORTFOLIO_UPDATES_CONTAINER_FACTORY,
+      autoStartup = "${portfolio.read-cache.enabled:true}")
+  public void handlePortfolioUpdates(List<ConsumerRecord<String, PortfolioUpdatedEvent>> records) {
+    Set<String> portfolioIds = new HashSet<>();
+    Set<Long> userIds = new HashSet<>();
+    for (var record : records) {
+      if (nonNull(record.key())) {
+        portfolioIds.add(record.key());
+      }
+      if (nonNull(record.value()) && nonNull(record.value().getUserId())) {
+        userIds.add(record.value().getUserId());
+      }
+    }
+
+    log.debug(
+        "Invalidating: [{}] portfolios of: [{}] users in heap read cache",
+        portfolioIds.size(),
+        userIds.size());
+    portfolioReadCache.invalidateLocal(portfolioIds, userIds);
+  }
+}
@@ -0,0 +1,374 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.model.ActionType.*;
+import static com.sothrose.assetflow_portfolio_service.model.PayloadFormat.BINARY;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.DELIMITER;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.DUPLICATE_TRADE_LOG_MSG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.NOT_ENOUGH_QUANTITY_EXCEPTION_MSG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.NOT_ENOUGH_QUANTITY_LOG_MSG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.PORTFOLIO_NOT_PRESENT_ERROR_MSG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.PORTFOLIO_NOT_PRESENT_LOG_MSG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.PORTFOLIO_TYPE_NOT_PRESENT_ERROR_MSG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.QUANTITY_OUT_OF_RANGE_LOG_MSG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.USER_NOT_ACTIVE_EXCEPTION_MSG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.USER_NOT_ACTIVE_LOG_MSG;
+import static java.lang.String.format;
+import static java.lang.String.join;
+import static java.math.BigDecimal.ZERO;
+import static java.time.LocalDateTime.now;
+import static java.util.Objects.isNull;
+import static java.util.Optional.empty;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sothrose.assetflow_portfolio_service.codec.UserStatusCodec;
+import com.sothrose.assetflow_portfolio_service.exception.*;
+import com.sothrose.assetflow_portfolio_service.model.*;
+import com.sothrose.assetflow_portfolio_service.validator.PortfolioDtoValidator;
+import com.sothrose.assetflow_portfolio_service.validator.TradeDtoValidator;
+import java.math.BigDecimal;
+import java.util.Optional;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rules shared by {@link PortfolioService}, {@link PortfolioBatchWriter} and {@link
+ * ReactivePortfolioService}: validation of the requests, the reason an operation was rejected, how
+ * a trade changes a portfolio, the events an applied operation publishes and the active status of
+ * its user. Nothing here touches the database, so both the blocking and the non-blocking path call
+ * it as is.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PortfolioRules {
+
+  @Value("${user-status.cache-format:JSON}")
+  private PayloadFormat userStatusCacheFormat;
+
+  private final TradeDtoValidator tradeDtoValidator;
+  private final PortfolioDtoValidator portfolioDtoValidator;
+  private final ObjectMapper objectMapper;
+  private final UserStatusNearCache userStatusNearCache;
+  private final ProcessedTradeFilter processedTradeFilter;
+
+  public void validatePortfolioDto(PortfolioDto portfolioDto) {
+    var portfolioDtoValidationErrors = portfolioDtoValidator.validatePortfolioDto(portfolioDto);
+
+    if (!portfolioDtoValidationErrors.isEmpty()) {
+      var validationErrors = join(DELIMITER, portfolioDtoValidationErrors);
+      log.error("PortfolioDto contains validation errors: [{}]", validationErrors);
+      throw new PortfolioDtoValidationException(
+          format("PortfolioDto contains validation errors: [%s]", validationErrors));
+    }
+  }
+
+  public void validateTradeDto(TradeDto tradeDto) {
+    var tradeDtoValidationErrors = tradeDtoValidator.validateTradeDto(tradeDto);
+
+    if (!tradeDtoValidationErrors.isEmpty()) {
+      var validationErrors = join(DELIMITER, tradeDtoValidationErrors);
+      log.error("TradeDto contains validation errors: [{}]", validationErrors);
+      throw new TradeDtoValidationException(
+          format("TradeDto contains validation errors: [%s]", validationErrors));
+    }
+  }
+
+  public RuntimeException userNotActive(Long userId) {
+    userNotActiveLog(userId);
+    return new UserNotActiveException(format(USER_NOT_ACTIVE_EXCEPTION_MSG, userId));
+  }
+
+  public void userNotActiveLog(Long userId) {
+    log.error(USER_NOT_ACTIVE_LOG_MSG, userId);
+  }
+
+  public RuntimeException portfolioAlreadyPresent(PortfolioDto portfolioDto) {
+    var userId = portfolioDto.getUserId();
+    var portfolioType = portfolioDto.getPortfolioType();
+    var exchangeName = portfolioDto.getExchangeName();
+    log.error(
+        "Portfolio for user with id: [{}] with portfolio type: [{}] for exchange: [{}] already present",
+        userId,
+        portfolioType,
+        exchangeName);
+    return new PortfolioAlreadyPresentException(
+        format(
+            "Portfolio for user with id: [%s] with portfolio type: [%s] for exchange: [%s] already present",
+            userId, portfolioType, exchangeName));
+  }
+
+  /** Resolves why a conditional deposit matched no portfolio, from the portfolio read after. */
+  public RuntimeException depositRejected(
+      Optional<Portfolio> portfolioOpt, String portfolioId, Long userId, Asset asset) {
+    var rejectedChangeOpt =
+        portfolioOpt
+            .flatMap(portfolio -> portfolio.findAsset(asset.getName()))
+            .flatMap(presentAsset -> changeRejected(presentAsset, asset.getQuantity()));
+    if (rejectedChangeOpt.isPresent()) {
+      return rejectedChangeOpt.get();
+    }
+
+    portfolioNotPresentLog(portfolioId, userId);
+    return new PortfolioNotPresentException(
+        format(PORTFOLIO_NOT_PRESENT_ERROR_MSG, portfolioId, userId));
+  }
+
+  /** Resolves why a conditional withdrawal matched no portfolio, from the portfolio read after. */
+  public RuntimeException withdrawRejected(
+      Optional<Portfolio> portfolioOpt,
+      String portfolioId,
+      Long userId,
+      String assetName,
+      BigDecimal quantityToWithdraw) {
+    if (portfolioOpt.isEmpty()) {
+      portfolioNotPresentLog(portfolioId, userId);
+      return new PortfolioNotPresentException(
+          format(PORTFOLIO_NOT_PRESENT_ERROR_MSG, portfolioId, userId));
+    }
+
+    var presentAssetOpt = portfolioOpt.get().findAsset(assetName);
+    if (presentAssetOpt.isEmpty()) {
+      log.error(
+          "Error occurred when fetching asset to withdraw: [{}] from portfolio with id: [{}], asset not present in portfolio",
+          assetName,
+          portfolioId);
+      return new AssetNotPresentException(
+          format(
+              "Error occurred when fetching asset to withdraw: [%s] from portfolio with id: [%s], asset not present in portfolio",
+              assetName, portfolioId));
+    }
+
+    var rejectedChangeOpt = changeRejected(presentAssetOpt.get(), quantityToWithdraw.negate());
+    if (rejectedChangeOpt.isPresent()) {
+      return rejectedChangeOpt.get();
+    }
+
+    var presentAssetName = presentAssetOpt.get().getName();
+    notEnoughAssetQuantityLog(presentAssetName, userId);
+    return new NotEnoughAssetQuantityException(
+        format(NOT_ENOUGH_QUANTITY_EXCEPTION_MSG, presentAssetName, userId));
+  }
+
+  /**
+   * Tells whether a conditional trade matched no portfolio because the portfolio applied it
+   * already. Only runs on the rejection path, so successful trades never read the portfolio.
+   */
+  public boolean isDuplicateTrade(Optional<Portfolio> portfolioOpt, TradeDto tradeDto) {
+    var tradeId = tradeDto.getEventId();
+    if (portfolioOpt.isEmpty() || !portfolioOpt.get().hasProcessedTrade(tradeId)) {
+      return false;
+    }
+
+    duplicateTradeSkipped(tradeId);
+    processedTradeFilter.markProcessed(tradeId);
+    return true;
+  }
+
+  public void duplicateTradeSkipped(String tradeId) {
+    log.info(DUPLICATE_TRADE_LOG_MSG, tradeId);
+    processedTradeFilter.recordDuplicate();
+  }
+
+  public RuntimeException tradeRejected(Optional<Portfolio> portfolioOpt, TradeDto tradeDto) {
+    var userId = tradeDto.getUserId();
+    var exchangeName = tradeDto.getExchangeName();
+    var assetType = tradeDto.getAssetType();
+
+    if (portfolioOpt.isEmpty()) {
+      log.error(
+          "Portfolio type: [{}] in exchange: [{}] for user with id: [{}] not present",
+          assetType,
+          exchangeName,
+          userId);
+      return new PortfolioNotPresentException(
+          format(PORTFOLIO_TYPE_NOT_PRESENT_ERROR_MSG, assetType, exchangeName, userId));
+    }
+
+    var portfolio = portfolioOpt.get();
+    var portfolioId = portfolio.getId();
+    var assetToPay = tradeDto.getAssetToPay();
+    var presentAssetToPayOpt = portfolio.findAsset(assetToPay);
+
+    if (presentAssetToPayOpt.isEmpty()) {
+      log.error(
+          "Error occurred when fetching asset to pay: [{}] from portfolio with id: [{}], asset not present in portfolio",
+          assetToPay,
+          portfolioId);
+      return new AssetNotPresentException(
+          format(
+              "Error occurred when fetching asset to pay: [%s] from portfolio with id: [%s], asset not present in portfolio",
+              assetToPay, portfolioId));
+    }
+
+    var presentAssetToPay = presentAssetToPayOpt.get();
+    var amountToPay = tradeDto.getAmountToPay();
+    var rejectedChangeOpt = changeRejected(presentAssetToPay, amountToPay.negate());
+    if (rejectedChangeOpt.isEmpty()
+        && presentAssetToPay.hasAtLeast(presentAssetToPay.unitsOf(amountToPay))) {
+      rejectedChangeOpt =
+          portfolio
+              .findAsset(tradeDto.getAssetToBuy())
+              .flatMap(
+                  presentAssetToBuy ->
+                      changeRejected(presentAssetToBuy, tradeDto.getAmountBought()));
+    }
+    if (rejectedChangeOpt.isPresent()) {
+      return rejectedChangeOpt.get();
+    }
+
+    var presentAssetToPayName = presentAssetToPay.getName();
+    notEnoughAssetQuantityLog(presentAssetToPayName, userId);
+    return new NotEnoughAssetQuantityException(
+        format(NOT_ENOUGH_QUANTITY_EXCEPTION_MSG, presentAssetToPayName, userId));
+  }
+
+  public PortfolioUpdatedEvent depositedEvent(DepositDto depositDto) {
+    return new PortfolioUpdatedEvent(
+        depositDto.getPortfolioId(),
+        depositDto.getUserId(),
+        depositDto.getAssetName(),
+        depositDto.getQuantity(),
+        DEPOSIT.name(),
+        ZERO,
+        now(),
+        DEPOSIT);
+  }
+
+  public PortfolioUpdatedEvent withdrawnEvent(WithdrawDto withdrawDto) {
+    return new PortfolioUpdatedEvent(
+        withdrawDto.getPortfolioId(),
+        withdrawDto.getUserId(),
+        WITHDRAW.name(),
+        ZERO,
+        withdrawDto.getAssetName(),
+        withdrawDto.getQuantityToWithdraw(),
+        now(),
+        WITHDRAW);
+  }
+
+  public PortfolioUpdatedEvent tradedEvent(String portfolioId, TradeDto tradeDto) {
+    return new PortfolioUpdatedEvent(
+        portfolioId,
+        tradeDto.getUserId(),
+        tradeDto.getAssetToBuy(),
+        tradeDto.getAmountBought(),
+        tradeDto.getAssetToPay(),
+        tradeDto.getAmountToPay(),
+        now(),
+        TRADE);
+  }
+
+  /**
+   * Applies the trade to the portfolio in memory. Both legs are converted and range checked before
+   * either is applied, so a trade rejected on the asset bought leaves the asset to pay unchanged.
+   */
+  public PortfolioUpdatedEvent applyTrade(Portfolio portfolio, TradeDto tradeDto) {
+    var portfolioId = portfolio.getId();
+    var assetToPay = tradeDto.getAssetToPay();
+    var presentAssetToPayOpt = portfolio.findAsset(assetToPay);
+
+    if (presentAssetToPayOpt.isEmpty()) {
+      throw new AssetNotPresentException(
+          format(
+              "Error occurred when fetching asset to pay: [%s] from portfolio with id: [%s], asset not present in portfolio",
+              assetToPay, portfolioId));
+    }
+
+    var presentAssetToPay = presentAssetToPayOpt.get();
+    var unitsToPay = presentAssetToPay.unitsOf(tradeDto.getAmountToPay());
+    if (!presentAssetToPay.hasAtLeast(unitsToPay)) {
+      throw new NotEnoughAssetQuantityException(
+          format(
+              NOT_ENOUGH_QUANTITY_EXCEPTION_MSG,
+              presentAssetToPay.getName(),
+              tradeDto.getUserId()));
+    }
+
+    var assetToBuy = tradeDto.getAssetToBuy();
+    var presentAssetToBuyOpt = portfolio.findAsset(assetToBuy);
+    var assetBought =
+        presentAssetToBuyOpt.orElseGet(() -> new Asset(assetToBuy, ZERO, tradeDto.getAssetType()));
+    var unitsBought = assetBought.unitsOf(tradeDto.getAmountBought());
+    Quantity.requireAddable(assetBought.quantityUnits(), unitsBought);
+
+    presentAssetToPay.removeUnits(unitsToPay);
+    assetBought.addUnits(unitsBought);
+    if (presentAssetToBuyOpt.isEmpty()) {
+      portfolio.addAsset(assetBought);
+    }
+
+    return tradedEvent(portfolioId, tradeDto);
+  }
+
+  /** Validates the fetched user data and keeps the resulting status in the near cache. */
+  public boolean activeStatusOf(Long userId, UserDto userDto) {
+    if (isNull(userDto) || isNull(userDto.getIsActive())) {
+      log.info(
+          "Error occurred when fetching user data for user with id: [{}], UserDto contains validation errors",
+          userId);
+      throw new UserDtoValidationException(
+          format(
+              "Error occurred when fetching user data for user with id: [%s], UserDto contains validation errors",
+              userId));
+    }
+
+    userStatusNearCache.putActiveStatus(userId, userDto.getIsActive());
+    return userDto.getIsActive();
+  }
+
+  /**
+   * Caches only the active status in the compact format, or the whole user as JSON, which is what
+   * instances not yet reading the compact format expect.
+   */
+  public Optional<String> serializeUserDto(UserDto userDto) {
+    if (userStatusCacheFormat == BINARY) {
+      return Optional.of(UserStatusCodec.encode(userDto));
+    }
+
+    try {
+      return Optional.of(objectMapper.writeValueAsString(userDto));
+    } catch (JsonProcessingException e) {
+      log.error("Error occurred when saving user to redis cache: [{}]", e.getMessage(), e);
+      return empty();
+    }
+  }
+
+  /** Reads both formats, whichever format is configured for writing. */
+  public Optional<UserDto> deserializeUserDto(String cachedData) {
+    if (UserStatusCodec.isEncoded(cachedData)) {
+      return Optional.of(UserStatusCodec.decode(cachedData));
+    }
+
+    try {
+      return Optional.of(objectMapper.readValue(cachedData, UserDto.class));
+    } catch (JsonProcessingException e) {
+      log.error("Error occurred when fetching user from redis cache: [{}]", e.getMessage(), e);
+      return empty();
+    }
+  }
+
+  /**
+   * Tells why the quantity of the asset cannot be changed by the delta, if the delta has more
+   * decimal places than the scale of the asset or takes the quantity out of its range.
+   */
+  private Optional<AssetQuantityOutOfRangeException> changeRejected(Asset asset, BigDecimal delta) {
+    try {
+      Quantity.requireAddable(asset.quantityUnits(), asset.unitsOf(delta));
+      return empty();
+    } catch (AssetQuantityOutOfRangeException e) {
+      log.error(QUANTITY_OUT_OF_RANGE_LOG_MSG, asset.getName(), delta, e.getMessage());
+      return Optional.of(e);
+    }
+  }
+
+  private void portfolioNotPresentLog(String portfolioId, Long userId) {
+    log.error(PORTFOLIO_NOT_PRESENT_LOG_MSG, portfolioId, userId);
+  }
+
+  private void notEnoughAssetQuantityLog(String presentAssetName, Long userId) {
+    log.error(NOT_ENOUGH_QUANTITY_LOG_MSG, presentAssetName, userId);
+  }
+}
@@ -1,36 +1,48 @@
 package com.sothrose.assetflow_portfolio_service.service;
 
-import static com.sothrose.assetflow_portfolio_service.model.ActionType.*;
+import static com.sothrose.assetflow_portfolio_service.configuration.KafkaProducerConfig.TRADE_RETRY_KAFKA_TEMPLATE;
 import static com.sothrose.assetflow_portfolio_service.model.ProcessingStatus.SUCCESS;
+import static com.sothrose.assetflow_portfolio_service.model.WriteMode.OPTIMISTIC;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioMetrics.Stage.MONGO_READ;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioMetrics.Stage.MONGO_WRITE;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioMetrics.Stage.VALIDATION;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.lang.String.format;
-import static java.lang.String.join;
-import static java.math.BigDecimal.ZERO;
-import static java.time.LocalDateTime.now;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 import static java.util.Optional.empty;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.sothrose.assetflow_portfolio_service.client.UserServiceClient;
 import com.sothrose.assetflow_portfolio_service.exception.*;
 import com.sothrose.assetflow_portfolio_service.model.*;
 import com.sothrose.assetflow_portfolio_service.repository.PortfolioRepository;
-import com.sothrose.assetflow_portfolio_service.validator.PortfolioDtoValidator;
-import com.sothrose.assetflow_portfolio_service.validator.TradeDtoValidator;
+import com.sothrose.assetflow_portfolio_service.service.PortfolioMetrics.Operation;
 import io.github.resilience4j.bulkhead.annotation.Bulkhead;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.github.resilience4j.retry.annotation.Retry;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.RecoverableDataAccessException;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.annotation.RetryableTopic;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
 import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.retry.annotation.Backoff;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -39,75 +51,149 @@ import org.springframework.transaction.annotation.Transactional;
 @Service
 public class PortfolioService {
   public static final String DELIMITER = ", ";
+  public static final String MONGO_PORTFOLIO = "mongoPortfolio";
   public static final String USER_NOT_ACTIVE_LOG_MSG = "User with id: [{}] is not active";
   public static final String USER_NOT_ACTIVE_EXCEPTION_MSG = "User with id: [%s] is not active";
   public static final String PORTFOLIO_NOT_PRESENT_LOG_MSG =
       "Portfolio with id: [{}] for user with id: [{}] not present";
   public static final String PORTFOLIO_NOT_PRESENT_ERROR_MSG =
       "Error occurred when fetching portfolio with id: [%s] for user with id: [%s], portfolio not present";
+  public static final String PORTFOLIO_TYPE_NOT_PRESENT_ERROR_MSG =
+      "Error occurred when fetching portfolio type: [%s] in exchange: [%s] for user with id: [%s], portfolio not present";
   public static final String NOT_ENOUGH_QUANTITY_LOG_MSG =
       "Error occurred when performing transaction on asset: [{}] for user with id: [{}], not enough quantity present in the portfolio";
   public static final String NOT_ENOUGH_QUANTITY_EXCEPTION_MSG =
       "Error occurred when performing transaction on asset: [%s] for user with id: [%s], not enough quantity present in the portfolio";
-
-  @Value("${kafka.topic.portfolio-updates}")
-  private String portfolioUpdatesTopic;
+  public static final String QUANTITY_OUT_OF_RANGE_LOG_MSG =
+      "Error occurred when changing quantity of asset: [{}] by: [{}]: [{}]";
+  public static final String NOT_REPRESENTABLE_ERROR_MSG =
+      "%s has more decimal places than %s, or is too large";
+  public static final String BULK_WRITE_FAILED_ERROR_MSG =
+      "Error occurred when writing the portfolio, operation not applied";
+  public static final String DUPLICATE_TRADE_LOG_MSG =
+      "Trade with id: [{}] already applied, skipping";
+  public static final String RECORD_TRADE_ID_FORMAT = "%s-%s@%s";
+  public static final String UNREADABLE_EVENT_ERROR_MSG =
+      "Error occurred when deserializing the event, sending it to the dead letter topic";
+
+  @Value("${portfolio.write-mode:ATOMIC}")
+  private WriteMode writeMode;
+
+  @Value("${portfolio.pagination.max-page-size:500}")
+  private int maxPageSize;
 
   private final PortfolioRepository portfolioRepository;
-  private final UserServiceClient userServiceClient;
-  private final TradeDtoValidator tradeDtoValidator;
-  private final PortfolioDtoValidator portfolioDtoValidator;
-  private final KafkaTemplate<String, PortfolioUpdatedEvent> kafkaTemplate;
-  private final RedisService redisService;
-  private final ObjectMapper objectMapper;
-
-  @KafkaListener(topics = "${kafka.topic.trade-created}", groupId = "portfolio-service-group")
-  public void handleTradeCreated(TradeCreatedEvent event, Acknowledgment ack) {
+  private final OptimisticLockRetryExecutor optimisticLockRetryExecutor;
+  private final UserStatusNearCache userStatusNearCache;
+  private final ProcessedTradeFilter processedTradeFilter;
+  private final PortfolioMetrics portfolioMetrics;
+  private final PortfolioReadCache portfolioReadCache;
+  private final ConcurrentLookupExecutor concurrentLookupExecutor;
+  private final DependencyCallTimer dependencyCallTimer;
+  private final ConsumerRecordRecoverer tradeDeadLetterRecoverer;
+  private final PortfolioRules portfolioRules;
+  private final UserStatusLookup userStatusLookup;
+  private final PortfolioBatchWriter portfolioBatchWriter;
+
+  /**
+   * Applies a trade event on the listener thread. A failed event is retried on retry topics, so it
+   * never holds back its partition, and ends up in the dead letter topic once attempts run out.
+   * Rejected trades are dead-lettered right away.
+   */
+  @RetryableTopic(
+      attempts = "${kafka.listener.retry.max-attempts:3}",
+      backoff =
+          @Backoff(
+              delayExpression = "${kafka.listener.retry.backoff.delay:2000}",
+              multiplierExpression = "${kafka.listener.retry.backoff.multiplier:2}",
+              maxDelayExpression = "${kafka.listener.retry.backoff.max-delay:30000}"),
+      retryTopicSuffix = "${kafka.listener.retry-topic-suffix:-retry}",
+      dltTopicSuffix = "${kafka.listener.dead-letter-topic-suffix:-dlq}",
+      autoStartDltHandler = "false",
+      kafkaTemplate = TRADE_RETRY_KAFKA_TEMPLATE,
+      traversingCauses = "true",
+      exclude = {
+        TradeDtoValidationException.class,
+        UserDtoValidationException.class,
+        UserNotActiveException.class,
+        PortfolioNotPresentException.class,
+        AssetNotPresentException.class,
+        NotEnoughAssetQuantityException.class,
+        AssetQuantityOutOfRangeException.class
+      })
+  @KafkaListener(
+      topics = "${kafka.topic.trade-created}",
+      groupId = "portfolio-service-group",
+      autoStartup = "#{!${kafka.consumer.batch-listener:false}}")
+  public void handleTradeCreated(
+      ConsumerRecord<String, TradeCreatedEvent> record, Acknowledgment ack) {
     try {
-      log.info("Received an event for processing: [{}]", event);
-      processTrade(event.toTradeDto());
+      log.info("Received an event for processing: [{}]", record.value());
+      assignTradeId(record);
+      processTrade(record.value().toTradeDto());
       ack.acknowledge();
     } catch (Exception e) {
-      throw new RecoverableDataAccessException(
-          format("Processing an event failed, will retry: [%s]", e.getMessage()), e);
+      throw retryableProcessingFailure(e);
     }
   }
 
-  public void createPortfolio(PortfolioDto portfolioDto) {
-    var portfolioDtoValidationErrors = portfolioDtoValidator.validatePortfolioDto(portfolioDto);
+  /**
+   * Applies a whole poll of trade events, see {@link PortfolioBatchWriter}. Unreadable events and
+   * rejected trades are dead-lettered right away; a failed write fails the batch at its first
+   * failed event, which the container error handler retries, see {@code KafkaConsumerConfig}.
+   */
+  @KafkaListener(
+      topics = "${kafka.topic.trade-created}",
+      groupId = "portfolio-service-group",
+      containerFactory = "batchKafkaListenerContainerFactory",
+      autoStartup = "${kafka.consumer.batch-listener:false}")
+  public void handleTradeCreatedBatch(
+      List<ConsumerRecord<String, TradeCreatedEvent>> records, Acknowledgment ack) {
+    log.info("Received a batch of: [{}] events for processing", records.size());
+    portfolioMetrics.recordTradeBatchSize(records.size());
+    List<TradeDto> tradeDtos = new ArrayList<>(records.size());
+    for (var record : records) {
+      if (nonNull(record.value())) {
+        assignTradeId(record);
+        tradeDtos.add(record.value().toTradeDto());
+      }
+    }
 
-    if (!portfolioDtoValidationErrors.isEmpty()) {
-      var validationErrors = join(DELIMITER, portfolioDtoValidationErrors);
-      log.error("PortfolioDto contains validation errors: [{}]", validationErrors);
-      throw new PortfolioDtoValidationException(
-          format("PortfolioDto contains validation errors: [%s]", validationErrors));
+    var batch = portfolioBatchWriter.applyTrades(tradeDtos);
+    var tradeIndex = 0;
+    for (var record : records) {
+      if (isNull(record.value())) {
+        tradeDeadLetterRecoverer.accept(
+            record, new SerializationException(UNREADABLE_EVENT_ERROR_MSG));
+        continue;
+      }
+
+      if (batch.failedIndexes().get(tradeIndex)) {
+        throw new BatchListenerFailedException(BULK_WRITE_FAILED_ERROR_MSG, record);
+      }
+      var rejection = batch.rejections().get(tradeIndex++);
+      if (nonNull(rejection)) {
+        tradeDeadLetterRecoverer.accept(record, rejection);
+      }
     }
+    ack.acknowledge();
+  }
+
+  public void createPortfolio(PortfolioDto portfolioDto) {
+    portfolioRules.validatePortfolioDto(portfolioDto);
 
     var userId = portfolioDto.getUserId();
-    if (!isActiveUser(userId)) {
-      userNotActiveLog(userId);
-      throw new UserNotActiveException(format(USER_NOT_ACTIVE_EXCEPTION_MSG, userId));
-    }
+    requireActiveUser(userId);
 
     var portfolioType = portfolioDto.getPortfolioType();
-    var exchangeName = portfolioDto.getExchangeName();
-    var alreadyExistingPortfolioOpt =
-        portfolioRepository.findByUserIdAndPortfolioTypeAndExchange(
-            userId, portfolioType, exchangeName);
-    if (alreadyExistingPortfolioOpt.isPresent()) {
-      log.error(
-          "Portfolio for user with id: [{}] with portfolio type: [{}] for exchange: [{}] already present",
-          userId,
-          portfolioType,
-          exchangeName);
-      throw new PortfolioAlreadyPresentException(
-          format(
-              "Portfolio for user with id: [%s] with portfolio type: [%s] for exchange: [%s] already present",
-              userId, portfolioType, exchangeName));
+    if (portfolioRepository.portfolioExists(
+        userId, portfolioType, portfolioDto.getExchangeName())) {
+      throw portfolioRules.portfolioAlreadyPresent(portfolioDto);
     }
 
     log.info("Saving new portfolio: [{}] for a user with id: [{}]", portfolioType, userId);
     portfolioRepository.save(portfolioDto.toPortfolio());
+    portfolioReadCache.invalidate(null, userId);
   }
 
   @Retry(name = "mongoPortfolio")
@@ -115,7 +201,10 @@ public class PortfolioService {
   @Bulkhead(name = "mongoPortfolio", type = Bulkhead.Type.SEMAPHORE)
   public PortfolioDto fetchPortfolioById(String portfolioId) {
     log.info("Fetching portfolio with id: [{}]", portfolioId);
-    return portfolioRepository.findById(portfolioId).map(PortfolioDto::from).orElse(null);
+    return dependencyCallTimer
+        .executeSupplier(MONGO_PORTFOLIO, () -> portfolioRepository.findById(portfolioId))
+        .map(PortfolioDto::from)
+        .orElse(null);
   }
 
   @Retry(name = "mongoPortfolio")
@@ -123,7 +212,54 @@ public class PortfolioService {
   @Bulkhead(name = "mongoPortfolio", type = Bulkhead.Type.SEMAPHORE)
   public List<PortfolioDto> fetchAllPortfoliosForUser(Long userId) {
     log.info("Fetching all portfolios for a user with id: [{}]", userId);
-    return portfolioRepository.findAllByUserId(userId).stream().map(PortfolioDto::from).toList();
+    return dependencyCallTimer
+        .executeSupplier(MONGO_PORTFOLIO, () -> portfolioRepository.findAllByUserId(userId))
+        .stream()
+        .map(PortfolioDto::from)
+        .toList();
+  }
+
+  /**
+   * Reads one page of the portfolios of a user, continuing after the cursor. The page size is
+   * capped, so a single page never loads an unbounded number of portfolios.
+   */
+  @Retry(name = "mongoPortfolio")
+  @CircuitBreaker(name = "mongoPortfolio")
+  @Bulkhead(name = "mongoPortfolio", type = Bulkhead.Type.SEMAPHORE)
+  public PortfolioPage fetchPortfolioPageForUser(Long userId, String cursor, int pageSize) {
+    var limit = max(1, min(pageSize, maxPageSize));
+    log.info(
+        "Fetching page of: [{}] portfolios for a user with id: [{}] after: [{}]",
+        limit,
+        userId,
+        cursor);
+    var portfolios =
+        dependencyCallTimer.executeSupplier(
+            MONGO_PORTFOLIO, () -> portfolioRepository.findPageByUserId(userId, cursor, limit + 1));
+    var hasNextPage = portfolios.size() > limit;
+    var page = hasNextPage ? portfolios.subList(0, limit) : portfolios;
+    return new PortfolioPage(
+        page.stream().map(PortfolioDto::from).toList(),
+        hasNextPage ? page.getLast().getId() : null);
+  }
+
+  /**
+   * Hands over the portfolios of a user one by one as they come off the database cursor, so
+   * memory use does not grow with their number. Not retried, since part of the portfolios may
+   * already have been handed over when the read fails. The bulkhead permit is held, and the call
+   * timed, until the cursor is exhausted, like a streamed read on the reactive path.
+   */
+  @CircuitBreaker(name = "mongoPortfolio")
+  @Bulkhead(name = "mongoPortfolio", type = Bulkhead.Type.SEMAPHORE)
+  public void streamAllPortfoliosForUser(Long userId, Consumer<PortfolioDto> portfolioConsumer) {
+    log.info("Streaming all portfolios for a user with id: [{}]", userId);
+    dependencyCallTimer.executeRunnable(
+        MONGO_PORTFOLIO,
+        () -> {
+          try (var portfolios = portfolioRepository.streamAllByUserId(userId)) {
+            portfolios.map(PortfolioDto::from).forEach(portfolioConsumer);
+          }
+        });
   }
 
   @Retry(name = "mongoPortfolio")
@@ -131,287 +267,341 @@ public class PortfolioService {
   @Bulkhead(name = "mongoPortfolio", type = Bulkhead.Type.SEMAPHORE)
   public void deletePortfolioById(String portfolioId) {
     log.info("Deleting portfolio with id: [{}]", portfolioId);
-    portfolioRepository.deleteById(portfolioId);
+    var removedPortfolioOpt =
+        dependencyCallTimer.executeSupplier(
+            MONGO_PORTFOLIO, () -> portfolioRepository.removeById(portfolioId));
+    portfolioReadCache.invalidate(
+        portfolioId, removedPortfolioOpt.map(Portfolio::getUserId).orElse(null));
   }
 
   public ProcessingStatus deposit(DepositDto depositDto) {
-
-    var userId = depositDto.getUserId();
-    if (!isActiveUser(userId)) {
-      userNotActiveLog(userId);
-      throw new UserNotActiveException(format(USER_NOT_ACTIVE_EXCEPTION_MSG, userId));
+    try {
+      return portfolioMetrics.recordStatus(Operation.DEPOSIT, executeDeposit(depositDto));
+    } catch (RuntimeException e) {
+      portfolioMetrics.recordFailure(Operation.DEPOSIT, e);
+      throw e;
     }
+  }
 
+  private ProcessingStatus executeDeposit(DepositDto depositDto) {
+    var userId = depositDto.getUserId();
     var portfolioId = depositDto.getPortfolioId();
-    var portfolioOpt = portfolioRepository.findByIdAndUserId(portfolioId, userId);
-
-    if (portfolioOpt.isEmpty()) {
-      portfolioNotPresentLog(portfolioId, userId);
-      throw new PortfolioNotPresentException(
-          format(PORTFOLIO_NOT_PRESENT_ERROR_MSG, portfolioId, userId));
+    var asset = depositDto.toAsset();
+    boolean deposited;
+    if (writeMode == OPTIMISTIC) {
+      var portfolioReader = readWhileCheckingUser(userId, () -> readPortfolio(portfolioId, userId));
+      var event = portfolioRules.depositedEvent(depositDto);
+      log.info("Saving deposit for a user with id: [{}]", userId);
+      deposited =
+          optimisticLockRetryExecutor.execute(
+              () -> depositWithVersionCheck(portfolioReader.get(), asset, event));
+    } else {
+      requireActiveUser(userId);
+      var event = portfolioRules.depositedEvent(depositDto);
+      log.info("Saving deposit for a user with id: [{}]", userId);
+      deposited = depositAtomically(portfolioId, userId, asset, event);
     }
 
-    var portfolio = portfolioOpt.get();
-    var assetName = depositDto.getAssetName();
-    var presentAssetOpt =
-        portfolio.getAssets().stream()
-            .filter(asset -> asset.getName().equalsIgnoreCase(assetName))
-            .findFirst();
-
-    var depositQuantity = depositDto.getQuantity();
-    if (presentAssetOpt.isEmpty()) {
-      portfolio.getAssets().add(new Asset(assetName, depositQuantity, depositDto.getAssetType()));
-      log.info("Saving deposit for a user with id: [{}]", depositDto.getUserId());
-      portfolioRepository.save(portfolio);
-
-      var event =
-          new PortfolioUpdatedEvent(
-              portfolioId,
-              userId,
-              assetName,
-              depositQuantity,
-              DEPOSIT.name(),
-              ZERO,
-              now(),
-              DEPOSIT);
-      sendEvent(event);
-      return SUCCESS;
+    if (!deposited) {
+      throw depositRejected(portfolioId, userId, asset);
     }
 
-    var presentAsset = presentAssetOpt.get();
-    presentAsset.addQuantity(depositQuantity);
-    log.info("Saving deposit for a user with id: [{}]", depositDto.getUserId());
-    portfolioRepository.save(portfolio);
-
-    var event =
-        new PortfolioUpdatedEvent(
-            portfolioId, userId, assetName, depositQuantity, DEPOSIT.name(), ZERO, now(), DEPOSIT);
-    sendEvent(event);
+    portfolioReadCache.invalidate(portfolioId, userId);
     return SUCCESS;
   }
 
   public ProcessingStatus withdraw(WithdrawDto withdrawDto) {
-
-    var userId = withdrawDto.getUserId();
-    if (!isActiveUser(userId)) {
-      userNotActiveLog(userId);
-      throw new UserNotActiveException(format(USER_NOT_ACTIVE_EXCEPTION_MSG, userId));
+    try {
+      return portfolioMetrics.recordStatus(Operation.WITHDRAW, executeWithdrawal(withdrawDto));
+    } catch (RuntimeException e) {
+      portfolioMetrics.recordFailure(Operation.WITHDRAW, e);
+      throw e;
     }
+  }
 
+  private ProcessingStatus executeWithdrawal(WithdrawDto withdrawDto) {
+    var userId = withdrawDto.getUserId();
     var portfolioId = withdrawDto.getPortfolioId();
-    var portfolioOpt = portfolioRepository.findByIdAndUserId(portfolioId, userId);
-
-    if (portfolioOpt.isEmpty()) {
-      portfolioNotPresentLog(portfolioId, userId);
-      throw new PortfolioNotPresentException(
-          format(PORTFOLIO_NOT_PRESENT_ERROR_MSG, portfolioId, userId));
-    }
-
-    var portfolio = portfolioOpt.get();
     var assetName = withdrawDto.getAssetName();
-    var presentAssetOpt =
-        portfolio.getAssets().stream()
-            .filter(asset -> asset.getName().equalsIgnoreCase(assetName))
-            .findFirst();
-
-    if (presentAssetOpt.isEmpty()) {
-      log.error(
-          "Error occurred when fetching asset to withdraw: [{}] from portfolio with id: [{}], asset not present in portfolio",
-          assetName,
-          portfolioId);
-      throw new AssetNotPresentException(
-          format(
-              "Error occurred when fetching asset to withdraw: [%s] from portfolio with id: [%s], asset not present in portfolio",
-              assetName, portfolioId));
+    var quantityToWithdraw =
+        Quantity.requireRepresentable(
+            withdrawDto.getQuantityToWithdraw(), withdrawDto.getAssetType());
+    boolean withdrawn;
+    if (writeMode == OPTIMISTIC) {
+      var portfolioReader = readWhileCheckingUser(userId, () -> readPortfolio(portfolioId, userId));
+      var event = portfolioRules.withdrawnEvent(withdrawDto);
+      log.info("Saving withdrawal for a user with id: [{}]", userId);
+      withdrawn =
+          optimisticLockRetryExecutor.execute(
+              () ->
+                  withdrawWithVersionCheck(
+                      portfolioReader.get(), assetName, quantityToWithdraw, event));
+    } else {
+      requireActiveUser(userId);
+      var event = portfolioRules.withdrawnEvent(withdrawDto);
+      log.info("Saving withdrawal for a user with id: [{}]", userId);
+      withdrawn = withdrawAtomically(portfolioId, userId, assetName, quantityToWithdraw, event);
     }
 
-    var presentAsset = presentAssetOpt.get();
-    var presentAssetName = presentAsset.getName();
-    var quantityToWithdraw = withdrawDto.getQuantityToWithdraw();
-    if (notEnoughAssetQuantity(presentAsset, quantityToWithdraw)) {
-      notEnoughAssetQuantityLog(presentAssetName, userId);
-      throw new NotEnoughAssetQuantityException(
-          format(NOT_ENOUGH_QUANTITY_EXCEPTION_MSG, presentAssetName, userId));
+    if (!withdrawn) {
+      throw withdrawRejected(portfolioId, userId, assetName, quantityToWithdraw);
     }
 
-    presentAsset.removeQuantity(quantityToWithdraw);
-    log.info("Saving withdrawal for a user with id: [{}]", withdrawDto.getUserId());
-    portfolioRepository.save(portfolio);
-
-    var event =
-        new PortfolioUpdatedEvent(
-            portfolioId,
-            userId,
-            WITHDRAW.name(),
-            ZERO,
-            assetName,
-            quantityToWithdraw,
-            now(),
-            WITHDRAW);
-    sendEvent(event);
+    portfolioReadCache.invalidate(portfolioId, userId);
     return SUCCESS;
   }
 
+  /**
+   * Applies the trade unless it was applied already: a trade known to the {@link
+   * ProcessedTradeFilter} is skipped without any read, any other trade is recognized by the ids
+   * its portfolio keeps of its latest trades.
+   */
   @Transactional
   public ProcessingStatus processTrade(TradeDto tradeDto) {
-    var tradeDtoValidationErrors = tradeDtoValidator.validateTradeDto(tradeDto);
+    try {
+      return portfolioMetrics.recordStatus(Operation.TRADE, executeTrade(tradeDto));
+    } catch (RuntimeException e) {
+      portfolioMetrics.recordFailure(Operation.TRADE, e);
+      throw e;
+    }
+  }
+
+  private ProcessingStatus executeTrade(TradeDto tradeDto) {
+    var validationStart = portfolioMetrics.start();
+    portfolioRules.validateTradeDto(tradeDto);
+    portfolioMetrics.record(VALIDATION, validationStart);
 
-    if (!tradeDtoValidationErrors.isEmpty()) {
-      var validationErrors = join(DELIMITER, tradeDtoValidationErrors);
-      log.error("TradeDto contains validation errors: [{}]", validationErrors);
-      throw new TradeDtoValidationException(
-          format("TradeDto contains validation errors: [%s]", validationErrors));
+    var tradeId = tradeDto.getEventId();
+    if (processedTradeFilter.isProcessed(tradeId)) {
+      portfolioRules.duplicateTradeSkipped(tradeId);
+      return SUCCESS;
     }
 
     var userId = tradeDto.getUserId();
-    if (!isActiveUser(userId)) {
-      userNotActiveLog(userId);
-      throw new UserNotActiveException(format(USER_NOT_ACTIVE_EXCEPTION_MSG, userId));
+    var assetType = tradeDto.getAssetType();
+    Optional<String> portfolioIdOpt;
+    if (writeMode == OPTIMISTIC) {
+      var portfolioReader = readWhileCheckingUser(userId, () -> readTradePortfolio(tradeDto));
+      log.info("Saving new trade: [{}] for a user with id: [{}]", assetType, userId);
+      portfolioIdOpt =
+          optimisticLockRetryExecutor.execute(
+              () -> tradeWithVersionCheck(portfolioReader.get(), tradeDto));
+    } else {
+      requireActiveUser(userId);
+      log.info("Saving new trade: [{}] for a user with id: [{}]", assetType, userId);
+      portfolioIdOpt = tradeAtomically(tradeDto);
     }
 
-    var exchangeName = tradeDto.getExchangeName();
-    var assetType = tradeDto.getAssetType();
-    var portfolioOpt =
-        portfolioRepository.findByUserIdAndPortfolioTypeAndExchange(
-            userId, assetType, exchangeName);
+    if (portfolioIdOpt.isEmpty()) {
+      var portfolioOpt =
+          portfolioRepository.findByUserIdAndPortfolioTypeAndExchange(
+              userId, assetType, tradeDto.getExchangeName());
+      if (!portfolioRules.isDuplicateTrade(portfolioOpt, tradeDto)) {
+        throw portfolioRules.tradeRejected(portfolioOpt, tradeDto);
+      }
+    }
 
+    portfolioIdOpt.ifPresent(portfolioId -> portfolioReadCache.invalidate(portfolioId, userId));
+    processedTradeFilter.markProcessed(tradeId);
+    return SUCCESS;
+  }
+
+  private boolean depositAtomically(
+      String portfolioId, Long userId, Asset asset, PortfolioUpdatedEvent event) {
+    var writeStart = portfolioMetrics.start();
+    var deposited =
+        portfolioRepository.depositAsset(portfolioId, userId, asset, PendingEvent.of(event));
+    portfolioMetrics.record(MONGO_WRITE, writeStart);
+    return deposited;
+  }
+
+  private boolean withdrawAtomically(
+      String portfolioId,
+      Long userId,
+      String assetName,
+      BigDecimal quantityToWithdraw,
+      PortfolioUpdatedEvent event) {
+    var writeStart = portfolioMetrics.start();
+    var withdrawn =
+        portfolioRepository.withdrawAsset(
+            portfolioId, userId, assetName, quantityToWithdraw, PendingEvent.of(event));
+    portfolioMetrics.record(MONGO_WRITE, writeStart);
+    return withdrawn;
+  }
+
+  private Optional<String> tradeAtomically(TradeDto tradeDto) {
+    var writeStart = portfolioMetrics.start();
+    var portfolioIdOpt =
+        portfolioRepository.tradeAssets(
+            tradeDto, PendingEvent.of(portfolioRules.tradedEvent(null, tradeDto)));
+    portfolioMetrics.record(MONGO_WRITE, writeStart);
+    return portfolioIdOpt;
+  }
+
+  private boolean depositWithVersionCheck(
+      Optional<Portfolio> portfolioOpt, Asset asset, PortfolioUpdatedEvent event) {
     if (portfolioOpt.isEmpty()) {
-      log.error(
-          "Portfolio type: [{}] in exchange: [{}] for user with id: [{}] not present",
-          assetType,
-          exchangeName,
-          userId);
-      throw new PortfolioNotPresentException(
-          format(
-              "Error occurred when fetching portfolio type: [%s] in exchange: [%s] for user with id: [%s], portfolio not present",
-              assetType, exchangeName, userId));
+      return false;
     }
 
     var portfolio = portfolioOpt.get();
-    var assetToPay = tradeDto.getAssetToPay();
-    var presentAssetToPayOpt =
-        portfolio.getAssets().stream()
-            .filter(asset -> asset.getName().equalsIgnoreCase(assetToPay))
-            .findFirst();
-    var portfolioId = portfolio.getId();
-
-    if (presentAssetToPayOpt.isEmpty()) {
-      log.error(
-          "Error occurred when fetching asset to pay: [{}] from portfolio with id: [{}], asset not present in portfolio",
-          assetToPay,
-          portfolioId);
-      throw new AssetNotPresentException(
-          format(
-              "Error occurred when fetching asset to pay: [%s] from portfolio with id: [%s], asset not present in portfolio",
-              assetToPay, portfolioId));
-    }
+    portfolio
+        .findAsset(asset.getName())
+        .ifPresentOrElse(
+            presentAsset -> presentAsset.addQuantity(asset.getQuantity()),
+            () -> portfolio.addAsset(asset));
+    portfolio.addPendingEvent(event);
+    savePortfolio(portfolio);
+    return true;
+  }
 
-    var presentAssetToPay = presentAssetToPayOpt.get();
-    var presentAssetToPayName = presentAssetToPay.getName();
-    var amountToPay = tradeDto.getAmountToPay();
-    if (notEnoughAssetQuantity(presentAssetToPay, amountToPay)) {
-      notEnoughAssetQuantityLog(presentAssetToPayName, userId);
-      throw new NotEnoughAssetQuantityException(
-          format(NOT_ENOUGH_QUANTITY_EXCEPTION_MSG, presentAssetToPayName, userId));
+  private boolean withdrawWithVersionCheck(
+      Optional<Portfolio> portfolioOpt,
+      String assetName,
+      BigDecimal quantityToWithdraw,
+      PortfolioUpdatedEvent event) {
+    var presentAssetOpt = portfolioOpt.flatMap(portfolio -> portfolio.findAsset(assetName));
+    var unitsToWithdraw = presentAssetOpt.map(asset -> asset.unitsOf(quantityToWithdraw));
+    if (presentAssetOpt.isEmpty() || !presentAssetOpt.get().hasAtLeast(unitsToWithdraw.get())) {
+      return false;
     }
 
-    presentAssetToPay.removeQuantity(amountToPay);
+    presentAssetOpt.get().removeUnits(unitsToWithdraw.get());
+    portfolioOpt.get().addPendingEvent(event);
+    savePortfolio(portfolioOpt.get());
+    return true;
+  }
 
-    var assetToBuy = tradeDto.getAssetToBuy();
-    var presentAssetToBuyOpt =
-        portfolio.getAssets().stream()
-            .filter(asset -> asset.getName().equalsIgnoreCase(assetToBuy))
-            .findFirst();
+  private Optional<String> tradeWithVersionCheck(
+      Optional<Portfolio> portfolioOpt, TradeDto tradeDto) {
+    if (portfolioOpt.isEmpty()) {
+      return empty();
+    }
 
-    var amountBought = tradeDto.getAmountBought();
-    if (presentAssetToBuyOpt.isEmpty()) {
-      portfolio.getAssets().add(new Asset(assetToBuy, amountBought, assetType));
-      log.info("Saving new trade: [{}] for a user with id: [{}]", assetType, userId);
-      portfolioRepository.save(portfolio);
-      return SUCCESS;
+    var portfolio = portfolioOpt.get();
+    if (portfolioRules.isDuplicateTrade(portfolioOpt, tradeDto)) {
+      return Optional.of(portfolio.getId());
     }
 
-    var presentAssetToBuy = presentAssetToBuyOpt.get();
-    presentAssetToBuy.addQuantity(amountBought);
-    log.info("Saving new trade: [{}] for a user with id: [{}]", assetType, userId);
-    portfolioRepository.save(portfolio);
+    try {
+      portfolio.addPendingEvent(portfolioRules.applyTrade(portfolio, tradeDto));
+    } catch (AssetNotPresentException | NotEnoughAssetQuantityException e) {
+      return empty();
+    }
+    portfolio.markTradeProcessed(tradeDto.getEventId());
+    savePortfolio(portfolio);
+    return Optional.of(portfolio.getId());
+  }
 
-    var event =
-        new PortfolioUpdatedEvent(
-            portfolioId, userId, assetToBuy, amountBought, assetToPay, amountToPay, now(), TRADE);
-    sendEvent(event);
-    return SUCCESS;
+  private Optional<Portfolio> readTradePortfolio(TradeDto tradeDto) {
+    var readStart = portfolioMetrics.start();
+    var portfolioOpt =
+        portfolioRepository.findByUserIdAndPortfolioTypeAndExchange(
+            tradeDto.getUserId(), tradeDto.getAssetType(), tradeDto.getExchangeName());
+    portfolioMetrics.record(MONGO_READ, readStart);
+    return portfolioOpt;
   }
 
-  private void sendEvent(PortfolioUpdatedEvent event) {
-    kafkaTemplate.send(portfolioUpdatesTopic, event);
+  private Optional<Portfolio> readPortfolio(String portfolioId, Long userId) {
+    var readStart = portfolioMetrics.start();
+    var portfolioOpt = portfolioRepository.findByIdAndUserId(portfolioId, userId);
+    portfolioMetrics.record(MONGO_READ, readStart);
+    return portfolioOpt;
   }
 
-  private boolean notEnoughAssetQuantity(Asset presentAssetToPay, BigDecimal amountToPay) {
-    return presentAssetToPay.getQuantity().compareTo(amountToPay) < 0;
+  private void savePortfolio(Portfolio portfolio) {
+    var writeStart = portfolioMetrics.start();
+    portfolioRepository.save(portfolio);
+    portfolioMetrics.record(MONGO_WRITE, writeStart);
   }
 
-  private boolean isActiveUser(Long userId) {
-    var userDto = fetchUserData(userId);
-
-    if (isNull(userDto) || isNull(userDto.getIsActive())) {
-      log.info(
-          "Error occurred when fetching user data for user with id: [{}], UserDto contains validation errors",
-          userId);
-      throw new UserDtoValidationException(
-          format(
-              "Error occurred when fetching user data for user with id: [%s], UserDto contains validation errors",
-              userId));
-    }
+  /**
+   * Resolves why a conditional withdrawal matched no portfolio. Only runs on the rejection path, so
+   * successful withdrawals never read the portfolio.
+   */
+  private RuntimeException withdrawRejected(
+      String portfolioId, Long userId, String assetName, BigDecimal quantityToWithdraw) {
+    return portfolioRules.withdrawRejected(
+        portfolioRepository.findByIdAndUserId(portfolioId, userId),
+        portfolioId,
+        userId,
+        assetName,
+        quantityToWithdraw);
+  }
 
-    return userDto.getIsActive();
+  /**
+   * Resolves why a conditional deposit matched no portfolio. Only runs on the rejection path, so
+   * successful deposits never read the portfolio.
+   */
+  private RuntimeException depositRejected(String portfolioId, Long userId, Asset asset) {
+    return portfolioRules.depositRejected(
+        portfolioRepository.findByIdAndUserId(portfolioId, userId), portfolioId, userId, asset);
   }
 
-  private UserDto fetchUserData(Long userId) {
-    var cachedData = redisService.getValue(String.valueOf(userId));
-    boolean isCachedUserPresent = nonNull(cachedData) && !cachedData.isEmpty();
-    if (isCachedUserPresent) {
-      log.info("User with id: [{}], present in redis cache", userId);
-      var deserializedUserDtoOpt = deserializeUserDto(cachedData);
-      if (deserializedUserDtoOpt.isPresent()) {
-        return deserializedUserDtoOpt.get();
-      }
+  /**
+   * Falls back to the coordinates a trade published without an id was first received at. Retry
+   * topics and the dead letter topic keep them in the original record headers, and so does the
+   * replay of dead letters, so the trade keeps its id on every hop.
+   */
+  private static void assignTradeId(ConsumerRecord<String, TradeCreatedEvent> record) {
+    var event = record.value();
+    if (nonNull(event.getEventId())) {
+      return;
     }
 
-    log.info("User with id: [{}], not present in redis cache", userId);
-    var userDto = userServiceClient.fetchUserData(userId);
-    serializeUserDto(userDto)
-        .ifPresent(user -> redisService.setValue(String.valueOf(userId), user));
-    return userDto;
-  }
+    var headers = record.headers();
+    var originalTopic = firstHeaderValue(headers, KafkaHeaders.ORIGINAL_TOPIC);
+    var originalPartition = firstHeaderValue(headers, KafkaHeaders.ORIGINAL_PARTITION);
+    var originalOffset = firstHeaderValue(headers, KafkaHeaders.ORIGINAL_OFFSET);
+    if (isNull(originalTopic) || isNull(originalPartition) || isNull(originalOffset)) {
+      event.setEventId(
+          format(RECORD_TRADE_ID_FORMAT, record.topic(), record.partition(), record.offset()));
+      return;
+    }
 
-  private void userNotActiveLog(Long userId) {
-    log.error(USER_NOT_ACTIVE_LOG_MSG, userId);
+    event.setEventId(
+        format(
+            RECORD_TRADE_ID_FORMAT,
+            new String(originalTopic, UTF_8),
+            ByteBuffer.wrap(originalPartition).getInt(),
+            ByteBuffer.wrap(originalOffset).getLong()));
   }
 
-  private void portfolioNotPresentLog(String portfolioId, Long userId) {
-    log.error(PORTFOLIO_NOT_PRESENT_LOG_MSG, portfolioId, userId);
+  /** Takes the first value, since every failed hop may append original headers of its own. */
+  private static byte[] firstHeaderValue(Headers headers, String key) {
+    var values = headers.headers(key).iterator();
+    return values.hasNext() ? values.next().value() : null;
   }
 
-  private void notEnoughAssetQuantityLog(String presentAssetName, Long userId) {
-    log.error(NOT_ENOUGH_QUANTITY_LOG_MSG, presentAssetName, userId);
+  private RecoverableDataAccessException retryableProcessingFailure(Throwable cause) {
+    return new RecoverableDataAccessException(
+        format("Processing an event failed, will retry: [%s]", cause.getMessage()), cause);
   }
 
-  private Optional<String> serializeUserDto(UserDto userDto) {
-    try {
-      return Optional.of(objectMapper.writeValueAsString(userDto));
-    } catch (JsonProcessingException e) {
-      log.error("Error occurred when saving user to redis cache: [{}]", e.getMessage(), e);
-      return empty();
+  private void requireActiveUser(Long userId) {
+    if (!userStatusLookup.isActiveUser(userId)) {
+      throw portfolioRules.userNotActive(userId);
     }
   }
 
-  private Optional<UserDto> deserializeUserDto(String json) {
-    try {
-      return Optional.of(objectMapper.readValue(json, UserDto.class));
-    } catch (JsonProcessingException e) {
-      log.error("Error occurred when fetching user from redis cache: [{}]", e.getMessage(), e);
-      return empty();
+  /**
+   * Reads the portfolio for the first write attempt while the user is checked, see {@link
+   * ConcurrentLookupExecutor}. A user in the near cache is checked right away instead, without
+   * handing the read over to another thread.
+   *
+   * @return reader handing out that read to the first attempt, reading again for later attempts
+   */
+  private <T> Supplier<T> readWhileCheckingUser(Long userId, Supplier<T> read) {
+    T firstRead;
+    if (userStatusNearCache.getActiveStatus(userId).isPresent()) {
+      requireActiveUser(userId);
+      firstRead = read.get();
+    } else {
+      firstRead =
+          concurrentLookupExecutor.readWhileChecking(() -> requireActiveUser(userId), read);
     }
+
+    var firstReadTaken = new AtomicBoolean();
+    return () -> firstReadTaken.getAndSet(true) ? read.get() : firstRead;
   }
 }
@@ -0,0 +1,60 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static java.util.Objects.isNull;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Time-windowed, in-heap set of ids of trades recently applied by this instance. Redeliveries
+ * found here are dropped in constant time without touching the database. The filter is only a
+ * shortcut: trades it does not know, e.g. after a restart or a partition rebalance, are still
+ * recognized by the ids each portfolio keeps of its latest trades.
+ */
+@Component
+public class ProcessedTradeFilter {
+  public static final String PROCESSED_TRADES_CACHE = "processedTrades";
+  public static final String DUPLICATE_TRADES_METRIC = "portfolio.trades.duplicates";
+
+  private final Cache<String, Boolean> processedTradeIds;
+  private final Counter duplicateTrades;
+
+  public ProcessedTradeFilter(
+      @Value("${portfolio.trade-dedupe.maximum-size:100000}") long maximumSize,
+      @Value("${portfolio.trade-dedupe.window-in-ms:600000}") long windowInMs,
+      MeterRegistry meterRegistry) {
+
+    this.processedTradeIds =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(Duration.ofMillis(windowInMs))
+            .recordStats()
+            .build();
+    this.duplicateTrades =
+        Counter.builder(DUPLICATE_TRADES_METRIC)
+            .description("Redelivered trades dropped without being applied again")
+            .register(meterRegistry);
+    CaffeineCacheMetrics.monitor(meterRegistry, processedTradeIds, PROCESSED_TRADES_CACHE);
+  }
+
+  public boolean isProcessed(String tradeId) {
+    return !isNull(tradeId) && processedTradeIds.getIfPresent(tradeId) != null;
+  }
+
+  public void markProcessed(String tradeId) {
+    if (!isNull(tradeId)) {
+      processedTradeIds.put(tradeId, true);
+    }
+  }
+
+  /** Counts a trade recognized as already applied, by this filter or by its portfolio. */
+  public void recordDuplicate() {
+    duplicateTrades.increment();
+  }
+}
@@ -0,0 +1,298 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.model.ProcessingStatus.SUCCESS;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioService.MONGO_PORTFOLIO;
+
+import com.sothrose.assetflow_portfolio_service.client.UserServiceClient;
+import com.sothrose.assetflow_portfolio_service.model.*;
+import com.sothrose.assetflow_portfolio_service.repository.ReactivePortfolioRepository;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.github.resilience4j.reactor.retry.RetryOperator;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryRegistry;
+import java.util.Optional;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Non-blocking request path of the portfolio API. Mirrors {@link PortfolioService} operation by
+ * operation, with the user lookup, the redis cache and every portfolio read and write done
+ * without parking a request thread. Portfolio changes are always applied as conditional
+ * in-database updates, the optimistic write mode is only available on the blocking path.
+ *
+ * <p>Every database call is guarded by the same circuit breaker and bulkhead as on the blocking
+ * path. Single reads and deletes are retried too, writes are not: a write that timed out may have
+ * been applied, and applying a deposit or a withdrawal twice would change the portfolio twice.
+ *
+ * <p>Writes drop the portfolios they changed from both levels of the {@link PortfolioReadCache}
+ * the blocking reads go through, as the blocking writes do. The cache talks to redis blocking, so
+ * the invalidation runs on the bounded elastic scheduler.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "portfolio.reactive.enabled", havingValue = "true")
+public class ReactivePortfolioService {
+
+  private final ReactivePortfolioRepository reactivePortfolioRepository;
+  private final UserServiceClient userServiceClient;
+  private final ReactiveRedisService reactiveRedisService;
+  private final UserStatusNearCache userStatusNearCache;
+  private final PortfolioRules portfolioRules;
+  private final PortfolioReadCache portfolioReadCache;
+  private final CircuitBreaker circuitBreaker;
+  private final Retry retry;
+  private final Bulkhead bulkhead;
+  private final DependencyCallTimer dependencyCallTimer;
+
+  public ReactivePortfolioService(
+      ReactivePortfolioRepository reactivePortfolioRepository,
+      UserServiceClient userServiceClient,
+      ReactiveRedisService reactiveRedisService,
+      UserStatusNearCache userStatusNearCache,
+      PortfolioRules portfolioRules,
+      PortfolioReadCache portfolioReadCache,
+      CircuitBreakerRegistry circuitBreakerRegistry,
+      RetryRegistry retryRegistry,
+      BulkheadRegistry bulkheadRegistry,
+      DependencyCallTimer dependencyCallTimer) {
+
+    this.reactivePortfolioRepository = reactivePortfolioRepository;
+    this.userServiceClient = userServiceClient;
+    this.reactiveRedisService = reactiveRedisService;
+    this.userStatusNearCache = userStatusNearCache;
+    this.portfolioRules = portfolioRules;
+    this.portfolioReadCache = portfolioReadCache;
+    this.circuitBreaker = circuitBreakerRegistry.circuitBreaker(MONGO_PORTFOLIO);
+    this.retry = retryRegistry.retry(MONGO_PORTFOLIO);
+    this.bulkhead = bulkheadRegistry.bulkhead(MONGO_PORTFOLIO);
+    this.dependencyCallTimer = dependencyCallTimer;
+  }
+
+  public Mono<Void> createPortfolio(PortfolioDto portfolioDto) {
+    return Mono.fromRunnable(() -> portfolioRules.validatePortfolioDto(portfolioDto))
+        .then(requireActiveUser(portfolioDto.getUserId()))
+        .then(
+            retriedCall(
+                reactivePortfolioRepository.portfolioExists(
+                    portfolioDto.getUserId(),
+                    portfolioDto.getPortfolioType(),
+                    portfolioDto.getExchangeName())))
+        .flatMap(
+            alreadyExists -> {
+              if (alreadyExists) {
+                return Mono.<Portfolio>error(portfolioRules.portfolioAlreadyPresent(portfolioDto));
+              }
+              log.info(
+                  "Saving new portfolio: [{}] for a user with id: [{}]",
+                  portfolioDto.getPortfolioType(),
+                  portfolioDto.getUserId());
+              return guardedCall(reactivePortfolioRepository.save(portfolioDto.toPortfolio()));
+            })
+        .then();
+  }
+
+  public Mono<PortfolioDto> fetchPortfolioById(String portfolioId) {
+    log.info("Fetching portfolio with id: [{}]", portfolioId);
+    return retriedCall(reactivePortfolioRepository.findById(portfolioId)).map(PortfolioDto::from);
+  }
+
+  public Flux<PortfolioDto> fetchAllPortfoliosForUser(Long userId) {
+    log.info("Fetching all portfolios for a user with id: [{}]", userId);
+    return guardedCall(reactivePortfolioRepository.findAllByUserId(userId)).map(PortfolioDto::from);
+  }
+
+  public Mono<Void> deletePortfolioById(String portfolioId) {
+    log.info("Deleting portfolio with id: [{}]", portfolioId);
+    return retriedCall(reactivePortfolioRepository.removeById(portfolioId))
+        .map(portfolio -> Optional.ofNullable(portfolio.getUserId()))
+        .defaultIfEmpty(Optional.empty())
+        .flatMap(userIdOpt -> invalidateReadCache(portfolioId, userIdOpt.orElse(null)));
+  }
+
+  public Mono<ProcessingStatus> deposit(DepositDto depositDto) {
+    var userId = depositDto.getUserId();
+    var portfolioId = depositDto.getPortfolioId();
+    return Mono.fromCallable(depositDto::toAsset)
+        .flatMap(
+            asset ->
+                requireActiveUser(userId)
+                    .then(
+                        Mono.defer(
+                            () -> {
+                              log.info("Saving deposit for a user with id: [{}]", userId);
+                              return guardedCall(
+                                  reactivePortfolioRepository.depositAsset(
+                                      portfolioId,
+                                      userId,
+                                      asset,
+                                      PendingEvent.of(portfolioRules.depositedEvent(depositDto))));
+                            }))
+                    .flatMap(
+                        deposited ->
+                            deposited
+                                ? invalidateReadCache(portfolioId, userId).thenReturn(SUCCESS)
+                                : findPortfolio(portfolioId, userId)
+                                    .flatMap(
+                                        portfolioOpt ->
+                                            Mono.error(
+                                                portfolioRules.depositRejected(
+                                                    portfolioOpt, portfolioId, userId, asset)))));
+  }
+
+  public Mono<ProcessingStatus> withdraw(WithdrawDto withdrawDto) {
+    var userId = withdrawDto.getUserId();
+    var portfolioId = withdrawDto.getPortfolioId();
+    var assetName = withdrawDto.getAssetName();
+    var quantityToWithdraw = withdrawDto.getQuantityToWithdraw();
+    return Mono.fromRunnable(
+            () -> Quantity.requireRepresentable(quantityToWithdraw, withdrawDto.getAssetType()))
+        .then(requireActiveUser(userId))
+        .then(
+            Mono.defer(
+                () -> {
+                  log.info("Saving withdrawal for a user with id: [{}]", userId);
+                  return guardedCall(
+                      reactivePortfolioRepository.withdrawAsset(
+                          portfolioId,
+                          userId,
+                          assetName,
+                          quantityToWithdraw,
+                          PendingEvent.of(portfolioRules.withdrawnEvent(withdrawDto))));
+                }))
+        .flatMap(
+            withdrawn ->
+                withdrawn
+                    ? invalidateReadCache(portfolioId, userId).thenReturn(SUCCESS)
+                    : findPortfolio(portfolioId, userId)
+                        .flatMap(
+                            portfolioOpt ->
+                                Mono.error(
+                                    portfolioRules.withdrawRejected(
+                                        portfolioOpt,
+                                        portfolioId,
+                                        userId,
+                                        assetName,
+                                        quantityToWithdraw))));
+  }
+
+  public Mono<ProcessingStatus> processTrade(TradeDto tradeDto) {
+    var userId = tradeDto.getUserId();
+    return Mono.fromRunnable(() -> portfolioRules.validateTradeDto(tradeDto))
+        .then(requireActiveUser(userId))
+        .then(
+            Mono.defer(
+                () -> {
+                  log.info(
+                      "Saving new trade: [{}] for a user with id: [{}]",
+                      tradeDto.getAssetType(),
+                      userId);
+                  return guardedCall(
+                      reactivePortfolioRepository.tradeAssets(
+                          tradeDto, PendingEvent.of(portfolioRules.tradedEvent(null, tradeDto))));
+                }))
+        .flatMap(portfolioId -> invalidateReadCache(portfolioId, userId).thenReturn(SUCCESS))
+        .switchIfEmpty(
+            Mono.defer(
+                () ->
+                    retriedCall(
+                            reactivePortfolioRepository.findByUserIdAndPortfolioTypeAndExchange(
+                                userId, tradeDto.getAssetType(), tradeDto.getExchangeName()))
+                        .map(Optional::of)
+                        .defaultIfEmpty(Optional.empty())
+                        .flatMap(
+                            portfolioOpt ->
+                                portfolioRules.isDuplicateTrade(portfolioOpt, tradeDto)
+                                    ? Mono.just(SUCCESS)
+                                    : Mono.<ProcessingStatus>error(
+                                        portfolioRules.tradeRejected(portfolioOpt, tradeDto)))));
+  }
+
+  private Mono<Void> invalidateReadCache(String portfolioId, Long userId) {
+    return Mono.<Void>fromRunnable(() -> portfolioReadCache.invalidate(portfolioId, userId))
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  /** Reads the portfolio a conditional update did not match, to tell why it was rejected. */
+  private Mono<Optional<Portfolio>> findPortfolio(String portfolioId, Long userId) {
+    return retriedCall(reactivePortfolioRepository.findByIdAndUserId(portfolioId, userId))
+        .map(Optional::of)
+        .defaultIfEmpty(Optional.empty());
+  }
+
+  private Mono<Void> requireActiveUser(Long userId) {
+    return Mono.defer(() -> isActiveUser(userId))
+        .flatMap(
+            isActive ->
+                isActive ? Mono.<Void>empty() : Mono.error(portfolioRules.userNotActive(userId)));
+  }
+
+  private Mono<Boolean> isActiveUser(Long userId) {
+    return Mono.justOrEmpty(userStatusNearCache.getActiveStatus(userId))
+        .switchIfEmpty(
+            Mono.defer(
+                () ->
+                    fetchUserData(userId)
+                        .map(Optional::of)
+                        .defaultIfEmpty(Optional.empty())
+                        .map(
+                            userDtoOpt ->
+                                portfolioRules.activeStatusOf(userId, userDtoOpt.orElse(null)))));
+  }
+
+  private Mono<UserDto> fetchUserData(Long userId) {
+    var key = String.valueOf(userId);
+    return reactiveRedisService
+        .getValue(key)
+        .flatMap(cachedData -> Mono.justOrEmpty(portfolioRules.deserializeUserDto(cachedData)))
+        .doOnNext(userDto -> log.info("User with id: [{}], present in redis cache", userId))
+        .switchIfEmpty(
+            Mono.defer(
+                () -> {
+                  log.info("User with id: [{}], not present in redis cache", userId);
+                  return userServiceClient
+                      .fetchUserDataAsync(userId)
+                      .flatMap(
+                          userDto ->
+                              Mono.justOrEmpty(portfolioRules.serializeUserDto(userDto))
+                                  .flatMap(user -> reactiveRedisService.setValue(key, user))
+                                  .thenReturn(userDto));
+                }));
+  }
+
+  /** Guards a call that has the same effect however many times it is applied, retrying it. */
+  private <T> Mono<T> retriedCall(Mono<T> mongoCall) {
+    return dependencyCallTimer
+        .decorateMono(MONGO_PORTFOLIO, mongoCall)
+        .transformDeferred(RetryOperator.of(retry))
+        .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+        .transformDeferred(BulkheadOperator.of(bulkhead));
+  }
+
+  /** Guards a write without retrying it, see the class comment. */
+  private <T> Mono<T> guardedCall(Mono<T> mongoCall) {
+    return dependencyCallTimer
+        .decorateMono(MONGO_PORTFOLIO, mongoCall)
+        .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+        .transformDeferred(BulkheadOperator.of(bulkhead));
+  }
+
+  /**
+   * Guards a streamed read without retrying it, since part of the portfolios may already have been
+   * handed over when the read fails.
+   */
+  private <T> Flux<T> guardedCall(Flux<T> mongoCall) {
+    return dependencyCallTimer
+        .decorateFlux(MONGO_PORTFOLIO, mongoCall)
+        .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+        .transformDeferred(BulkheadOperator.of(bulkhead));
+  }
+}
@@ -0,0 +1,85 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.service.RedisService.BULKHEAD_REDIS_SERVICE;
+import static com.sothrose.assetflow_portfolio_service.service.RedisService.REDIS_SERVICE;
+import static com.sothrose.assetflow_portfolio_service.service.RedisService.RETRY_REDIS_SERVICE;
+import static java.time.Duration.ofMinutes;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.github.resilience4j.reactor.retry.RetryOperator;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link RedisService}, guarded by the same circuit breaker, retry
+ * and bulkhead. Failures are logged and turned into an empty result, so a cache outage only costs
+ * a lookup in the user service.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "portfolio.reactive.enabled", havingValue = "true")
+public class ReactiveRedisService {
+  private final ReactiveStringRedisTemplate portfolioReactiveRedisTemplate;
+  private final CircuitBreaker circuitBreaker;
+  private final Retry retry;
+  private final Bulkhead bulkhead;
+  private final DependencyCallTimer dependencyCallTimer;
+
+  public ReactiveRedisService(
+      ReactiveStringRedisTemplate portfolioReactiveRedisTemplate,
+      CircuitBreakerRegistry circuitBreakerRegistry,
+      RetryRegistry retryRegistry,
+      BulkheadRegistry bulkheadRegistry,
+      DependencyCallTimer dependencyCallTimer) {
+
+    this.portfolioReactiveRedisTemplate = portfolioReactiveRedisTemplate;
+    this.circuitBreaker = circuitBreakerRegistry.circuitBreaker(REDIS_SERVICE);
+    this.retry = retryRegistry.retry(RETRY_REDIS_SERVICE);
+    this.bulkhead = bulkheadRegistry.bulkhead(BULKHEAD_REDIS_SERVICE);
+    this.dependencyCallTimer = dependencyCallTimer;
+  }
+
+  public Mono<String> getValue(String key) {
+    return resilient(portfolioReactiveRedisTemplate.opsForValue().get(key))
+        .onErrorResume(
+            ex -> {
+              log.warn(
+                  "Error occurred when fetching key [{}] from redis cache, skipping cache. Error: [{}]",
+                  key,
+                  ex.getMessage());
+              return Mono.empty();
+            });
+  }
+
+  public Mono<Void> setValue(String key, String value) {
+    return resilient(portfolioReactiveRedisTemplate.opsForValue().set(key, value, ofMinutes(2)))
+        .onErrorResume(
+            ex -> {
+              log.warn(
+                  "Error occurred when saving key [{}] in redis cache, value [{}]. Error: [{}]",
+                  key,
+                  value,
+                  ex.getMessage());
+              return Mono.empty();
+            })
+        .then();
+  }
+
+  private <T> Mono<T> resilient(Mono<T> redisCall) {
+    return dependencyCallTimer
+        .decorateMono(BULKHEAD_REDIS_SERVICE, redisCall)
+        .transformDeferred(RetryOperator.of(retry))
+        .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+        .transformDeferred(BulkheadOperator.of(bulkhead));
+  }
+}
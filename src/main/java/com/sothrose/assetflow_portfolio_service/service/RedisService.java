@@ -8,10 +8,19 @@ import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryRegistry;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
 @Slf4j
@@ -20,27 +29,42 @@ public class RedisService {
   public static final String REDIS_SERVICE = "redisService";
   public static final String RETRY_REDIS_SERVICE = "retryRedisService";
   public static final String BULKHEAD_REDIS_SERVICE = "bulkheadRedisService";
+  public static final long VALUE_TTL_IN_MINUTES = 2;
+  public static final String MISSING_GUARD_VALUE = "0";
+  private static final RedisScript<Long> SET_IF_GUARD_UNCHANGED_SCRIPT =
+      RedisScript.of(
+          """
+          if (redis.call('GET', KEYS[2]) or ARGV[4]) ~= ARGV[2] then
+            return 0
+          end
+          redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[3])
+          return 1
+          """,
+          Long.class);
   private final RedisTemplate<String, String> portfolioRedisTemplate;
   private final CircuitBreaker circuitBreaker;
   private final Retry retry;
   private final Bulkhead bulkhead;
+  private final DependencyCallTimer dependencyCallTimer;
 
   public RedisService(
       RedisTemplate<String, String> portfolioRedisTemplate,
       CircuitBreakerRegistry circuitBreakerRegistry,
       RetryRegistry retryRegistry,
-      BulkheadRegistry bulkheadRegistry) {
+      BulkheadRegistry bulkheadRegistry,
+      DependencyCallTimer dependencyCallTimer) {
 
     this.portfolioRedisTemplate = portfolioRedisTemplate;
     this.circuitBreaker = circuitBreakerRegistry.circuitBreaker(REDIS_SERVICE);
     this.retry = retryRegistry.retry(RETRY_REDIS_SERVICE);
     this.bulkhead = bulkheadRegistry.bulkhead(BULKHEAD_REDIS_SERVICE);
+    this.dependencyCallTimer = dependencyCallTimer;
   }
 
   public String getValue(String key) {
     Callable<String> callable = () -> portfolioRedisTemplate.opsForValue().get(key);
     Callable<String> resilientCallable =
-        circuitBreaker.decorateCallable(retry.decorateCallable(callable));
+        circuitBreaker.decorateCallable(retry.decorateCallable(timed(callable)));
 
     try {
       return bulkhead.executeCallable(resilientCallable);
@@ -58,12 +82,12 @@ public class RedisService {
     Callable<Void> callable =
         () -> {
           // FIXME do i want config here?
-          portfolioRedisTemplate.opsForValue().set(key, value,2, MINUTES);
+          portfolioRedisTemplate.opsForValue().set(key, value, VALUE_TTL_IN_MINUTES, MINUTES);
           return null;
         };
 
     Callable<Void> resilientCallable =
-        circuitBreaker.decorateCallable(retry.decorateCallable(callable));
+        circuitBreaker.decorateCallable(retry.decorateCallable(timed(callable)));
 
     try {
       bulkhead.executeCallable(resilientCallable);
@@ -77,6 +101,186 @@ public class RedisService {
     }
   }
 
+  /**
+   * Reads all keys in a single MGET round trip, decorated once for the whole batch.
+   *
+   * @return values of the keys present, empty when redis is unavailable
+   */
+  public Map<String, String> getValues(Collection<String> keys) {
+    if (keys.isEmpty()) {
+      return Map.of();
+    }
+
+    var keyList = List.copyOf(keys);
+    Callable<List<String>> callable = () -> portfolioRedisTemplate.opsForValue().multiGet(keyList);
+    Callable<List<String>> resilientCallable =
+        circuitBreaker.decorateCallable(retry.decorateCallable(timed(callable)));
+
+    try {
+      var values = bulkhead.executeCallable(resilientCallable);
+      Map<String, String> valuesByKey = new HashMap<>();
+      for (int i = 0; values != null && i < keyList.size(); i++) {
+        if (values.get(i) != null) {
+          valuesByKey.put(keyList.get(i), values.get(i));
+        }
+      }
+      return valuesByKey;
+    } catch (Exception ex) {
+      log.warn(
+          "Error occurred when fetching: [{}] keys from redis cache, treating them as missing. Error: [{}]",
+          keyList.size(),
+          ex.getMessage(),
+          ex);
+      return Map.of();
+    }
+  }
+
+  /**
+   * Writes all values in a single pipelined round trip, decorated once for the whole batch. Every
+   * key is written with its own SET carrying the TTL, so keys expire independently.
+   */
+  public void setValues(Map<String, String> valuesByKey) {
+    if (valuesByKey.isEmpty()) {
+      return;
+    }
+
+    Callable<List<Object>> callable =
+        () -> portfolioRedisTemplate.executePipelined(setAllWithTtl(valuesByKey));
+    Callable<List<Object>> resilientCallable =
+        circuitBreaker.decorateCallable(retry.decorateCallable(timed(callable)));
+
+    try {
+      bulkhead.executeCallable(resilientCallable);
+    } catch (Exception ex) {
+      log.warn(
+          "Error occurred when saving: [{}] keys in redis cache. Error: [{}]",
+          valuesByKey.size(),
+          ex.getMessage(),
+          ex);
+    }
+  }
+
+  /**
+   * Writes the value with its own TTL, only while the guard key still holds the expected value, a
+   * missing guard key holding {@link #MISSING_GUARD_VALUE}. The guard is checked and the value
+   * written atomically, in a single round trip.
+   *
+   * @return whether the value was written, false when the guard changed or redis is unavailable
+   */
+  public boolean setValueIfGuardUnchanged(
+      String key, String value, Duration ttl, String guardKey, String expectedGuardValue) {
+    Callable<Long> callable =
+        () ->
+            portfolioRedisTemplate.execute(
+                SET_IF_GUARD_UNCHANGED_SCRIPT,
+                List.of(key, guardKey),
+                value,
+                expectedGuardValue,
+                String.valueOf(ttl.toMillis()),
+                MISSING_GUARD_VALUE);
+    Callable<Long> resilientCallable =
+        circuitBreaker.decorateCallable(retry.decorateCallable(timed(callable)));
+
+    try {
+      return Long.valueOf(1).equals(bulkhead.executeCallable(resilientCallable));
+    } catch (Exception ex) {
+      log.warn(
+          "Error occurred when saving key [{}] in redis cache. Error: [{}]",
+          key,
+          ex.getMessage(),
+          ex);
+      return false;
+    }
+  }
+
+  /**
+   * Deletes the keys and increments the counters in a single pipelined round trip, decorated once
+   * for the whole batch. Every counter expires after the TTL given unless incremented again.
+   */
+  public void deleteValuesAndIncrement(
+      Collection<String> keys, Collection<String> counterKeys, Duration counterTtl) {
+    if (keys.isEmpty() && counterKeys.isEmpty()) {
+      return;
+    }
+
+    Callable<List<Object>> callable =
+        () ->
+            portfolioRedisTemplate.executePipelined(
+                deleteAllAndIncrement(keys, counterKeys, counterTtl));
+    Callable<List<Object>> resilientCallable =
+        circuitBreaker.decorateCallable(retry.decorateCallable(timed(callable)));
+
+    try {
+      bulkhead.executeCallable(resilientCallable);
+    } catch (Exception ex) {
+      log.warn(
+          "Error occurred when deleting: [{}] keys from redis cache. Error: [{}]",
+          keys.size(),
+          ex.getMessage(),
+          ex);
+    }
+  }
+
+  /** Deletes all keys in a single DEL round trip, decorated once for the whole batch. */
+  public void deleteValues(Collection<String> keys) {
+    if (keys.isEmpty()) {
+      return;
+    }
+
+    Callable<Long> callable = () -> portfolioRedisTemplate.delete(keys);
+    Callable<Long> resilientCallable =
+        circuitBreaker.decorateCallable(retry.decorateCallable(timed(callable)));
+
+    try {
+      bulkhead.executeCallable(resilientCallable);
+    } catch (Exception ex) {
+      log.warn(
+          "Error occurred when deleting: [{}] keys from redis cache. Error: [{}]",
+          keys.size(),
+          ex.getMessage(),
+          ex);
+    }
+  }
+
+  /** Times every attempt of the call on its own, without the backoff of the retry around it. */
+  private <T> Callable<T> timed(Callable<T> callable) {
+    return dependencyCallTimer.decorateCallable(BULKHEAD_REDIS_SERVICE, callable);
+  }
+
+  private static SessionCallback<Object> setAllWithTtl(Map<String, String> valuesByKey) {
+    return new SessionCallback<>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+        var stringOperations = (RedisOperations<String, String>) operations;
+        valuesByKey.forEach(
+            (key, value) ->
+                stringOperations.opsForValue().set(key, value, VALUE_TTL_IN_MINUTES, MINUTES));
+        return null;
+      }
+    };
+  }
+
+  private static SessionCallback<Object> deleteAllAndIncrement(
+      Collection<String> keys, Collection<String> counterKeys, Duration counterTtl) {
+    return new SessionCallback<>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+        var stringOperations = (RedisOperations<String, String>) operations;
+        if (!keys.isEmpty()) {
+          stringOperations.delete(keys);
+        }
+        counterKeys.forEach(
+            counterKey -> {
+              stringOperations.opsForValue().increment(counterKey);
+              stringOperations.expire(counterKey, counterTtl);
+            });
+        return null;
+      }
+    };
+  }
+
   private String handleRedisFailure(Throwable ex, String key) {
     if (ex instanceof RedisConnectionFailureException) {
       log.warn("Redis connection failure for key [{}], using fallback value.", key);
@@ -0,0 +1,209 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.springframework.kafka.support.KafkaHeaders.ORIGINAL_OFFSET;
+import static org.springframework.kafka.support.KafkaHeaders.ORIGINAL_PARTITION;
+import static org.springframework.kafka.support.KafkaHeaders.ORIGINAL_TOPIC;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drains the dead letter topic of trade events back into the trade topic once the cause of their
+ * failure is fixed. Dead letters are read in batches under a consumer group of their own and
+ * republished with their key, payload and headers, minus the failure and retry metadata, so they
+ * start over with a full set of attempts. Only dead letters acknowledged by the broker are
+ * committed, and batches are spaced out so replay stays under the configured rate and does not
+ * crowd out live trades.
+ *
+ * <p>Trades applied before they were dead-lettered, or replayed twice, are dropped by their id.
+ * The original topic, partition and offset headers are kept, since trades published without an id
+ * are identified by them.
+ */
+@Slf4j
+@Component
+public class TradeDeadLetterReplayer {
+  public static final String DEAD_LETTER_HEADER_PREFIX = "kafka_dlt-";
+  public static final String RETRY_TOPIC_HEADER_PREFIX = "retry_topic-";
+  public static final Set<String> ORIGINAL_RECORD_HEADERS =
+      Set.of(ORIGINAL_TOPIC, ORIGINAL_PARTITION, ORIGINAL_OFFSET);
+
+  private final ConsumerFactory<String, byte[]> deadLetterConsumerFactory;
+  private final KafkaTemplate<String, byte[]> deadLetterReplayKafkaTemplate;
+  private final String tradeCreatedTopic;
+  private final String deadLetterTopic;
+  private final int recordsPerSecond;
+  private final long pollTimeoutInMs;
+  private final long sendTimeoutInMs;
+  private final AtomicBoolean replaying = new AtomicBoolean();
+
+  public TradeDeadLetterReplayer(
+      ConsumerFactory<String, byte[]> deadLetterConsumerFactory,
+      KafkaTemplate<String, byte[]> deadLetterReplayKafkaTemplate,
+      @Value("${kafka.topic.trade-created}") String tradeCreatedTopic,
+      @Value("${kafka.listener.dead-letter-topic-suffix:-dlq}") String deadLetterTopicSuffix,
+      @Value("${kafka.dead-letter-replay.records-per-second:200}") int recordsPerSecond,
+      @Value("${kafka.dead-letter-replay.poll-timeout-in-ms:1000}") long pollTimeoutInMs,
+      @Value("${kafka.dead-letter-replay.send-timeout-in-ms:10000}") long sendTimeoutInMs) {
+
+    this.deadLetterConsumerFactory = deadLetterConsumerFactory;
+    this.deadLetterReplayKafkaTemplate = deadLetterReplayKafkaTemplate;
+    this.tradeCreatedTopic = tradeCreatedTopic;
+    this.deadLetterTopic = tradeCreatedTopic + deadLetterTopicSuffix;
+    this.recordsPerSecond = recordsPerSecond;
+    this.pollTimeoutInMs = pollTimeoutInMs;
+    this.sendTimeoutInMs = sendTimeoutInMs;
+  }
+
+  /**
+   * Replays dead letters until the topic is drained, the limit is reached or a republish fails.
+   *
+   * @return number of dead letters replayed, 0 when another replay is already running
+   */
+  public int replay(int maxRecords) {
+    if (!replaying.compareAndSet(false, true)) {
+      log.warn("Replay of dead letters from: [{}] already running, skipping", deadLetterTopic);
+      return 0;
+    }
+
+    try (var consumer = deadLetterConsumerFactory.createConsumer()) {
+      var partitions = consumer.partitionsFor(deadLetterTopic);
+      if (partitions.isEmpty()) {
+        return 0;
+      }
+      consumer.assign(
+          partitions.stream()
+              .map(partition -> new TopicPartition(partition.topic(), partition.partition()))
+              .toList());
+
+      var replayed = 0;
+      while (replayed < maxRecords) {
+        var batchStart = System.nanoTime();
+        var records = consumer.poll(Duration.ofMillis(pollTimeoutInMs));
+        if (records.isEmpty()) {
+          break;
+        }
+
+        var batchReplayed = replayBatch(consumer, records, maxRecords - replayed);
+        replayed += batchReplayed;
+        if (batchReplayed < records.count() || !throttle(batchReplayed, batchStart)) {
+          break;
+        }
+      }
+
+      log.info("Replayed: [{}] dead letters from: [{}]", replayed, deadLetterTopic);
+      return replayed;
+    } finally {
+      replaying.set(false);
+    }
+  }
+
+  /**
+   * Republishes up to the limit of the polled dead letters and commits those acknowledged by the
+   * broker, up to the first one that failed.
+   *
+   * @return number of dead letters replayed
+   */
+  private int replayBatch(
+      Consumer<String, byte[]> consumer, ConsumerRecords<String, byte[]> records, int limit) {
+    var batchCapacity = Math.min(limit, records.count());
+    List<ConsumerRecord<String, byte[]>> batch = new ArrayList<>(batchCapacity);
+    List<CompletableFuture<?>> sends = new ArrayList<>(batchCapacity);
+    for (var record : records) {
+      if (batch.size() == limit) {
+        break;
+      }
+      batch.add(record);
+      sends.add(deadLetterReplayKafkaTemplate.send(replayRecordOf(record)));
+    }
+
+    var sendDeadline = System.nanoTime() + MILLISECONDS.toNanos(sendTimeoutInMs);
+    Map<TopicPartition, OffsetAndMetadata> replayedOffsets = new HashMap<>();
+    var replayed = 0;
+    for (; replayed < batch.size(); replayed++) {
+      var record = batch.get(replayed);
+      try {
+        sends.get(replayed).get(Math.max(0, sendDeadline - System.nanoTime()), NANOSECONDS);
+      } catch (ExecutionException | TimeoutException e) {
+        log.warn(
+            "Replaying dead letter at offset: [{}] of: [{}-{}] failed, stopping: [{}]",
+            record.offset(),
+            record.topic(),
+            record.partition(),
+            e.getMessage());
+        break;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      replayedOffsets.put(
+          new TopicPartition(record.topic(), record.partition()),
+          new OffsetAndMetadata(record.offset() + 1));
+    }
+
+    if (!replayedOffsets.isEmpty()) {
+      consumer.commitSync(replayedOffsets);
+    }
+    return replayed;
+  }
+
+  private ProducerRecord<String, byte[]> replayRecordOf(ConsumerRecord<String, byte[]> record) {
+    var headers = new RecordHeaders();
+    for (Header header : record.headers()) {
+      if (!isFailureMetadata(header.key())) {
+        headers.add(header);
+      }
+    }
+    return new ProducerRecord<>(tradeCreatedTopic, null, record.key(), record.value(), headers);
+  }
+
+  private static boolean isFailureMetadata(String headerKey) {
+    return !ORIGINAL_RECORD_HEADERS.contains(headerKey)
+        && (headerKey.startsWith(DEAD_LETTER_HEADER_PREFIX)
+            || headerKey.startsWith(RETRY_TOPIC_HEADER_PREFIX));
+  }
+
+  /**
+   * Waits out the rest of the time the batch is allowed to take at the configured rate.
+   *
+   * @return false when interrupted while waiting
+   */
+  private boolean throttle(int batchSize, long batchStart) {
+    var batchDuration = SECONDS.toNanos(batchSize) / recordsPerSecond;
+    var remaining = batchDuration - (System.nanoTime() - batchStart);
+    if (remaining <= 0) {
+      return true;
+    }
+
+    try {
+      NANOSECONDS.sleep(remaining);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static java.lang.Math.floorMod;
+import static java.util.Objects.isNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs trade processing on a fixed set of single-threaded lanes, sharded by user id. All trades of
+ * one user, and so all changes of the user's portfolios, are applied by one thread in the order
+ * they were dispatched, no matter which listener container received them.
+ *
+ * <p>Every lane queues a bounded number of tasks. A dispatch to a full lane waits until the lane
+ * takes the next task, so a slow lane holds back the listeners feeding it instead of piling up
+ * tasks in memory.
+ */
+@Slf4j
+@Component
+public class TradeLaneDispatcher implements DisposableBean {
+  public static final String LANE_THREAD_PREFIX = "trade-lane-";
+  public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+  private final ExecutorService[] lanes;
+
+  public TradeLaneDispatcher(int laneCount) {
+    this(laneCount, DEFAULT_QUEUE_CAPACITY, false);
+  }
+
+  /**
+   * @param queueCapacity tasks waiting for every lane, dispatches beyond it wait for the lane
+   * @param virtualThreads runs every lane on a virtual thread, so a lane waiting on mongo, redis
+   *     or the user service does not hold a platform thread
+   */
+  @Autowired
+  public TradeLaneDispatcher(
+      @Value("${kafka.consumer.lanes:0}") int laneCount,
+      @Value("${kafka.consumer.lane-queue-capacity:1024}") int queueCapacity,
+      @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+    var lanesToStart = laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors();
+    this.lanes = new ExecutorService[lanesToStart];
+    for (int i = 0; i < lanesToStart; i++) {
+      var threadNamePrefix = LANE_THREAD_PREFIX + i + "-";
+      lanes[i] =
+          new ThreadPoolExecutor(
+              1,
+              1,
+              0,
+              MILLISECONDS,
+              new ArrayBlockingQueue<>(queueCapacity),
+              virtualThreads
+                  ? new VirtualThreadTaskExecutor(threadNamePrefix).getVirtualThreadFactory()
+                  : new CustomizableThreadFactory(threadNamePrefix),
+              waitForFreeSlot());
+    }
+    log.info(
+        "Started: [{}] trade processing lanes, on virtual threads: [{}]",
+        lanesToStart,
+        virtualThreads);
+  }
+
+  public <T> CompletableFuture<T> dispatch(Long userId, Supplier<T> task) {
+    return CompletableFuture.supplyAsync(task, lanes[laneOf(userId)]);
+  }
+
+  public int laneOf(Long userId) {
+    return isNull(userId) ? 0 : floorMod(Long.hashCode(userId), lanes.length);
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    for (var lane : lanes) {
+      lane.shutdown();
+    }
+    for (var lane : lanes) {
+      if (!lane.awaitTermination(10, SECONDS)) {
+        log.warn("Trade processing lane did not finish pending trades in time");
+        lane.shutdownNow();
+      }
+    }
+  }
+
+  /** Puts a task rejected by a full lane into its queue, waiting until the lane takes one. */
+  private static RejectedExecutionHandler waitForFreeSlot() {
+    return (task, lane) -> {
+      if (lane.isShutdown()) {
+        throw new RejectedExecutionException("Trade processing lane is shut down");
+      }
+      try {
+        lane.getQueue().put(task);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException("Interrupted waiting for trade processing lane", e);
+      }
+    };
+  }
+}
@@ -0,0 +1,34 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drops users from the near cache when their status is published as changed, or when their redis
+ * cache entry is deleted or expires. In both cases the message body is the user id.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class UserStatusInvalidationListener implements MessageListener {
+
+  private final UserStatusNearCache userStatusNearCache;
+
+  @Override
+  public void onMessage(Message message, byte[] pattern) {
+    var userId = new String(message.getBody(), UTF_8);
+    try {
+      userStatusNearCache.invalidate(Long.valueOf(userId));
+    } catch (NumberFormatException e) {
+      log.debug(
+          "Ignoring invalidation of key: [{}] from channel: [{}], not a user id",
+          userId,
+          new String(message.getChannel(), UTF_8));
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioMetrics.Stage.USER_REDIS_HIT;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioMetrics.Stage.USER_REDIS_MISS;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioMetrics.Stage.USER_REMOTE_CALL;
+import static java.util.Objects.nonNull;
+import static java.util.Optional.empty;
+
+import com.sothrose.assetflow_portfolio_service.client.UserServiceClient;
+import com.sothrose.assetflow_portfolio_service.exception.UserDtoValidationException;
+import com.sothrose.assetflow_portfolio_service.model.UserDto;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Looks up the active status of users on the blocking path, for {@link PortfolioService} and
+ * {@link PortfolioBatchWriter}: in the near cache first, then in redis, and only then in the user
+ * service, whose answer is cached in redis.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserStatusLookup {
+  private final UserServiceClient userServiceClient;
+  private final RedisService redisService;
+  private final UserStatusNearCache userStatusNearCache;
+  private final PortfolioMetrics portfolioMetrics;
+  private final PortfolioRules portfolioRules;
+
+  public boolean isActiveUser(Long userId) {
+    var nearCachedStatusOpt = userStatusNearCache.getActiveStatus(userId);
+    if (nearCachedStatusOpt.isPresent()) {
+      return nearCachedStatusOpt.get();
+    }
+
+    return portfolioRules.activeStatusOf(userId, fetchUserData(userId));
+  }
+
+  /**
+   * Looks up the status of all the users at once: users missing from the near cache are looked up
+   * in redis in a single round trip, and users missing there in a single user service call, whose
+   * results are cached in redis in a single round trip again. Users the call did not return are
+   * left out.
+   */
+  public Map<Long, Boolean> activeStatuses(List<Long> userIds) {
+    Map<Long, Boolean> activeStatuses = new HashMap<>();
+    List<Long> uncachedUserIds = new ArrayList<>();
+    userIds.forEach(
+        userId ->
+            userStatusNearCache
+                .getActiveStatus(userId)
+                .ifPresentOrElse(
+                    active -> activeStatuses.put(userId, active),
+                    () -> uncachedUserIds.add(userId)));
+
+    var cachedUserData =
+        redisService.getValues(uncachedUserIds.stream().map(String::valueOf).toList());
+    List<Long> unknownUserIds = new ArrayList<>();
+    for (var userId : uncachedUserIds) {
+      Optional.ofNullable(cachedUserData.get(String.valueOf(userId)))
+          .flatMap(portfolioRules::deserializeUserDto)
+          .ifPresentOrElse(
+              userDto -> activeStatuses.put(userId, activeStatusOrInactive(userId, userDto)),
+              () -> unknownUserIds.add(userId));
+    }
+
+    if (unknownUserIds.isEmpty()) {
+      return activeStatuses;
+    }
+
+    log.info("Fetching: [{}] users not present in redis cache at once", unknownUserIds.size());
+    Map<String, String> userDataToCache = new HashMap<>();
+    userServiceClient
+        .fetchUsersData(unknownUserIds)
+        .forEach(
+            (userId, userDto) -> {
+              portfolioRules.serializeUserDto(userDto)
+                  .ifPresent(user -> userDataToCache.put(String.valueOf(userId), user));
+              activeStatuses.put(userId, activeStatusOrInactive(userId, userDto));
+            });
+    redisService.setValues(userDataToCache);
+    return activeStatuses;
+  }
+
+  private boolean activeStatusOrInactive(Long userId, UserDto userDto) {
+    try {
+      return portfolioRules.activeStatusOf(userId, userDto);
+    } catch (UserDtoValidationException e) {
+      return false;
+    }
+  }
+
+  private UserDto fetchUserData(Long userId) {
+    var cachedUserDtoOpt = cachedUserData(userId);
+    if (cachedUserDtoOpt.isPresent()) {
+      return cachedUserDtoOpt.get();
+    }
+
+    var remoteCallStart = portfolioMetrics.start();
+    var userDto = userServiceClient.fetchUserData(userId);
+    portfolioMetrics.record(USER_REMOTE_CALL, remoteCallStart);
+    cacheUserData(userId, userDto);
+    return userDto;
+  }
+
+  private Optional<UserDto> cachedUserData(Long userId) {
+    var redisReadStart = portfolioMetrics.start();
+    var cachedData = redisService.getValue(String.valueOf(userId));
+    boolean isCachedUserPresent = nonNull(cachedData) && !cachedData.isEmpty();
+    if (isCachedUserPresent) {
+      log.info("User with id: [{}], present in redis cache", userId);
+      var deserializedUserDtoOpt = portfolioRules.deserializeUserDto(cachedData);
+      if (deserializedUserDtoOpt.isPresent()) {
+        portfolioMetrics.record(USER_REDIS_HIT, redisReadStart);
+        return deserializedUserDtoOpt;
+      }
+    }
+
+    log.info("User with id: [{}], not present in redis cache", userId);
+    portfolioMetrics.record(USER_REDIS_MISS, redisReadStart);
+    return empty();
+  }
+
+  private void cacheUserData(Long userId, UserDto userDto) {
+    portfolioRules.serializeUserDto(userDto)
+        .ifPresent(user -> redisService.setValue(String.valueOf(userId), user));
+  }
+}
@@ -0,0 +1,55 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.Optional;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-heap cache of active users, layered in front of the redis user cache. Only active users are
+ * kept, so a user service fallback reporting a user as inactive never locks the user out for
+ * longer than a single request, and deactivations are propagated through invalidation.
+ */
+@Slf4j
+@Component
+public class UserStatusNearCache {
+  public static final String USER_STATUS_NEAR_CACHE = "userStatusNearCache";
+
+  private final Cache<Long, Boolean> activeUsers;
+
+  public UserStatusNearCache(
+      @Value("${user-status.near-cache.maximum-size:10000}") long maximumSize,
+      @Value("${user-status.near-cache.ttl-in-ms:30000}") long ttlInMs,
+      MeterRegistry meterRegistry) {
+
+    this.activeUsers =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(Duration.ofMillis(ttlInMs))
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, activeUsers, USER_STATUS_NEAR_CACHE);
+  }
+
+  public Optional<Boolean> getActiveStatus(Long userId) {
+    return Optional.ofNullable(activeUsers.getIfPresent(userId));
+  }
+
+  public void putActiveStatus(Long userId, boolean active) {
+    if (active) {
+      activeUsers.put(userId, true);
+    } else {
+      activeUsers.invalidate(userId);
+    }
+  }
+
+  public void invalidate(Long userId) {
+    log.info("Invalidating user with id: [{}] in near cache", userId);
+    activeUsers.invalidate(userId);
+  }
+}
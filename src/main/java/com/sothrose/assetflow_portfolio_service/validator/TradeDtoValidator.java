@@ -2,15 +2,19 @@ package com.sothrose.assetflow_portfolio_service.validator;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static com.google.common.collect.Lists.newArrayList;
-import static java.math.BigDecimal.ZERO;
+import static java.lang.String.format;
 import static java.util.Objects.isNull;
 
+import com.sothrose.assetflow_portfolio_service.model.Quantity;
 import com.sothrose.assetflow_portfolio_service.model.TradeDto;
 import java.util.List;
 import org.springframework.stereotype.Component;
 
 @Component
 public class TradeDtoValidator {
+  private static final String NOT_REPRESENTABLE_ERROR_MSG =
+      "%s has more decimal places than %s, or is too large";
+
   public List<String> validateTradeDto(TradeDto tradeDto) {
     List<String> validationErrors = newArrayList();
 
@@ -26,16 +30,20 @@ public class TradeDtoValidator {
       validationErrors.add("AssetToPay cannot be null or empty");
     }
 
-    if (isNull(tradeDto.getAmountToPay()) || tradeDto.getAmountToPay().compareTo(ZERO) <= 0) {
+    if (isNull(tradeDto.getAmountToPay()) || tradeDto.getAmountToPay().signum() <= 0) {
       validationErrors.add("AmountToPay cannot be null or less or equal to 0");
+    } else if (!Quantity.isRepresentable(tradeDto.getAmountToPay(), tradeDto.getAssetType())) {
+      validationErrors.add(notRepresentableError("AmountToPay", tradeDto));
     }
 
     if (isNullOrEmpty(tradeDto.getAssetToBuy())) {
       validationErrors.add("AssetToBuy cannot be null or empty");
     }
 
-    if (isNull(tradeDto.getAmountBought()) || tradeDto.getAmountBought().compareTo(ZERO) <= 0) {
+    if (isNull(tradeDto.getAmountBought()) || tradeDto.getAmountBought().signum() <= 0) {
       validationErrors.add("AmountToPay cannot be null or less or equal to 0");
+    } else if (!Quantity.isRepresentable(tradeDto.getAmountBought(), tradeDto.getAssetType())) {
+      validationErrors.add(notRepresentableError("AmountBought", tradeDto));
     }
 
     if (isNullOrEmpty(tradeDto.getExchangeName())) {
@@ -44,4 +52,9 @@ public class TradeDtoValidator {
 
     return validationErrors;
   }
+
+  private static String notRepresentableError(String field, TradeDto tradeDto) {
+    return format(
+        NOT_REPRESENTABLE_ERROR_MSG, field, Quantity.scaleOf(tradeDto.getAssetType()));
+  }
 }
@@ -0,0 +1,108 @@
+package com.sothrose.assetflow_portfolio_service.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
+import static org.springframework.http.HttpMethod.POST;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+class UserServiceClientTest {
+  private static final String FAILING_USER_ID = "3";
+
+  private final AtomicInteger singleUserCalls = new AtomicInteger();
+  private final AtomicInteger batchCalls = new AtomicInteger();
+
+  private UserServiceClient userServiceClient;
+
+  @BeforeEach
+  void setUp() {
+    var webClient =
+        WebClient.builder()
+            .exchangeFunction(
+                request -> {
+                  if (request.method() == POST) {
+                    batchCalls.incrementAndGet();
+                    return Mono.just(ClientResponse.create(HttpStatus.NOT_FOUND).build());
+                  }
+                  singleUserCalls.incrementAndGet();
+                  var userId = request.url().getPath().substring("/users/".length());
+                  if (FAILING_USER_ID.equals(userId)) {
+                    return Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build());
+                  }
+                  return Mono.just(userResponse(userId)).delayElement(Duration.ofMillis(50));
+                })
+            .build();
+    userServiceClient = new UserServiceClient(webClient);
+    setField(userServiceClient, "userByIdPath", "/users/{userId}");
+    setField(userServiceClient, "usersByIdsPath", "/users/batch");
+  }
+
+  @Test
+  void shouldShareSingleInFlightCallBetweenConcurrentLookupsOfSameUser() {
+    // given
+    var userId = 1L;
+
+    // when
+    var userDtos =
+        Mono.zip(
+                userServiceClient.fetchUserDataAsync(userId),
+                userServiceClient.fetchUserDataAsync(userId))
+            .block();
+    var laterUserDto = userServiceClient.fetchUserData(userId);
+
+    // then
+    assertSame(userDtos.getT1(), userDtos.getT2());
+    assertEquals(userId, laterUserDto.getUserId());
+    assertEquals(2, singleUserCalls.get());
+  }
+
+  @Test
+  void shouldFallBackToSingleLookupsWhenBatchCallFails() {
+    // given
+    var userIds = List.of(1L, 2L);
+
+    // when
+    var userDtosById = userServiceClient.fetchUsersData(userIds);
+
+    // then
+    assertEquals(1, batchCalls.get());
+    assertEquals(2, singleUserCalls.get());
+    assertEquals(2L, userDtosById.get(2L).getUserId());
+    assertTrue(userDtosById.get(1L).getIsActive());
+  }
+
+  @Test
+  void shouldLeaveOutUsersWhoseSingleLookupFailedAfterBatchCallFailed() {
+    // given
+    var userIds = List.of(1L, 3L);
+
+    // when
+    var userDtosById = userServiceClient.fetchUsersData(userIds);
+
+    // then
+    assertEquals(2, singleUserCalls.get());
+    assertEquals(1, userDtosById.size());
+    assertEquals(1L, userDtosById.get(1L).getUserId());
+  }
+
+  private static ClientResponse userResponse(String userId) {
+    return ClientResponse.create(HttpStatus.OK)
+        .header(CONTENT_TYPE, APPLICATION_JSON_VALUE)
+        .body(
+            """
+            {"userId": %s, "username": "johnDo", "isActive": true}
+            """
+                .formatted(userId))
+        .build();
+  }
+}
@@ -0,0 +1,193 @@
+package com.sothrose.assetflow_portfolio_service.codec;
+
+import static com.sothrose.assetflow_portfolio_service.model.ActionType.TRADE;
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.CRYPTO;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.CachedPortfolios;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioDto;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioUpdatedEvent;
+import com.sothrose.assetflow_portfolio_service.model.TradeCreatedEvent;
+import com.sothrose.assetflow_portfolio_service.model.UserDto;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+class BinaryCodecTest {
+  private final TradeCreatedEventCodec tradeCreatedEventCodec = new TradeCreatedEventCodec();
+  private final PortfolioUpdatedEventCodec portfolioUpdatedEventCodec =
+      new PortfolioUpdatedEventCodec();
+  private final CachedPortfoliosCodec cachedPortfoliosCodec = new CachedPortfoliosCodec();
+
+  @Test
+  void shouldRoundTripTradeCreatedEvent() {
+    // given
+    var event =
+        TradeCreatedEvent.builder()
+            .eventId("trade-1")
+            .userId(-42L)
+            .assetToPay("USDT")
+            .amountToPay(new BigDecimal("12.50000000"))
+            .assetToBuy("BTC")
+            .amountBought(new BigDecimal("123456789012345678901234567890.123456789"))
+            .assetType(CRYPTO)
+            .exchangeName("Binance")
+            .build();
+
+    // when
+    var payload = tradeCreatedEventCodec.encode(event);
+    var decodedEvent = tradeCreatedEventCodec.decode(payload);
+
+    // then
+    assertEquals(event, decodedEvent);
+    assertEquals(8, decodedEvent.getAmountToPay().scale());
+  }
+
+  @Test
+  void shouldRoundTripEventWithNullFields() {
+    // given
+    var event = new TradeCreatedEvent();
+
+    // when
+    var decodedEvent = tradeCreatedEventCodec.decode(tradeCreatedEventCodec.encode(event));
+
+    // then
+    assertEquals(event, decodedEvent);
+  }
+
+  @Test
+  void shouldRoundTripPortfolioUpdatedEvent() {
+    // given
+    var event =
+        new PortfolioUpdatedEvent(
+            "portfolio123",
+            1L,
+            "BTC",
+            new BigDecimal("0.00012345"),
+            "USDT",
+            BigDecimal.ZERO,
+            LocalDateTime.of(2025, 1, 1, 12, 0, 0, 123_456_789),
+            TRADE);
+
+    // when
+    var decodedEvent = portfolioUpdatedEventCodec.decode(portfolioUpdatedEventCodec.encode(event));
+
+    // then
+    assertEquals(event, decodedEvent);
+  }
+
+  @Test
+  void shouldRejectTruncatedPayload() {
+    // given
+    var event = TradeCreatedEvent.builder().eventId("trade-1").assetToPay("USDT").build();
+    var payload = tradeCreatedEventCodec.encode(event);
+    var truncatedPayload = Arrays.copyOf(payload, payload.length - 3);
+
+    // when
+    // then
+    assertThrows(
+        IllegalArgumentException.class, () -> tradeCreatedEventCodec.decode(truncatedPayload));
+  }
+
+  @Test
+  void shouldRejectNewerSchemaVersion() {
+    // given
+    var payload = tradeCreatedEventCodec.encode(new TradeCreatedEvent());
+    payload[1] = (byte) (TradeCreatedEventCodec.SCHEMA_VERSION + 1);
+
+    // when
+    // then
+    assertThrows(IllegalArgumentException.class, () -> tradeCreatedEventCodec.decode(payload));
+  }
+
+  @Test
+  void shouldDeserializeBinaryAndJsonPayloads() {
+    // given
+    var event = TradeCreatedEvent.builder().eventId("trade-1").userId(1L).build();
+    var deserializer =
+        new BinaryOrJsonDeserializer<>(
+            tradeCreatedEventCodec, new JsonDeserializer<>(TradeCreatedEvent.class, false));
+    var binaryPayload = new BinarySerializer<>(tradeCreatedEventCodec).serialize("trades", event);
+    var jsonPayload = new JsonSerializer<TradeCreatedEvent>().serialize("trades", event);
+
+    // when
+    var binaryEvent = deserializer.deserialize("trades", binaryPayload);
+    var jsonEvent = deserializer.deserialize("trades", jsonPayload);
+
+    // then
+    assertEquals(event, binaryEvent);
+    assertEquals(event, jsonEvent);
+    assertTrue(binaryPayload.length < jsonPayload.length);
+  }
+
+  @Test
+  void shouldWrapCorruptedBinaryPayloadInSerializationException() {
+    // given
+    var deserializer =
+        new BinaryOrJsonDeserializer<>(
+            tradeCreatedEventCodec, new JsonDeserializer<>(TradeCreatedEvent.class, false));
+    var payload = new byte[] {(byte) BinaryCodec.MAGIC, 1, (byte) 0xFF};
+
+    // when
+    // then
+    assertThrows(SerializationException.class, () -> deserializer.deserialize("trades", payload));
+  }
+
+  @Test
+  void shouldEncodeUserStatus() {
+    // given
+    var activeUser = new UserDto();
+    activeUser.setIsActive(true);
+    var inactiveUser = new UserDto();
+    inactiveUser.setIsActive(false);
+
+    // when
+    var encodedActiveUser = UserStatusCodec.encode(activeUser);
+    var encodedInactiveUser = UserStatusCodec.encode(inactiveUser);
+    var encodedUnknownUser = UserStatusCodec.encode(new UserDto());
+
+    // then
+    assertEquals(2, encodedActiveUser.getBytes(UTF_8).length);
+    assertTrue(UserStatusCodec.decode(encodedActiveUser).getIsActive());
+    assertFalse(UserStatusCodec.decode(encodedInactiveUser).getIsActive());
+    assertNull(UserStatusCodec.decode(encodedUnknownUser).getIsActive());
+    assertFalse(UserStatusCodec.isEncoded("{\"isActive\":true}"));
+  }
+
+  @Test
+  void shouldRoundTripCachedPortfolios() {
+    // given
+    var portfolio =
+        new PortfolioDto(
+            "portfolio-1",
+            42L,
+            CRYPTO,
+            "Binance",
+            Set.of(
+                new Asset("BTC", new BigDecimal("0.00012345"), CRYPTO),
+                new Asset("USDT", new BigDecimal("100"), CRYPTO)));
+    var emptyPortfolio = new PortfolioDto("portfolio-2", 42L, null, null, null);
+    var cachedPortfolios = new CachedPortfolios(List.of(portfolio, emptyPortfolio), 1_700_000L);
+
+    // when
+    var decoded = cachedPortfoliosCodec.decode(cachedPortfoliosCodec.encode(cachedPortfolios));
+
+    // then
+    assertEquals(cachedPortfolios, decoded);
+    var decodedBtc =
+        decoded.getPortfolios().getFirst().getAssets().stream()
+            .filter(asset -> asset.getName().equals("BTC"))
+            .findFirst()
+            .orElseThrow();
+    assertEquals(new BigDecimal("0.00012345"), decodedBtc.getQuantity());
+    assertNull(decoded.getPortfolios().getLast().getAssets());
+  }
+}
@@ -0,0 +1,84 @@
+package com.sothrose.assetflow_portfolio_service.model;
+
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.CRYPTO;
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.STOCK;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sothrose.assetflow_portfolio_service.exception.AssetQuantityOutOfRangeException;
+import java.math.BigDecimal;
+import org.junit.jupiter.api.Test;
+
+class AssetTest {
+
+  @Test
+  void shouldRoundTripQuantityAtScaleOfAssetType() {
+    // given
+    var btc = new Asset("BTC", new BigDecimal("0.00012345"), CRYPTO);
+    var aapl = new Asset("AAPL", new BigDecimal("1.5"), STOCK);
+
+    // when
+    var btcQuantity = btc.getQuantity();
+    var aaplQuantity = aapl.getQuantity();
+    aapl.setQuantity(aaplQuantity);
+
+    // then
+    assertEquals(new BigDecimal("0.00012345"), btcQuantity);
+    assertEquals(12_345L, btc.quantityUnits());
+    assertEquals(new BigDecimal("1.500000"), aaplQuantity);
+    assertEquals(1_500_000L, aapl.quantityUnits());
+    assertEquals(new BigDecimal("1.500000"), aapl.getQuantity());
+  }
+
+  @Test
+  void shouldRejectQuantityWithMoreDecimalPlacesThanScale() {
+    // given
+    var tooPreciseStock = new BigDecimal("1.0000001");
+    var tooPreciseCrypto = new BigDecimal("0.000000001");
+
+    // when
+    // then
+    assertThrows(
+        AssetQuantityOutOfRangeException.class, () -> new Asset("AAPL", tooPreciseStock, STOCK));
+    assertThrows(
+        AssetQuantityOutOfRangeException.class, () -> new Asset("BTC", tooPreciseCrypto, CRYPTO));
+    assertEquals(
+        100_000_000L, new Asset("BTC", new BigDecimal("1.000000000"), CRYPTO).quantityUnits());
+    assertTrue(Quantity.isRepresentable(new BigDecimal("1.000001"), STOCK));
+    assertFalse(Quantity.isRepresentable(tooPreciseStock, STOCK));
+  }
+
+  @Test
+  void shouldAddAndRemoveUnits() {
+    // given
+    var usdt = new Asset("USDT", new BigDecimal("100"), CRYPTO);
+    var unitsToRemove = usdt.unitsOf(new BigDecimal("40.5"));
+
+    // when
+    usdt.addQuantity(new BigDecimal("0.5"));
+    var hasEnough = usdt.hasAtLeast(unitsToRemove);
+    usdt.removeUnits(unitsToRemove);
+
+    // then
+    assertTrue(hasEnough);
+    assertEquals(new BigDecimal("60.00000000"), usdt.getQuantity());
+    assertFalse(usdt.hasAtLeast(usdt.quantityUnits() + 1));
+  }
+
+  @Test
+  void shouldRejectOverflowAndKeepQuantity() {
+    // given
+    var asset = new Asset("BTC", Quantity.toDecimal(Long.MAX_VALUE - 1, CRYPTO), CRYPTO);
+
+    // when
+    // then
+    assertThrows(AssetQuantityOutOfRangeException.class, () -> asset.addUnits(2));
+    assertEquals(Long.MAX_VALUE - 1, asset.quantityUnits());
+    assertThrows(
+        AssetQuantityOutOfRangeException.class,
+        () -> Quantity.requireAddable(asset.quantityUnits(), 2));
+    assertDoesNotThrow(() -> Quantity.requireAddable(asset.quantityUnits(), 1));
+    assertThrows(
+        AssetQuantityOutOfRangeException.class,
+        () -> new Asset("BTC", new BigDecimal("100000000000"), CRYPTO));
+  }
+}
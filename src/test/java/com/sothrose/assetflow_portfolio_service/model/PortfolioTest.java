@@ -0,0 +1,68 @@
+package com.sothrose.assetflow_portfolio_service.model;
+
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.CRYPTO;
+import static com.sothrose.assetflow_portfolio_service.model.Portfolio.PROCESSED_TRADE_IDS_LIMIT;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class PortfolioTest {
+
+  @Test
+  void shouldFindAssetIgnoringCase() {
+    // given
+    var portfolio = new Portfolio();
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+
+    // when
+    var assetOpt = portfolio.findAsset("usdt");
+
+    // then
+    assertTrue(assetOpt.isPresent());
+    assertEquals("USDT", assetOpt.get().getName());
+    assertTrue(portfolio.findAsset("BTC").isEmpty());
+  }
+
+  @Test
+  void shouldKeepIndexInSyncWhenAddingAndReplacingAssets() {
+    // given
+    var portfolio = Portfolio.builder().assets(new HashSet<>()).build();
+    var btc = new Asset("BTC", new BigDecimal("1"), CRYPTO);
+
+    // when
+    portfolio.addAsset(btc);
+    btc.addQuantity(new BigDecimal("2"));
+
+    // then
+    assertSame(btc, portfolio.findAsset("btc").orElseThrow());
+    assertTrue(portfolio.getAssets().contains(btc));
+
+    // when
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("ETH", new BigDecimal("5"), CRYPTO))));
+
+    // then
+    assertTrue(portfolio.findAsset("BTC").isEmpty());
+    assertTrue(portfolio.findAsset("eth").isPresent());
+  }
+
+  @Test
+  void shouldKeepOnlyLatestProcessedTradeIds() {
+    // given
+    var portfolio = new Portfolio();
+
+    // when
+    for (int i = 0; i <= PROCESSED_TRADE_IDS_LIMIT; i++) {
+      portfolio.markTradeProcessed("trade-" + i);
+    }
+
+    // then
+    assertEquals(PROCESSED_TRADE_IDS_LIMIT, portfolio.getProcessedTradeIds().size());
+    assertFalse(portfolio.hasProcessedTrade("trade-0"));
+    assertTrue(portfolio.hasProcessedTrade("trade-1"));
+    assertTrue(portfolio.hasProcessedTrade("trade-" + PROCESSED_TRADE_IDS_LIMIT));
+    assertFalse(portfolio.hasProcessedTrade(null));
+  }
+}
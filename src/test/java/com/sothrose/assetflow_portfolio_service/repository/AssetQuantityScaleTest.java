@@ -0,0 +1,181 @@
+package com.sothrose.assetflow_portfolio_service.repository;
+
+import static com.sothrose.assetflow_portfolio_service.migrations.MongoDBMigration.PORTFOLIOS_COLLECTION;
+import static com.sothrose.assetflow_portfolio_service.model.ActionType.DEPOSIT;
+import static com.sothrose.assetflow_portfolio_service.model.ActionType.WITHDRAW;
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.CRYPTO;
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.STOCK;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.sothrose.assetflow_portfolio_service.migrations.AssetQuantityScaleMigration;
+import com.sothrose.assetflow_portfolio_service.migrations.MongoDBMigration;
+import com.sothrose.assetflow_portfolio_service.model.ActionType;
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.AssetType;
+import com.sothrose.assetflow_portfolio_service.model.PendingEvent;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioUpdatedEvent;
+import com.sothrose.assetflow_portfolio_service.model.Quantity;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Checks against a real MongoDB that conditional updates never leave a quantity unreadable at the
+ * scale of its asset type, and that quantities saved before are normalized. Skipped when Docker is
+ * not available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class AssetQuantityScaleTest {
+  @Container private static final MongoDBContainer MONGO_DB = new MongoDBContainer("mongo:7.0");
+
+  private static final AtomicLong USER_IDS = new AtomicLong();
+
+  private static MongoClient mongoClient;
+  private static MongoTemplate mongoTemplate;
+  private static PortfolioRepositoryCustomImpl portfolioRepository;
+
+  @BeforeAll
+  static void setUp() {
+    mongoClient = MongoClients.create(MONGO_DB.getReplicaSetUrl());
+    mongoTemplate = new MongoTemplate(mongoClient, "assetflow-portfolio");
+    new MongoDBMigration(mongoTemplate).changeSet();
+    portfolioRepository = new PortfolioRepositoryCustomImpl(mongoTemplate, 100);
+  }
+
+  @AfterAll
+  static void tearDown() {
+    mongoClient.close();
+  }
+
+  @Test
+  void shouldNotDepositMoreDecimalsThanScaleOfAssetHeldWithOtherType() {
+    // given
+    var portfolio = insertedPortfolio(new Asset("AAPL", BigDecimal.ONE, STOCK));
+
+    // when
+    var deposited =
+        portfolioRepository.depositAsset(
+            portfolio.getId(),
+            portfolio.getUserId(),
+            new Asset("AAPL", new BigDecimal("0.0000001"), CRYPTO),
+            pendingEvent(portfolio, DEPOSIT));
+
+    // then
+    assertFalse(deposited);
+    assertStoredQuantity(portfolio, "AAPL", BigDecimal.ONE);
+  }
+
+  @Test
+  void shouldNotDepositPastRangeOfScale() {
+    // given
+    var maxQuantity = Quantity.maxQuantity(CRYPTO);
+    var portfolio = insertedPortfolio(new Asset("BTC", maxQuantity, CRYPTO));
+
+    // when
+    var deposited =
+        portfolioRepository.depositAsset(
+            portfolio.getId(),
+            portfolio.getUserId(),
+            new Asset("BTC", BigDecimal.ONE, CRYPTO),
+            pendingEvent(portfolio, DEPOSIT));
+
+    // then
+    assertFalse(deposited);
+    assertStoredQuantity(portfolio, "BTC", maxQuantity);
+  }
+
+  @Test
+  void shouldNotWithdrawMoreDecimalsThanScaleOfAsset() {
+    // given
+    var portfolio = insertedPortfolio(new Asset("AAPL", BigDecimal.ONE, STOCK));
+
+    // when
+    var withdrawn =
+        portfolioRepository.withdrawAsset(
+            portfolio.getId(),
+            portfolio.getUserId(),
+            "AAPL",
+            new BigDecimal("0.0000001"),
+            pendingEvent(portfolio, WITHDRAW));
+
+    // then
+    assertFalse(withdrawn);
+    assertStoredQuantity(portfolio, "AAPL", BigDecimal.ONE);
+  }
+
+  @Test
+  void shouldTruncateLegacyQuantitiesWithMoreDecimalsThanScale() {
+    // given
+    var portfolio = insertedPortfolio(new Asset("BTC", BigDecimal.ONE, CRYPTO));
+    mongoTemplate
+        .getCollection(PORTFOLIOS_COLLECTION)
+        .updateOne(
+            new Document("_id", new ObjectId(portfolio.getId())),
+            new Document(
+                "$set",
+                new Document(
+                    "assets",
+                    List.of(
+                        legacyAsset("BTC", "1.123456789", CRYPTO),
+                        legacyAsset("AAPL", "2.50", STOCK)))));
+
+    // when
+    new AssetQuantityScaleMigration(mongoTemplate).changeSet();
+
+    // then
+    assertStoredQuantity(portfolio, "BTC", new BigDecimal("1.12345678"));
+    assertStoredQuantity(portfolio, "AAPL", new BigDecimal("2.5"));
+  }
+
+  private static void assertStoredQuantity(
+      Portfolio portfolio, String assetName, BigDecimal expectedQuantity) {
+    var storedPortfolio = mongoTemplate.findById(portfolio.getId(), Portfolio.class);
+    var storedQuantity = storedPortfolio.findAsset(assetName).orElseThrow().getQuantity();
+    assertEquals(0, expectedQuantity.compareTo(storedQuantity));
+  }
+
+  private static Document legacyAsset(String name, String quantity, AssetType assetType) {
+    return new Document("name", name)
+        .append("quantity", new Decimal128(new BigDecimal(quantity)))
+        .append("assetType", assetType.name());
+  }
+
+  private static Portfolio insertedPortfolio(Asset asset) {
+    return mongoTemplate.insert(
+        Portfolio.builder()
+            .userId(USER_IDS.incrementAndGet())
+            .portfolioType(asset.getAssetType())
+            .exchange("Binance")
+            .assets(new HashSet<>(Set.of(asset)))
+            .build());
+  }
+
+  private static PendingEvent pendingEvent(Portfolio portfolio, ActionType actionType) {
+    return PendingEvent.of(
+        new PortfolioUpdatedEvent(
+            portfolio.getId(),
+            portfolio.getUserId(),
+            "BTC",
+            BigDecimal.ONE,
+            null,
+            null,
+            LocalDateTime.now(),
+            actionType));
+  }
+}
@@ -0,0 +1,162 @@
+package com.sothrose.assetflow_portfolio_service.repository;
+
+import static com.sothrose.assetflow_portfolio_service.model.ActionType.DEPOSIT;
+import static com.sothrose.assetflow_portfolio_service.model.ActionType.TRADE;
+import static com.sothrose.assetflow_portfolio_service.model.ActionType.WITHDRAW;
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.CRYPTO;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.sothrose.assetflow_portfolio_service.migrations.MongoDBMigration;
+import com.sothrose.assetflow_portfolio_service.model.ActionType;
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.PendingEvent;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioUpdatedEvent;
+import com.sothrose.assetflow_portfolio_service.model.TradeDto;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Interleaves a conditional in-database write with a version-checked save of a copy read before
+ * it, against a real MongoDB, and checks the save is rejected instead of overwriting the change
+ * and its outbox event. Skipped when Docker is not available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class PortfolioConcurrentWriteTest {
+  @Container private static final MongoDBContainer MONGO_DB = new MongoDBContainer("mongo:7.0");
+
+  private static final AtomicLong USER_IDS = new AtomicLong();
+
+  private static MongoClient mongoClient;
+  private static MongoTemplate mongoTemplate;
+  private static PortfolioRepositoryCustomImpl portfolioRepository;
+
+  @BeforeAll
+  static void setUp() {
+    mongoClient = MongoClients.create(MONGO_DB.getReplicaSetUrl());
+    mongoTemplate = new MongoTemplate(mongoClient, "assetflow-portfolio");
+    new MongoDBMigration(mongoTemplate).changeSet();
+    portfolioRepository = new PortfolioRepositoryCustomImpl(mongoTemplate, 100);
+  }
+
+  @AfterAll
+  static void tearDown() {
+    mongoClient.close();
+  }
+
+  @Test
+  void shouldRejectOptimisticSaveOfCopyReadBeforeAtomicDeposit() {
+    // given
+    var portfolio = insertedPortfolio();
+    var staleCopy = mongoTemplate.findById(portfolio.getId(), Portfolio.class);
+
+    // when
+    var deposited =
+        portfolioRepository.depositAsset(
+            portfolio.getId(),
+            portfolio.getUserId(),
+            new Asset("BTC", new BigDecimal("1"), CRYPTO),
+            pendingEvent(portfolio, DEPOSIT));
+
+    // then
+    assertTrue(deposited);
+    assertStaleSaveRejected(staleCopy, "11");
+  }
+
+  @Test
+  void shouldRejectOptimisticSaveOfCopyReadBeforeAtomicWithdrawal() {
+    // given
+    var portfolio = insertedPortfolio();
+    var staleCopy = mongoTemplate.findById(portfolio.getId(), Portfolio.class);
+
+    // when
+    var withdrawn =
+        portfolioRepository.withdrawAsset(
+            portfolio.getId(),
+            portfolio.getUserId(),
+            "BTC",
+            new BigDecimal("1"),
+            pendingEvent(portfolio, WITHDRAW));
+
+    // then
+    assertTrue(withdrawn);
+    assertStaleSaveRejected(staleCopy, "9");
+  }
+
+  @Test
+  void shouldRejectOptimisticSaveOfCopyReadBeforeAtomicTrade() {
+    // given
+    var portfolio = insertedPortfolio();
+    var staleCopy = mongoTemplate.findById(portfolio.getId(), Portfolio.class);
+    var tradeDto =
+        TradeDto.builder()
+            .userId(portfolio.getUserId())
+            .assetToPay("BTC")
+            .amountToPay(new BigDecimal("1"))
+            .assetToBuy("ETH")
+            .amountBought(new BigDecimal("10"))
+            .assetType(CRYPTO)
+            .exchangeName("Binance")
+            .build();
+
+    // when
+    var tradedPortfolioId =
+        portfolioRepository.tradeAssets(tradeDto, pendingEvent(portfolio, TRADE));
+
+    // then
+    assertEquals(portfolio.getId(), tradedPortfolioId.orElseThrow());
+    assertStaleSaveRejected(staleCopy, "9");
+  }
+
+  /** Saves the stale copy as the optimistic write mode would and checks nothing was lost. */
+  private static void assertStaleSaveRejected(Portfolio staleCopy, String expectedBtc) {
+    staleCopy.addAsset(new Asset("SOL", new BigDecimal("5"), CRYPTO));
+    assertThrows(OptimisticLockingFailureException.class, () -> mongoTemplate.save(staleCopy));
+
+    var storedPortfolio = mongoTemplate.findById(staleCopy.getId(), Portfolio.class);
+    assertEquals(1L, storedPortfolio.getVersion());
+    assertEquals(1, storedPortfolio.getPendingEvents().size());
+    assertTrue(storedPortfolio.findAsset("SOL").isEmpty());
+    assertEquals(
+        0,
+        new BigDecimal(expectedBtc)
+            .compareTo(storedPortfolio.findAsset("BTC").orElseThrow().getQuantity()));
+  }
+
+  private static Portfolio insertedPortfolio() {
+    var assets = new HashSet<>(Set.of(new Asset("BTC", new BigDecimal("10"), CRYPTO)));
+    return mongoTemplate.insert(
+        Portfolio.builder()
+            .userId(USER_IDS.incrementAndGet())
+            .portfolioType(CRYPTO)
+            .exchange("Binance")
+            .assets(assets)
+            .build());
+  }
+
+  private static PendingEvent pendingEvent(Portfolio portfolio, ActionType actionType) {
+    return PendingEvent.of(
+        new PortfolioUpdatedEvent(
+            portfolio.getId(),
+            portfolio.getUserId(),
+            "BTC",
+            BigDecimal.ONE,
+            null,
+            null,
+            LocalDateTime.now(),
+            actionType));
+  }
+}
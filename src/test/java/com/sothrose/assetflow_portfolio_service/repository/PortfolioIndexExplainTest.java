@@ -0,0 +1,222 @@
+package com.sothrose.assetflow_portfolio_service.repository;
+
+import static com.sothrose.assetflow_portfolio_service.migrations.MongoDBMigration.PORTFOLIOS_COLLECTION;
+import static com.sothrose.assetflow_portfolio_service.migrations.PortfolioKeyIndexMigration.PORTFOLIO_KEY_INDEX;
+import static com.sothrose.assetflow_portfolio_service.migrations.PortfolioUserCursorIndexMigration.USER_CURSOR_INDEX;
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.CRYPTO;
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.STOCK;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.portfolioKeyExistsQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.portfolioKeyQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.tradeQuery;
+import static com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates.userPortfoliosQuery;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.sothrose.assetflow_portfolio_service.migrations.MongoDBMigration;
+import com.sothrose.assetflow_portfolio_service.migrations.PortfolioKeyIndexMigration;
+import com.sothrose.assetflow_portfolio_service.migrations.PortfolioOutboxIndexMigration;
+import com.sothrose.assetflow_portfolio_service.migrations.PortfolioUserCursorIndexMigration;
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.AssetType;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import com.sothrose.assetflow_portfolio_service.model.TradeDto;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.LongStream;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.query.Query;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Runs the portfolio lookups against a real MongoDB with the migrations applied and checks their
+ * query plans, so a change to a query or an index that turns a lookup into a collection scan
+ * fails the build. Skipped when Docker is not available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class PortfolioIndexExplainTest {
+  private static final String COLLSCAN_STAGE = "COLLSCAN";
+  private static final String IXSCAN_STAGE = "IXSCAN";
+  private static final String FETCH_STAGE = "FETCH";
+  private static final String SORT_STAGE = "SORT";
+
+  @Container private static final MongoDBContainer MONGO_DB = new MongoDBContainer("mongo:7.0");
+
+  private static MongoClient mongoClient;
+  private static MongoTemplate mongoTemplate;
+
+  @BeforeAll
+  static void setUp() {
+    mongoClient = MongoClients.create(MONGO_DB.getReplicaSetUrl());
+    mongoTemplate = new MongoTemplate(mongoClient, "assetflow-portfolio");
+    new MongoDBMigration(mongoTemplate).changeSet();
+    new PortfolioOutboxIndexMigration(mongoTemplate).changeSet();
+    new PortfolioKeyIndexMigration(mongoTemplate).changeSet();
+    new PortfolioUserCursorIndexMigration(mongoTemplate).changeSet();
+
+    LongStream.rangeClosed(1, 200)
+        .forEach(
+            userId -> {
+              mongoTemplate.insert(portfolio(userId, CRYPTO, "Binance"));
+              mongoTemplate.insert(portfolio(userId, STOCK, "NYSE"));
+            });
+  }
+
+  @AfterAll
+  static void tearDown() {
+    mongoClient.close();
+  }
+
+  @Test
+  void shouldLookUpTradedPortfolioByKeyIndex() {
+    // given
+    var tradeDto =
+        TradeDto.builder()
+            .userId(42L)
+            .assetToPay("BTC")
+            .amountToPay(BigDecimal.ONE)
+            .assetToBuy("ETH")
+            .amountBought(BigDecimal.TEN)
+            .assetType(CRYPTO)
+            .exchangeName("Binance")
+            .build();
+
+    // when
+    var explain = explain(tradeQuery(tradeDto));
+
+    // then
+    var stages = winningPlanStages(explain);
+    assertFalse(stages.contains(COLLSCAN_STAGE), () -> "Collection scan in: " + explain.toJson());
+    assertTrue(stages.contains(IXSCAN_STAGE), () -> "No index scan in: " + explain.toJson());
+    assertTrue(winningPlanIndexes(explain).contains(PORTFOLIO_KEY_INDEX));
+  }
+
+  @Test
+  void shouldLookUpPortfolioOfUserTypeAndExchangeByKeyIndex() {
+    // when
+    var explain = explain(portfolioKeyQuery(42L, STOCK, "NYSE"));
+
+    // then
+    assertFalse(winningPlanStages(explain).contains(COLLSCAN_STAGE));
+    assertTrue(winningPlanIndexes(explain).contains(PORTFOLIO_KEY_INDEX));
+    assertEquals(1, executionStats(explain).getInteger("nReturned"));
+  }
+
+  @Test
+  void shouldCheckPortfolioExistenceFromIndexOnly() {
+    // when
+    var explain = explain(portfolioKeyExistsQuery(42L, CRYPTO, "Binance"));
+
+    // then
+    var stages = winningPlanStages(explain);
+    assertFalse(stages.contains(COLLSCAN_STAGE), () -> "Collection scan in: " + explain.toJson());
+    assertFalse(stages.contains(FETCH_STAGE), () -> "Document fetch in: " + explain.toJson());
+    assertEquals(1, executionStats(explain).getInteger("nReturned"));
+    assertEquals(0, executionStats(explain).getInteger("totalDocsExamined"));
+  }
+
+  @Test
+  void shouldReadPageOfUserPortfoliosInIdOrderWithoutSorting() {
+    // given
+    var firstPortfolio =
+        mongoTemplate.find(userPortfoliosQuery(42L, null).limit(1), Portfolio.class).getFirst();
+
+    // when
+    var explain = explain(userPortfoliosQuery(42L, firstPortfolio.getId()).limit(10));
+
+    // then
+    var stages = winningPlanStages(explain);
+    assertFalse(stages.contains(COLLSCAN_STAGE), () -> "Collection scan in: " + explain.toJson());
+    assertFalse(stages.contains(SORT_STAGE), () -> "In-memory sort in: " + explain.toJson());
+    assertTrue(winningPlanIndexes(explain).contains(USER_CURSOR_INDEX));
+    assertEquals(1, executionStats(explain).getInteger("nReturned"));
+  }
+
+  @Test
+  void shouldRejectSecondPortfolioWithSameKeyButAllowOtherExchange() {
+    // when
+    mongoTemplate.insert(portfolio(7L, CRYPTO, "Kraken"));
+
+    // then
+    assertThrows(
+        DuplicateKeyException.class, () -> mongoTemplate.insert(portfolio(7L, CRYPTO, "Binance")));
+    assertEquals(
+        3, mongoTemplate.count(Query.query(where("userId").is(7L)), PORTFOLIOS_COLLECTION));
+  }
+
+  private static Portfolio portfolio(Long userId, AssetType portfolioType, String exchange) {
+    var assets = new HashSet<Asset>();
+    assets.add(new Asset("BTC", BigDecimal.valueOf(userId), portfolioType));
+    return Portfolio.builder()
+        .userId(userId)
+        .portfolioType(portfolioType)
+        .exchange(exchange)
+        .assets(assets)
+        .build();
+  }
+
+  private static Document explain(Query query) {
+    var queryMapper = new QueryMapper(mongoTemplate.getConverter());
+    var entity =
+        mongoTemplate.getConverter().getMappingContext().getPersistentEntity(Portfolio.class);
+    var find =
+        new Document("find", PORTFOLIOS_COLLECTION)
+            .append("filter", queryMapper.getMappedObject(query.getQueryObject(), entity))
+            .append("projection", queryMapper.getMappedFields(query.getFieldsObject(), entity));
+    if (!query.getSortObject().isEmpty()) {
+      find.append("sort", query.getSortObject());
+    }
+    if (query.getLimit() > 0) {
+      find.append("limit", query.getLimit());
+    }
+    return mongoTemplate.executeCommand(
+        new Document("explain", find).append("verbosity", "executionStats"));
+  }
+
+  private static Document executionStats(Document explain) {
+    return explain.get("executionStats", Document.class);
+  }
+
+  private static List<String> winningPlanStages(Document explain) {
+    var stages = new ArrayList<String>();
+    collect(winningPlan(explain), "stage", stages);
+    return stages;
+  }
+
+  private static List<String> winningPlanIndexes(Document explain) {
+    var indexes = new ArrayList<String>();
+    collect(winningPlan(explain), "indexName", indexes);
+    return indexes;
+  }
+
+  private static Document winningPlan(Document explain) {
+    return explain.get("queryPlanner", Document.class).get("winningPlan", Document.class);
+  }
+
+  /** Plans nest their stages under different keys depending on the query engine. */
+  private static void collect(Object node, String key, List<String> values) {
+    if (node instanceof Document document) {
+      document.forEach(
+          (name, value) -> {
+            if (key.equals(name) && value instanceof String stringValue) {
+              values.add(stringValue);
+            } else {
+              collect(value, key, values);
+            }
+          });
+    } else if (node instanceof List<?> list) {
+      list.forEach(element -> collect(element, key, values));
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.service.AdaptiveConcurrencyLimiter.CONCURRENCY_LIMIT_METRIC;
+import static com.sothrose.assetflow_portfolio_service.service.AdaptiveConcurrencyLimiter.DEPENDENCY_TAG;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyLimiterTest {
+  private SimpleMeterRegistry meterRegistry;
+  private Bulkhead mongoBulkhead;
+  private DependencyCallTimer dependencyCallTimer;
+  private AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    var bulkheadRegistry =
+        BulkheadRegistry.of(
+            BulkheadConfig.custom()
+                .maxConcurrentCalls(20)
+                .maxWaitDuration(Duration.ofMillis(10))
+                .build());
+    dependencyCallTimer = new DependencyCallTimer();
+    mongoBulkhead = bulkheadRegistry.bulkhead("mongoPortfolio");
+    adaptiveConcurrencyLimiter =
+        new AdaptiveConcurrencyLimiter(
+            bulkheadRegistry, dependencyCallTimer, meterRegistry, 4, 200, 2.0, 0.5);
+  }
+
+  @Test
+  void shouldRaiseLimitWhileLatencyHoldsAndLimitIsUsed() {
+    // given
+    var initialLimit = limit();
+
+    // when
+    for (int window = 0; window < 5; window++) {
+      callsInWindow(limit(), 5);
+      adaptiveConcurrencyLimiter.adjustLimits();
+    }
+
+    // then
+    assertEquals(20, initialLimit);
+    assertTrue(limit() > initialLimit);
+    assertEquals(limit(), gaugeValue());
+  }
+
+  @Test
+  void shouldLowerLimitWhenLatencyGrows() {
+    // given
+    callsInWindow(20, 5);
+    adaptiveConcurrencyLimiter.adjustLimits();
+    var limitBeforeSlowdown = limit();
+
+    // when
+    for (int window = 0; window < 5; window++) {
+      callsInWindow(limit(), 100);
+      adaptiveConcurrencyLimiter.adjustLimits();
+    }
+
+    // then
+    assertTrue(limit() < limitBeforeSlowdown);
+    assertTrue(limit() >= 4);
+    assertEquals(limit(), gaugeValue());
+  }
+
+  @Test
+  void shouldNotRaiseLimitThatIsNotUsed() {
+    // when
+    for (int window = 0; window < 5; window++) {
+      callsInWindow(2, 5);
+      adaptiveConcurrencyLimiter.adjustLimits();
+    }
+
+    // then
+    assertEquals(20, limit());
+  }
+
+  @Test
+  void shouldNotLowerLimitBelowCallsInFlight() {
+    // given
+    callsInWindow(20, 5);
+    adaptiveConcurrencyLimiter.adjustLimits();
+    var limitBeforeSlowdown = limit();
+    for (int i = 0; i < 21; i++) {
+      assertTrue(mongoBulkhead.tryAcquirePermission());
+    }
+
+    // when
+    dependencyCallTimer.record("mongoPortfolio", MILLISECONDS.toNanos(1_000));
+    adaptiveConcurrencyLimiter.adjustLimits();
+
+    // then
+    assertEquals(22, limitBeforeSlowdown);
+    assertEquals(21, limit());
+  }
+
+  /** Calls admitted by the bulkhead, all in flight at once, finishing after the latency given. */
+  private void callsInWindow(int concurrentCalls, long latencyInMs) {
+    for (int i = 0; i < concurrentCalls; i++) {
+      assertTrue(mongoBulkhead.tryAcquirePermission());
+    }
+    for (int i = 0; i < concurrentCalls; i++) {
+      dependencyCallTimer.record("mongoPortfolio", MILLISECONDS.toNanos(latencyInMs));
+      mongoBulkhead.onComplete();
+    }
+  }
+
+  private int limit() {
+    return mongoBulkhead.getBulkheadConfig().getMaxConcurrentCalls();
+  }
+
+  private int gaugeValue() {
+    return (int)
+        meterRegistry
+            .get(CONCURRENCY_LIMIT_METRIC)
+            .tag(DEPENDENCY_TAG, "mongoPortfolio")
+            .gauge()
+            .value();
+  }
+}
@@ -0,0 +1,108 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.service.ConcurrentLookupExecutor.LOOKUP_THREAD_PREFIX;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConcurrentLookupExecutorTest {
+  private final CountDownLatch readsReleased = new CountDownLatch(1);
+  private ConcurrentLookupExecutor concurrentLookupExecutor;
+
+  @BeforeEach
+  void setUp() {
+    concurrentLookupExecutor = new ConcurrentLookupExecutor(1, 1, false);
+  }
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    readsReleased.countDown();
+    concurrentLookupExecutor.destroy();
+  }
+
+  @Test
+  void shouldCheckOnCallingThreadWhileReadingOnLookupThread() {
+    // given
+    var checkThread = new AtomicReference<String>();
+
+    // when
+    var readThread =
+        concurrentLookupExecutor.readWhileChecking(
+            () -> checkThread.set(Thread.currentThread().getName()),
+            () -> Thread.currentThread().getName());
+
+    // then
+    assertEquals(Thread.currentThread().getName(), checkThread.get());
+    assertTrue(readThread.startsWith(LOOKUP_THREAD_PREFIX));
+  }
+
+  @Test
+  void shouldSkipReadNotStartedYetWhenCheckFails() throws InterruptedException {
+    // given
+    var readRan = new AtomicBoolean();
+    occupyLookupThread();
+
+    // when
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            concurrentLookupExecutor.readWhileChecking(
+                () -> {
+                  throw new IllegalStateException("User not active");
+                },
+                () -> readRan.getAndSet(true)));
+    readsReleased.countDown();
+    concurrentLookupExecutor.destroy();
+
+    // then
+    assertFalse(readRan.get());
+  }
+
+  @Test
+  void shouldReadOnCallingThreadWhenQueueIsFull() throws InterruptedException {
+    // given
+    occupyLookupThread();
+    var readQueued = new CountDownLatch(1);
+    var queuedLookup =
+        CompletableFuture.supplyAsync(
+            () ->
+                concurrentLookupExecutor.readWhileChecking(readQueued::countDown, () -> "queued"));
+    assertTrue(readQueued.await(5, SECONDS));
+
+    // when
+    var readThread =
+        concurrentLookupExecutor.readWhileChecking(
+            () -> {}, () -> Thread.currentThread().getName());
+    readsReleased.countDown();
+
+    // then
+    assertEquals(Thread.currentThread().getName(), readThread);
+    assertEquals("queued", queuedLookup.join());
+  }
+
+  /** Starts a lookup holding the only lookup thread until the reads are released. */
+  private void occupyLookupThread() throws InterruptedException {
+    var readStarted = new CountDownLatch(1);
+    CompletableFuture.runAsync(
+        () ->
+            concurrentLookupExecutor.readWhileChecking(
+                () -> {},
+                () -> {
+                  readStarted.countDown();
+                  try {
+                    return readsReleased.await(10, SECONDS);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                  }
+                }));
+    assertTrue(readStarted.await(5, SECONDS));
+  }
+}
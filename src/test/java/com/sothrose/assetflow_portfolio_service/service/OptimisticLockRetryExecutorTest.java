@@ -0,0 +1,82 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.service.OptimisticLockRetryExecutor.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+class OptimisticLockRetryExecutorTest {
+  private SimpleMeterRegistry meterRegistry;
+  private OptimisticLockRetryExecutor optimisticLockRetryExecutor;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    optimisticLockRetryExecutor = new OptimisticLockRetryExecutor(3, 1, 2, meterRegistry);
+  }
+
+  @Test
+  void shouldRetryConflictingWriteUntilItSucceeds() {
+    // given
+    var attempts = new AtomicInteger();
+
+    // when
+    var result =
+        optimisticLockRetryExecutor.execute(
+            () -> {
+              if (attempts.incrementAndGet() < 3) {
+                throw new OptimisticLockingFailureException("Version changed");
+              }
+              return "saved";
+            });
+
+    // then
+    assertEquals("saved", result);
+    assertEquals(3, meterRegistry.counter(WRITE_ATTEMPTS_METRIC).count());
+    assertEquals(2, meterRegistry.counter(WRITE_CONFLICTS_METRIC).count());
+    assertEquals(2, meterRegistry.summary(RETRY_DEPTH_METRIC).max());
+  }
+
+  @Test
+  void shouldRethrowConflictWhenAttemptsExhausted() {
+    // when
+    assertThrows(
+        OptimisticLockingFailureException.class,
+        () ->
+            optimisticLockRetryExecutor.execute(
+                () -> {
+                  throw new OptimisticLockingFailureException("Version changed");
+                }));
+
+    // then
+    assertEquals(3, meterRegistry.counter(WRITE_ATTEMPTS_METRIC).count());
+    assertEquals(1, meterRegistry.counter(RETRIES_EXHAUSTED_METRIC).count());
+  }
+
+  @Test
+  void shouldRetryOnlyConflictingItems() {
+    // given
+    List<List<String>> attemptedItems = new ArrayList<>();
+
+    // when
+    var conflictingItems =
+        optimisticLockRetryExecutor.executeAll(
+            List.of("a", "b", "c"),
+            items -> {
+              attemptedItems.add(items);
+              return attemptedItems.size() == 1 ? List.of("b") : List.of();
+            });
+
+    // then
+    assertTrue(conflictingItems.isEmpty());
+    assertEquals(List.of(List.of("a", "b", "c"), List.of("b")), attemptedItems);
+    assertEquals(4, meterRegistry.counter(WRITE_ATTEMPTS_METRIC).count());
+    assertEquals(1, meterRegistry.counter(WRITE_CONFLICTS_METRIC).count());
+  }
+}
@@ -0,0 +1,255 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.CRYPTO;
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.STOCK;
+import static com.sothrose.assetflow_portfolio_service.model.ProcessingStatus.ERROR;
+import static com.sothrose.assetflow_portfolio_service.model.ProcessingStatus.SUCCESS;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.bulk.BulkWriteResult;
+import com.sothrose.assetflow_portfolio_service.client.UserServiceClient;
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.BulkItemResult;
+import com.sothrose.assetflow_portfolio_service.model.DepositDto;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import com.sothrose.assetflow_portfolio_service.model.UserDto;
+import com.sothrose.assetflow_portfolio_service.model.WithdrawDto;
+import com.sothrose.assetflow_portfolio_service.validator.PortfolioDtoValidator;
+import com.sothrose.assetflow_portfolio_service.validator.TradeDtoValidator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+class PortfolioBatchWriterTest {
+  @Mock private UserServiceClient userServiceClient;
+  @Mock private TradeDtoValidator tradeDtoValidator;
+  @Mock private PortfolioDtoValidator portfolioDtoValidator;
+  @Mock private RedisService redisService;
+  @Mock private ObjectMapper objectMapper;
+  @Mock private MongoTemplate mongoTemplate;
+  @Mock private BulkOperations bulkOperations;
+  @Mock private UserStatusNearCache userStatusNearCache;
+  @Mock private PortfolioReadCache portfolioReadCache;
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final TradeLaneDispatcher tradeLaneDispatcher = new TradeLaneDispatcher(2);
+  private final ConcurrentLookupExecutor concurrentLookupExecutor =
+      new ConcurrentLookupExecutor(2);
+
+  private PortfolioBatchWriter portfolioBatchWriter;
+
+  private Portfolio portfolio;
+  private Long userId = 1L;
+  private String portfolioId = "portfolio123";
+
+  private AutoCloseable autoCloseable;
+
+  @BeforeEach
+  void setUp() {
+    autoCloseable = MockitoAnnotations.openMocks(this);
+    var processedTradeFilter = new ProcessedTradeFilter(100, 60_000, meterRegistry);
+    var portfolioMetrics = new PortfolioMetrics(meterRegistry);
+    var portfolioRules =
+        new PortfolioRules(
+            tradeDtoValidator,
+            portfolioDtoValidator,
+            objectMapper,
+            userStatusNearCache,
+            processedTradeFilter);
+    portfolioBatchWriter =
+        new PortfolioBatchWriter(
+            tradeDtoValidator,
+            mongoTemplate,
+            new OptimisticLockRetryExecutor(3, 1, 1, meterRegistry),
+            tradeLaneDispatcher,
+            processedTradeFilter,
+            portfolioMetrics,
+            portfolioReadCache,
+            concurrentLookupExecutor,
+            new UserStatusLookup(
+                userServiceClient,
+                redisService,
+                userStatusNearCache,
+                portfolioMetrics,
+                portfolioRules),
+            portfolioRules);
+
+    portfolio = new Portfolio();
+    portfolio.setId(portfolioId);
+    portfolio.setUserId(userId);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    tradeLaneDispatcher.destroy();
+    concurrentLookupExecutor.destroy();
+    autoCloseable.close();
+  }
+
+  @Test
+  void shouldRejectBulkDepositsWithMoreDecimalsThanScalePerItem() {
+    // given
+    setField(portfolioBatchWriter, "bulkChunkSize", 10);
+    var depositDtos =
+        List.of(new DepositDto(portfolioId, userId, "AAPL", new BigDecimal("0.0000001"), STOCK));
+    List<BulkItemResult> results = new ArrayList<>();
+
+    // when
+    portfolioBatchWriter.depositAll(depositDtos, results::addAll);
+
+    // then
+    assertEquals(ERROR, results.getFirst().getStatus());
+    assertTrue(results.getFirst().getError().contains("Quantity has more decimal places than 6"));
+    verify(mongoTemplate, never()).find(any(Query.class), eq(Portfolio.class));
+  }
+
+  @Test
+  void shouldApplyBulkDepositsInChunksWithOneUserCheckPerChunk() throws JsonProcessingException {
+    // given
+    setField(portfolioBatchWriter, "bulkChunkSize", 2);
+    var testUserDto = testUserDto(true);
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+    var depositDtos =
+        List.of(
+            new DepositDto(portfolioId, userId, "USDT", new BigDecimal("10"), CRYPTO),
+            new DepositDto(portfolioId, userId, "BTC", null, CRYPTO),
+            new DepositDto(portfolioId, userId, "BTC", new BigDecimal("2"), CRYPTO));
+    List<List<BulkItemResult>> chunkResults = new ArrayList<>();
+
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class))).thenReturn(List.of(portfolio));
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Portfolio.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.execute()).thenReturn(matched(1));
+
+    // when
+    portfolioBatchWriter.depositAll(depositDtos, chunkResults::add);
+
+    // then
+    assertEquals(2, chunkResults.size());
+    var results = chunkResults.stream().flatMap(List::stream).toList();
+    assertEquals(List.of(0, 1, 2), results.stream().map(BulkItemResult::getIndex).toList());
+    assertEquals(SUCCESS, results.get(0).getStatus());
+    assertEquals(ERROR, results.get(1).getStatus());
+    assertTrue(results.get(1).getError().startsWith("DepositDto contains validation errors"));
+    assertEquals(SUCCESS, results.get(2).getStatus());
+    verify(userServiceClient, times(2)).fetchUserData(userId);
+    verify(bulkOperations, times(2)).execute();
+    assertEquals(0, new BigDecimal("110").compareTo(findAsset("USDT").getQuantity()));
+    assertEquals(0, new BigDecimal("2").compareTo(findAsset("BTC").getQuantity()));
+    assertEquals(2, portfolio.getPendingEvents().size());
+  }
+
+  @Test
+  void shouldPrefetchAllUsersOfBatchInSingleUserServiceCall() throws JsonProcessingException {
+    // given
+    setField(portfolioBatchWriter, "bulkChunkSize", 10);
+    var otherUserId = 2L;
+    var otherUserDto = testUserDto(true);
+    otherUserDto.setUserId(otherUserId);
+    var otherPortfolio = new Portfolio();
+    otherPortfolio.setId("portfolio456");
+    otherPortfolio.setUserId(otherUserId);
+    portfolio.setAssets(new HashSet<>());
+    otherPortfolio.setAssets(new HashSet<>());
+    var depositDtos =
+        List.of(
+            new DepositDto(portfolioId, userId, "USDT", new BigDecimal("10"), CRYPTO),
+            new DepositDto("portfolio456", otherUserId, "USDT", new BigDecimal("20"), CRYPTO));
+
+    when(userServiceClient.fetchUsersData(List.of(userId, otherUserId)))
+        .thenReturn(Map.of(userId, testUserDto(true), otherUserId, otherUserDto));
+    when(objectMapper.writeValueAsString(any())).thenReturn("{}");
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class)))
+        .thenReturn(List.of(portfolio, otherPortfolio));
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Portfolio.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.execute()).thenReturn(matched(2));
+    List<BulkItemResult> results = new ArrayList<>();
+
+    // when
+    portfolioBatchWriter.depositAll(depositDtos, results::addAll);
+
+    // then
+    assertEquals(
+        List.of(SUCCESS, SUCCESS), results.stream().map(BulkItemResult::getStatus).toList());
+    verify(userServiceClient, times(1)).fetchUsersData(List.of(userId, otherUserId));
+    verify(userServiceClient, never()).fetchUserData(any());
+    verify(redisService, times(1)).getValues(List.of("1", "2"));
+    verify(redisService, times(1)).setValues(Map.of("1", "{}", "2", "{}"));
+    verify(redisService, never()).setValue(any(), any());
+  }
+
+  @Test
+  void shouldReportRejectedWithdrawalsAndMissingPortfoliosPerItem() {
+    // given
+    setField(portfolioBatchWriter, "bulkChunkSize", 10);
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+    var withdrawDtos =
+        List.of(
+            new WithdrawDto(portfolioId, userId, "USDT", new BigDecimal("500"), CRYPTO),
+            new WithdrawDto(portfolioId, userId, "USDT", new BigDecimal("40"), CRYPTO),
+            new WithdrawDto("missing", userId, "USDT", BigDecimal.ONE, CRYPTO));
+    List<BulkItemResult> results = new ArrayList<>();
+
+    when(userStatusNearCache.getActiveStatus(userId)).thenReturn(Optional.of(true));
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class))).thenReturn(List.of(portfolio));
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Portfolio.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.execute()).thenReturn(matched(1));
+
+    // when
+    portfolioBatchWriter.withdrawAll(withdrawDtos, results::addAll);
+
+    // then
+    assertEquals(ERROR, results.get(0).getStatus());
+    assertTrue(
+        results.get(0).getError().startsWith("Error occurred when performing transaction on"));
+    assertEquals(SUCCESS, results.get(1).getStatus());
+    assertEquals(ERROR, results.get(2).getStatus());
+    assertTrue(results.get(2).getError().contains("portfolio with id: [missing]"));
+    verify(bulkOperations, times(1))
+        .replaceOne(any(Query.class), eq(portfolio));
+    assertEquals(0, new BigDecimal("60").compareTo(findAsset("USDT").getQuantity()));
+    assertEquals(1, portfolio.getPendingEvents().size());
+  }
+
+  private static BulkWriteResult matched(int matchedCount) {
+    return BulkWriteResult.acknowledged(0, matchedCount, 0, matchedCount, List.of(), List.of());
+  }
+
+  private UserDto testUserDto(boolean active) {
+    return new UserDto(1L, "johnDo", "john", "do", "john@do.pl", LocalDate.of(2000, 1, 1), active);
+  }
+
+  private Asset findAsset(String assetName) {
+    return portfolio.getAssets().stream()
+        .filter(asset -> asset.getName().equals(assetName))
+        .findFirst()
+        .orElseThrow();
+  }
+}
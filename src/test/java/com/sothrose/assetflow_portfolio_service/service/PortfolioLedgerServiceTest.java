@@ -0,0 +1,253 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.model.ActionType.DEPOSIT;
+import static com.sothrose.assetflow_portfolio_service.model.ActionType.TRADE;
+import static com.sothrose.assetflow_portfolio_service.model.ActionType.WITHDRAW;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.result.DeleteResult;
+import com.sothrose.assetflow_portfolio_service.model.ActionType;
+import com.sothrose.assetflow_portfolio_service.model.AssetBalance;
+import com.sothrose.assetflow_portfolio_service.model.LedgerEntry;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioSnapshot;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioUpdatedEvent;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+class PortfolioLedgerServiceTest {
+  private static final LocalDateTime SNAPSHOT_TIME = LocalDateTime.of(2026, 1, 1, 0, 0);
+
+  @Mock private MongoTemplate mongoTemplate;
+  @Mock private BulkOperations bulkOperations;
+
+  private PortfolioLedgerService portfolioLedgerService;
+
+  private AutoCloseable autoCloseable;
+
+  @BeforeEach
+  void setUp() {
+    autoCloseable = MockitoAnnotations.openMocks(this);
+    portfolioLedgerService = new PortfolioLedgerService(mongoTemplate, 1000, 60000, 100);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    autoCloseable.close();
+  }
+
+  @Test
+  void shouldReplayLedgerFromNearestSnapshot() {
+    // given
+    var snapshot =
+        new PortfolioSnapshot(
+            "snapshot-1",
+            "portfolio123",
+            SNAPSHOT_TIME,
+            List.of(
+                new AssetBalance("USDT", new BigDecimal("100")),
+                new AssetBalance("BTC", new BigDecimal("1"))),
+            false);
+    when(mongoTemplate.findOne(any(Query.class), eq(PortfolioSnapshot.class)))
+        .thenReturn(snapshot);
+    when(mongoTemplate.stream(any(Query.class), eq(LedgerEntry.class)))
+        .thenReturn(
+            Stream.of(
+                LedgerEntry.of("event-1", event(DEPOSIT, "eth", "2", DEPOSIT.name(), "0")),
+                LedgerEntry.of("event-2", event(TRADE, "btc", "1", "USDT", "40")),
+                LedgerEntry.of("event-3", event(WITHDRAW, WITHDRAW.name(), "0", "ETH", "0.5"))));
+
+    // when
+    var balance =
+        portfolioLedgerService.fetchBalanceAsOf("portfolio123", SNAPSHOT_TIME.plusDays(1));
+
+    // then
+    assertEquals("portfolio123", balance.getPortfolioId());
+    assertEquals(
+        List.of("BTC", "eth", "USDT"),
+        balance.getBalances().stream().map(AssetBalance::getName).toList());
+    assertEquals(0, new BigDecimal("2").compareTo(balance.getBalances().get(0).getQuantity()));
+    assertEquals(0, new BigDecimal("1.5").compareTo(balance.getBalances().get(1).getQuantity()));
+    assertEquals(0, new BigDecimal("60").compareTo(balance.getBalances().get(2).getQuantity()));
+
+    var ledgerQueryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).stream(ledgerQueryCaptor.capture(), eq(LedgerEntry.class));
+    var timestampCriteria =
+        ledgerQueryCaptor.getValue().getQueryObject().get("timestamp", Document.class);
+    assertEquals(SNAPSHOT_TIME, timestampCriteria.get("$gt"));
+  }
+
+  @Test
+  void shouldReplayWholeLedgerWithoutSnapshot() {
+    // given
+    when(mongoTemplate.stream(any(Query.class), eq(LedgerEntry.class)))
+        .thenReturn(
+            Stream.of(LedgerEntry.of("event-1", event(DEPOSIT, "BTC", "3", DEPOSIT.name(), "0"))));
+
+    // when
+    var balance = portfolioLedgerService.fetchBalanceAsOf("portfolio123", SNAPSHOT_TIME);
+
+    // then
+    assertEquals(1, balance.getBalances().size());
+    assertEquals(0, new BigDecimal("3").compareTo(balance.getBalances().get(0).getQuantity()));
+  }
+
+  @Test
+  void shouldIgnoreEntriesAlreadyAppended() {
+    // given
+    var duplicates = mock(BulkOperationException.class);
+    when(duplicates.getErrors())
+        .thenReturn(List.of(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 0)));
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(LedgerEntry.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.insert(any(List.class))).thenReturn(bulkOperations);
+    when(bulkOperations.execute()).thenThrow(duplicates);
+    when(mongoTemplate.remove(any(Query.class), eq(PortfolioSnapshot.class)))
+        .thenReturn(DeleteResult.acknowledged(0));
+    var ledgerEntries =
+        List.of(LedgerEntry.of("event-1", event(DEPOSIT, "BTC", "3", DEPOSIT.name(), "0")));
+
+    // when
+    assertDoesNotThrow(() -> portfolioLedgerService.append(ledgerEntries));
+
+    // then
+    verify(bulkOperations).insert(ledgerEntries);
+  }
+
+  @Test
+  void shouldFailAppendOnOtherWriteErrors() {
+    // given
+    var writeFailure = mock(BulkOperationException.class);
+    when(writeFailure.getErrors())
+        .thenReturn(List.of(new BulkWriteError(121, "validation failed", new BsonDocument(), 0)));
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(LedgerEntry.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.insert(any(List.class))).thenReturn(bulkOperations);
+    when(bulkOperations.execute()).thenThrow(writeFailure);
+    var ledgerEntries =
+        List.of(LedgerEntry.of("event-1", event(DEPOSIT, "BTC", "3", DEPOSIT.name(), "0")));
+
+    // when
+    var throwable =
+        assertThrows(
+            BulkOperationException.class, () -> portfolioLedgerService.append(ledgerEntries));
+
+    // then
+    assertSame(writeFailure, throwable);
+  }
+
+  @Test
+  void shouldDropSnapshotsBehindAppendedEntriesButOpeningOnes() {
+    // given
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(LedgerEntry.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.insert(any(List.class))).thenReturn(bulkOperations);
+    when(mongoTemplate.remove(any(Query.class), eq(PortfolioSnapshot.class)))
+        .thenReturn(DeleteResult.acknowledged(1));
+    var lateEntry = LedgerEntry.of("event-1", event(DEPOSIT, "BTC", "3", DEPOSIT.name(), "0"));
+
+    // when
+    portfolioLedgerService.append(List.of(lateEntry));
+
+    // then
+    var snapshotQueryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).remove(snapshotQueryCaptor.capture(), eq(PortfolioSnapshot.class));
+    var staleSnapshot =
+        snapshotQueryCaptor.getValue().getQueryObject().getList("$or", Document.class).getFirst();
+    assertEquals("portfolio123", staleSnapshot.get("portfolioId"));
+    assertEquals(lateEntry.getTimestamp(), staleSnapshot.get("asOf", Document.class).get("$gte"));
+    assertEquals(true, staleSnapshot.get("opening", Document.class).get("$ne"));
+  }
+
+  @Test
+  void shouldDropSnapshotMissingEntryAppendedWhileItWasTaken() {
+    // given
+    when(mongoTemplate.stream(any(Query.class), eq(LedgerEntry.class)))
+        .thenReturn(
+            Stream.of(LedgerEntry.of("event-1", event(DEPOSIT, "BTC", "3", DEPOSIT.name(), "0"))));
+    when(mongoTemplate.insert(any(PortfolioSnapshot.class)))
+        .thenAnswer(
+            invocation -> {
+              PortfolioSnapshot snapshot = invocation.getArgument(0);
+              snapshot.setId("snapshot-1");
+              return snapshot;
+            });
+    when(mongoTemplate.count(any(Query.class), eq(LedgerEntry.class))).thenReturn(2L);
+
+    // when
+    portfolioLedgerService.snapshot("portfolio123", SNAPSHOT_TIME.plusDays(1));
+
+    // then
+    var snapshotQueryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).remove(snapshotQueryCaptor.capture(), eq(PortfolioSnapshot.class));
+    assertEquals("snapshot-1", snapshotQueryCaptor.getValue().getQueryObject().get("_id"));
+  }
+
+  @Test
+  void shouldKeepSnapshotWhenNoEntryWasAppendedWhileItWasTaken() {
+    // given
+    when(mongoTemplate.stream(any(Query.class), eq(LedgerEntry.class)))
+        .thenReturn(
+            Stream.of(LedgerEntry.of("event-1", event(DEPOSIT, "BTC", "3", DEPOSIT.name(), "0"))));
+    when(mongoTemplate.insert(any(PortfolioSnapshot.class)))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+    when(mongoTemplate.count(any(Query.class), eq(LedgerEntry.class))).thenReturn(1L);
+
+    // when
+    portfolioLedgerService.snapshot("portfolio123", SNAPSHOT_TIME.plusDays(1));
+
+    // then
+    verify(mongoTemplate, never()).remove(any(Query.class), eq(PortfolioSnapshot.class));
+  }
+
+  @Test
+  void shouldRecordOnlyTheLegsOfTheAction() {
+    // when
+    var deposit = LedgerEntry.of("event-1", event(DEPOSIT, "BTC", "3", DEPOSIT.name(), "0"));
+    var withdrawal = LedgerEntry.of("event-2", event(WITHDRAW, WITHDRAW.name(), "0", "BTC", "1"));
+
+    // then
+    assertEquals("BTC", deposit.getCreditedAsset());
+    assertNull(deposit.getDebitedAsset());
+    assertNull(withdrawal.getCreditedAsset());
+    assertEquals("BTC", withdrawal.getDebitedAsset());
+    assertEquals(0, BigDecimal.ONE.compareTo(withdrawal.getDebitedQuantity()));
+  }
+
+  private PortfolioUpdatedEvent event(
+      ActionType actionType,
+      String haveName,
+      String haveValue,
+      String owesName,
+      String owesValue) {
+    return new PortfolioUpdatedEvent(
+        "portfolio123",
+        1L,
+        haveName,
+        new BigDecimal(haveValue),
+        owesName,
+        new BigDecimal(owesValue),
+        SNAPSHOT_TIME.plusHours(1),
+        actionType);
+  }
+}
@@ -0,0 +1,232 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.model.ActionType.DEPOSIT;
+import static java.math.BigDecimal.ONE;
+import static java.math.BigDecimal.ZERO;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.sothrose.assetflow_portfolio_service.model.LedgerEntry;
+import com.sothrose.assetflow_portfolio_service.model.PendingEvent;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioUpdatedEvent;
+import com.sothrose.assetflow_portfolio_service.repository.PortfolioUpdates;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+class PortfolioOutboxRelayTest {
+  @Mock private MongoTemplate mongoTemplate;
+  @Mock private KafkaTemplate<String, PortfolioUpdatedEvent> kafkaTemplate;
+  @Mock private BulkOperations bulkOperations;
+  @Mock private PortfolioLedgerService portfolioLedgerService;
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private PortfolioOutboxRelay portfolioOutboxRelay;
+
+  private AutoCloseable autoCloseable;
+
+  @BeforeEach
+  void setUp() {
+    autoCloseable = MockitoAnnotations.openMocks(this);
+    portfolioOutboxRelay =
+        new PortfolioOutboxRelay(
+            mongoTemplate,
+            kafkaTemplate,
+            portfolioLedgerService,
+            new PortfolioMetrics(meterRegistry),
+            "portfolio-updates",
+            10,
+            1000);
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Portfolio.class)))
+        .thenReturn(bulkOperations);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    autoCloseable.close();
+  }
+
+  @Test
+  void shouldPullOnlyEventsSentBeforeFirstFailure() {
+    // given
+    var portfolio = new Portfolio();
+    portfolio.setId("portfolio123");
+    portfolio.setPendingEvents(
+        new ArrayList<>(
+            List.of(
+                new PendingEvent("event-1", testEvent()),
+                new PendingEvent("event-2", testEvent()),
+                new PendingEvent("event-3", testEvent()))));
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class))).thenReturn(List.of(portfolio));
+    when(kafkaTemplate.send(any(ProducerRecord.class)))
+        .thenReturn(CompletableFuture.completedFuture(sendResult()))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")))
+        .thenReturn(CompletableFuture.completedFuture(sendResult()));
+
+    // when
+    var relayedBatch = portfolioOutboxRelay.relayBatch(null);
+
+    // then
+    assertEquals(new PortfolioOutboxRelay.RelayedBatch(1, 2, "portfolio123"), relayedBatch);
+    var ledgerEntriesCaptor = ArgumentCaptor.forClass(List.class);
+    var inOrder = inOrder(portfolioLedgerService, kafkaTemplate);
+    inOrder.verify(portfolioLedgerService).append(ledgerEntriesCaptor.capture());
+    inOrder.verify(kafkaTemplate, times(3)).send(any(ProducerRecord.class));
+    var firstLedgerEntry = (LedgerEntry) ledgerEntriesCaptor.getValue().get(0);
+    assertEquals(3, ledgerEntriesCaptor.getValue().size());
+    assertEquals("event-1", firstLedgerEntry.getId());
+    assertEquals("portfolio123", firstLedgerEntry.getPortfolioId());
+
+    var recordCaptor = ArgumentCaptor.forClass(ProducerRecord.class);
+    verify(kafkaTemplate, times(3)).send(recordCaptor.capture());
+    var firstRecord = recordCaptor.getAllValues().get(0);
+    assertEquals("portfolio123", firstRecord.key());
+    assertEquals("portfolio123", ((PortfolioUpdatedEvent) firstRecord.value()).getPortfolioId());
+    assertNotNull(firstRecord.headers().lastHeader(PortfolioOutboxRelay.EVENT_ID_HEADER));
+
+    var updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(bulkOperations).updateOne(any(Query.class), updateCaptor.capture());
+    var pulledEvents =
+        updateCaptor
+            .getValue()
+            .getUpdateObject()
+            .get("$pull", Document.class)
+            .get("pendingEvents", Document.class);
+    assertEquals(
+        List.of("event-1"),
+        pulledEvents.get(PortfolioUpdates.EVENT_ID_FIELD, Document.class).get("$in"));
+    verify(bulkOperations).execute();
+    assertEquals(2, meterRegistry.get(PortfolioMetrics.EVENT_SEND_LATENCY_METRIC).timer().count());
+    assertEquals(
+        1, meterRegistry.get(PortfolioMetrics.EVENT_SEND_FAILURES_METRIC).counter().count());
+  }
+
+  @Test
+  void shouldNotWriteWhenOutboxesAreEmpty() {
+    // given
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class))).thenReturn(List.of());
+
+    // when
+    var relayedBatch = portfolioOutboxRelay.relayBatch(null);
+
+    // then
+    assertEquals(0, relayedBatch.portfolios());
+    verify(kafkaTemplate, never()).send(any(ProducerRecord.class));
+    verify(bulkOperations, never()).execute();
+  }
+
+  @Test
+  void shouldKeepEventsInOutboxWhenAppendingToLedgerFails() {
+    // given
+    var portfolio = new Portfolio();
+    portfolio.setId("portfolio123");
+    portfolio.setPendingEvents(new ArrayList<>(List.of(new PendingEvent("event-1", testEvent()))));
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class))).thenReturn(List.of(portfolio));
+    doThrow(new DataAccessResourceFailureException("Mongo down"))
+        .when(portfolioLedgerService)
+        .append(any());
+
+    // when
+    portfolioOutboxRelay.relayPendingEvents();
+
+    // then
+    verify(kafkaTemplate, never()).send(any(ProducerRecord.class));
+    verify(bulkOperations, never()).execute();
+  }
+
+  @Test
+  void shouldRelayFullBatchesInIdOrderUntilOneIsNotFull() {
+    // given
+    var relay = relayWithBatchSize(1);
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class)))
+        .thenReturn(List.of(portfolioWithEvent("a", "event-1")))
+        .thenReturn(List.of(portfolioWithEvent("b", "event-2")))
+        .thenReturn(List.of());
+    when(kafkaTemplate.send(any(ProducerRecord.class)))
+        .thenReturn(CompletableFuture.completedFuture(sendResult()));
+
+    // when
+    relay.relayPendingEvents();
+
+    // then
+    var queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate, times(3)).find(queryCaptor.capture(), eq(Portfolio.class));
+    var queries = queryCaptor.getAllValues();
+    assertNull(queries.get(0).getQueryObject().get("_id"));
+    assertEquals(new Document("$gt", "a"), queries.get(1).getQueryObject().get("_id"));
+    assertEquals(new Document("$gt", "b"), queries.get(2).getQueryObject().get("_id"));
+    assertEquals(new Document("_id", 1), queries.get(0).getSortObject());
+    verify(bulkOperations, times(2)).execute();
+  }
+
+  @Test
+  void shouldEndRunAfterFullBatchWithFailedSend() {
+    // given
+    var relay = relayWithBatchSize(1);
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class)))
+        .thenReturn(List.of(portfolioWithEvent("a", "event-1")));
+    when(kafkaTemplate.send(any(ProducerRecord.class)))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+
+    // when
+    relay.relayPendingEvents();
+
+    // then
+    verify(mongoTemplate, times(1)).find(any(Query.class), eq(Portfolio.class));
+    verify(bulkOperations, never()).execute();
+  }
+
+  private PortfolioOutboxRelay relayWithBatchSize(int batchSize) {
+    return new PortfolioOutboxRelay(
+        mongoTemplate,
+        kafkaTemplate,
+        portfolioLedgerService,
+        new PortfolioMetrics(meterRegistry),
+        "portfolio-updates",
+        batchSize,
+        1000);
+  }
+
+  private Portfolio portfolioWithEvent(String portfolioId, String eventId) {
+    var portfolio = new Portfolio();
+    portfolio.setId(portfolioId);
+    portfolio.setPendingEvents(new ArrayList<>(List.of(new PendingEvent(eventId, testEvent()))));
+    return portfolio;
+  }
+
+  private PortfolioUpdatedEvent testEvent() {
+    return new PortfolioUpdatedEvent(
+        null, 1L, "BTC", ONE, DEPOSIT.name(), ZERO, LocalDateTime.now(), DEPOSIT);
+  }
+
+  @SuppressWarnings("unchecked")
+  private SendResult<String, PortfolioUpdatedEvent> sendResult() {
+    return mock(SendResult.class);
+  }
+}
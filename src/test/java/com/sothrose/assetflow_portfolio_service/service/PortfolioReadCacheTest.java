@@ -0,0 +1,216 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.CRYPTO;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioReadCache.LEVEL_TAG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioReadCache.READ_CACHE_REQUESTS_METRIC;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioReadCache.READ_CACHE_STALENESS_METRIC;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioReadCache.RESULT_TAG;
+import static com.sothrose.assetflow_portfolio_service.service.PortfolioReadCache.VERSION_TTL;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.sothrose.assetflow_portfolio_service.codec.CachedPortfoliosCodec;
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.CachedPortfolios;
+import com.sothrose.assetflow_portfolio_service.model.PortfolioDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+class PortfolioReadCacheTest {
+  @Mock private RedisService redisService;
+
+  private SimpleMeterRegistry meterRegistry;
+  private PortfolioReadCache portfolioReadCache;
+  private PortfolioDto portfolioDto;
+  private AutoCloseable autoCloseable;
+
+  @BeforeEach
+  void setUp() {
+    autoCloseable = MockitoAnnotations.openMocks(this);
+    meterRegistry = new SimpleMeterRegistry();
+    portfolioReadCache = new PortfolioReadCache(true, 100, 60_000, redisService, meterRegistry);
+    portfolioDto =
+        new PortfolioDto(
+            "portfolio-1",
+            1L,
+            CRYPTO,
+            "Binance",
+            Set.of(new Asset("BTC", new BigDecimal("0.5"), CRYPTO)));
+    when(redisService.getValues(any())).thenReturn(Map.of());
+    when(redisService.setValueIfGuardUnchanged(any(), any(), any(), any(), any()))
+        .thenReturn(true);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    autoCloseable.close();
+  }
+
+  @Test
+  void shouldLoadPortfolioOnceAndServeItFromHeapAfterwards() {
+    // given
+    var loads = new AtomicInteger();
+
+    // when
+    var loaded =
+        portfolioReadCache.getPortfolio(
+            "portfolio-1",
+            () -> {
+              loads.incrementAndGet();
+              return portfolioDto;
+            });
+    var cached = portfolioReadCache.getPortfolio("portfolio-1", () -> fail("Should be cached"));
+
+    // then
+    assertEquals(portfolioDto, loaded);
+    assertSame(loaded, cached);
+    assertEquals(1, loads.get());
+    verify(redisService)
+        .setValueIfGuardUnchanged(
+            eq("portfolio:portfolio-1"),
+            anyString(),
+            eq(Duration.ofMillis(60_000)),
+            eq("portfolio:portfolio-1:version"),
+            eq("0"));
+    assertEquals(1, requests("local", "hit"));
+    assertEquals(1, requests("local", "miss"));
+    assertEquals(1, requests("redis", "miss"));
+    assertEquals(1, meterRegistry.get(READ_CACHE_STALENESS_METRIC).timer().count());
+  }
+
+  @Test
+  void shouldServeUserPortfoliosCachedInRedisByAnotherInstance() {
+    // given
+    var encoded =
+        Base64.getEncoder()
+            .encodeToString(
+                new CachedPortfoliosCodec()
+                    .encode(new CachedPortfolios(List.of(portfolioDto), 1_000L)));
+    when(redisService.getValues(List.of("portfolios:user:1", "portfolios:user:1:version")))
+        .thenReturn(Map.of("portfolios:user:1", encoded));
+
+    // when
+    var portfolios = portfolioReadCache.getUserPortfolios(1L, () -> fail("Should be cached"));
+
+    // then
+    assertEquals(List.of(portfolioDto), portfolios);
+    assertEquals(1, requests("redis", "hit"));
+    assertTrue(meterRegistry.get(READ_CACHE_STALENESS_METRIC).timer().max(SECONDS) > 0);
+    verify(redisService, never()).setValueIfGuardUnchanged(any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void shouldInvalidateBothLevels() {
+    // given
+    portfolioReadCache.getPortfolio("portfolio-1", () -> portfolioDto);
+    portfolioReadCache.getUserPortfolios(1L, () -> List.of(portfolioDto));
+
+    // when
+    portfolioReadCache.invalidate("portfolio-1", 1L);
+
+    // then
+    verify(redisService)
+        .deleteValuesAndIncrement(
+            List.of("portfolio:portfolio-1", "portfolios:user:1"),
+            List.of("portfolio:portfolio-1:version", "portfolios:user:1:version"),
+            VERSION_TTL);
+    assertNull(portfolioReadCache.getPortfolio("portfolio-1", () -> null));
+    assertEquals(List.of(), portfolioReadCache.getUserPortfolios(1L, List::of));
+  }
+
+  @Test
+  void shouldInvalidateOnlyHeapLevelForWritesOfOtherInstances() {
+    // given
+    portfolioReadCache.getPortfolio("portfolio-1", () -> portfolioDto);
+    portfolioReadCache.getUserPortfolios(1L, () -> List.of(portfolioDto));
+
+    // when
+    portfolioReadCache.invalidateLocal(List.of("portfolio-1"), List.of(1L));
+
+    // then
+    verify(redisService, never()).deleteValuesAndIncrement(any(), any(), any());
+    assertNull(portfolioReadCache.getPortfolio("portfolio-1", () -> null));
+    assertEquals(List.of(), portfolioReadCache.getUserPortfolios(1L, List::of));
+  }
+
+  @Test
+  void shouldTreatUnreadableRedisEntryAsMiss() {
+    // given
+    when(redisService.getValues(List.of("portfolio:portfolio-1", "portfolio:portfolio-1:version")))
+        .thenReturn(Map.of("portfolio:portfolio-1", "no_value"));
+
+    // when
+    var portfolio = portfolioReadCache.getPortfolio("portfolio-1", () -> portfolioDto);
+
+    // then
+    assertEquals(portfolioDto, portfolio);
+    assertEquals(1, requests("redis", "miss"));
+  }
+
+  @Test
+  void shouldNotCacheLoadThatRacedInvalidation() {
+    // given
+    var loads = new AtomicInteger();
+    when(redisService.getValues(List.of("portfolio:portfolio-1", "portfolio:portfolio-1:version")))
+        .thenReturn(Map.of("portfolio:portfolio-1:version", "7"));
+    when(redisService.setValueIfGuardUnchanged(
+            eq("portfolio:portfolio-1"),
+            anyString(),
+            any(),
+            eq("portfolio:portfolio-1:version"),
+            eq("7")))
+        .thenReturn(false);
+
+    // when
+    portfolioReadCache.getPortfolio(
+        "portfolio-1",
+        () -> {
+          loads.incrementAndGet();
+          return portfolioDto;
+        });
+    portfolioReadCache.getPortfolio(
+        "portfolio-1",
+        () -> {
+          loads.incrementAndGet();
+          return portfolioDto;
+        });
+
+    // then
+    assertEquals(2, loads.get());
+    assertEquals(2, requests("local", "miss"));
+  }
+
+  @Test
+  void shouldPassThroughWhenDisabled() {
+    // given
+    var disabledCache = new PortfolioReadCache(false, 100, 60_000, redisService, meterRegistry);
+
+    // when
+    disabledCache.getPortfolio("portfolio-1", () -> portfolioDto);
+    disabledCache.invalidate("portfolio-1", 1L);
+
+    // then
+    verifyNoInteractions(redisService);
+  }
+
+  private double requests(String level, String result) {
+    return meterRegistry
+        .get(READ_CACHE_REQUESTS_METRIC)
+        .tag(LEVEL_TAG, level)
+        .tag(RESULT_TAG, result)
+        .counter()
+        .count();
+  }
+}
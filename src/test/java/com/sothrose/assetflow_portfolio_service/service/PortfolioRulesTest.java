@@ -0,0 +1,94 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.model.PayloadFormat.BINARY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sothrose.assetflow_portfolio_service.codec.UserStatusCodec;
+import com.sothrose.assetflow_portfolio_service.exception.UserDtoValidationException;
+import com.sothrose.assetflow_portfolio_service.model.UserDto;
+import com.sothrose.assetflow_portfolio_service.validator.PortfolioDtoValidator;
+import com.sothrose.assetflow_portfolio_service.validator.TradeDtoValidator;
+import java.time.LocalDate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+class PortfolioRulesTest {
+  @Mock private TradeDtoValidator tradeDtoValidator;
+  @Mock private PortfolioDtoValidator portfolioDtoValidator;
+  @Mock private ObjectMapper objectMapper;
+  @Mock private UserStatusNearCache userStatusNearCache;
+  @Mock private ProcessedTradeFilter processedTradeFilter;
+
+  @InjectMocks private PortfolioRules portfolioRules;
+
+  private AutoCloseable autoCloseable;
+
+  @BeforeEach
+  void setUp() {
+    autoCloseable = MockitoAnnotations.openMocks(this);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    autoCloseable.close();
+  }
+
+  @Test
+  void shouldReadUserStatusCachedInEitherFormat() throws JsonProcessingException {
+    // given
+    var json = "{\"active\": false}";
+    when(objectMapper.readValue(json, UserDto.class)).thenReturn(testUserDto(false));
+
+    // when
+    var binaryUserDtoOpt =
+        portfolioRules.deserializeUserDto(UserStatusCodec.encode(testUserDto(true)));
+    var jsonUserDtoOpt = portfolioRules.deserializeUserDto(json);
+
+    // then
+    assertEquals(true, binaryUserDtoOpt.orElseThrow().getIsActive());
+    assertEquals(false, jsonUserDtoOpt.orElseThrow().getIsActive());
+  }
+
+  @Test
+  void shouldSerializeOnlyUserStatusInBinaryFormat() throws JsonProcessingException {
+    // given
+    setField(portfolioRules, "userStatusCacheFormat", BINARY);
+
+    // when
+    var serializedUserOpt = portfolioRules.serializeUserDto(testUserDto(true));
+
+    // then
+    assertEquals(UserStatusCodec.encode(testUserDto(true)), serializedUserOpt.orElseThrow());
+    verify(objectMapper, never()).writeValueAsString(any());
+  }
+
+  @Test
+  void shouldNotKeepStatusOfUserWithoutActiveFlag() {
+    // given
+    var userDto = testUserDto(true);
+    userDto.setIsActive(null);
+
+    // when
+    assertThrows(
+        UserDtoValidationException.class, () -> portfolioRules.activeStatusOf(1L, userDto));
+
+    // then
+    verify(userStatusNearCache, never()).putActiveStatus(any(), anyBoolean());
+  }
+
+  private UserDto testUserDto(boolean active) {
+    return new UserDto(1L, "johnDo", "john", "do", "john@do.pl", LocalDate.of(2000, 1, 1), active);
+  }
+}
@@ -1,48 +1,116 @@
 package com.sothrose.assetflow_portfolio_service.service;
 
+import static com.sothrose.assetflow_portfolio_service.model.ActionType.TRADE;
 import static com.sothrose.assetflow_portfolio_service.model.AssetType.CRYPTO;
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.STOCK;
+import static com.sothrose.assetflow_portfolio_service.model.ProcessingStatus.SUCCESS;
 import static java.lang.String.format;
-import static java.util.Optional.empty;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.bulk.BulkWriteResult;
 import com.sothrose.assetflow_portfolio_service.client.UserServiceClient;
+import com.sothrose.assetflow_portfolio_service.codec.UserStatusCodec;
+import com.sothrose.assetflow_portfolio_service.exception.AssetQuantityOutOfRangeException;
+import com.sothrose.assetflow_portfolio_service.exception.NotEnoughAssetQuantityException;
 import com.sothrose.assetflow_portfolio_service.exception.PortfolioAlreadyPresentException;
 import com.sothrose.assetflow_portfolio_service.exception.PortfolioDtoValidationException;
 import com.sothrose.assetflow_portfolio_service.exception.UserNotActiveException;
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.DepositDto;
+import com.sothrose.assetflow_portfolio_service.model.LedgerEntry;
+import com.sothrose.assetflow_portfolio_service.model.PayloadFormat;
+import com.sothrose.assetflow_portfolio_service.model.PendingEvent;
 import com.sothrose.assetflow_portfolio_service.model.Portfolio;
 import com.sothrose.assetflow_portfolio_service.model.PortfolioDto;
-import com.sothrose.assetflow_portfolio_service.model.PortfolioUpdatedEvent;
+import com.sothrose.assetflow_portfolio_service.model.Quantity;
+import com.sothrose.assetflow_portfolio_service.model.TradeCreatedEvent;
 import com.sothrose.assetflow_portfolio_service.model.UserDto;
+import com.sothrose.assetflow_portfolio_service.model.WithdrawDto;
+import com.sothrose.assetflow_portfolio_service.model.WriteMode;
 import com.sothrose.assetflow_portfolio_service.repository.PortfolioRepository;
 import com.sothrose.assetflow_portfolio_service.validator.PortfolioDtoValidator;
 import com.sothrose.assetflow_portfolio_service.validator.TradeDtoValidator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.errors.SerializationException;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.mockito.Spy;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
 
 class PortfolioServiceTest {
   @Mock private PortfolioRepository portfolioRepository;
   @Mock private UserServiceClient userServiceClient;
   @Mock private TradeDtoValidator tradeDtoValidator;
   @Mock private PortfolioDtoValidator portfolioDtoValidator;
-  @Mock private KafkaTemplate<String, PortfolioUpdatedEvent> kafkaTemplate;
   @Mock private RedisService redisService;
   @Mock private ObjectMapper objectMapper;
+  @Mock private MongoTemplate mongoTemplate;
+  @Mock private BulkOperations bulkOperations;
+  @Mock private UserStatusNearCache userStatusNearCache;
+  @Mock private PortfolioReadCache portfolioReadCache;
+  @Mock private ConsumerRecordRecoverer tradeDeadLetterRecoverer;
+  @Mock private Acknowledgment ack;
+
+  @Spy
+  private OptimisticLockRetryExecutor optimisticLockRetryExecutor =
+      new OptimisticLockRetryExecutor(3, 1, 1, new SimpleMeterRegistry());
+
+  @Spy private TradeLaneDispatcher tradeLaneDispatcher = new TradeLaneDispatcher(2);
+
+  @Spy
+  private ConcurrentLookupExecutor concurrentLookupExecutor = new ConcurrentLookupExecutor(2);
+
+  @Spy private DependencyCallTimer dependencyCallTimer = new DependencyCallTimer();
+
+  @Spy
+  private ProcessedTradeFilter processedTradeFilter =
+      new ProcessedTradeFilter(100, 60_000, new SimpleMeterRegistry());
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Spy private PortfolioMetrics portfolioMetrics = new PortfolioMetrics(meterRegistry);
 
   @InjectMocks private PortfolioService portfolioService;
 
+  private PortfolioRules portfolioRules;
+
   private PortfolioDto portfolioDto;
   private Portfolio portfolio;
   private Long userId = 1L;
@@ -53,6 +121,32 @@ class PortfolioServiceTest {
   @BeforeEach
   void setUp() {
     autoCloseable = MockitoAnnotations.openMocks(this);
+    portfolioRules =
+        new PortfolioRules(
+            tradeDtoValidator,
+            portfolioDtoValidator,
+            objectMapper,
+            userStatusNearCache,
+            processedTradeFilter);
+    var userStatusLookup =
+        new UserStatusLookup(
+            userServiceClient, redisService, userStatusNearCache, portfolioMetrics, portfolioRules);
+    setField(portfolioService, "portfolioRules", portfolioRules);
+    setField(portfolioService, "userStatusLookup", userStatusLookup);
+    setField(
+        portfolioService,
+        "portfolioBatchWriter",
+        new PortfolioBatchWriter(
+            tradeDtoValidator,
+            mongoTemplate,
+            optimisticLockRetryExecutor,
+            tradeLaneDispatcher,
+            processedTradeFilter,
+            portfolioMetrics,
+            portfolioReadCache,
+            concurrentLookupExecutor,
+            userStatusLookup,
+            portfolioRules));
     portfolioDto = new PortfolioDto();
     portfolioDto.setUserId(userId);
     portfolioDto.setPortfolioType(CRYPTO);
@@ -65,6 +159,8 @@ class PortfolioServiceTest {
 
   @AfterEach
   void tearDown() throws Exception {
+    tradeLaneDispatcher.destroy();
+    concurrentLookupExecutor.destroy();
     autoCloseable.close();
   }
 
@@ -87,8 +183,7 @@ class PortfolioServiceTest {
     var testUserDto = testUserDto(true);
     when(portfolioDtoValidator.validatePortfolioDto(any())).thenReturn(List.of());
     when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
-    when(portfolioRepository.findByUserIdAndPortfolioTypeAndExchange(userId, CRYPTO, "Binance"))
-        .thenReturn(empty());
+    when(portfolioRepository.portfolioExists(userId, CRYPTO, "Binance")).thenReturn(false);
     when(objectMapper.writeValueAsString(testUserDto)).thenReturn(expectedJson);
 
     // when
@@ -98,6 +193,43 @@ class PortfolioServiceTest {
     verify(portfolioRepository).save(any());
   }
 
+  @Test
+  void shouldSkipRedisAndUserServiceForNearCachedActiveUser() {
+    // given
+    when(portfolioDtoValidator.validatePortfolioDto(any())).thenReturn(List.of());
+    when(userStatusNearCache.getActiveStatus(userId)).thenReturn(Optional.of(true));
+    when(portfolioRepository.portfolioExists(userId, CRYPTO, "Binance")).thenReturn(false);
+
+    // when
+    portfolioService.createPortfolio(portfolioDto);
+
+    // then
+    verify(portfolioRepository).save(any());
+    verify(redisService, never()).getValue(any());
+    verify(userServiceClient, never()).fetchUserData(any());
+  }
+
+  @Test
+  void shouldCacheOnlyUserStatusInBinaryFormat() throws JsonProcessingException {
+    // given
+    setField(portfolioRules, "userStatusCacheFormat", PayloadFormat.BINARY);
+    when(portfolioDtoValidator.validatePortfolioDto(any())).thenReturn(List.of());
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto(true));
+    when(portfolioRepository.portfolioExists(userId, CRYPTO, "Binance")).thenReturn(false);
+
+    // when
+    portfolioService.createPortfolio(portfolioDto);
+
+    // then
+    verify(redisService).setValue("1", UserStatusCodec.encode(testUserDto(true)));
+    verify(objectMapper, never()).writeValueAsString(any());
+    verify(portfolioRepository).save(any());
+  }
+
+  private static BulkWriteResult matched(int matchedCount) {
+    return BulkWriteResult.acknowledged(0, matchedCount, 0, matchedCount, List.of(), List.of());
+  }
+
   private UserDto testUserDto(boolean active) {
     return new UserDto(1L, "johnDo", "john", "do", "john@do.pl", LocalDate.of(2000, 1, 1), active);
   }
@@ -172,8 +304,7 @@ class PortfolioServiceTest {
     when(portfolioDtoValidator.validatePortfolioDto(any())).thenReturn(List.of());
     when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
     when(objectMapper.writeValueAsString(testUserDto)).thenReturn(expectedJson);
-    when(portfolioRepository.findByUserIdAndPortfolioTypeAndExchange(userId, CRYPTO, "Binance"))
-        .thenReturn(Optional.of(portfolio));
+    when(portfolioRepository.portfolioExists(userId, CRYPTO, "Binance")).thenReturn(true);
 
     // when
     var throwable =
@@ -185,5 +316,646 @@ class PortfolioServiceTest {
     assertTrue(throwable.getMessage().startsWith("Portfolio for user with id:"));
   }
 
+  @Test
+  void shouldDeletePortfolioInOneRoundTripAndInvalidateItInReadCache() {
+    // given
+    when(portfolioRepository.removeById(portfolioId)).thenReturn(Optional.of(portfolio));
+
+    // when
+    portfolioService.deletePortfolioById(portfolioId);
+
+    // then
+    verify(portfolioRepository, never()).findById(any());
+    verify(portfolioReadCache).invalidate(portfolioId, userId);
+  }
+
+  @Test
+  void shouldApplyBatchOfTradesForOnePortfolioInSingleBulkWrite() throws JsonProcessingException {
+    // given
+    var testUserDto = testUserDto(true);
+    portfolio.setPortfolioType(CRYPTO);
+    portfolio.setExchange("Binance");
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+    var events =
+        List.of(
+            testTradeCreatedEvent("USDT", "40", "BTC", "1"),
+            testTradeCreatedEvent("USDT", "50", "BTC", "2"));
+
+    when(tradeDtoValidator.validateTradeDto(any())).thenReturn(List.of());
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class))).thenReturn(List.of(portfolio));
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Portfolio.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.execute()).thenReturn(matched(1));
+
+    // when
+    portfolioService.handleTradeCreatedBatch(tradeRecords(events), ack);
+
+    // then
+    verify(ack).acknowledge();
+    verify(bulkOperations, times(1))
+        .replaceOne(any(Query.class), eq(portfolio));
+    verify(bulkOperations, times(1)).execute();
+    assertEquals(2, portfolio.getPendingEvents().size());
+    verify(userServiceClient, times(1)).fetchUserData(userId);
+    verify(portfolioReadCache).invalidateAll(List.of(portfolioId), List.of(userId));
+    assertEquals(0, new BigDecimal("10").compareTo(findAsset("USDT").getQuantity()));
+    assertEquals(0, new BigDecimal("3").compareTo(findAsset("BTC").getQuantity()));
+  }
+
+  @Test
+  void shouldDeadLetterRejectedTradeAndFailBatchAtFailedBulkWrite() throws JsonProcessingException {
+    // given
+    var testUserDto = testUserDto(true);
+    portfolio.setPortfolioType(CRYPTO);
+    portfolio.setExchange("Binance");
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+    var events =
+        List.of(
+            testTradeCreatedEvent("USDT", "500", "BTC", "1"),
+            testTradeCreatedEvent("USDT", "50", "BTC", "2"));
+
+    when(tradeDtoValidator.validateTradeDto(any())).thenReturn(List.of());
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class))).thenReturn(List.of(portfolio));
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Portfolio.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.execute()).thenThrow(new DataAccessResourceFailureException("Mongo down"));
+
+    var records = tradeRecords(events);
+
+    // when
+    var throwable =
+        assertThrows(
+            BatchListenerFailedException.class,
+            () -> portfolioService.handleTradeCreatedBatch(records, ack));
+
+    // then
+    assertSame(records.get(1), throwable.getRecord());
+    verify(tradeDeadLetterRecoverer)
+        .accept(eq(records.get(0)), any(NotEnoughAssetQuantityException.class));
+    assertEquals(1, portfolio.getPendingEvents().size());
+    verify(portfolioReadCache).invalidateAll(List.of(), List.of());
+    verify(ack, never()).acknowledge();
+  }
+
+  @Test
+  void shouldDeadLetterUnreadableEventsOnlyBeforeFirstFailedWrite()
+      throws JsonProcessingException {
+    // given
+    var testUserDto = testUserDto(true);
+    portfolio.setPortfolioType(CRYPTO);
+    portfolio.setExchange("Binance");
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+    var rejectedRecord = tradeRecord(0, testTradeCreatedEvent("USDT", "500", "BTC", "1"));
+    var unreadableRecord = tradeRecord(1, null);
+    var failedRecord = tradeRecord(2, testTradeCreatedEvent("USDT", "50", "BTC", "2"));
+    var unreadableRecordBehind = tradeRecord(3, null);
+
+    when(tradeDtoValidator.validateTradeDto(any())).thenReturn(List.of());
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class))).thenReturn(List.of(portfolio));
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Portfolio.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.execute()).thenThrow(new DataAccessResourceFailureException("Mongo down"));
+
+    var records = List.of(rejectedRecord, unreadableRecord, failedRecord, unreadableRecordBehind);
+
+    // when
+    var throwable =
+        assertThrows(
+            BatchListenerFailedException.class,
+            () -> portfolioService.handleTradeCreatedBatch(records, ack));
+
+    // then
+    assertSame(failedRecord, throwable.getRecord());
+    verify(bulkOperations, times(1)).execute();
+    verify(tradeDeadLetterRecoverer)
+        .accept(eq(rejectedRecord), any(NotEnoughAssetQuantityException.class));
+    verify(tradeDeadLetterRecoverer)
+        .accept(eq(unreadableRecord), any(SerializationException.class));
+    verify(tradeDeadLetterRecoverer, never()).accept(eq(failedRecord), any());
+    verify(tradeDeadLetterRecoverer, never()).accept(eq(unreadableRecordBehind), any());
+    verify(ack, never()).acknowledge();
+  }
+
+  @Test
+  void shouldIdentifyTradeWithoutIdByCoordinatesItWasFirstReceivedAt() {
+    // given
+    var replayedRecord = tradeRecord(7, testTradeCreatedEvent("USDT", "50", "BTC", "2"));
+    replayedRecord.headers().add(KafkaHeaders.ORIGINAL_TOPIC, "trades".getBytes(UTF_8));
+    replayedRecord.headers().add(KafkaHeaders.ORIGINAL_PARTITION, new byte[] {0, 0, 0, 3});
+    replayedRecord
+        .headers()
+        .add(KafkaHeaders.ORIGINAL_OFFSET, new byte[] {0, 0, 0, 0, 0, 0, 0, 42});
+    processedTradeFilter.markProcessed("trades-3@42");
+    when(tradeDtoValidator.validateTradeDto(any())).thenReturn(List.of());
+
+    // when
+    portfolioService.handleTradeCreatedBatch(List.of(replayedRecord), ack);
+
+    // then
+    assertEquals("trades-3@42", replayedRecord.value().getEventId());
+    verify(processedTradeFilter).recordDuplicate();
+    verify(tradeDeadLetterRecoverer, never()).accept(any(), any());
+    verify(ack).acknowledge();
+  }
+
+  @Test
+  void shouldLeaveAssetToPayUnchangedWhenBatchTradeCannotCreditAssetBought()
+      throws JsonProcessingException {
+    // given
+    var testUserDto = testUserDto(true);
+    var maxQuantity = Quantity.maxQuantity(CRYPTO);
+    portfolio.setPortfolioType(CRYPTO);
+    portfolio.setExchange("Binance");
+    portfolio.setAssets(
+        new HashSet<>(
+            Set.of(
+                new Asset("USDT", new BigDecimal("100"), CRYPTO),
+                new Asset("BTC", maxQuantity, CRYPTO))));
+    var events =
+        List.of(
+            testTradeCreatedEvent("USDT", "40", "BTC", "1"),
+            testTradeCreatedEvent("USDT", "50", "ETH", "2"));
+
+    when(tradeDtoValidator.validateTradeDto(any())).thenReturn(List.of());
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class))).thenReturn(List.of(portfolio));
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Portfolio.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.execute()).thenReturn(matched(1));
+
+    // when
+    portfolioService.handleTradeCreatedBatch(tradeRecords(events), ack);
+
+    // then
+    verify(ack).acknowledge();
+    assertEquals(1, portfolio.getPendingEvents().size());
+    assertEquals(0, new BigDecimal("50").compareTo(findAsset("USDT").getQuantity()));
+    assertEquals(0, maxQuantity.compareTo(findAsset("BTC").getQuantity()));
+    assertEquals(0, new BigDecimal("2").compareTo(findAsset("ETH").getQuantity()));
+  }
+
+  @Test
+  void shouldReapplyBatchTradesWhenPortfolioChangedConcurrently() throws JsonProcessingException {
+    // given
+    var testUserDto = testUserDto(true);
+    portfolio.setPortfolioType(CRYPTO);
+    portfolio.setExchange("Binance");
+    portfolio.setVersion(7L);
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+    var events = List.of(testTradeCreatedEvent("USDT", "40", "BTC", "1"));
+    var rereadPortfolio =
+        Portfolio.builder()
+            .id(portfolioId)
+            .userId(userId)
+            .portfolioType(CRYPTO)
+            .exchange("Binance")
+            .version(8L)
+            .assets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("90"), CRYPTO))))
+            .build();
+
+    when(tradeDtoValidator.validateTradeDto(any())).thenReturn(List.of());
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class)))
+        .thenReturn(List.of(portfolio))
+        .thenReturn(List.of(rereadPortfolio));
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Portfolio.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.execute()).thenReturn(matched(0)).thenReturn(matched(1));
+
+    // when
+    portfolioService.handleTradeCreatedBatch(tradeRecords(events), ack);
+
+    // then
+    verify(ack).acknowledge();
+    verify(mongoTemplate, times(3)).find(any(Query.class), eq(Portfolio.class));
+    verify(mongoTemplate).find(any(Query.class), eq(LedgerEntry.class));
+    verify(bulkOperations, times(2)).execute();
+    assertEquals(1, rereadPortfolio.getPendingEvents().size());
+    assertEquals(9L, rereadPortfolio.getVersion());
+    assertEquals(
+        0,
+        new BigDecimal("50")
+            .compareTo(rereadPortfolio.findAsset("USDT").orElseThrow().getQuantity()));
+  }
+
+  @Test
+  void shouldRejectBatchTradesOfPortfolioDeletedBeforeItsWrite() throws JsonProcessingException {
+    // given
+    var testUserDto = testUserDto(true);
+    portfolio.setPortfolioType(CRYPTO);
+    portfolio.setExchange("Binance");
+    portfolio.setVersion(7L);
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+    var events = List.of(testTradeCreatedEvent("USDT", "40", "BTC", "1"));
+
+    when(tradeDtoValidator.validateTradeDto(any())).thenReturn(List.of());
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class)))
+        .thenReturn(List.of(portfolio))
+        .thenReturn(List.of());
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Portfolio.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.execute()).thenReturn(matched(0));
+
+    // when
+    portfolioService.handleTradeCreatedBatch(tradeRecords(events), ack);
+
+    // then
+    verify(ack).acknowledge();
+    verify(bulkOperations, times(1)).replaceOne(any(Query.class), eq(portfolio));
+    verify(bulkOperations, times(1)).execute();
+    verify(portfolioReadCache).invalidateAll(List.of(), List.of());
+  }
+
+  @Test
+  void shouldTreatUnmatchedBatchWriteWhoseEventWasRelayedAsWritten()
+      throws JsonProcessingException {
+    // given
+    var testUserDto = testUserDto(true);
+    portfolio.setPortfolioType(CRYPTO);
+    portfolio.setExchange("Binance");
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+    var events = List.of(testTradeCreatedEvent("USDT", "40", "BTC", "1"));
+
+    when(tradeDtoValidator.validateTradeDto(any())).thenReturn(List.of());
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    var relayedPortfolio =
+        Portfolio.builder().id(portfolioId).userId(userId).assets(new HashSet<>()).build();
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class)))
+        .thenReturn(List.of(portfolio))
+        .thenReturn(List.of(relayedPortfolio));
+    when(mongoTemplate.find(any(Query.class), eq(LedgerEntry.class)))
+        .thenAnswer(
+            invocation ->
+                List.of(
+                    LedgerEntry.builder()
+                        .id(portfolio.getPendingEvents().getLast().getEventId())
+                        .build()));
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Portfolio.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.execute()).thenReturn(matched(0));
+
+    // when
+    portfolioService.handleTradeCreatedBatch(tradeRecords(events), ack);
+
+    // then
+    verify(ack).acknowledge();
+    verify(bulkOperations, times(1)).execute();
+    verify(portfolioReadCache).invalidateAll(List.of(portfolioId), List.of(userId));
+  }
+
+  @Test
+  void shouldApplyTradeInSingleConditionalUpdate() throws JsonProcessingException {
+    // given
+    var testUserDto = testUserDto(true);
+    var tradeDto = testTradeCreatedEvent("USDT", "40", "BTC", "1").toTradeDto();
+    when(tradeDtoValidator.validateTradeDto(any())).thenReturn(List.of());
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(portfolioRepository.tradeAssets(eq(tradeDto), any(PendingEvent.class)))
+        .thenReturn(Optional.of(portfolioId));
+
+    // when
+    var status = portfolioService.processTrade(tradeDto);
+
+    // then
+    assertEquals(SUCCESS, status);
+    verify(portfolioRepository, never()).save(any());
+    verify(portfolioRepository, never())
+        .findByUserIdAndPortfolioTypeAndExchange(any(), any(), any());
+    verify(portfolioReadCache).invalidate(portfolioId, userId);
+    var pendingEventCaptor = ArgumentCaptor.forClass(PendingEvent.class);
+    verify(portfolioRepository).tradeAssets(eq(tradeDto), pendingEventCaptor.capture());
+    var event = pendingEventCaptor.getValue().getEvent();
+    assertEquals(TRADE, event.getActionType());
+    assertEquals("BTC", event.getHaveName());
+    assertEquals("USDT", event.getOwesName());
+  }
+
+  @Test
+  void shouldTreatTradeAlreadyAppliedToPortfolioAsSuccessAndSkipItsRedelivery()
+      throws JsonProcessingException {
+    // given
+    var testUserDto = testUserDto(true);
+    var tradeDto = testTradeCreatedEvent("USDT", "40", "BTC", "1").toTradeDto();
+    tradeDto.setEventId("trade-1");
+    portfolio.markTradeProcessed("trade-1");
+    when(tradeDtoValidator.validateTradeDto(any())).thenReturn(List.of());
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(portfolioRepository.tradeAssets(eq(tradeDto), any(PendingEvent.class)))
+        .thenReturn(Optional.empty());
+    when(portfolioRepository.findByUserIdAndPortfolioTypeAndExchange(userId, CRYPTO, "Binance"))
+        .thenReturn(Optional.of(portfolio));
+
+    // when
+    var firstStatus = portfolioService.processTrade(tradeDto);
+    var redeliveredStatus = portfolioService.processTrade(tradeDto);
+
+    // then
+    assertEquals(SUCCESS, firstStatus);
+    assertEquals(SUCCESS, redeliveredStatus);
+    verify(portfolioRepository, times(1)).tradeAssets(eq(tradeDto), any(PendingEvent.class));
+    verify(processedTradeFilter, times(2)).recordDuplicate();
+  }
+
+  @Test
+  void shouldSkipBatchTradesAlreadyAppliedToPortfolio() throws JsonProcessingException {
+    // given
+    var testUserDto = testUserDto(true);
+    portfolio.setPortfolioType(CRYPTO);
+    portfolio.setExchange("Binance");
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+    portfolio.markTradeProcessed("trade-1");
+    var events =
+        List.of(
+            testTradeCreatedEvent("USDT", "40", "BTC", "1"),
+            testTradeCreatedEvent("USDT", "50", "BTC", "2"));
+    events.get(0).setEventId("trade-1");
+    events.get(1).setEventId("trade-2");
+
+    when(tradeDtoValidator.validateTradeDto(any())).thenReturn(List.of());
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(mongoTemplate.find(any(Query.class), eq(Portfolio.class))).thenReturn(List.of(portfolio));
+    when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Portfolio.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.execute()).thenReturn(matched(1));
+
+    // when
+    portfolioService.handleTradeCreatedBatch(tradeRecords(events), ack);
+
+    // then
+    verify(ack).acknowledge();
+    assertEquals(1, portfolio.getPendingEvents().size());
+    assertEquals(List.of("trade-1", "trade-2"), portfolio.getProcessedTradeIds());
+    assertEquals(0, new BigDecimal("50").compareTo(findAsset("USDT").getQuantity()));
+    assertTrue(processedTradeFilter.isProcessed("trade-1"));
+    assertTrue(processedTradeFilter.isProcessed("trade-2"));
+  }
+
+  @Test
+  void shouldThrowExceptionWhenWithdrawingMoreThanPresentQuantity()
+      throws JsonProcessingException {
+    // given
+    var testUserDto = testUserDto(true);
+    var withdrawDto =
+        new WithdrawDto(portfolioId, userId, "usdt", new BigDecimal("500"), CRYPTO);
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(portfolioRepository.withdrawAsset(
+            eq(portfolioId), eq(userId), eq("usdt"), eq(new BigDecimal("500")), any()))
+        .thenReturn(false);
+    when(portfolioRepository.findByIdAndUserId(portfolioId, userId))
+        .thenReturn(Optional.of(portfolio));
+
+    // when
+    var throwable =
+        assertThrows(
+            NotEnoughAssetQuantityException.class, () -> portfolioService.withdraw(withdrawDto));
+
+    // then
+    assertTrue(throwable.getMessage().contains("not enough quantity present in the portfolio"));
+  }
+
+  @Test
+  void shouldRejectWithdrawalWithMoreDecimalsThanScaleBeforeWriting() {
+    // given
+    var withdrawDto =
+        new WithdrawDto(portfolioId, userId, "USDT", new BigDecimal("0.000000001"), CRYPTO);
+
+    // when
+    var throwable =
+        assertThrows(
+            AssetQuantityOutOfRangeException.class, () -> portfolioService.withdraw(withdrawDto));
+
+    // then
+    assertTrue(throwable.getMessage().contains("cannot be represented with: [8] decimal places"));
+    verify(userServiceClient, never()).fetchUserData(any());
+    verify(portfolioRepository, never()).withdrawAsset(any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void shouldExplainDepositRejectedForAssetHeldAtSmallerScale() throws JsonProcessingException {
+    // given
+    var testUserDto = testUserDto(true);
+    var depositDto =
+        new DepositDto(portfolioId, userId, "AAPL", new BigDecimal("0.0000001"), CRYPTO);
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("AAPL", BigDecimal.ONE, STOCK))));
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(portfolioRepository.depositAsset(eq(portfolioId), eq(userId), any(), any()))
+        .thenReturn(false);
+    when(portfolioRepository.findByIdAndUserId(portfolioId, userId))
+        .thenReturn(Optional.of(portfolio));
+
+    // when
+    var throwable =
+        assertThrows(
+            AssetQuantityOutOfRangeException.class, () -> portfolioService.deposit(depositDto));
+
+    // then
+    assertTrue(throwable.getMessage().contains("cannot be represented with: [6] decimal places"));
+    assertEquals(0, BigDecimal.ONE.compareTo(findAsset("AAPL").getQuantity()));
+  }
+
+  @Test
+  void shouldReadPortfolioWhileCheckingUserInOptimisticMode() throws JsonProcessingException {
+    // given
+    setField(portfolioService, "writeMode", WriteMode.OPTIMISTIC);
+    var testUserDto = testUserDto(true);
+    var depositDto = new DepositDto(portfolioId, userId, "USDT", new BigDecimal("10"), CRYPTO);
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(portfolioRepository.findByIdAndUserId(portfolioId, userId))
+        .thenReturn(Optional.of(portfolio));
+
+    // when
+    var status = portfolioService.deposit(depositDto);
+
+    // then
+    assertEquals(SUCCESS, status);
+    verify(concurrentLookupExecutor).readWhileChecking(any(), any());
+    verify(portfolioRepository, times(1)).findByIdAndUserId(portfolioId, userId);
+    verify(portfolioRepository).save(portfolio);
+    assertEquals(0, new BigDecimal("110").compareTo(findAsset("USDT").getQuantity()));
+  }
+
+  @Test
+  void shouldNotWaitForPortfolioReadWhenUserNotActiveInOptimisticMode()
+      throws JsonProcessingException {
+    // given
+    setField(portfolioService, "writeMode", WriteMode.OPTIMISTIC);
+    var testUserDto = testUserDto(false);
+    var withdrawDto = new WithdrawDto(portfolioId, userId, "USDT", new BigDecimal("10"), CRYPTO);
+    var readReleased = new CountDownLatch(1);
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(portfolioRepository.findByIdAndUserId(portfolioId, userId))
+        .thenAnswer(
+            invocation -> {
+              readReleased.await(10, TimeUnit.SECONDS);
+              return Optional.of(portfolio);
+            });
+
+    // when
+    assertTimeoutPreemptively(
+        Duration.ofSeconds(5),
+        () ->
+            assertThrows(
+                UserNotActiveException.class, () -> portfolioService.withdraw(withdrawDto)));
+    readReleased.countDown();
+
+    // then
+    verify(portfolioRepository, never()).save(any());
+  }
+
+  @Test
+  void shouldCountOperationOutcomesAndTimeTheirStages() throws JsonProcessingException {
+    // given
+    var testUserDto = testUserDto(true);
+    var depositDto = new DepositDto(portfolioId, userId, "USDT", new BigDecimal("10"), CRYPTO);
+    var withdrawDto =
+        new WithdrawDto(portfolioId, userId, "USDT", new BigDecimal("500"), CRYPTO);
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+    when(userServiceClient.fetchUserData(userId)).thenReturn(testUserDto);
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(portfolioRepository.depositAsset(eq(portfolioId), eq(userId), any(), any()))
+        .thenReturn(true);
+    when(portfolioRepository.findByIdAndUserId(portfolioId, userId))
+        .thenReturn(Optional.of(portfolio));
+
+    // when
+    portfolioService.deposit(depositDto);
+    assertThrows(
+        NotEnoughAssetQuantityException.class, () -> portfolioService.withdraw(withdrawDto));
+
+    // then
+    assertEquals(
+        1,
+        meterRegistry
+            .get(PortfolioMetrics.OPERATIONS_METRIC)
+            .tags("operation", "deposit", "status", "success")
+            .counter()
+            .count());
+    assertEquals(
+        1,
+        meterRegistry
+            .get(PortfolioMetrics.OPERATION_FAILURES_METRIC)
+            .tags("operation", "withdraw", "exception", "NotEnoughAssetQuantityException")
+            .counter()
+            .count());
+    assertEquals(
+        2,
+        meterRegistry
+            .get(PortfolioMetrics.STAGE_DURATION_METRIC)
+            .tag("stage", "mongo.write")
+            .timer()
+            .count());
+    assertEquals(
+        2,
+        meterRegistry
+            .get(PortfolioMetrics.STAGE_DURATION_METRIC)
+            .tag("stage", "user.remote.call")
+            .timer()
+            .count());
+  }
+
+  @Test
+  void shouldReturnCappedPageWithCursorOfItsLastPortfolio() {
+    // given
+    setField(portfolioService, "maxPageSize", 2);
+    var portfolios =
+        List.of(
+            Portfolio.builder().id("a").userId(userId).assets(new HashSet<>()).build(),
+            Portfolio.builder().id("b").userId(userId).assets(new HashSet<>()).build(),
+            Portfolio.builder().id("c").userId(userId).assets(new HashSet<>()).build());
+    when(portfolioRepository.findPageByUserId(userId, "0", 3)).thenReturn(portfolios);
+
+    // when
+    var page = portfolioService.fetchPortfolioPageForUser(userId, "0", 50);
+
+    // then
+    assertEquals(
+        List.of("a", "b"), page.getPortfolios().stream().map(PortfolioDto::getId).toList());
+    assertEquals("b", page.getNextCursor());
+  }
+
+  @Test
+  void shouldReturnLastPageWithoutCursor() {
+    // given
+    setField(portfolioService, "maxPageSize", 10);
+    when(portfolioRepository.findPageByUserId(userId, null, 3)).thenReturn(List.of(portfolio));
+
+    // when
+    var page = portfolioService.fetchPortfolioPageForUser(userId, null, 2);
+
+    // then
+    assertEquals(1, page.getPortfolios().size());
+    assertNull(page.getNextCursor());
+  }
+
+  @Test
+  void shouldHandOverStreamedPortfoliosAndCloseCursor() {
+    // given
+    var cursorClosed = new AtomicBoolean();
+    when(portfolioRepository.streamAllByUserId(userId))
+        .thenReturn(Stream.of(portfolio).onClose(() -> cursorClosed.set(true)));
+    List<PortfolioDto> portfolioDtos = new ArrayList<>();
+
+    // when
+    portfolioService.streamAllPortfoliosForUser(userId, portfolioDtos::add);
+
+    // then
+    assertEquals(1, portfolioDtos.size());
+    assertEquals(portfolioId, portfolioDtos.getFirst().getId());
+    assertTrue(cursorClosed.get());
+    verify(dependencyCallTimer).record(eq(PortfolioService.MONGO_PORTFOLIO), anyLong());
+  }
+
+  private TradeCreatedEvent testTradeCreatedEvent(
+      String assetToPay, String amountToPay, String assetToBuy, String amountBought) {
+    return TradeCreatedEvent.builder()
+        .userId(userId)
+        .assetToPay(assetToPay)
+        .amountToPay(new BigDecimal(amountToPay))
+        .assetToBuy(assetToBuy)
+        .amountBought(new BigDecimal(amountBought))
+        .assetType(CRYPTO)
+        .exchangeName("Binance")
+        .build();
+  }
+
+  private static ConsumerRecord<String, TradeCreatedEvent> tradeRecord(
+      long offset, TradeCreatedEvent event) {
+    return new ConsumerRecord<>("trades", 0, offset, null, event);
+  }
+
+  private static List<ConsumerRecord<String, TradeCreatedEvent>> tradeRecords(
+      List<TradeCreatedEvent> events) {
+    return IntStream.range(0, events.size())
+        .mapToObj(offset -> tradeRecord(offset, events.get(offset)))
+        .toList();
+  }
+
+  private Asset findAsset(String assetName) {
+    return portfolio.getAssets().stream()
+        .filter(asset -> asset.getName().equals(assetName))
+        .findFirst()
+        .orElseThrow();
+  }
+
   // TODO continue
 }
@@ -0,0 +1,266 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.CRYPTO;
+import static com.sothrose.assetflow_portfolio_service.model.AssetType.STOCK;
+import static com.sothrose.assetflow_portfolio_service.model.ProcessingStatus.SUCCESS;
+import static java.util.Optional.empty;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sothrose.assetflow_portfolio_service.client.UserServiceClient;
+import com.sothrose.assetflow_portfolio_service.exception.AssetQuantityOutOfRangeException;
+import com.sothrose.assetflow_portfolio_service.exception.NotEnoughAssetQuantityException;
+import com.sothrose.assetflow_portfolio_service.exception.UserNotActiveException;
+import com.sothrose.assetflow_portfolio_service.model.Asset;
+import com.sothrose.assetflow_portfolio_service.model.DepositDto;
+import com.sothrose.assetflow_portfolio_service.model.PendingEvent;
+import com.sothrose.assetflow_portfolio_service.model.Portfolio;
+import com.sothrose.assetflow_portfolio_service.model.UserDto;
+import com.sothrose.assetflow_portfolio_service.model.WithdrawDto;
+import com.sothrose.assetflow_portfolio_service.repository.ReactivePortfolioRepository;
+import com.sothrose.assetflow_portfolio_service.validator.PortfolioDtoValidator;
+import com.sothrose.assetflow_portfolio_service.validator.TradeDtoValidator;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.retry.RetryRegistry;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataAccessResourceFailureException;
+import reactor.core.publisher.Mono;
+
+class ReactivePortfolioServiceTest {
+  @Mock private ReactivePortfolioRepository reactivePortfolioRepository;
+  @Mock private ReactiveRedisService reactiveRedisService;
+  @Mock private UserServiceClient userServiceClient;
+  @Mock private TradeDtoValidator tradeDtoValidator;
+  @Mock private PortfolioDtoValidator portfolioDtoValidator;
+  @Mock private ObjectMapper objectMapper;
+  @Mock private UserStatusNearCache userStatusNearCache;
+  @Mock private ProcessedTradeFilter processedTradeFilter;
+  @Mock private PortfolioReadCache portfolioReadCache;
+
+  @InjectMocks private PortfolioRules portfolioRules;
+
+  private ReactivePortfolioService reactivePortfolioService;
+
+  private Long userId = 1L;
+  private String portfolioId = "portfolio123";
+
+  private AutoCloseable autoCloseable;
+
+  @BeforeEach
+  void setUp() {
+    autoCloseable = MockitoAnnotations.openMocks(this);
+    reactivePortfolioService =
+        new ReactivePortfolioService(
+            reactivePortfolioRepository,
+            userServiceClient,
+            reactiveRedisService,
+            userStatusNearCache,
+            portfolioRules,
+            portfolioReadCache,
+            CircuitBreakerRegistry.ofDefaults(),
+            RetryRegistry.of(RetryConfig.custom().waitDuration(Duration.ofMillis(1)).build()),
+            BulkheadRegistry.ofDefaults(),
+            new DependencyCallTimer());
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    autoCloseable.close();
+  }
+
+  @Test
+  void shouldDepositWithoutLookingUpUserWhenNearCached() {
+    // given
+    var depositDto = new DepositDto(portfolioId, userId, "BTC", new BigDecimal("1.5"), CRYPTO);
+    when(userStatusNearCache.getActiveStatus(userId)).thenReturn(Optional.of(true));
+    when(reactivePortfolioRepository.depositAsset(eq(portfolioId), eq(userId), any(), any()))
+        .thenReturn(Mono.just(true));
+
+    // when
+    var status = reactivePortfolioService.deposit(depositDto).block();
+
+    // then
+    assertEquals(SUCCESS, status);
+    verify(reactiveRedisService, never()).getValue(any());
+    verify(userServiceClient, never()).fetchUserDataAsync(any());
+    verify(reactivePortfolioRepository)
+        .depositAsset(eq(portfolioId), eq(userId), any(), any(PendingEvent.class));
+    verify(portfolioReadCache).invalidate(portfolioId, userId);
+  }
+
+  @Test
+  void shouldDeletePortfolioInOneRoundTripAndInvalidateItInReadCache() {
+    // given
+    var removedPortfolio = new Portfolio();
+    removedPortfolio.setId(portfolioId);
+    removedPortfolio.setUserId(userId);
+    when(reactivePortfolioRepository.removeById(portfolioId))
+        .thenReturn(Mono.just(removedPortfolio));
+
+    // when
+    reactivePortfolioService.deletePortfolioById(portfolioId).block();
+
+    // then
+    verify(reactivePortfolioRepository, never()).findById(any(String.class));
+    verify(portfolioReadCache).invalidate(portfolioId, userId);
+  }
+
+  @Test
+  void shouldRejectInactiveUserFetchedFromUserService() throws JsonProcessingException {
+    // given
+    var depositDto = new DepositDto(portfolioId, userId, "BTC", new BigDecimal("1.5"), CRYPTO);
+    var testUserDto = testUserDto(false);
+    when(userStatusNearCache.getActiveStatus(userId)).thenReturn(empty());
+    when(reactiveRedisService.getValue(String.valueOf(userId))).thenReturn(Mono.empty());
+    when(userServiceClient.fetchUserDataAsync(userId)).thenReturn(Mono.just(testUserDto));
+    when(objectMapper.writeValueAsString(testUserDto)).thenReturn("{}");
+    when(reactiveRedisService.setValue(String.valueOf(userId), "{}")).thenReturn(Mono.empty());
+
+    // when
+    var throwable =
+        assertThrows(
+            UserNotActiveException.class,
+            () -> reactivePortfolioService.deposit(depositDto).block());
+
+    // then
+    assertEquals("User with id: [1] is not active", throwable.getMessage());
+    verify(reactiveRedisService).setValue(String.valueOf(userId), "{}");
+    verify(reactivePortfolioRepository, never()).depositAsset(any(), any(), any(), any());
+  }
+
+  @Test
+  void shouldResolveRejectedWithdrawalReason() {
+    // given
+    var withdrawDto = new WithdrawDto(portfolioId, userId, "usdt", new BigDecimal("500"), CRYPTO);
+    var portfolio = new Portfolio();
+    portfolio.setId(portfolioId);
+    portfolio.setUserId(userId);
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("USDT", new BigDecimal("100"), CRYPTO))));
+    when(userStatusNearCache.getActiveStatus(userId)).thenReturn(Optional.of(true));
+    when(reactivePortfolioRepository.withdrawAsset(
+            eq(portfolioId), eq(userId), eq("usdt"), eq(new BigDecimal("500")), any()))
+        .thenReturn(Mono.just(false));
+    when(reactivePortfolioRepository.findByIdAndUserId(portfolioId, userId))
+        .thenReturn(Mono.just(portfolio));
+
+    // when
+    var throwable =
+        assertThrows(
+            NotEnoughAssetQuantityException.class,
+            () -> reactivePortfolioService.withdraw(withdrawDto).block());
+
+    // then
+    assertTrue(throwable.getMessage().contains("not enough quantity present in the portfolio"));
+  }
+
+  @Test
+  void shouldRejectWithdrawalWithMoreDecimalsThanScaleBeforeLookingUpUser() {
+    // given
+    var withdrawDto =
+        new WithdrawDto(portfolioId, userId, "USDT", new BigDecimal("0.000000001"), CRYPTO);
+
+    // when
+    assertThrows(
+        AssetQuantityOutOfRangeException.class,
+        () -> reactivePortfolioService.withdraw(withdrawDto).block());
+
+    // then
+    verify(userStatusNearCache, never()).getActiveStatus(any());
+    verify(reactivePortfolioRepository, never()).withdrawAsset(any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void shouldResolveDepositRejectedForAssetHeldAtSmallerScale() {
+    // given
+    var depositDto =
+        new DepositDto(portfolioId, userId, "AAPL", new BigDecimal("0.0000001"), CRYPTO);
+    var portfolio = new Portfolio();
+    portfolio.setId(portfolioId);
+    portfolio.setUserId(userId);
+    portfolio.setAssets(new HashSet<>(Set.of(new Asset("AAPL", BigDecimal.ONE, STOCK))));
+    when(userStatusNearCache.getActiveStatus(userId)).thenReturn(Optional.of(true));
+    when(reactivePortfolioRepository.depositAsset(eq(portfolioId), eq(userId), any(), any()))
+        .thenReturn(Mono.just(false));
+    when(reactivePortfolioRepository.findByIdAndUserId(portfolioId, userId))
+        .thenReturn(Mono.just(portfolio));
+
+    // when
+    var throwable =
+        assertThrows(
+            AssetQuantityOutOfRangeException.class,
+            () -> reactivePortfolioService.deposit(depositDto).block());
+
+    // then
+    assertTrue(throwable.getMessage().contains("cannot be represented with: [6] decimal places"));
+  }
+
+  @Test
+  void shouldRetryFailedPortfolioRead() {
+    // given
+    var portfolio = new Portfolio();
+    portfolio.setId(portfolioId);
+    portfolio.setUserId(userId);
+    var attempts = new AtomicInteger();
+    when(reactivePortfolioRepository.findById(portfolioId))
+        .thenReturn(
+            Mono.defer(
+                () ->
+                    attempts.getAndIncrement() == 0
+                        ? Mono.error(new DataAccessResourceFailureException("timed out"))
+                        : Mono.just(portfolio)));
+
+    // when
+    var portfolioDto = reactivePortfolioService.fetchPortfolioById(portfolioId).block();
+
+    // then
+    assertEquals(portfolioId, portfolioDto.getId());
+    assertEquals(2, attempts.get());
+  }
+
+  @Test
+  void shouldNotRetryFailedDeposit() {
+    // given
+    var depositDto = new DepositDto(portfolioId, userId, "BTC", new BigDecimal("1.5"), CRYPTO);
+    var attempts = new AtomicInteger();
+    when(userStatusNearCache.getActiveStatus(userId)).thenReturn(Optional.of(true));
+    when(reactivePortfolioRepository.depositAsset(eq(portfolioId), eq(userId), any(), any()))
+        .thenReturn(
+            Mono.defer(
+                () -> {
+                  attempts.incrementAndGet();
+                  return Mono.error(new DataAccessResourceFailureException("timed out"));
+                }));
+
+    // when
+    assertThrows(
+        DataAccessResourceFailureException.class,
+        () -> reactivePortfolioService.deposit(depositDto).block());
+
+    // then
+    assertEquals(1, attempts.get());
+  }
+
+  private UserDto testUserDto(boolean active) {
+    return new UserDto(1L, "johnDo", "john", "do", "john@do.pl", LocalDate.of(2000, 1, 1), active);
+  }
+}
@@ -1,5 +1,6 @@
 package com.sothrose.assetflow_portfolio_service.service;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -10,7 +11,12 @@ import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryRegistry;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -19,7 +25,9 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.data.redis.RedisConnectionFailureException;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
 
 class RedisServiceTest {
   @Mock private RedisTemplate<String, String> portfolioRedisTemplate;
@@ -31,6 +39,7 @@ class RedisServiceTest {
   @Mock private Bulkhead bulkhead;
   @Mock private ValueOperations<String, String> valueOperations;
 
+  private final DependencyCallTimer dependencyCallTimer = new DependencyCallTimer();
   private RedisService redisService;
 
   private AutoCloseable autoCloseable;
@@ -44,7 +53,11 @@ class RedisServiceTest {
 
     redisService =
         new RedisService(
-            portfolioRedisTemplate, circuitBreakerRegistry, retryRegistry, bulkheadRegistry);
+            portfolioRedisTemplate,
+            circuitBreakerRegistry,
+            retryRegistry,
+            bulkheadRegistry,
+            dependencyCallTimer);
 
     when(portfolioRedisTemplate.opsForValue()).thenReturn(valueOperations);
     when(circuitBreaker.decorateCallable(any()))
@@ -78,6 +91,36 @@ class RedisServiceTest {
     verify(valueOperations, times(1)).get(key);
   }
 
+  @Test
+  void shouldTimeEveryAttemptWithoutBackoffOfRetry() {
+    // given
+    var key = "testKey";
+    var backoffInMs = 200L;
+    List<Long> latenciesInNanos = new CopyOnWriteArrayList<>();
+    dependencyCallTimer.onCall("bulkheadRedisService", latenciesInNanos::add);
+    when(valueOperations.get(key)).thenReturn("testValue");
+    when(retry.decorateCallable(any()))
+        .thenAnswer(
+            invocation -> {
+              Callable<?> callable = invocation.getArgument(0);
+              return (Callable<?>)
+                  () -> {
+                    callable.call();
+                    Thread.sleep(backoffInMs);
+                    return callable.call();
+                  };
+            });
+
+    // when
+    var result = redisService.getValue(key);
+
+    // then
+    assertEquals("testValue", result);
+    assertEquals(2, latenciesInNanos.size());
+    latenciesInNanos.forEach(
+        latencyInNanos -> assertTrue(latencyInNanos < MILLISECONDS.toNanos(backoffInMs)));
+  }
+
   @Test
   void shouldReturnFallbackValueWhenErrorOccurred() {
     // given
@@ -121,4 +164,105 @@ class RedisServiceTest {
     assertDoesNotThrow(() -> redisService.setValue(key, value));
     verify(valueOperations, times(1)).set(key, value, 2, TimeUnit.MINUTES);
   }
+
+  @Test
+  void shouldReadAllKeysInSingleMultiGet() {
+    // given
+    var keys = List.of("1", "2", "3");
+    when(valueOperations.multiGet(keys)).thenReturn(Arrays.asList("user1", null, "user3"));
+
+    // when
+    var result = redisService.getValues(keys);
+
+    // then
+    assertEquals(Map.of("1", "user1", "3", "user3"), result);
+    verify(valueOperations, times(1)).multiGet(keys);
+    verify(valueOperations, never()).get(any());
+    verify(circuitBreaker, times(1)).decorateCallable(any());
+  }
+
+  @Test
+  void shouldTreatAllKeysAsMissingWhenMultiGetFails() {
+    // given
+    var keys = List.of("1", "2");
+    when(valueOperations.multiGet(keys))
+        .thenThrow(new RedisConnectionFailureException("Redis is down"));
+
+    // when
+    var result = redisService.getValues(keys);
+
+    // then
+    assertTrue(result.isEmpty());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void shouldWriteAllValuesWithTtlInSinglePipeline() {
+    // given
+    when(portfolioRedisTemplate.executePipelined(any(SessionCallback.class)))
+        .thenAnswer(
+            invocation -> {
+              SessionCallback<Object> sessionCallback = invocation.getArgument(0);
+              sessionCallback.execute(portfolioRedisTemplate);
+              return List.of();
+            });
+
+    // when
+    redisService.setValues(Map.of("1", "user1", "2", "user2"));
+
+    // then
+    verify(portfolioRedisTemplate, times(1)).executePipelined(any(SessionCallback.class));
+    verify(valueOperations, times(1)).set("1", "user1", 2, TimeUnit.MINUTES);
+    verify(valueOperations, times(1)).set("2", "user2", 2, TimeUnit.MINUTES);
+    verify(bulkhead, times(1)).executeCallable(any());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void shouldWriteValueOnlyWhileGuardUnchanged() {
+    // given
+    when(portfolioRedisTemplate.execute(
+            any(RedisScript.class),
+            eq(List.of("key", "key:version")),
+            eq("value"),
+            eq("3"),
+            eq("5000"),
+            eq("0")))
+        .thenReturn(1L, 0L);
+
+    // when
+    var firstWritten =
+        redisService.setValueIfGuardUnchanged(
+            "key", "value", Duration.ofSeconds(5), "key:version", "3");
+    var secondWritten =
+        redisService.setValueIfGuardUnchanged(
+            "key", "value", Duration.ofSeconds(5), "key:version", "3");
+
+    // then
+    assertTrue(firstWritten);
+    assertFalse(secondWritten);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void shouldDeleteValuesAndIncrementCountersInSinglePipeline() {
+    // given
+    when(portfolioRedisTemplate.executePipelined(any(SessionCallback.class)))
+        .thenAnswer(
+            invocation -> {
+              SessionCallback<Object> sessionCallback = invocation.getArgument(0);
+              sessionCallback.execute(portfolioRedisTemplate);
+              return List.of();
+            });
+
+    // when
+    redisService.deleteValuesAndIncrement(
+        List.of("key"), List.of("key:version"), Duration.ofHours(1));
+
+    // then
+    verify(portfolioRedisTemplate, times(1)).delete(List.of("key"));
+    verify(valueOperations, times(1)).increment("key:version");
+    verify(portfolioRedisTemplate, times(1)).expire("key:version", Duration.ofHours(1));
+    verify(bulkhead, times(1)).executeCallable(any());
+  }
 }
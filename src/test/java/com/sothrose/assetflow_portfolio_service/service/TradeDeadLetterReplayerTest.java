@@ -0,0 +1,124 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+class TradeDeadLetterReplayerTest {
+  private static final String DEAD_LETTER_TOPIC = "trade-created-dlq";
+  private static final TopicPartition DEAD_LETTER_PARTITION =
+      new TopicPartition(DEAD_LETTER_TOPIC, 0);
+
+  @Mock private ConsumerFactory<String, byte[]> deadLetterConsumerFactory;
+  @Mock private KafkaTemplate<String, byte[]> deadLetterReplayKafkaTemplate;
+
+  private MockConsumer<String, byte[]> consumer;
+  private TradeDeadLetterReplayer tradeDeadLetterReplayer;
+
+  private AutoCloseable autoCloseable;
+
+  @BeforeEach
+  void setUp() {
+    autoCloseable = MockitoAnnotations.openMocks(this);
+    consumer = spy(new MockConsumer<>(OffsetResetStrategy.EARLIEST));
+    consumer.updatePartitions(
+        DEAD_LETTER_TOPIC, List.of(new PartitionInfo(DEAD_LETTER_TOPIC, 0, null, null, null)));
+    consumer.updateBeginningOffsets(Map.of(DEAD_LETTER_PARTITION, 0L));
+    consumer.schedulePollTask(
+        () -> {
+          for (long offset = 0; offset < 3; offset++) {
+            consumer.addRecord(deadLetter(offset));
+          }
+        });
+    when(deadLetterConsumerFactory.createConsumer()).thenReturn(consumer);
+    tradeDeadLetterReplayer =
+        new TradeDeadLetterReplayer(
+            deadLetterConsumerFactory,
+            deadLetterReplayKafkaTemplate,
+            "trade-created",
+            "-dlq",
+            1_000_000,
+            10,
+            1000);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    autoCloseable.close();
+  }
+
+  @Test
+  void shouldReplayUpToLimitKeepingOnlyOriginalCoordinatesAndCommitOnlyReplayed() {
+    // given
+    when(deadLetterReplayKafkaTemplate.send(any(ProducerRecord.class)))
+        .thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
+
+    // when
+    var replayed = tradeDeadLetterReplayer.replay(2);
+
+    // then
+    assertEquals(2, replayed);
+    var recordCaptor = ArgumentCaptor.forClass(ProducerRecord.class);
+    verify(deadLetterReplayKafkaTemplate, times(2)).send(recordCaptor.capture());
+    var replayedRecord = recordCaptor.getAllValues().getFirst();
+    assertEquals("trade-created", replayedRecord.topic());
+    assertEquals("trade-0", replayedRecord.key());
+    assertNotNull(replayedRecord.headers().lastHeader("__TypeId__"));
+    assertNull(replayedRecord.headers().lastHeader("kafka_dlt-exception-message"));
+    assertNull(replayedRecord.headers().lastHeader("retry_topic-attempts"));
+    assertNotNull(replayedRecord.headers().lastHeader("kafka_dlt-original-offset"));
+    verify(consumer).commitSync(Map.of(DEAD_LETTER_PARTITION, new OffsetAndMetadata(2)));
+  }
+
+  @Test
+  void shouldStopAndCommitNothingPastFirstFailedRepublish() {
+    // given
+    when(deadLetterReplayKafkaTemplate.send(any(ProducerRecord.class)))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+
+    // when
+    var replayed = tradeDeadLetterReplayer.replay(10);
+
+    // then
+    assertEquals(0, replayed);
+    verify(deadLetterReplayKafkaTemplate, times(3)).send(any(ProducerRecord.class));
+    verify(consumer, never()).commitSync(anyMap());
+  }
+
+  private static ConsumerRecord<String, byte[]> deadLetter(long offset) {
+    var record =
+        new ConsumerRecord<>(
+            DEAD_LETTER_TOPIC, 0, offset, "trade-" + offset, "{}".getBytes(UTF_8));
+    record.headers().add("__TypeId__", "TradeCreatedEvent".getBytes(UTF_8));
+    record.headers().add("kafka_dlt-exception-message", "not enough quantity".getBytes(UTF_8));
+    record.headers().add("retry_topic-attempts", new byte[] {0, 0, 0, 3});
+    record.headers().add("kafka_dlt-original-offset", new byte[] {0, 0, 0, 0, 0, 0, 0, 7});
+    return record;
+  }
+}
@@ -0,0 +1,109 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TradeLaneDispatcherTest {
+  private TradeLaneDispatcher tradeLaneDispatcher;
+
+  @BeforeEach
+  void setUp() {
+    tradeLaneDispatcher = new TradeLaneDispatcher(4);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    tradeLaneDispatcher.destroy();
+  }
+
+  @Test
+  void shouldProcessTradesOfOneUserOnOneThreadInDispatchOrder() {
+    // given
+    var userId = 42L;
+    List<Integer> processedTrades = new CopyOnWriteArrayList<>();
+    List<String> laneThreads = new CopyOnWriteArrayList<>();
+
+    // when
+    var futures =
+        IntStream.range(0, 100)
+            .mapToObj(
+                trade ->
+                    tradeLaneDispatcher.dispatch(
+                        userId,
+                        () -> {
+                          laneThreads.add(Thread.currentThread().getName());
+                          return processedTrades.add(trade);
+                        }))
+            .toArray(CompletableFuture[]::new);
+    CompletableFuture.allOf(futures).join();
+
+    // then
+    assertEquals(IntStream.range(0, 100).boxed().toList(), processedTrades);
+    assertEquals(1, laneThreads.stream().distinct().count());
+    assertTrue(laneThreads.get(0).startsWith(TradeLaneDispatcher.LANE_THREAD_PREFIX));
+  }
+
+  @Test
+  void shouldWaitForFullLaneInsteadOfRejectingTrade() throws Exception {
+    // given
+    var boundedLaneDispatcher = new TradeLaneDispatcher(1, 1, false);
+    var laneReleased = new CountDownLatch(1);
+    List<Integer> processedTrades = new CopyOnWriteArrayList<>();
+    boundedLaneDispatcher.dispatch(1L, () -> awaitQuietly(laneReleased));
+    boundedLaneDispatcher.dispatch(1L, () -> processedTrades.add(1));
+
+    // when
+    var dispatchOfThirdTrade =
+        CompletableFuture.supplyAsync(
+            () -> boundedLaneDispatcher.dispatch(1L, () -> processedTrades.add(2)));
+    Thread.sleep(100);
+    var waitedForLane = !dispatchOfThirdTrade.isDone();
+    laneReleased.countDown();
+    dispatchOfThirdTrade.join().join();
+    boundedLaneDispatcher.destroy();
+
+    // then
+    assertTrue(waitedForLane);
+    assertEquals(List.of(1, 2), processedTrades);
+  }
+
+  @Test
+  void shouldAssignSameLaneToSameUser() {
+    // then
+    assertEquals(tradeLaneDispatcher.laneOf(-7L), tradeLaneDispatcher.laneOf(-7L));
+    assertTrue(tradeLaneDispatcher.laneOf(-7L) >= 0);
+    assertEquals(0, tradeLaneDispatcher.laneOf(null));
+  }
+
+  @Test
+  void shouldRunLanesOnVirtualThreadsWhenEnabled() throws Exception {
+    // given
+    var virtualThreadLaneDispatcher = new TradeLaneDispatcher(2, 16, true);
+
+    // when
+    var laneThread = virtualThreadLaneDispatcher.dispatch(1L, Thread::currentThread).join();
+    virtualThreadLaneDispatcher.destroy();
+
+    // then
+    assertTrue(laneThread.isVirtual());
+    assertTrue(laneThread.getName().startsWith(TradeLaneDispatcher.LANE_THREAD_PREFIX));
+  }
+
+  private static boolean awaitQuietly(CountDownLatch latch) {
+    try {
+      return latch.await(10, SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.sothrose.assetflow_portfolio_service.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class UserStatusNearCacheTest {
+  private SimpleMeterRegistry meterRegistry;
+  private UserStatusNearCache userStatusNearCache;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    userStatusNearCache = new UserStatusNearCache(100, 60_000, meterRegistry);
+  }
+
+  @Test
+  void shouldReturnCachedActiveUser() {
+    // given
+    userStatusNearCache.putActiveStatus(1L, true);
+
+    // when
+    var activeStatus = userStatusNearCache.getActiveStatus(1L);
+
+    // then
+    assertEquals(Optional.of(true), activeStatus);
+    assertEquals(
+        1,
+        meterRegistry
+            .get("cache.gets")
+            .tag("cache", UserStatusNearCache.USER_STATUS_NEAR_CACHE)
+            .tag("result", "hit")
+            .functionCounter()
+            .count());
+  }
+
+  @Test
+  void shouldNotCacheInactiveUser() {
+    // given
+    userStatusNearCache.putActiveStatus(1L, true);
+
+    // when
+    userStatusNearCache.putActiveStatus(1L, false);
+
+    // then
+    assertTrue(userStatusNearCache.getActiveStatus(1L).isEmpty());
+  }
+
+  @Test
+  void shouldDropInvalidatedUser() {
+    // given
+    userStatusNearCache.putActiveStatus(1L, true);
+
+    // when
+    userStatusNearCache.invalidate(1L);
+
+    // then
+    assertTrue(userStatusNearCache.getActiveStatus(1L).isEmpty());
+  }
+}